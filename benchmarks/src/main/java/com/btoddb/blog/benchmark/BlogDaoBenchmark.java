@@ -0,0 +1,82 @@
+package com.btoddb.blog.benchmark;
+
+import com.btoddb.blog.Comment;
+import com.btoddb.blog.Post;
+import me.prettyprint.cassandra.utils.TimeUUIDUtils;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the BlogDao hot paths.  Reports throughput and the latency distribution (p50, p90,
+ * p99, ...) for each operation.
+ *
+ * Run all with: java -jar target/benchmarks.jar
+ * Change the data set with: -p posts=10000 -p commentsPerPost=50 -p storage=memory
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+public class BlogDaoBenchmark {
+
+    @Benchmark
+    public Post savePost(BlogData data) {
+        String email = data.randomUser();
+        return data.dao.savePost(new Post(TimeUUIDUtils.getUniqueTimeUUIDinMillis(), email, email, "title",
+                                          new DateTime(), "benchmark post"));
+    }
+
+    @Benchmark
+    public Comment saveComment(BlogData data) {
+        String email = data.randomUser();
+        return data.dao.saveComment(new Comment(TimeUUIDUtils.getUniqueTimeUUIDinMillis(), email, email,
+                                                data.randomPost(), System.currentTimeMillis(), "benchmark comment"));
+    }
+
+    @Benchmark
+    public List<Post> findPostsByTimeRange(BlogData data) {
+        DateTime start = data.firstPostTime.plusMinutes(ThreadLocalRandom.current().nextInt((BlogData.HOURS_OF_POSTS - 1) * 60));
+        return data.dao.findPostsByTimeRange(start, start.plusHours(1));
+    }
+
+    @Benchmark
+    public List<Comment> findCommentsByUUIDList(BlogData data) {
+        return data.dao.findCommentsByUUIDList(data.commentIdsByPost.get(data.randomPostIndex()));
+    }
+
+    @Benchmark
+    public Map<UUID, Long> findVotes(BlogData data) {
+        return data.dao.findVotes(data.commentIdsByPost.get(data.randomPostIndex()));
+    }
+
+    @Benchmark
+    public void voteOnPost(BlogData data) {
+        data.dao.voteOnPost(data.randomUser(), data.randomPost());
+    }
+
+    @Benchmark
+    public void voteOnComment(BlogData data) {
+        data.dao.voteOnComment(data.randomUser(), data.randomComment());
+    }
+
+    @Benchmark
+    public void voteOnCommentOfPost(BlogData data) {
+        int postIndex = data.randomPostIndex();
+        List<UUID> commentIds = data.commentIdsByPost.get(postIndex);
+        data.dao.voteOnComment(data.randomUser(), commentIds.get(ThreadLocalRandom.current().nextInt(commentIds.size())),
+                               data.postIds.get(postIndex));
+    }
+
+    @Benchmark
+    public void sortCommentsByVotes(BlogData data) {
+        data.dao.sortCommentsByVotes(data.randomPost());
+    }
+}
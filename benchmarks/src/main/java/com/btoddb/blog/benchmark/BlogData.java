@@ -0,0 +1,111 @@
+package com.btoddb.blog.benchmark;
+
+import com.btoddb.blog.*;
+import me.prettyprint.cassandra.utils.TimeUUIDUtils;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Benchmark state - creates the storage engine and fills it with a data set before the trial starts.
+ *
+ * <ul>
+ *     <li>'posts' - number of Posts, spread evenly over the last {@link #HOURS_OF_POSTS} hours</li>
+ *     <li>'commentsPerPost' - comment fan-out, number of Comments on each Post</li>
+ *     <li>'storage' - 'hector' (embedded Cassandra) or 'memory'</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+public class BlogData {
+    public static final int HOURS_OF_POSTS = 48;
+    public static final int NUM_USERS = 100;
+
+    @Param({"1000"})
+    public int posts;
+
+    @Param({"10", "100"})
+    public int commentsPerPost;
+
+    @Param({"hector", "memory"})
+    public String storage;
+
+    public BlogDao dao;
+    public BlogService service;
+    public DateTime firstPostTime;
+
+    public final List<String> userEmails = new ArrayList<String>();
+    public final List<UUID> postIds = new ArrayList<UUID>();
+    public final List<List<UUID>> commentIdsByPost = new ArrayList<List<UUID>>();
+
+    private long lastMillis;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dao = createDao();
+        dao.init();
+        service = new BlogService(dao);
+
+        for ( int i=0;i < NUM_USERS;i++ ) {
+            User u = service.createUser("user" + i + "@example.com", "pass", "User " + i);
+            userEmails.add(u.getEmail());
+        }
+
+        // every entity gets its own millisecond so the TimeUUIDs are unique and spread over the time range
+        firstPostTime = new DateTime().minusHours(HOURS_OF_POSTS);
+        long postSpacing = Math.max(1, HOURS_OF_POSTS * 3600000L / posts);
+        for ( int i=0;i < posts;i++ ) {
+            DateTime ts = firstPostTime.plus(i * postSpacing);
+            String email = randomUser();
+            Post p = dao.savePost(new Post(timeUUID(ts.getMillis()), email, email, "title " + i, ts, "text of post " + i));
+            postIds.add(p.getId());
+
+            List<UUID> commentIds = new ArrayList<UUID>(commentsPerPost);
+            for ( int j=0;j < commentsPerPost;j++ ) {
+                email = randomUser();
+                long commentTs = ts.getMillis() + j + 1;
+                Comment c = dao.saveComment(new Comment(timeUUID(commentTs), email, email, p.getId(), commentTs, "comment " + j));
+                commentIds.add(c.getId());
+            }
+            commentIdsByPost.add(commentIds);
+        }
+    }
+
+    private BlogDao createDao() throws Exception {
+        if ( "memory".equalsIgnoreCase(storage) ) {
+            return new InMemoryBlogDao();
+        }
+        else if ( "hector".equalsIgnoreCase(storage) ) {
+            EmbeddedCassandra.start(new BlogSchema());
+            return new HectorBlogDao();
+        }
+        else {
+            throw new IllegalArgumentException("unknown storage engine, " + storage + " - must be 'hector' or 'memory'");
+        }
+    }
+
+    private UUID timeUUID(long millis) {
+        lastMillis = Math.max(millis, lastMillis + 1);
+        return TimeUUIDUtils.getTimeUUID(lastMillis);
+    }
+
+    public String randomUser() {
+        return userEmails.get(ThreadLocalRandom.current().nextInt(userEmails.size()));
+    }
+
+    public int randomPostIndex() {
+        return ThreadLocalRandom.current().nextInt(postIds.size());
+    }
+
+    public UUID randomPost() {
+        return postIds.get(randomPostIndex());
+    }
+
+    public UUID randomComment() {
+        List<UUID> commentIds = commentIdsByPost.get(randomPostIndex());
+        return commentIds.get(ThreadLocalRandom.current().nextInt(commentIds.size()));
+    }
+}
@@ -0,0 +1,98 @@
+package com.btoddb.blog.benchmark;
+
+import me.prettyprint.cassandra.model.BasicColumnDefinition;
+import me.prettyprint.cassandra.serializers.StringSerializer;
+import me.prettyprint.hector.api.Cluster;
+import me.prettyprint.hector.api.ddl.ColumnFamilyDefinition;
+import me.prettyprint.hector.api.ddl.ComparatorType;
+import me.prettyprint.hector.api.ddl.KeyspaceDefinition;
+import me.prettyprint.hector.api.factory.HFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the 'blog' keyspace, same as blog-schema.txt, so benchmarks can run against an empty embedded
+ * Cassandra without cassandra-cli.
+ *
+ */
+public class BlogSchema {
+    public static final String KEYSPACE_NAME = "blog";
+
+    private static final String UTF8 = "UTF8Type";
+    private static final String TIME_UUID = "TimeUUIDType";
+    private static final String LONG = "LongType";
+    private static final String DOUBLE = "DoubleType";
+    private static final String BYTES = "BytesType";
+    private static final String COUNTER = "CounterColumnType";
+    private static final String REVERSED = "(reversed=true)";
+
+    private final List<ColumnFamilyDefinition> cfDefs = new ArrayList<ColumnFamilyDefinition>();
+
+    /**
+     * Drop the keyspace, if it exists, and recreate it with all ColumnFamilies.
+     *
+     * @param cluster cluster to create schema in
+     */
+    public void create(Cluster cluster) {
+        if ( null != cluster.describeKeyspace(KEYSPACE_NAME) ) {
+            cluster.dropKeyspace(KEYSPACE_NAME, true);
+        }
+
+        addColumnFamilies();
+
+        KeyspaceDefinition ksDef = HFactory.createKeyspaceDefinition(KEYSPACE_NAME,
+                "org.apache.cassandra.locator.SimpleStrategy", 1, cfDefs);
+        cluster.addKeyspace(ksDef, true);
+    }
+
+    /**
+     * Override to add ColumnFamilies needed by newer features.
+     */
+    protected void addColumnFamilies() {
+        add("users", UTF8, ComparatorType.UTF8TYPE, null, UTF8);
+        ColumnFamilyDefinition posts = add("posts", TIME_UUID, ComparatorType.UTF8TYPE, null, UTF8);
+        posts.addColumnDefinition(column("create_ts", LONG));
+        posts.addColumnDefinition(column("text", BYTES));
+        ColumnFamilyDefinition comments = add("comments", TIME_UUID, ComparatorType.UTF8TYPE, null, UTF8);
+        comments.addColumnDefinition(column("create_ts", LONG));
+        comments.addColumnDefinition(column("post_id", TIME_UUID));
+        comments.addColumnDefinition(column("text", BYTES));
+        add("user_posts", UTF8, ComparatorType.TIMEUUIDTYPE, REVERSED, BYTES);
+        add("user_comments", UTF8, ComparatorType.TIMEUUIDTYPE, REVERSED, BYTES);
+        add("post_comments", TIME_UUID, ComparatorType.TIMEUUIDTYPE, REVERSED, BYTES);
+        add("posts_by_time", UTF8, ComparatorType.TIMEUUIDTYPE, null, BYTES);
+        add("post_terms", UTF8, ComparatorType.TIMEUUIDTYPE, REVERSED, BYTES);
+        add("votes", TIME_UUID, ComparatorType.UTF8TYPE, null, COUNTER);
+        add("user_votes", UTF8, ComparatorType.TIMEUUIDTYPE, null, LONG);
+        add("posts_sorted_by_vote", BYTES, ComparatorType.COMPOSITETYPE, "(LongType(reversed=true),TimeUUIDType)", BYTES);
+        add("posts_trending", UTF8, ComparatorType.COMPOSITETYPE, "(LongType(reversed=true),TimeUUIDType)", BYTES);
+        add("post_comment_votes_changed", TIME_UUID, ComparatorType.BYTESTYPE, null, BYTES);
+        add("post_comments_sorted_by_vote", TIME_UUID, ComparatorType.COMPOSITETYPE,
+            "(LongType(reversed=true),TimeUUIDType(reversed=true))", BYTES);
+        add("comment_vote_ledger", UTF8, ComparatorType.TIMEUUIDTYPE, null, BYTES);
+        add("activity_feeds", UTF8, ComparatorType.TIMEUUIDTYPE, REVERSED, BYTES);
+        add("sensor_samples", UTF8, ComparatorType.LONGTYPE, null, DOUBLE);
+        add("sensor_samples_by_value", UTF8, ComparatorType.COMPOSITETYPE, "(DoubleType,LongType)", BYTES);
+        add("rollups", UTF8, ComparatorType.COMPOSITETYPE, "(LongType,UTF8Type)", COUNTER);
+        add("system_data", UTF8, ComparatorType.UTF8TYPE, null, LONG);
+    }
+
+    protected ColumnFamilyDefinition add(String name, String keyValidation, ComparatorType comparator, String comparatorAlias, String defaultValidation) {
+        ColumnFamilyDefinition cfDef = HFactory.createColumnFamilyDefinition(KEYSPACE_NAME, name, comparator);
+        if ( null != comparatorAlias ) {
+            cfDef.setComparatorTypeAlias(comparatorAlias);
+        }
+        cfDef.setKeyValidationClass(keyValidation);
+        cfDef.setDefaultValidationClass(defaultValidation);
+        cfDefs.add(cfDef);
+        return cfDef;
+    }
+
+    protected BasicColumnDefinition column(String name, String validation) {
+        BasicColumnDefinition colDef = new BasicColumnDefinition();
+        colDef.setName(StringSerializer.get().toByteBuffer(name));
+        colDef.setValidationClass(validation);
+        return colDef;
+    }
+}
@@ -0,0 +1,128 @@
+package com.btoddb.blog.benchmark;
+
+import com.btoddb.blog.Comment;
+import com.btoddb.blog.CommentCodec;
+import com.btoddb.blog.Post;
+import com.btoddb.blog.PostCodec;
+import me.prettyprint.cassandra.model.ColumnSliceImpl;
+import me.prettyprint.cassandra.model.HColumnImpl;
+import me.prettyprint.cassandra.serializers.BytesArraySerializer;
+import me.prettyprint.cassandra.serializers.StringSerializer;
+import me.prettyprint.cassandra.serializers.UUIDSerializer;
+import me.prettyprint.cassandra.utils.TimeUUIDUtils;
+import me.prettyprint.hector.api.beans.ColumnSlice;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+import me.prettyprint.hom.EntityManagerImpl;
+import org.apache.cassandra.thrift.Column;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping Posts and Comments to and from their rows - Hector Object Mapper (HOM), which the DAO used to use,
+ * versus {@link PostCodec} and {@link CommentCodec}.  CPU only, no Cassandra - the rows are built up front and
+ * the mutations are never executed.
+ *
+ * Run with: java -jar target/benchmarks.jar CodecBenchmark
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+public class CodecBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Rows {
+        public EntityManagerImpl entityManager;
+        public Post post;
+        public Comment comment;
+        public ColumnSlice<String, byte[]> postSlice;
+        public ColumnSlice<String, byte[]> commentSlice;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            // HOM only needs the keyspace to run queries, and these benchmarks don't
+            entityManager = new EntityManagerImpl(null, "com.btoddb.blog");
+            post = new Post(TimeUUIDUtils.getUniqueTimeUUIDinMillis(), "user@example.com", "User", "title",
+                            new DateTime(), "benchmark post");
+            comment = new Comment(TimeUUIDUtils.getUniqueTimeUUIDinMillis(), "user@example.com", "User",
+                                  post.getId(), System.currentTimeMillis(), "benchmark comment");
+            postSlice = toSlice(PostCodec.get().toColumns(post));
+            commentSlice = toSlice(CommentCodec.get().toColumns(comment));
+        }
+
+        // the same slice a query would return
+        private static ColumnSlice<String, byte[]> toSlice(List<HColumn<String, byte[]>> cols) {
+            List<Column> thriftCols = new ArrayList<Column>(cols.size());
+            for ( HColumn<String, byte[]> col : cols ) {
+                thriftCols.add(((HColumnImpl<String, byte[]>)col).toThrift());
+            }
+            return new ColumnSliceImpl<String, byte[]>(thriftCols, StringSerializer.get(), BytesArraySerializer.get());
+        }
+    }
+
+    @Benchmark
+    public Post readPostHom(Rows rows) {
+        return rows.entityManager.find(Post.class, rows.post.getId(), rows.postSlice);
+    }
+
+    @Benchmark
+    public Post readPostCodec(Rows rows) {
+        return PostCodec.get().fromSlice(rows.post.getId(), rows.postSlice);
+    }
+
+    @Benchmark
+    public Comment readCommentHom(Rows rows) {
+        return rows.entityManager.find(Comment.class, rows.comment.getId(), rows.commentSlice);
+    }
+
+    @Benchmark
+    public Comment readCommentCodec(Rows rows) {
+        return CommentCodec.get().fromSlice(rows.comment.getId(), rows.commentSlice);
+    }
+
+    @Benchmark
+    public Mutator<byte[]> writePostHom(Rows rows) {
+        Mutator<byte[]> m = HFactory.createMutator(null, BytesArraySerializer.get());
+        rows.entityManager.persist(Collections.singleton(rows.post), m);
+        return m;
+    }
+
+    @Benchmark
+    public Mutator<byte[]> writePostCodec(Rows rows) {
+        Mutator<byte[]> m = HFactory.createMutator(null, BytesArraySerializer.get());
+        addInsertions(m, "posts", rows.post.getId(), PostCodec.get().toColumns(rows.post));
+        return m;
+    }
+
+    @Benchmark
+    public Mutator<byte[]> writeCommentHom(Rows rows) {
+        Mutator<byte[]> m = HFactory.createMutator(null, BytesArraySerializer.get());
+        rows.entityManager.persist(Collections.singleton(rows.comment), m);
+        return m;
+    }
+
+    @Benchmark
+    public Mutator<byte[]> writeCommentCodec(Rows rows) {
+        Mutator<byte[]> m = HFactory.createMutator(null, BytesArraySerializer.get());
+        addInsertions(m, "comments", rows.comment.getId(), CommentCodec.get().toColumns(rows.comment));
+        return m;
+    }
+
+    // same as the DAO does
+    private static void addInsertions(Mutator<byte[]> m, String columnFamily, UUID uuid, List<HColumn<String, byte[]>> cols) {
+        byte[] key = UUIDSerializer.get().toBytes(uuid);
+        for ( HColumn<String, byte[]> col : cols ) {
+            m.addInsertion(key, columnFamily, col);
+        }
+    }
+}
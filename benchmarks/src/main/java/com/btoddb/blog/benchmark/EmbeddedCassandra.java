@@ -0,0 +1,27 @@
+package com.btoddb.blog.benchmark;
+
+import me.prettyprint.hector.api.Cluster;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.testutils.EmbeddedServerHelper;
+
+/**
+ * Starts (once per JVM) an embedded Cassandra listening on localhost:9160, which is where
+ * {@link com.btoddb.blog.HectorBlogDao} connects, and creates the blog schema.  Data is written under ./tmp
+ * and removed on every start.
+ *
+ * The server can't be restarted inside the same JVM, so it is left running until the JVM exits - JMH forks a
+ * new JVM for each trial.
+ */
+public class EmbeddedCassandra {
+    private static EmbeddedServerHelper server;
+
+    public static synchronized void start(BlogSchema schema) throws Exception {
+        if ( null == server ) {
+            server = new EmbeddedServerHelper();
+            server.setup();
+        }
+
+        Cluster cluster = HFactory.getOrCreateCluster("training-cluster", "localhost:9160");
+        schema.create(cluster);
+    }
+}
@@ -0,0 +1,149 @@
+package com.btoddb.blog.benchmark;
+
+import com.btoddb.blog.*;
+import me.prettyprint.cassandra.utils.TimeUUIDUtils;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search latency against corpus size.  Post titles and text are drawn from a Zipf distributed vocabulary of
+ * {@link Corpus#VOCABULARY} made up words ('w0' the most common), like words of real text, so the hottest terms
+ * are in most Posts and the rarest in a handful.  Every query asks for the newest {@link #LIMIT} matches.
+ *
+ * <ul>
+ *     <li>'commonTerm' - one of the {@link #COMMON} most common words, stops after the first page of its row</li>
+ *     <li>'rareTerm' - a word past rank {@link #RARE}, reads its whole (short) row</li>
+ *     <li>'twoCommonTerms' - two common words, most Posts with one have the other</li>
+ *     <li>'commonAndRareTerm' - the common word's row is skipped through to the few Posts of the rare one</li>
+ * </ul>
+ *
+ * Run with: java -jar target/benchmarks.jar SearchBenchmark
+ * Change the corpus with: -p posts=100000 -p storage=memory
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+public class SearchBenchmark {
+    public static final int LIMIT = 10;
+    public static final int COMMON = 10;
+    public static final int RARE = 1000;
+
+    @State(Scope.Benchmark)
+    public static class Corpus {
+        public static final int VOCABULARY = 10000;
+        public static final int TITLE_WORDS = 6;
+        public static final int TEXT_WORDS = 60;
+        public static final int DAYS_OF_POSTS = 30;
+        public static final int BATCH_SIZE = 500;
+
+        @Param({"1000", "10000"})
+        public int posts;
+
+        @Param({"hector", "memory"})
+        public String storage;
+
+        public BlogDao dao;
+
+        private long lastMillis;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            if ( "memory".equalsIgnoreCase(storage) ) {
+                dao = new InMemoryBlogDao();
+            }
+            else if ( "hector".equalsIgnoreCase(storage) ) {
+                EmbeddedCassandra.start(new BlogSchema());
+                dao = new HectorBlogDao();
+            }
+            else {
+                throw new IllegalArgumentException("unknown storage engine, " + storage + " - must be 'hector' or 'memory'");
+            }
+            dao.init();
+
+            // same corpus every run
+            Random random = new Random(posts);
+            Zipf words = new Zipf(VOCABULARY, 1);
+            DateTime firstPostTime = new DateTime().minusDays(DAYS_OF_POSTS);
+            long postSpacing = Math.max(1, DAYS_OF_POSTS * 24 * 3600000L / posts);
+            List<Post> batch = new ArrayList<Post>(BATCH_SIZE);
+            for ( int i=0;i < posts;i++ ) {
+                DateTime ts = firstPostTime.plus(i * postSpacing);
+                String email = "user" + random.nextInt(100) + "@example.com";
+                batch.add(new Post(timeUUID(ts.getMillis()), email, email, text(words, random, TITLE_WORDS), ts,
+                                   text(words, random, TEXT_WORDS)));
+                if ( BATCH_SIZE == batch.size() || i == posts - 1 ) {
+                    dao.importBatch(batch, Collections.<Comment>emptyList());
+                    batch.clear();
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            dao.shutdown();
+        }
+
+        private static String text(Zipf words, Random random, int numWords) {
+            StringBuilder sb = new StringBuilder();
+            for ( int i=0;i < numWords;i++ ) {
+                sb.append(0 < i ? " " : "").append(word(words.next(random)));
+            }
+            return sb.toString();
+        }
+
+        private UUID timeUUID(long millis) {
+            lastMillis = Math.max(millis, lastMillis + 1);
+            return TimeUUIDUtils.getTimeUUID(lastMillis);
+        }
+    }
+
+    private static String word(int rank) {
+        return "w" + rank;
+    }
+
+    private static String commonWord() {
+        return word(ThreadLocalRandom.current().nextInt(COMMON));
+    }
+
+    private static String rareWord() {
+        return word(RARE + ThreadLocalRandom.current().nextInt(Corpus.VOCABULARY - RARE));
+    }
+
+    private static List<Post> search(Corpus corpus, String... words) {
+        List<String> terms = new ArrayList<String>(words.length);
+        Collections.addAll(terms, words);
+        return corpus.dao.findPostsByTerms(terms, LIMIT);
+    }
+
+    @Benchmark
+    public List<Post> commonTerm(Corpus corpus) {
+        return search(corpus, commonWord());
+    }
+
+    @Benchmark
+    public List<Post> rareTerm(Corpus corpus) {
+        return search(corpus, rareWord());
+    }
+
+    @Benchmark
+    public List<Post> twoCommonTerms(Corpus corpus) {
+        int first = ThreadLocalRandom.current().nextInt(COMMON);
+        return search(corpus, word(first), word((first + 1 + ThreadLocalRandom.current().nextInt(COMMON - 1)) % COMMON));
+    }
+
+    @Benchmark
+    public List<Post> commonAndRareTerm(Corpus corpus) {
+        return search(corpus, commonWord(), rareWord());
+    }
+}
@@ -0,0 +1,126 @@
+package com.btoddb.blog.benchmark;
+
+import com.btoddb.blog.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sensor load test.  'ingest' is sustained samples/sec - sampling threads feed a {@link SampleBuffer}, which
+ * saves a batch every 'maxSamples', so the score only holds up if the batches keep up.  The queries read a day of
+ * one sensor reporting every second, already saved before the trial: a one hour range, and the samples in a value
+ * range (about 1% of them) over the whole day.
+ *
+ * 'storage=memory' keeps every sample ingested on the heap - give it a large one.
+ *
+ * Run with: java -jar target/benchmarks.jar SensorBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+public class SensorBenchmark {
+    public static final String QUERY_SOURCE = "query-sensor";
+    public static final int QUERY_HOURS = 24;
+
+    @State(Scope.Benchmark)
+    public static class SensorData {
+        @Param({"hector"})
+        public String storage;
+
+        // sensors per sampling thread
+        @Param({"100"})
+        public int sources;
+
+        @Param({"1000"})
+        public int maxSamples;
+
+        public SensorDao dao;
+        public SampleBuffer buffer;
+        public long queryStart;
+
+        private final AtomicInteger threads = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            if ( "memory".equalsIgnoreCase(storage) ) {
+                dao = new InMemorySensorDao();
+            }
+            else {
+                EmbeddedCassandra.start(new BlogSchema());
+                dao = new HectorSensorDao();
+            }
+            dao.init();
+
+            // one reading a second, a sine wave between 0 and 100
+            queryStart = System.currentTimeMillis() - QUERY_HOURS * 3600000L;
+            List<Sample> batch = new ArrayList<Sample>(maxSamples);
+            for ( int i=0;i < QUERY_HOURS * 3600;i++ ) {
+                batch.add(new Sample(QUERY_SOURCE, queryStart + i * 1000L, 50 + 50 * Math.sin(i / 600.0)));
+                if ( batch.size() == maxSamples ) {
+                    dao.saveSamples(batch);
+                    batch.clear();
+                }
+            }
+            dao.saveSamples(batch);
+
+            buffer = new SampleBuffer(dao);
+            buffer.setMaxSamples(maxSamples);
+            buffer.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            buffer.shutdown();
+            dao.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Sampler {
+        private String[] sourceNames;
+        private long[] lastTimestamps;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup(SensorData data) {
+            int thread = data.threads.getAndIncrement();
+            sourceNames = new String[data.sources];
+            lastTimestamps = new long[data.sources];
+            for ( int i=0;i < data.sources;i++ ) {
+                sourceNames[i] = "sensor-" + thread + "-" + i;
+            }
+        }
+
+        // round robin over this thread's sensors, each with increasing timestamps so nothing is overwritten
+        public Sample nextSample() {
+            int i = next++ % sourceNames.length;
+            long timestamp = Math.max(System.currentTimeMillis(), lastTimestamps[i] + 1);
+            lastTimestamps[i] = timestamp;
+            return new Sample(sourceNames[i], timestamp, ThreadLocalRandom.current().nextDouble(100));
+        }
+    }
+
+    @Benchmark
+    public void ingest(SensorData data, Sampler sampler) {
+        data.buffer.add(sampler.nextSample());
+    }
+
+    @Benchmark
+    public List<Sample> findHour(SensorData data) {
+        long start = data.queryStart + ThreadLocalRandom.current().nextInt(QUERY_HOURS - 1) * 3600000L;
+        return data.dao.findSamples(QUERY_SOURCE, start, start + 3600000L - 1);
+    }
+
+    @Benchmark
+    public List<Sample> findDayInValueRange(SensorData data) {
+        double min = ThreadLocalRandom.current().nextInt(99);
+        return data.dao.findSamplesInValueRange(QUERY_SOURCE, data.queryStart, data.queryStart + QUERY_HOURS * 3600000L, min, min + 1);
+    }
+}
@@ -0,0 +1,81 @@
+package com.btoddb.blog.benchmark;
+
+import com.btoddb.blog.TextCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CPU cost of compressing Post/Comment text with {@link TextCodec}, against storing it uncompressed.  The
+ * bytes saved for each text size are printed when each trial starts.
+ *
+ * Run with: java -jar target/benchmarks.jar TextCompressionBenchmark
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+public class TextCompressionBenchmark {
+    private static final String[] WORDS = {
+            "the", "of", "and", "a", "to", "in", "is", "you", "that", "it", "he", "was", "for", "on", "are", "as",
+            "with", "his", "they", "at", "be", "this", "have", "from", "or", "one", "had", "by", "word", "but",
+            "cassandra", "column", "family", "row", "key", "vote", "post", "comment", "blog", "user", "sorted",
+            "index", "query", "slice", "counter", "cluster", "node", "replica", "write", "read", "latency"
+    };
+
+    @State(Scope.Benchmark)
+    public static class Text {
+        @Param({"200", "2000", "20000"})
+        public int textBytes;
+
+        public TextCodec uncompressed;
+        public TextCodec compressed;
+        public String text;
+        public byte[] uncompressedBytes;
+        public byte[] compressedBytes;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            uncompressed = new TextCodec();
+            compressed = new TextCodec(1);
+
+            // made up sentences, so the text compresses about as well as real posts
+            Random random = new Random(textBytes);
+            StringBuilder sb = new StringBuilder(textBytes + 16);
+            while ( sb.length() < textBytes ) {
+                sb.append(WORDS[random.nextInt(WORDS.length)]);
+                sb.append(0 == random.nextInt(12) ? ". " : " ");
+            }
+            text = sb.substring(0, textBytes);
+
+            uncompressedBytes = uncompressed.toBytes(text);
+            compressedBytes = compressed.toBytes(text);
+            System.out.println();
+            System.out.println("text bytes = " + uncompressedBytes.length + ", compressed = " + compressedBytes.length
+                                       + " (" + (100 - 100 * compressedBytes.length / uncompressedBytes.length) + "% saved)");
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeUncompressed(Text text) {
+        return text.uncompressed.toBytes(text.text);
+    }
+
+    @Benchmark
+    public byte[] encodeCompressed(Text text) {
+        return text.compressed.toBytes(text.text);
+    }
+
+    @Benchmark
+    public String decodeUncompressed(Text text) {
+        return text.uncompressed.fromBytes(text.uncompressedBytes);
+    }
+
+    @Benchmark
+    public String decodeCompressed(Text text) {
+        return text.compressed.fromBytes(text.compressedBytes);
+    }
+}
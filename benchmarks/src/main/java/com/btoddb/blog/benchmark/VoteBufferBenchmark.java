@@ -0,0 +1,62 @@
+package com.btoddb.blog.benchmark;
+
+import com.btoddb.blog.Vote;
+import com.btoddb.blog.VoteBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Voting spike on a single hot Post - one counter update and one user_votes insertion per vote, versus
+ * buffering the votes with {@link VoteBuffer}.  Every vote is by a different User.
+ *
+ * Run with: java -jar target/benchmarks.jar VoteBufferBenchmark
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+public class VoteBufferBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class HotPost {
+        @Param({"1000"})
+        public int maxVotes;
+
+        public VoteBuffer buffer;
+        public UUID postId;
+
+        private final AtomicLong voters = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setup(BlogData data) {
+            postId = data.randomPost();
+            buffer = new VoteBuffer(data.dao);
+            buffer.setMaxVotes(maxVotes);
+            buffer.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            buffer.shutdown();
+        }
+
+        public String nextVoter() {
+            return "voter" + voters.incrementAndGet() + "@example.com";
+        }
+    }
+
+    @Benchmark
+    public void voteOnHotPost(BlogData data, HotPost hot) {
+        data.dao.voteOnPost(hot.nextVoter(), hot.postId);
+    }
+
+    @Benchmark
+    public boolean voteOnHotPostBuffered(HotPost hot) {
+        return hot.buffer.add(new Vote(hot.nextVoter(), hot.postId, Vote.POST, System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,94 @@
+package com.btoddb.blog.benchmark;
+
+import com.btoddb.blog.HectorBlogDao;
+import com.btoddb.blog.Post;
+import com.btoddb.blog.VoteShards;
+import me.prettyprint.cassandra.serializers.UUIDSerializer;
+import me.prettyprint.cassandra.utils.TimeUUIDUtils;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counter writes on a single hot Post, spread over 'shards' counter columns by {@link VoteShards}.
+ * 'incrementHotCounter' is only the counter increment, one round trip per vote, 'voteOnHotPost' is the whole vote
+ * (user_votes, activity feeds, roll-ups and trending too) for comparison.  The shards are grown to 'shards' during
+ * the first warmup iteration.  The Post's vote count is checked against the votes cast at the end of the trial.
+ *
+ * Against the single embedded node throughput doesn't scale with 'shards' - there's no replica read-before-write to
+ * spread.  Run it against a replicated cluster before raising {@link VoteShards#DEFAULT_MAX_SHARDS}.
+ *
+ * Run with: java -jar target/benchmarks.jar VoteShardBenchmark
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 10, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(16)
+public class VoteShardBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class HotPost {
+        @Param({"1", "4", "16"})
+        public int shards;
+
+        public HectorBlogDao dao;
+        public VoteShards voteShards;
+        public Keyspace keyspace;
+        public UUID postId;
+
+        private final AtomicLong votes = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            EmbeddedCassandra.start(new BlogSchema());
+
+            // any steady stream of votes is hot enough to get all the shards
+            voteShards = new VoteShards();
+            voteShards.setMaxShards(shards);
+            voteShards.setWritesPerSecondPerShard(1);
+            voteShards.setRateWindowMillis(1000);
+
+            dao = new HectorBlogDao();
+            dao.setVoteShards(voteShards);
+            dao.init();
+            keyspace = HFactory.createKeyspace(BlogSchema.KEYSPACE_NAME, HFactory.getOrCreateCluster("training-cluster", "localhost:9160"));
+
+            postId = TimeUUIDUtils.getUniqueTimeUUIDinMillis();
+            dao.savePost(new Post(postId, "author@example.com", "Author", "hot post", new DateTime(), "everyone votes on this"));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            long counted = dao.findVotes(Collections.singletonList(postId)).get(postId);
+            if ( counted != votes.get() ) {
+                throw new IllegalStateException("cast " + votes.get() + " votes but counted " + counted);
+            }
+            dao.shutdown();
+        }
+
+        public String nextVoter() {
+            return "voter" + votes.incrementAndGet() + "@example.com";
+        }
+    }
+
+    @Benchmark
+    public void incrementHotCounter(HotPost hot) {
+        hot.votes.incrementAndGet();
+        Mutator<UUID> m = HFactory.createMutator(hot.keyspace, UUIDSerializer.get());
+        m.incrementCounter(hot.postId, "votes", hot.voteShards.nextColumn(hot.postId), 1);
+    }
+
+    @Benchmark
+    public void voteOnHotPost(HotPost hot) {
+        hot.dao.voteOnPost(hot.nextVoter(), hot.postId);
+    }
+}
@@ -0,0 +1,221 @@
+package com.btoddb.blog.benchmark;
+
+import com.btoddb.blog.*;
+import me.prettyprint.cassandra.utils.TimeUUIDUtils;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Data set for {@link WorkloadDriver}, skewed the way a real blog is:
+ *
+ * <ul>
+ *     <li>a few Users write most of the Posts and Comments - authors are Zipf distributed over the Users</li>
+ *     <li>a few Posts get most of the Comments and votes - Posts are Zipf distributed by "hotness", in random order
+ *     so the hot ones aren't all old or all new</li>
+ *     <li>the first Comments on a Post get most of its votes</li>
+ *     <li>voters are any User, evenly</li>
+ * </ul>
+ *
+ * Posts are spread over the last {@link BlogData#HOURS_OF_POSTS} hours, each followed by its Comments.  Everything
+ * is drawn from a Random seeded with 'seed', so the same settings load the same data set (other than the IDs).
+ * The same skew picks the Users, Posts and Comments the workload operates on.
+ */
+public class WorkloadData {
+    private final BlogDao dao;
+    private final BlogService service;
+    private final Zipf postHotness;
+    private final Zipf authors;
+    private final double skew;
+
+    private final List<String> userEmails = new ArrayList<String>();
+    // hottest first
+    private final List<UUID> hotPostIds = new ArrayList<UUID>();
+    private final List<List<UUID>> commentIdsByHotPost = new ArrayList<List<UUID>>();
+    // number of Comments -> their distribution
+    private final ConcurrentMap<Integer, Zipf> commentZipfs = new ConcurrentHashMap<Integer, Zipf>();
+
+    private long lastMillis;
+
+    public WorkloadData(BlogDao dao, BlogService service, int users, int posts, double skew) {
+        this.dao = dao;
+        this.service = service;
+        this.skew = skew;
+        this.authors = new Zipf(users, skew);
+        this.postHotness = new Zipf(posts, skew);
+    }
+
+    /**
+     * Create the Users, Posts, Comments and votes.  The votes are cast through {@link BlogService} by 'threads'
+     * threads, the rest is written one at a time.
+     *
+     * @param seed seed of the Random the data set is drawn from
+     * @param commentsPerPost average number of Comments on a Post
+     * @param votesPerPost average number of votes on a Post
+     * @param votesPerComment average number of votes on a Comment
+     * @param threads number of threads casting votes
+     */
+    public void load(long seed, int commentsPerPost, int votesPerPost, int votesPerComment, int threads) throws Exception {
+        Random random = new Random(seed);
+
+        for ( int i=0;i < authors.size();i++ ) {
+            User u = service.createUser("user" + i + "@example.com", "pass", "User " + i);
+            userEmails.add(u.getEmail());
+        }
+
+        // which Post (in time order) has each hotness rank
+        int posts = postHotness.size();
+        List<Integer> hotness = new ArrayList<Integer>(posts);
+        for ( int i=0;i < posts;i++ ) {
+            hotness.add(i);
+        }
+        Collections.shuffle(hotness, random);
+
+        int[] commentCounts = new int[posts];
+        for ( long i=0;i < (long)posts * commentsPerPost;i++ ) {
+            commentCounts[hotness.get(postHotness.next(random))]++;
+        }
+
+        // every entity gets its own millisecond so the TimeUUIDs are unique and spread over the time range
+        DateTime firstPostTime = new DateTime().minusHours(BlogData.HOURS_OF_POSTS);
+        long postSpacing = Math.max(1, BlogData.HOURS_OF_POSTS * 3600000L / posts);
+        UUID[] postIds = new UUID[posts];
+        List<List<UUID>> commentIds = new ArrayList<List<UUID>>(posts);
+        for ( int i=0;i < posts;i++ ) {
+            DateTime ts = firstPostTime.plus(i * postSpacing);
+            String email = randomAuthor(random);
+            Post p = dao.savePost(new Post(timeUUID(ts.getMillis()), email, email, "title " + i, ts, "text of post " + i));
+            postIds[i] = p.getId();
+
+            List<UUID> ids = new ArrayList<UUID>(commentCounts[i]);
+            for ( int j=0;j < commentCounts[i];j++ ) {
+                email = randomAuthor(random);
+                long commentTs = ts.getMillis() + j + 1;
+                Comment c = dao.saveComment(new Comment(timeUUID(commentTs), email, email, p.getId(), commentTs, "comment " + j));
+                ids.add(c.getId());
+            }
+            commentIds.add(ids);
+        }
+
+        for ( int rank=0;rank < posts;rank++ ) {
+            hotPostIds.add(postIds[hotness.get(rank)]);
+            commentIdsByHotPost.add(commentIds.get(hotness.get(rank)));
+        }
+
+        // draw all the votes up front so the threads casting them don't change what's drawn
+        final List<Runnable> votes = new ArrayList<Runnable>();
+        for ( long i=0;i < (long)posts * votesPerPost;i++ ) {
+            final String email = randomVoter(random);
+            final UUID postId = randomHotPost(random);
+            votes.add(new Runnable() {
+                @Override
+                public void run() {
+                    service.voteOnPost(email, postId);
+                }
+            });
+        }
+        long totalComments = (long)posts * commentsPerPost;
+        for ( long i=0;i < totalComments * votesPerComment;i++ ) {
+            final String email = randomVoter(random);
+            final int rank = postHotness.next(random);
+            final UUID commentId = randomComment(random, rank);
+            if ( null == commentId ) {
+                continue;
+            }
+            votes.add(new Runnable() {
+                @Override
+                public void run() {
+                    service.voteOnComment(email, commentId, hotPostIds.get(rank));
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            int chunk = votes.size() / threads + 1;
+            for ( int i=0;i < votes.size();i += chunk ) {
+                final List<Runnable> subList = votes.subList(i, Math.min(i + chunk, votes.size()));
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for ( Runnable vote : subList ) {
+                            vote.run();
+                        }
+                    }
+                }));
+            }
+            for ( Future<?> f : futures ) {
+                f.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return a User, favoring the ones that write the most
+     */
+    public String randomAuthor(Random random) {
+        return userEmails.get(authors.next(random));
+    }
+
+    /**
+     * @return any User, evenly
+     */
+    public String randomVoter(Random random) {
+        return userEmails.get(random.nextInt(userEmails.size()));
+    }
+
+    /**
+     * @return a Post, favoring the hot ones
+     */
+    public UUID randomHotPost(Random random) {
+        return hotPostIds.get(postHotness.next(random));
+    }
+
+    /**
+     * @return ID of the Post at 'rank' of hotness, for {@link #randomComment(Random, int)}
+     */
+    public UUID hotPost(int rank) {
+        return hotPostIds.get(rank);
+    }
+
+    /**
+     * @return rank of hotness of a Post, favoring the hot ones
+     */
+    public int randomHotRank(Random random) {
+        return postHotness.next(random);
+    }
+
+    /**
+     * @return a Comment of the Post at 'rank' of hotness, favoring its first Comments, or null if it has none
+     */
+    public UUID randomComment(Random random, int rank) {
+        List<UUID> ids = commentIdsByHotPost.get(rank);
+        if ( ids.isEmpty() ) {
+            return null;
+        }
+        Zipf zipf = commentZipfs.get(ids.size());
+        if ( null == zipf ) {
+            zipf = new Zipf(ids.size(), skew);
+            commentZipfs.putIfAbsent(ids.size(), zipf);
+        }
+        return ids.get(zipf.next(random));
+    }
+
+    private UUID timeUUID(long millis) {
+        lastMillis = Math.max(millis, lastMillis + 1);
+        return TimeUUIDUtils.getTimeUUID(lastMillis);
+    }
+}
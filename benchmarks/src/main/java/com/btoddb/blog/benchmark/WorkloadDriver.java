@@ -0,0 +1,380 @@
+package com.btoddb.blog.benchmark;
+
+import com.btoddb.blog.*;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.stats.Snapshot;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator - loads a skewed data set (see {@link WorkloadData}) then runs a mix of {@link BlogService}
+ * operations from many threads, like a long running blog server with {@link PostRanking} and
+ * {@link CommentSortScheduler} running.  Reports throughput and latency percentiles per operation.
+ *
+ * Settings are system properties:
+ *
+ * <ul>
+ *     <li>workload.storage - 'hector' (embedded Cassandra), 'cluster' (the Cassandra already running on
+ *     localhost:9160, with blog-schema.txt loaded) or 'memory'.  Default is hector</li>
+ *     <li>workload.seed - seed of the data set and of each thread's operations, so runs can be compared.  Default
+ *     is 1</li>
+ *     <li>workload.users, workload.posts - size of the data set.  Default is 1000 Users and 5000 Posts</li>
+ *     <li>workload.commentsPerPost, workload.votesPerPost, workload.votesPerComment - averages, the hot Posts get
+ *     far more.  Default is 5, 10 and 2</li>
+ *     <li>workload.skew - Zipf exponent of authors, Posts and Comments, 0 is uniform.  Default is 1.0</li>
+ *     <li>workload.mix - operations and their weights, as 'operation:weight,...'.  Default is {@link #DEFAULT_MIX}</li>
+ *     <li>workload.threads - threads running operations.  Default is 16</li>
+ *     <li>workload.rate - target operations/sec over all threads, or 0 to run flat out.  Default is 0</li>
+ *     <li>workload.warmupSeconds, workload.seconds - how long to warm up (not reported) and then measure.
+ *     Default is 10 and 60</li>
+ * </ul>
+ *
+ * With a target rate each operation is scheduled at a fixed interval and its latency is measured from when it was
+ * scheduled, not when it started, so a server that falls behind shows up in the latencies instead of silently
+ * lowering the rate.  The latencies are also in the default metrics registry (and JMX) while running.
+ *
+ * Run with: java -Dworkload.rate=2000 -cp target/benchmarks.jar com.btoddb.blog.benchmark.WorkloadDriver
+ */
+public class WorkloadDriver {
+    public static final String DEFAULT_MIX = "show-post:25,show-post-comments:20,show-top-posts:10,"
+            + "show-trending-posts:10,show-user-posts:10,create-comment:8,vote-on-post:8,vote-on-comment:6,create-post:3";
+
+    public static final int PAGE_SIZE = 20;
+
+    /**
+     * Operations, named after the {@link BlogMain} command they're like.
+     */
+    public enum Operation {
+        CREATE_POST("create-post") {
+            @Override
+            void run(WorkloadData data, BlogService service, Random random) {
+                service.createPost(data.randomAuthor(random), "workload post", "text of workload post");
+            }
+        },
+        CREATE_COMMENT("create-comment") {
+            @Override
+            void run(WorkloadData data, BlogService service, Random random) {
+                service.createComment(data.randomAuthor(random), data.randomHotPost(random), "workload comment");
+            }
+        },
+        VOTE_ON_POST("vote-on-post") {
+            @Override
+            void run(WorkloadData data, BlogService service, Random random) {
+                service.voteOnPost(data.randomVoter(random), data.randomHotPost(random));
+            }
+        },
+        VOTE_ON_COMMENT("vote-on-comment") {
+            @Override
+            void run(WorkloadData data, BlogService service, Random random) {
+                int rank = data.randomHotRank(random);
+                UUID commentId = data.randomComment(random, rank);
+                if ( null != commentId ) {
+                    service.voteOnComment(data.randomVoter(random), commentId, data.hotPost(rank));
+                }
+            }
+        },
+        SHOW_POST("show-post") {
+            @Override
+            void run(WorkloadData data, BlogService service, Random random) {
+                service.findPost(data.randomHotPost(random));
+            }
+        },
+        SHOW_POST_COMMENTS("show-post-comments") {
+            @Override
+            void run(WorkloadData data, BlogService service, Random random) {
+                service.findCommentsByPost(data.randomHotPost(random), null, PAGE_SIZE);
+            }
+        },
+        SHOW_USER_POSTS("show-user-posts") {
+            @Override
+            void run(WorkloadData data, BlogService service, Random random) {
+                service.findPostsByUser(data.randomAuthor(random), null, PAGE_SIZE);
+            }
+        },
+        SHOW_USER_ACTIVITY("show-user-activity") {
+            @Override
+            void run(WorkloadData data, BlogService service, Random random) {
+                service.findUserActivity(data.randomAuthor(random), null, PAGE_SIZE);
+            }
+        },
+        SHOW_SITE_ACTIVITY("show-site-activity") {
+            @Override
+            void run(WorkloadData data, BlogService service, Random random) {
+                service.findSiteActivity(null, PAGE_SIZE);
+            }
+        },
+        SHOW_TOP_POSTS("show-top-posts") {
+            @Override
+            void run(WorkloadData data, BlogService service, Random random) {
+                service.findTopPosts(PAGE_SIZE);
+            }
+        },
+        SHOW_TRENDING_POSTS("show-trending-posts") {
+            @Override
+            void run(WorkloadData data, BlogService service, Random random) {
+                service.findTrendingPosts(PAGE_SIZE);
+            }
+        },
+        SHOW_NEWEST_POSTS("show-newest-posts") {
+            @Override
+            void run(WorkloadData data, BlogService service, Random random) {
+                service.findNewestPosts(PAGE_SIZE);
+            }
+        };
+
+        private final String command;
+
+        private Operation(String command) {
+            this.command = command;
+        }
+
+        abstract void run(WorkloadData data, BlogService service, Random random);
+
+        public String getCommand() {
+            return command;
+        }
+
+        public static Operation fromCommand(String command) {
+            for ( Operation op : values() ) {
+                if ( op.command.equalsIgnoreCase(command) ) {
+                    return op;
+                }
+            }
+            throw new IllegalArgumentException("unknown operation, " + command);
+        }
+    }
+
+    private final WorkloadData data;
+    private final BlogService service;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final Map<Operation, Timer> latencies = new LinkedHashMap<Operation, Timer>();
+    private final Map<Operation, Counter> errors = new LinkedHashMap<Operation, Counter>();
+
+    private volatile boolean stopped;
+
+    public WorkloadDriver(WorkloadData data, BlogService service, String mix) {
+        this.data = data;
+        this.service = service;
+
+        Map<Operation, Integer> weights = parseMix(mix);
+        operations = weights.keySet().toArray(new Operation[weights.size()]);
+        cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for ( int i=0;i < operations.length;i++ ) {
+            total += weights.get(operations[i]);
+            cumulativeWeights[i] = total;
+
+            latencies.put(operations[i], Metrics.newTimer(WorkloadDriver.class, operations[i].getCommand(), TimeUnit.MILLISECONDS, TimeUnit.SECONDS));
+            errors.put(operations[i], Metrics.newCounter(WorkloadDriver.class, operations[i].getCommand() + "-errors"));
+        }
+        if ( 0 == total ) {
+            throw new IllegalArgumentException("mix has no operations : " + mix);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String storage = System.getProperty("workload.storage", "hector");
+        long seed = Long.getLong("workload.seed", 1);
+        int threads = Integer.getInteger("workload.threads", 16);
+        double rate = Double.parseDouble(System.getProperty("workload.rate", "0"));
+        int warmupSeconds = Integer.getInteger("workload.warmupSeconds", 10);
+        int seconds = Integer.getInteger("workload.seconds", 60);
+
+        BlogDao dao = createDao(storage);
+        dao.init();
+        BlogService service = new BlogService(dao);
+        PostRanking ranking = new PostRanking(dao);
+        CommentSortScheduler sorter = new CommentSortScheduler(dao);
+        try {
+            WorkloadData data = new WorkloadData(dao, service,
+                    Integer.getInteger("workload.users", 1000),
+                    Integer.getInteger("workload.posts", 5000),
+                    Double.parseDouble(System.getProperty("workload.skew", "1.0")));
+            WorkloadDriver driver = new WorkloadDriver(data, service, System.getProperty("workload.mix", DEFAULT_MIX));
+
+            System.out.println("loading data set, seed = " + seed);
+            long loadStart = System.currentTimeMillis();
+            data.load(seed,
+                    Integer.getInteger("workload.commentsPerPost", 5),
+                    Integer.getInteger("workload.votesPerPost", 10),
+                    Integer.getInteger("workload.votesPerComment", 2),
+                    threads);
+            System.out.println("loaded in " + (System.currentTimeMillis() - loadStart) + "ms");
+
+            ranking.start();
+            service.setPostRanking(ranking);
+            sorter.start();
+
+            System.out.println("running " + threads + " threads at " + (0 < rate ? rate + " ops/sec" : "full speed")
+                    + " - " + warmupSeconds + "s warm up, " + seconds + "s measured");
+            driver.run(seed, threads, rate, warmupSeconds, seconds);
+        }
+        finally {
+            sorter.shutdown();
+            ranking.shutdown();
+            dao.shutdown();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Run the mix, then print a report.
+     *
+     * @param seed seed of thread i's Random is seed + i + 1
+     * @param threads number of threads
+     * @param rate target operations/sec over all threads, or 0 to run flat out
+     * @param warmupSeconds time to run before measuring
+     * @param seconds time to measure
+     */
+    public void run(long seed, int threads, double rate, int warmupSeconds, int seconds) throws InterruptedException {
+        final long intervalNanos = 0 < rate ? (long)(TimeUnit.SECONDS.toNanos(1) * threads / rate) : 0;
+        final CountDownLatch done = new CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<Thread>();
+        for ( int i=0;i < threads;i++ ) {
+            final Random random = new Random(seed + i + 1);
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runOperations(random, intervalNanos);
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }, "workload-" + i);
+            t.setDaemon(true);
+            workers.add(t);
+        }
+
+        stopped = false;
+        for ( Thread t : workers ) {
+            t.start();
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+        for ( Operation op : operations ) {
+            latencies.get(op).clear();
+            errors.get(op).clear();
+        }
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        // snapshot before stopping, so operations still finishing aren't counted
+        double elapsedSeconds = (double)(System.nanoTime() - start) / TimeUnit.SECONDS.toNanos(1);
+        String report = report(elapsedSeconds);
+
+        stopped = true;
+        done.await();
+        System.out.print(report);
+    }
+
+    private void runOperations(Random random, long intervalNanos) {
+        // stagger the threads so they don't all fire at once
+        long scheduled = System.nanoTime() + (long)(random.nextDouble() * intervalNanos);
+        while ( !stopped ) {
+            Operation op = pickOperation(random);
+            long start;
+            if ( 0 < intervalNanos ) {
+                // sleep() can wake a little early
+                long sleepNanos;
+                while ( 0 < (sleepNanos = scheduled - System.nanoTime()) ) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                    }
+                    catch ( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                start = scheduled;
+                scheduled += intervalNanos;
+            }
+            else {
+                start = System.nanoTime();
+            }
+
+            try {
+                op.run(data, service, random);
+            }
+            catch ( RuntimeException e ) {
+                errors.get(op).inc();
+            }
+            latencies.get(op).update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Operation pickOperation(Random random) {
+        int r = random.nextInt(cumulativeWeights[cumulativeWeights.length-1]);
+        for ( int i=0;i < cumulativeWeights.length;i++ ) {
+            if ( r < cumulativeWeights[i] ) {
+                return operations[i];
+            }
+        }
+        throw new IllegalStateException("weights must add up to " + cumulativeWeights[cumulativeWeights.length-1]);
+    }
+
+    private String report(double elapsedSeconds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%n%-20s %10s %10s %8s %9s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "ops/sec", "errors", "mean ms", "p50 ms", "p95 ms", "p99 ms", "p99.9 ms", "max ms"));
+        long totalCount = 0;
+        long totalErrors = 0;
+        for ( Operation op : operations ) {
+            Timer timer = latencies.get(op);
+            Snapshot snapshot = timer.getSnapshot();
+            long count = timer.count();
+            long errorCount = errors.get(op).count();
+            totalCount += count;
+            totalErrors += errorCount;
+            sb.append(String.format("%-20s %10d %10.1f %8d %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    op.getCommand(), count, count / elapsedSeconds, errorCount, timer.mean(), snapshot.getMedian(),
+                    snapshot.get95thPercentile(), snapshot.get99thPercentile(), snapshot.get999thPercentile(), timer.max()));
+        }
+        sb.append(String.format("%-20s %10d %10.1f %8d%n", "total", totalCount, totalCount / elapsedSeconds, totalErrors));
+        return sb.toString();
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new LinkedHashMap<Operation, Integer>();
+        for ( String entry : mix.split(",") ) {
+            String[] parts = entry.trim().split(":");
+            if ( 2 != parts.length ) {
+                throw new IllegalArgumentException("mix must be 'operation:weight,...' : " + mix);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if ( 0 > weight ) {
+                throw new IllegalArgumentException("weight must not be negative : " + entry);
+            }
+            else if ( 0 < weight ) {
+                weights.put(Operation.fromCommand(parts[0].trim()), weight);
+            }
+        }
+        return weights;
+    }
+
+    private static BlogDao createDao(String storage) throws Exception {
+        if ( "memory".equalsIgnoreCase(storage) ) {
+            return new InMemoryBlogDao();
+        }
+        else if ( "hector".equalsIgnoreCase(storage) ) {
+            EmbeddedCassandra.start(new BlogSchema());
+            return new HectorBlogDao();
+        }
+        else if ( "cluster".equalsIgnoreCase(storage) ) {
+            return new HectorBlogDao();
+        }
+        else {
+            throw new IllegalArgumentException("unknown storage engine, " + storage + " - must be 'hector', 'cluster' or 'memory'");
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.btoddb.blog.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Zipf distributed ranks - rank k (starting at 0) is drawn with probability proportional to 1/(k+1)^exponent, so
+ * with an exponent of 1 the hottest of 10,000 items gets about 10% of the draws and the top 1% about half.  An
+ * exponent of 0 is uniform.
+ *
+ * Draws use the caller's Random, so a seeded Random gives the same ranks every run.
+ */
+public class Zipf {
+    private final double[] cumulative;
+
+    public Zipf(int size, double exponent) {
+        if ( 1 > size ) {
+            throw new IllegalArgumentException("size must be at least 1 : " + size);
+        }
+
+        cumulative = new double[size];
+        double total = 0;
+        for ( int i=0;i < size;i++ ) {
+            total += 1 / Math.pow(i+1, exponent);
+            cumulative[i] = total;
+        }
+        for ( int i=0;i < size;i++ ) {
+            cumulative[i] /= total;
+        }
+    }
+
+    /**
+     * @param random source of randomness
+     * @return rank from 0 (hottest) to size-1
+     */
+    public int next(Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(0 <= index ? index+1 : -index-1, cumulative.length-1);
+    }
+
+    public int size() {
+        return cumulative.length;
+    }
+}
@@ -0,0 +1 @@
+java -cp target/cassandra-blog-1.0.0-SNAPSHOT.jar com.btoddb.blog.BlogClient $*
@@ -0,0 +1,179 @@
+package com.btoddb.blog;
+
+import me.prettyprint.cassandra.utils.TimeUUIDUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.UUID;
+
+/**
+ * One entry in an activity feed - a User created a Post or Comment, or voted.  Feeds are written along with the
+ * Post, Comment or vote, and hold everything needed to show the entry, so reading a feed doesn't read anything else.
+ *
+ */
+public class Activity {
+    public static final String POST = "POST";
+    public static final String COMMENT = "COMMENT";
+    public static final String POST_VOTE = "POST_VOTE";
+    public static final String COMMENT_VOTE = "COMMENT_VOTE";
+
+    // only the start of a Comment's text is kept in the feed
+    static final int SUMMARY_LENGTH = 140;
+
+    private UUID id;
+    private String type;
+    private String userEmail;
+    private String userDisplayName;
+    private UUID subjectId;
+    private UUID postId;
+    private String summary;
+
+    public Activity() {
+    }
+
+    public Activity(UUID id, String type, String userEmail, String userDisplayName, UUID subjectId, UUID postId, String summary) {
+        this.id = id;
+        this.type = type;
+        this.userEmail = userEmail;
+        this.userDisplayName = userDisplayName;
+        this.subjectId = subjectId;
+        this.postId = postId;
+        this.summary = summary;
+    }
+
+    /**
+     * The Post's creation, with its title.  Same ID as the Post.
+     */
+    public static Activity ofPost(Post post) {
+        return new Activity(post.getId(), POST, post.getUserEmail(), post.getUserDisplayName(), post.getId(),
+                            post.getId(), post.getTitle());
+    }
+
+    /**
+     * The Comment's creation, with the start of its text.  Same ID as the Comment.
+     */
+    public static Activity ofComment(Comment comment) {
+        return new Activity(comment.getId(), COMMENT, comment.getUserEmail(), comment.getUserDisplayName(),
+                            comment.getId(), comment.getPostId(), StringUtils.abbreviate(comment.getText(), SUMMARY_LENGTH));
+    }
+
+    /**
+     * A vote.  The ID is made from the vote's time, User and Post/Comment, so saving the same vote again (a retried
+     * batch) overwrites the entry instead of adding another.  The voter's name isn't known, only the email.
+     *
+     * @param vote the vote
+     * @param postId Post ID of the Comment voted on, or null if not known.  Ignored for votes on Posts
+     */
+    public static Activity ofVote(Vote vote, UUID postId) {
+        boolean onComment = vote.isComment();
+        long node = (31L * vote.getUserEmail().hashCode() + vote.getUuid().hashCode()) * 0x9E3779B97F4A7C15L;
+        UUID id = new UUID(TimeUUIDUtils.getTimeUUID(vote.getTimestamp()).getMostSignificantBits(),
+                           (node & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L);
+        return new Activity(id, onComment ? COMMENT_VOTE : POST_VOTE, vote.getUserEmail(), null, vote.getUuid(),
+                            onComment ? postId : vote.getUuid(), null);
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    /**
+     * @return time of the activity, from its TimeUUID
+     */
+    public long getTimestamp() {
+        return TimeUUIDUtils.getTimeFromUUID(id);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getUserEmail() {
+        return userEmail;
+    }
+
+    public void setUserEmail(String userEmail) {
+        this.userEmail = userEmail;
+    }
+
+    /**
+     * @return User's name, null for votes
+     */
+    public String getUserDisplayName() {
+        return userDisplayName;
+    }
+
+    public void setUserDisplayName(String userDisplayName) {
+        this.userDisplayName = userDisplayName;
+    }
+
+    /**
+     * @return ID of the Post or Comment created or voted on
+     */
+    public UUID getSubjectId() {
+        return subjectId;
+    }
+
+    public void setSubjectId(UUID subjectId) {
+        this.subjectId = subjectId;
+    }
+
+    /**
+     * @return Post ID the activity belongs to, null if a Comment vote's Post wasn't known
+     */
+    public UUID getPostId() {
+        return postId;
+    }
+
+    public void setPostId(UUID postId) {
+        this.postId = postId;
+    }
+
+    /**
+     * @return Post title, start of the Comment text, or null for votes
+     */
+    public String getSummary() {
+        return summary;
+    }
+
+    public void setSummary(String summary) {
+        this.summary = summary;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Activity activity = (Activity) o;
+
+        if (id != null ? !id.equals(activity.id) : activity.id != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return id != null ? id.hashCode() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Activity{" +
+                "id=" + id +
+                ", type='" + type + '\'' +
+                ", userEmail='" + userEmail + '\'' +
+                ", userName='" + userDisplayName + '\'' +
+                ", subjectId=" + subjectId +
+                ", postId=" + postId +
+                ", summary='" + summary + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,96 @@
+package com.btoddb.blog;
+
+import com.google.common.collect.AbstractIterator;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.util.Iterator;
+
+/**
+ * Row key calculation for the ColumnFamily, activity_feeds.  Each User's feed is bucketed by month and the site-wide
+ * feed by hour (GMT), so a page of either is usually one slice of one row and no row grows without bound.  Entries
+ * expire, a User's after a year and the site's after a week, so only that many buckets are ever read.
+ *
+ */
+final class ActivityBuckets {
+    static final int USER_TTL_SECONDS = 365 * 24 * 60 * 60;
+    static final int SITE_TTL_SECONDS = 7 * 24 * 60 * 60;
+
+    private static final String USER_PREFIX = "user:";
+    private static final String SITE_PREFIX = "site:";
+
+    private static final DateTimeFormatter monthFormatter = DateTimeFormat.forPattern("YYYYMM");
+    private static final DateTimeFormatter hourFormatter = DateTimeFormat.forPattern("YYYYMMdd:HH");
+
+    private ActivityBuckets() {
+    }
+
+    /**
+     * Calculate the row key of the User's feed bucket containing 'timestamp'.
+     *
+     * @param userEmail User's email
+     * @param timestamp any timestamp
+     * @return row key
+     */
+    static String userRowKey(String userEmail, DateTime timestamp) {
+        return USER_PREFIX + userEmail + ":" + monthFormatter.print(floor(timestamp, true));
+    }
+
+    /**
+     * Calculate the row key of the site feed bucket containing 'timestamp'.
+     *
+     * @param timestamp any timestamp
+     * @return row key
+     */
+    static String siteRowKey(DateTime timestamp) {
+        return SITE_PREFIX + hourFormatter.print(floor(timestamp, false));
+    }
+
+    /**
+     * Lazily generate the row keys of the User's feed, newest first, from the bucket containing 'from' back to the
+     * oldest bucket that hasn't expired.
+     *
+     * @param userEmail User's email
+     * @param from newest time to read
+     * @return row keys, newest bucket first
+     */
+    static Iterator<String> userRowKeys(String userEmail, DateTime from) {
+        return rowKeys(from, new DateTime().minusSeconds(USER_TTL_SECONDS), true, USER_PREFIX + userEmail + ":");
+    }
+
+    /**
+     * Lazily generate the row keys of the site feed, newest first, from the bucket containing 'from' back to the
+     * oldest bucket that hasn't expired.
+     *
+     * @param from newest time to read
+     * @return row keys, newest bucket first
+     */
+    static Iterator<String> siteRowKeys(DateTime from) {
+        return rowKeys(from, new DateTime().minusSeconds(SITE_TTL_SECONDS), false, SITE_PREFIX);
+    }
+
+    private static Iterator<String> rowKeys(final DateTime from, DateTime oldest, final boolean monthly, final String prefix) {
+        final DateTime lastBucket = floor(oldest, monthly);
+        return new AbstractIterator<String>() {
+            private DateTime current = floor(from, monthly);
+
+            @Override
+            protected String computeNext() {
+                if ( current.isBefore(lastBucket) ) {
+                    return endOfData();
+                }
+
+                String key = prefix + (monthly ? monthFormatter : hourFormatter).print(current);
+                current = monthly ? current.minusMonths(1) : current.minusHours(1);
+                return key;
+            }
+        };
+    }
+
+    private static DateTime floor(DateTime timestamp, boolean monthly) {
+        DateTime gmt = timestamp.withZone(DateTimeZone.forOffsetHours(0));
+        return monthly ? gmt.monthOfYear().roundFloorCopy() : gmt.hourOfDay().roundFloorCopy();
+    }
+}
@@ -0,0 +1,91 @@
+package com.btoddb.blog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Converts an {@link Activity} to and from the value of its column in the ColumnFamily, activity_feeds.  The column
+ * name is the Activity's ID, so it isn't in the value.
+ *
+ * The value starts with a version byte, then the fields in order - nullable ones are preceded by a boolean.
+ *
+ */
+public class ActivityCodec {
+    private static final ActivityCodec instance = new ActivityCodec();
+
+    private static final byte VERSION_1 = 1;
+
+    public static ActivityCodec get() {
+        return instance;
+    }
+
+    public byte[] toBytes(Activity activity) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION_1);
+            out.writeUTF(activity.getType());
+            out.writeUTF(activity.getUserEmail());
+            writeString(out, activity.getUserDisplayName());
+            writeUUID(out, activity.getSubjectId());
+            writeUUID(out, activity.getPostId());
+            writeString(out, activity.getSummary());
+            out.flush();
+        }
+        catch ( IOException e ) {
+            // only writing to memory
+            throw new IllegalStateException("could not encode activity", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public Activity fromBytes(UUID id, byte[] value) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+        try {
+            byte version = in.readByte();
+            if ( VERSION_1 != version ) {
+                throw new IllegalStateException("unknown activity format, version = " + version);
+            }
+
+            Activity activity = new Activity();
+            activity.setId(id);
+            activity.setType(in.readUTF());
+            activity.setUserEmail(in.readUTF());
+            activity.setUserDisplayName(readString(in));
+            activity.setSubjectId(readUUID(in));
+            activity.setPostId(readUUID(in));
+            activity.setSummary(readString(in));
+            return activity;
+        }
+        catch ( IOException e ) {
+            throw new IllegalStateException("activity is truncated or corrupt : " + id, e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(null != value);
+        if ( null != value ) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeUUID(DataOutputStream out, UUID value) throws IOException {
+        out.writeBoolean(null != value);
+        if ( null != value ) {
+            out.writeLong(value.getMostSignificantBits());
+            out.writeLong(value.getLeastSignificantBits());
+        }
+    }
+
+    private static UUID readUUID(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+    }
+}
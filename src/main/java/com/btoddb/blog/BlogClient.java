@@ -0,0 +1,76 @@
+package com.btoddb.blog;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.Socket;
+
+/**
+ * 'main' for sending commands to a {@link BlogServer} - same commands and params as {@link BlogMain}, but run
+ * by a server that's already warmed up.
+ *
+ * With params, sends them as one command.  Without, sends each line of stdin as a command over the same connection.
+ * The server is localhost:{@link BlogServer#DEFAULT_PORT} unless set with -Dblog.server=host:port.
+ *
+ */
+public class BlogClient {
+    private static final String CHARSET = "UTF-8";
+
+    public static void main(String[] args) throws IOException {
+        String address = System.getProperty("blog.server", "localhost:" + BlogServer.DEFAULT_PORT);
+        int colon = address.lastIndexOf(':');
+        String host = 0 <= colon ? address.substring(0, colon) : address;
+        int port = 0 <= colon ? Integer.parseInt(address.substring(colon+1)) : BlogServer.DEFAULT_PORT;
+
+        Socket socket;
+        try {
+            socket = new Socket(host, port);
+        }
+        catch ( ConnectException e ) {
+            System.out.println("no blog server at " + host + ":" + port + " - start one with 'BlogMain serve'");
+            System.exit(1);
+            return;
+        }
+
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), CHARSET));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), CHARSET));
+
+            if ( 0 < args.length ) {
+                send(BlogServer.formatCommand(args), in, out);
+                return;
+            }
+
+            BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ( null != (line = stdin.readLine()) ) {
+                if ( !send(line, in, out) ) {
+                    return;
+                }
+            }
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Send one command and print the response.
+     *
+     * @return false if the server closed the connection
+     */
+    private static boolean send(String command, BufferedReader in, Writer out) throws IOException {
+        out.write(command);
+        out.write('\n');
+        out.flush();
+
+        String line;
+        while ( null != (line = in.readLine()) ) {
+            if ( BlogServer.END_OF_RESPONSE.equals(line) ) {
+                return true;
+            }
+            // undo the server's dot-stuffing
+            System.out.println(line.startsWith(BlogServer.END_OF_RESPONSE) ? line.substring(1) : line);
+        }
+        return false;
+    }
+}
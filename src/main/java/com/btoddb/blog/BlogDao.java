@@ -1,77 +1,37 @@
 package com.btoddb.blog;
 
-import me.prettyprint.cassandra.serializers.*;
-import me.prettyprint.cassandra.service.ColumnSliceIterator;
-import me.prettyprint.cassandra.utils.TimeUUIDUtils;
-import me.prettyprint.hector.api.Cluster;
-import me.prettyprint.hector.api.Keyspace;
-import me.prettyprint.hector.api.beans.*;
-import me.prettyprint.hector.api.factory.HFactory;
-import me.prettyprint.hector.api.mutation.Mutator;
-import me.prettyprint.hector.api.query.*;
-import me.prettyprint.hom.EntityManagerImpl;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 
-import java.nio.ByteBuffer;
-import java.util.*;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 /**
+ * Storage engine for the blog.  {@link BlogService} and {@link BlogRenderer} only depend on this interface
+ * so the engine can be swapped out.
  *
- *
+ * <ul>
+ *     <li>{@link HectorBlogDao} - Cassandra via Hector, the "real" engine</li>
+ *     <li>{@link InMemoryBlogDao} - concurrent in-memory maps, for profiling/load testing the upper layers</li>
+ * </ul>
  */
-public class BlogDao {
-    private static final String KEYSPACE_NAME = "blog";
-    private static final String CASS_HOST = "localhost";
-    private static final byte[] EMPTY_BYTES = new byte[0];
-    private static final DateTimeFormatter hourFormatter = DateTimeFormat.forPattern("YYYYMMdd:HH");
-    private static final byte[] POSTS_BY_VOTE_KEY = "posts-sorted".getBytes();
-
-    private Keyspace keyspace;
-    private EntityManagerImpl entityManager;
-
-    private static final String CF_USERS = "users";
-    private static final String USER_COL_PASS = "password";
-    private static final String USER_COL_NAME = "name";
-
-    private static final String CF_COMMENTS = "comments";
-
-    private static final String CF_POSTS = "posts";
-
-    private static final String CF_USER_POSTS = "user_posts";
-
-    private static final String CF_USER_VOTES = "user_votes";
-
-    private static final String CF_POSTS_BY_TIME = "posts_by_time";
-
-    private static final String CF_POSTS_BY_VOTE = "posts_sorted_by_vote";
-
-    private static final String CF_USER_COMMENTS = "user_comments";
-
-    private static final String CF_POST_COMMENTS = "post_comments";
-
-    private static final String CF_VOTES = "votes";
-
-    private static final String CF_POST_COMMENT_VOTE_CHANGE = "post_comment_votes_changed";
-
-    private static final String CF_POST_COMMENTS_SORTED_BY_VOTE = "post_comments_sorted_by_vote";
-
+public interface BlogDao {
 
     /**
      * Must call once (and only once) prior to using the DAO.
      *
      */
-    public void init() {
-		initHector();
-	}
+    void init();
 
-    private void initHector() {
-        Cluster cluster = HFactory.getOrCreateCluster("training-cluster", CASS_HOST + ":9160");
-        keyspace = HFactory.createKeyspace(KEYSPACE_NAME, cluster);
-        entityManager = new EntityManagerImpl(keyspace, "com.btoddb.blog" );
-    }
+    /**
+     * Release threads and other resources.  The DAO can't be used afterwards.
+     *
+     */
+    void shutdown();
 
     /**
      * Save User record.
@@ -79,51 +39,23 @@ public class BlogDao {
      * @param user user record to save
      * @return User record after saved
      */
-    public User saveUser( User user ) {
-        // this simple save could easily be done with HOM (Hector Object Mapper)
-        // but we'll do it this way once for illustration
-        Mutator<String> m = HFactory.createMutator(keyspace, StringSerializer.get());
-        m.addInsertion(user.getEmail(), CF_USERS, HFactory.createColumn(USER_COL_PASS, user.getPassword(), StringSerializer.get(), StringSerializer.get()));
-        m.addInsertion(user.getEmail(), CF_USERS, HFactory.createColumn(USER_COL_NAME, user.getName(), StringSerializer.get(), StringSerializer.get()));
-        m.execute();
-        return user;
-    }
+    User saveUser( User user );
 
     /**
      * Save Post record.
      * <ul>
      *     <li>Save Post</li>
      *     <li>Save User/Post connection</li>
+     *     <li>Save Post in time index</li>
      *     <li>Initialize votes to zero for sorting</li>
+     *     <li>Save Post in trending index</li>
+     *     <li>Add Post to the User's and the site's activity feeds</li>
      * </ul>
      *
      * @param post Post record to save
      * @return Post record after saved
      */
-    public Post savePost( Post post ) {
-        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
-
-        // insert row for Post - EntityManager handles mapping POJO to Cassandra row
-        entityManager.persist(Collections.singleton(post), m);
-
-        // insert one-to-many for user->post : these are sorted by TimeUUID (chrono + unique)
-        // TODO - add params
-//        m.addInsertion(key, CF, column);
-
-        // insert TimeUUID post ID to track order the posts were entered
-        DateTime dt = calculatePostTimeGranularity(post.getCreateTimestamp());
-        // TODO - add params
-//        m.addInsertion(key, CF, column);
-
-        // add a zero to counter so we don't miss one when sorting by votes - this leaves the counter at zero
-        m.addCounter(UUIDSerializer.get().toBytes(post.getId()), CF_VOTES, HFactory.createCounterColumn("v", 0));
-
-        // send the batch
-        m.execute();
-
-        post.setVotes( 0L );
-        return post;
-    }
+    Post savePost( Post post );
 
     /**
      * Save Comment.
@@ -134,34 +66,26 @@ public class BlogDao {
      *     <li>Save Post/Comment connection</li>
      *     <li>Initialize votes to zero for sorting</li>
      *     <li>Save flag indicating Post's comments need sorting</li>
+     *     <li>Record the Post in the comment vote ledger</li>
+     *     <li>Add Comment to the User's and the site's activity feeds</li>
      * </ul>
      *
      * @param comment Comment record to save
      * @return Comment record after saved
      */
-    public Comment saveComment( Comment comment ) {
-        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
-
-        // insert row for comment - EntityManager handles mapping POJO to Cassandra row
-        entityManager.persist(Collections.singleton(comment), m);
-
-        // insert one-to-many for user->comments and post->comments : these are sorted by TimeUUID (chrono + unique)
-        // TODO - add params
-//        m.addInsertion(key, CF, column);
-//        m.addInsertion(key, CF, column);
-
-        // add a zero to counter so we don't miss one when sorting by votes - this leaves the counter at zero
-        m.addCounter(UUIDSerializer.get().toBytes(comment.getId()), CF_VOTES, HFactory.createCounterColumn("v", 0));
+    Comment saveComment( Comment comment );
 
-        // this insert is to signal that this post needs its comments sorted
-        m.addInsertion(UUIDSerializer.get().toBytes(comment.getPostId()), CF_POST_COMMENT_VOTE_CHANGE, HFactory.createColumn("v", EMPTY_BYTES));
-
-        // send the batch
-        m.execute();
-
-        comment.setVotes( 0L );
-        return comment;
-    }
+    /**
+     * Save historical Posts and Comments in one batch, for bulk imports (see {@link BulkLoader}).  Writes what
+     * {@link #savePost(Post)} and {@link #saveComment(Comment)} write, except the activity feeds and the trending
+     * index, which only cover recent activity.  Each Post with Comments in the batch is flagged for sorting once.
+     *
+     * Saving the same Posts and Comments again writes the same columns, so a batch that failed can be retried.
+     *
+     * @param posts Posts to save
+     * @param comments Comments to save, of any Posts
+     */
+    void importBatch( Collection<Post> posts, Collection<Comment> comments );
 
     /**
      * Find User by user email.
@@ -169,28 +93,7 @@ public class BlogDao {
      * @param email user's email
      * @return User record associated with email if found, null otherwise
      */
-    public User findUser( String email ) {
-        // this simple query could easily be done with HOM (Hector Object Mapper)
-        // but we'll do it this way once for illustration
-        SliceQuery<String, String, String> q = HFactory.createSliceQuery(keyspace, StringSerializer.get(), StringSerializer.get(), StringSerializer.get());
-        q.setColumnFamily(CF_USERS);
-        q.setKey(email);
-        q.setRange(null, null, false, 100);
-        QueryResult<ColumnSlice<String, String>> qr = q.execute();
-
-        ColumnSlice<String, String> slice = qr.get();
-
-        if ( null == slice || slice.getColumns().isEmpty() ) {
-            return null;
-        }
-
-        User user = new User();
-        user.setEmail(email);
-        user.setPassword(slice.getColumnByName(USER_COL_PASS).getValue());
-        user.setName(slice.getColumnByName(USER_COL_NAME).getValue());
-
-        return user;
-    }
+    User findUser( String email );
 
     /**
      * Find Post by Post ID.
@@ -198,12 +101,7 @@ public class BlogDao {
      * @param postId UUID of Post to find
      * @return Post record if found, null otherwise
      */
-    public Post findPost( UUID postId ) {
-        Post p = entityManager.find(Post.class, postId);
-        Map<UUID, Long> voteMap = findVotes(Collections.singletonList(postId));
-        p.setVotes(voteMap.get(postId));
-        return p;
-    }
+    Post findPost( UUID postId );
 
     /**
      * Find Comment by ID.  Also does a lookup to get the Comment's vote count.
@@ -211,55 +109,7 @@ public class BlogDao {
      * @param uuid UUID of Comment to find
      * @return Comment record if found, null otherwise
      */
-    public Comment findComment(UUID uuid) {
-        Comment c = entityManager.find( Comment.class, uuid);
-        if ( null == c ) {
-            return null;
-        }
-
-        Map<UUID, Long> voteMap = findVotes(Collections.singletonList(uuid));
-        if ( voteMap.isEmpty() ) {
-            return c;
-        }
-
-        c.setVotes(voteMap.get(uuid));
-        return c;
-    }
-
-    private List<Post> findPostsByUUIDList(List<UUID> uuidList, boolean includeVotes) {
-        MultigetSliceQuery<UUID, String, byte[]> q = HFactory.createMultigetSliceQuery(keyspace, UUIDSerializer.get(), StringSerializer.get(), BytesArraySerializer.get());
-        q.setColumnFamily(CF_POSTS);
-        q.setRange(null, null, false, 100);
-        q.setKeys(uuidList);
-        QueryResult<Rows<UUID, String, byte[]>> qr = q.execute();
-        Rows<UUID, String, byte[]> rows = qr.get();
-        if ( null == rows || 0 == rows.getCount()) {
-            return null;
-        }
-
-        Map<UUID, Post> postMap = new HashMap<UUID, Post>();
-        for ( Row<UUID, String, byte[]> row : rows) {
-            postMap.put(row.getKey(), entityManager.find(Post.class, row.getKey(), row.getColumnSlice()));
-        }
-
-        // gotta do it this way to preserve ordering from the original UUID List
-        List<Post> postList = new LinkedList<Post>();
-        for ( UUID uuid : uuidList ) {
-            postList.add(postMap.get(uuid));
-        }
-
-        if ( includeVotes ) {
-            Map<UUID, Long> voteMap = findVotes(uuidList);
-            for (Post post : postList ) {
-                Long votes = voteMap.get(post.getId());
-                if ( null != votes ) {
-                    post.setVotes(votes);
-                }
-            }
-        }
-
-        return postList;
-    }
+    Comment findComment( UUID uuid );
 
     /**
      * Find all Post UUIDs for the given User using the User/Post connection.
@@ -267,36 +117,37 @@ public class BlogDao {
      * @param userEmail user's email
      * @return list of Post IDs
      */
-    public List<UUID> findPostUUIDsByUser( String userEmail ) {
-        SliceQuery<String, UUID, byte[]> q = HFactory.createSliceQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
-        q.setColumnFamily(CF_USER_POSTS);
-        q.setKey(userEmail);
-        q.setRange(null, null, false, 10);
-
-        ColumnSliceIterator<String, UUID, byte[]> iter = new ColumnSliceIterator<String, UUID, byte[]>(q, null, (UUID)null, false);
-        List<UUID> uuidList = new LinkedList<UUID>();
-        while ( iter.hasNext() ) {
-            HColumn<UUID, byte[]> col = iter.next();
-            uuidList.add(col.getName());
-        }
+    List<UUID> findPostUUIDsByUser( String userEmail );
 
-        return uuidList;
-    }
+    /**
+     * Find one page of Post UUIDs for the given User, newest first.  Only the page is read.
+     *
+     * @param userEmail user's email
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Post IDs to return
+     * @return page of Post IDs
+     */
+    Page<UUID> findPostUUIDsByUser( String userEmail, String cursor, int limit );
 
     /**
      * Find all Posts for the given User.
+     * Posts are summaries for list views - their text isn't read, use {@link #findPost(UUID)} for that.
      *
      * @param userEmail user's email
      * @return list of Post records
      */
-    public List<Post> findPostsByUser( String userEmail ) {
-        List<UUID> uuidList = findPostUUIDsByUser(userEmail);
-        if ( uuidList.isEmpty() ) {
-            return null;
-        }
+    List<Post> findPostsByUser( String userEmail );
 
-        return findPostsByUUIDList( uuidList, true );
-    }
+    /**
+     * Find one page of Posts for the given User, newest first.  Only the Posts on the page are read.
+     * Posts are summaries for list views - their text isn't read, use {@link #findPost(UUID)} for that.
+     *
+     * @param userEmail user's email
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Posts to return
+     * @return page of Post records
+     */
+    Page<Post> findPostsByUser( String userEmail, String cursor, int limit );
 
     /**
      * Find Post UUIDs by time range (GMT).
@@ -305,133 +156,186 @@ public class BlogDao {
      * @param end End time in GMT
      * @return list of Post IDs
      */
-    public List<UUID> findPostUUIDsByTimeRange( DateTime start, DateTime end ) {
-        // this method assumes the number of keys for the range is "not too big" so as to blow
-        // out thrift's frame buffer or cause cassandra to take too long and "time out"
-        DateTime firstRow = calculatePostTimeGranularity(start);
-        DateTime lastRow = calculatePostTimeGranularity(end);
-
-        MultigetSliceQuery<String, UUID, byte[]> q = HFactory.createMultigetSliceQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
-        q.setColumnFamily(CF_POSTS_BY_TIME);
-
-        // determine all the rows required to satisfy the time range and set as the 'row keys' for the query
-        // each row key is "pre-decided" to be hours of the day
-        DateTime current = firstRow;
-        List<String> rowKeys = new LinkedList<String>();
-        while ( current.isBefore(lastRow) || current.isEqual(lastRow) ) {
-            rowKeys.add(hourFormatter.print(current));
-            current = current.plusHours(1);
-        }
-        q.setKeys(rowKeys);
-        q.setRange(null, null, false, 1000); // this is an assumption that there will not be more than 1000 posts in one hour
-
-        QueryResult<Rows<String, UUID, byte[]>> qr = q.execute();
-        Rows<String, UUID, byte[]> rows = qr.get();
-        if ( null == rows || 0 == rows.getCount() ) {
-            return null;
-        }
-
-        long startAsLong = start.getMillis();
-        long endAsLong = end.getMillis();
-
-        // loop over result rows, only adding to uuidList if Post time is between range
-        List<UUID> uuidList = new LinkedList<UUID>();
-        for ( Row<String, UUID, byte[]> row : rows ) {
-            ColumnSlice<UUID, byte[]> slice = row.getColumnSlice();
-            for ( HColumn<UUID, byte[]> col : slice.getColumns() ) {
-                long t = TimeUUIDUtils.getTimeFromUUID(col.getName());
-                if ( t > endAsLong ) {
-                    break;
-                }
-
-                if ( t >= startAsLong ) {
-                    uuidList.add(col.getName());
-                }
-            }
-        }
-
-        return uuidList;
-    }
+    List<UUID> findPostUUIDsByTimeRange( DateTime start, DateTime end );
+
+    /**
+     * Find up to 'limit' Post UUIDs by time range (GMT), for instance "newest 50 posts".  Stops reading as soon
+     * as the limit is reached.
+     *
+     * @param start Start time in GMT
+     * @param end End time in GMT
+     * @param limit max number of Post IDs to return
+     * @param newestFirst true to return the newest Posts first
+     * @return list of Post IDs
+     */
+    List<UUID> findPostUUIDsByTimeRange( DateTime start, DateTime end, int limit, boolean newestFirst );
+
+    /**
+     * Iterate over Post UUIDs by time range (GMT).  The time index is read lazily as the iterator is consumed,
+     * so memory use doesn't depend on how wide the range is.
+     *
+     * @param start Start time in GMT
+     * @param end End time in GMT
+     * @param newestFirst true to return the newest Posts first
+     * @return iterator of Post IDs
+     */
+    Iterator<UUID> iteratePostUUIDsByTimeRange( DateTime start, DateTime end, boolean newestFirst );
+
+    /**
+     * Find the bucket sizes of the Post time index, as last saved by {@link #rebucketPostsByTime}.
+     *
+     * @return bucket sizes by time period, {@link PostTimeBuckets#HOURLY} if never changed
+     */
+    PostTimeBuckets findPostTimeBuckets();
+
+    /**
+     * Change the bucket size of the Post time index from 'start' to 'end', and copy the Posts already in that time
+     * into the new buckets.  The new buckets are written, then the bucket sizes, so a read in this process finds
+     * every Post during the move.
+     *
+     * Other processes pick up the new bucket sizes when they next refresh them, and until then read and save Posts
+     * in the old buckets.  So the old buckets are kept until {@link #deleteRetiredPostBuckets()} - see the storage
+     * engine for how long that is, and how close to now the range can be.
+     *
+     * @param start Start time in GMT, inclusive
+     * @param end End time in GMT, exclusive
+     * @param granularity new bucket size
+     * @return number of Posts moved
+     * @throws IllegalArgumentException if 'start' or 'end' isn't on a bucket boundary (see
+     * {@link PostTimeBuckets#with})
+     */
+    int rebucketPostsByTime( DateTime start, DateTime end, PostTimeBuckets.Granularity granularity );
+
+    /**
+     * Delete the old buckets of the Post time index left by {@link #rebucketPostsByTime}, once no process can still
+     * be using them.  Posts saved in them after the change are moved to the new buckets first.  Buckets that can't
+     * be deleted yet are left for the next call.
+     *
+     * @return number of buckets deleted
+     */
+    int deleteRetiredPostBuckets();
 
     /**
      * Find Posts by time range (GMT).
+     * Posts are summaries for list views - their text isn't read, use {@link #findPost(UUID)} for that.
      *
      * @param start Start time in GMT
      * @param end End time in GMT
      * @return list of Post records
      */
-    public List<Post> findPostsByTimeRange(DateTime start, DateTime end) {
-        List<UUID> uuidList = findPostUUIDsByTimeRange(start, end);
-        if ( uuidList.isEmpty() ) {
-            return null;
-        }
-
-        return findPostsByUUIDList( uuidList, true );
-    }
+    List<Post> findPostsByTimeRange( DateTime start, DateTime end );
 
     /**
-     * Find all Comment UUIDs for a given user.
+     * Find up to 'limit' Posts by time range (GMT).
+     * Posts are summaries for list views - their text isn't read, use {@link #findPost(UUID)} for that.
      *
-     * @param userEmail user's email
-     * @return list of Comment IDs
+     * @param start Start time in GMT
+     * @param end End time in GMT
+     * @param limit max number of Posts to return
+     * @param newestFirst true to return the newest Posts first
+     * @return list of Post records
      */
-    public List<UUID> findCommentUUIDsByUser( String userEmail ) {
-        // TODO - do it all!
+    List<Post> findPostsByTimeRange( DateTime start, DateTime end, int limit, boolean newestFirst );
 
-        // create a Slice Query
+    /**
+     * Find the newest Posts whose title or text has every one of the terms (see {@link PostSearch}).
+     *
+     * @param terms index terms, from {@link PostSearch#terms(String)}
+     * @param limit max number of Post IDs to return
+     * @return list of Post IDs, newest first
+     */
+    List<UUID> findPostUUIDsByTerms( Collection<String> terms, int limit );
 
-        // use a column slice iterator
+    /**
+     * Find the newest Posts whose title or text has every one of the terms (see {@link PostSearch}).
+     * Posts are summaries for list views - their text isn't read, use {@link #findPost(UUID)} for that.
+     *
+     * @param terms index terms, from {@link PostSearch#terms(String)}
+     * @param limit max number of Posts to return
+     * @return list of Post records, newest first
+     */
+    List<Post> findPostsByTerms( Collection<String> terms, int limit );
 
-        List<UUID> uuidList = new LinkedList<UUID>();
+    /**
+     * Add Posts saved before they were indexed for search to the index - the same columns {@link #savePost(Post)}
+     * writes, so indexing a Post again is harmless.
+     *
+     * @param posts Posts, with their text
+     */
+    void indexPosts( Collection<Post> posts );
 
-        // iterator over filling in this list
+    /**
+     * Find all Comment UUIDs for a given user.
+     *
+     * @param userEmail user's email
+     * @return list of Comment IDs
+     */
+    List<UUID> findCommentUUIDsByUser( String userEmail );
 
-        return uuidList;
-    }
+    /**
+     * Find one page of Comment UUIDs for a given user, newest first.
+     *
+     * @param userEmail user's email
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Comment IDs to return
+     * @return page of Comment IDs
+     */
+    Page<UUID> findCommentUUIDsByUser( String userEmail, String cursor, int limit );
 
     /**
-     * Find a post's comment UUIDs sorted by time.  Uses the ColumnFamily, post_comments, as an index.
+     * Find a post's comment UUIDs sorted by time.
      *
      * @param postId post ID
      * @return list of Comment IDs
      */
-    public List<UUID> findCommentUUIDsByPostSortedByTime(UUID postId) {
-        SliceQuery<UUID, UUID, byte[]> q = HFactory.createSliceQuery(keyspace, UUIDSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
-        q.setColumnFamily(CF_POST_COMMENTS);
-        q.setKey(postId);
-        q.setRange(null, null, false, 10);
-
-        ColumnSliceIterator<UUID, UUID, byte[]> iter = new ColumnSliceIterator<UUID, UUID, byte[]>(q, null, (UUID)null, false);
-        List<UUID> uuidList = new LinkedList<UUID>();
-        while ( iter.hasNext() ) {
-            HColumn<UUID, byte[]> col = iter.next();
-            uuidList.add(col.getName());
-        }
+    List<UUID> findCommentUUIDsByPostSortedByTime( UUID postId );
 
-        return uuidList;
-    }
+    /**
+     * Find one page of a post's comment UUIDs sorted by time.
+     *
+     * @param postId post ID
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Comment IDs to return
+     * @return page of Comment IDs
+     */
+    Page<UUID> findCommentUUIDsByPostSortedByTime( UUID postId, String cursor, int limit );
 
     /**
-     * Find a post's comment UUIDs sorted by vote.  Uses the ColumnFamily, post_comments_sorted_by_vote, as an index.
+     * Find a post's comment UUIDs sorted by vote.
      *
      * @param postId Post ID
      * @return list of Comment IDs
      */
-    public List<UUID> findCommentUUIDsByPostSortedByVotes(UUID postId) {
-        SliceQuery<UUID, Composite, byte[]> q = HFactory.createSliceQuery(keyspace, UUIDSerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
-        q.setColumnFamily(CF_POST_COMMENTS_SORTED_BY_VOTE);
-        q.setKey(postId);
-        q.setRange(null, null, false, 10);
+    List<UUID> findCommentUUIDsByPostSortedByVotes( UUID postId );
 
-        ColumnSliceIterator<UUID, Composite, byte[]> iter = new ColumnSliceIterator<UUID, Composite, byte[]>(q, null, (Composite)null, false);
-        List<UUID> uuidList = new LinkedList<UUID>();
-        while ( iter.hasNext() ) {
-            HColumn<Composite, byte[]> col = iter.next();
-            uuidList.add(UUIDSerializer.get().fromByteBuffer((ByteBuffer)col.getName().get(1)));
-        }
+    /**
+     * Find one page of a post's comment UUIDs sorted by vote.  If the comments are re-sorted between pages, the
+     * next page continues from the same vote count, so a comment may be skipped or repeated.
+     *
+     * @param postId Post ID
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Comment IDs to return
+     * @return page of Comment IDs
+     */
+    Page<UUID> findCommentUUIDsByPostSortedByVotes( UUID postId, String cursor, int limit );
 
-        return uuidList;
-    }
+    /**
+     * Find one page of a post's Comments sorted by vote.  Only the Comments on the page are read.
+     *
+     * @param postId Post ID
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Comments to return
+     * @return page of Comment records
+     */
+    Page<Comment> findCommentsByPost( UUID postId, String cursor, int limit );
+
+    /**
+     * Find the comment UUIDs of several posts, sorted by vote, with one query.
+     *
+     * @param postIds Post IDs
+     * @return Post ID mapping to its list of Comment IDs, in the order of 'postIds'
+     */
+    Map<UUID, List<UUID>> findCommentUUIDsByPostsSortedByVotes( List<UUID> postIds );
 
     /**
      * Find Comments given a list of Comment IDs.  It will also do a lookup to get the votes count for each Comment.
@@ -439,71 +343,53 @@ public class BlogDao {
      * @param uuidList Find Comment records given the list of Comment IDs
      * @return list of Comment records
      */
-    public List<Comment> findCommentsByUUIDList( List<UUID> uuidList ) {
-        MultigetSliceQuery<UUID, String, byte[]> q = HFactory.createMultigetSliceQuery(keyspace, UUIDSerializer.get(), StringSerializer.get(), BytesArraySerializer.get());
-        q.setColumnFamily(CF_COMMENTS);
-        q.setRange(null, null, false, 100);
-        q.setKeys(uuidList);
-        QueryResult<Rows<UUID, String, byte[]>> qr = q.execute();
-        Rows<UUID, String, byte[]> rows = qr.get();
-        if ( null == rows || 0 == rows.getCount()) {
-            return null;
-        }
-
-        Map<UUID, Comment> commentMap = new HashMap<UUID, Comment>();
-        for ( Row<UUID, String, byte[]> row : rows) {
-            commentMap.put(row.getKey(), entityManager.find(Comment.class, row.getKey(), row.getColumnSlice()));
-        }
-
-        // gotta do it this way to preserve ordering from the original UUID List
-        List<Comment> commentList = new LinkedList<Comment>();
-        for ( UUID uuid : uuidList ) {
-            commentList.add(commentMap.get(uuid));
-        }
-
-        Map<UUID, Long> voteMap = findVotes(uuidList);
-        for (Comment comment : commentList ) {
-            Long votes = voteMap.get(comment.getId());
-            if ( null != votes ) {
-                comment.setVotes(votes);
-            }
-        }
-
-        return commentList;
-    }
+    List<Comment> findCommentsByUUIDList( List<UUID> uuidList );
 
     /**
-     * Find all Comments for the given user email.
+     * Asynchronous version of {@link #findCommentsByUUIDList(List)}.  The Comments and their votes are read
+     * concurrently.  Use {@link java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)} to wait
+     * with a timeout, and {@link java.util.concurrent.Future#cancel(boolean)} to cancel the queries.
      *
-     * @param userEmail user's email
-     * @return list of Comment records
+     * @param uuidList Find Comment records given the list of Comment IDs
+     * @return future list of Comment records
      */
-    public List<Comment> findCommentsByUser( String userEmail ) {
-        List<UUID> uuidList = findCommentUUIDsByUser(userEmail);
-        if ( uuidList.isEmpty() ) {
-            return null;
-        }
+    ListenableFuture<List<Comment>> findCommentsByUUIDListAsync( List<UUID> uuidList );
 
-        return findCommentsByUUIDList(uuidList);
-    }
-
-    private void vote(String userEmail, String type, UUID uuid) {
-        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+    /**
+     * Find Posts given a list of Post IDs, including their votes.
+     *
+     * @param uuidList Find Post records given the list of Post IDs
+     * @return list of Post records, null for any not found, or null if none are found
+     */
+    List<Post> findPostsByUUIDList( List<UUID> uuidList );
 
-        m.addCounter(UUIDSerializer.get().toBytes(uuid), CF_VOTES, HFactory.createCounterColumn("v", 1));
-        m.addInsertion(StringSerializer.get().toBytes(userEmail), CF_USER_VOTES, HFactory.createColumn(uuid, System.currentTimeMillis()));
+    /**
+     * Find Posts given a list of Post IDs, including their votes.  The Posts and their votes are read
+     * concurrently.  Use {@link java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)} to wait
+     * with a timeout, and {@link java.util.concurrent.Future#cancel(boolean)} to cancel the queries.
+     *
+     * @param uuidList Find Post records given the list of Post IDs
+     * @return future list of Post records
+     */
+    ListenableFuture<List<Post>> findPostsByUUIDListAsync( List<UUID> uuidList );
 
-        // this inserts the fact that this post has comment votes that have been updated, so next time we
-        // need the comments sorted, we will do so, otherwise, don't waste time sorting
-        if ( "comment".equalsIgnoreCase(type) ) {
-            Comment c = findComment(uuid);
-            if ( null != c) {
-                m.addInsertion( UUIDSerializer.get().toBytes(c.getPostId()), CF_POST_COMMENT_VOTE_CHANGE, HFactory.createColumn("v", EMPTY_BYTES) );
-            }
-        }
+    /**
+     * Find all Comments for the given user email.
+     *
+     * @param userEmail user's email
+     * @return list of Comment records
+     */
+    List<Comment> findCommentsByUser( String userEmail );
 
-        m.execute();
-    }
+    /**
+     * Find one page of Comments for the given user email, newest first.  Only the Comments on the page are read.
+     *
+     * @param userEmail user's email
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Comments to return
+     * @return page of Comment records
+     */
+    Page<Comment> findCommentsByUser( String userEmail, String cursor, int limit );
 
     /**
      * Vote on a Post.
@@ -511,53 +397,96 @@ public class BlogDao {
      * @param userEmail User's email
      * @param postId Post ID
      */
-    public void voteOnPost( String userEmail, UUID postId ) {
-        vote(userEmail, "POST", postId);
-    }
+    void voteOnPost( String userEmail, UUID postId );
 
     /**
-     * Vote on a comment and signal that the Post needs its "comments sorted by vote" index updated.
+     * Vote on a comment and signal that the Post needs its "comments sorted by vote" index updated, by setting
+     * the flag and recording the Post in the comment vote ledger.
      *
      * @param userEmail user's email
      * @param commentId Comment ID
      */
-    public void voteOnComment( String userEmail, UUID commentId ) {
-        vote(userEmail, "COMMENT", commentId);
-    }
+    void voteOnComment( String userEmail, UUID commentId );
 
     /**
-     * Find the vote counts for the list of UUIDs.  Since UUIDs are unique it doesn't matter if the UUID
-     * is for a Post or a Comment.
+     * Vote on a comment of the given Post.  Same as {@link #voteOnComment(String, UUID)} but the Post doesn't
+     * need to be looked up, so this is a single write.
      *
-     * @param uuidList list of Comment or Post IDs
-     * @return Comment/Post ID mapping to number of votes
+     * @param userEmail user's email
+     * @param commentId Comment ID
+     * @param postId Post ID the Comment belongs to
      */
-    public Map<UUID, Long> findVotes( List<UUID> uuidList ) {
-        if ( null == uuidList || uuidList.isEmpty() ) {
-            return Collections.emptyMap();
-        }
+    void voteOnComment( String userEmail, UUID commentId, UUID postId );
 
-        MultigetSliceCounterQuery<UUID, String> q = HFactory.createMultigetSliceCounterQuery(keyspace, UUIDSerializer.get(), StringSerializer.get());
-        q.setColumnFamily(CF_VOTES);
-        q.setKeys(uuidList);
-        q.setRange(null, null, false, 100);
-        QueryResult<CounterRows<UUID, String>> qr = q.execute();
-        CounterRows<UUID, String> rows = qr.get();
-        if ( null == rows || 0 == rows.getCount()) {
-            return null;
-        }
+    /**
+     * Save a batch of votes at once.  Increments for the same Post/Comment are summed into one counter update,
+     * and a Post whose Comments were voted on is flagged for sorting only once.  Comment votes should carry
+     * their Post ID, otherwise it's looked up.  Each vote is added to the voter's and the site's activity feeds, and
+     * counted in the vote roll-ups.  Nothing is read to count a vote - the trending index is moved later, see
+     * {@link #saveTrendingScores(Map, Map)}.
+     *
+     * @param votes votes to save, at most one per User and Post/Comment
+     */
+    void saveVotes( Collection<Vote> votes );
 
-        Map<UUID, Long> voteList = new HashMap<UUID, Long>();
+    /**
+     * The part of {@link #saveVotes(Collection)} that can safely be repeated - the User's votes, the activity feeds,
+     * and the flags of Posts whose Comments were voted on - without touching the counters.  If it fails it can be
+     * retried.
+     *
+     * @param votes votes to save, at most one per User and Post/Comment
+     */
+    void saveVoteRecords( Collection<Vote> votes );
 
-        for ( CounterRow<UUID, String> row : rows ) {
-            CounterSlice<String> slice = row.getColumnSlice();
-            if ( null != slice && !slice.getColumns().isEmpty()) {
-                voteList.put( row.getKey(), slice.getColumnByName("v").getValue());
-            }
-        }
+    /**
+     * The rest of {@link #saveVotes(Collection)} - the vote counters and roll-ups.  Counter
+     * increments aren't idempotent: if this fails some may have been applied anyway, so retrying it can count a
+     * vote twice.
+     *
+     * @param votes votes to count, at most one per User and Post/Comment
+     */
+    void countVotes( Collection<Vote> votes );
 
-        return voteList;
-    }
+    /**
+     * Move Posts in the trending index to the score for their vote count, replacing the column for the count last
+     * saved.  Written by {@link PostRanking} from the counts it keeps, so votes don't read their counters.  A
+     * replaced count that's unknown or wrong leaves an old, lower scored column behind, which
+     * {@link #findTrendingPosts(int, int)} deletes when it finds it.
+     *
+     * @param votes Post ID mapping to number of votes
+     * @param replaced Post ID mapping to the number of votes last saved, if known
+     */
+    void saveTrendingScores( Map<UUID, Long> votes, Map<UUID, Long> replaced );
+
+    /**
+     * Find one page of the User's activity feed - Posts, Comments and votes - newest first.  The page is usually a
+     * single slice of one row.
+     *
+     * @param userEmail User's email
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of entries to return
+     * @return page of activity
+     */
+    Page<Activity> findUserActivity( String userEmail, String cursor, int limit );
+
+    /**
+     * Find one page of the site-wide activity feed - every User's Posts, Comments and votes - newest first.  The
+     * page is usually a single slice of one row.
+     *
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of entries to return
+     * @return page of activity
+     */
+    Page<Activity> findSiteActivity( String cursor, int limit );
+
+    /**
+     * Find the vote counts for the list of UUIDs.  Since UUIDs are unique it doesn't matter if the UUID
+     * is for a Post or a Comment.  Never null - IDs never voted on are left out, so the map is empty if none were.
+     *
+     * @param uuidList list of Comment or Post IDs
+     * @return Comment/Post ID mapping to number of votes
+     */
+    Map<UUID, Long> findVotes( List<UUID> uuidList );
 
     /**
      * Find the timestamp, if any, when a User voted on a Post or Comment.
@@ -566,105 +495,106 @@ public class BlogDao {
      * @param uuid Post/Comment ID
      * @return Timestamp of when the user voted if found, null otherwise
      */
-    public DateTime findUserVote(String userEmail, UUID uuid) {
-        ColumnQuery<String, UUID, Long> q = HFactory.createColumnQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), LongSerializer.get());
-        q.setColumnFamily(CF_USER_VOTES);
-        q.setKey(userEmail);
-        q.setName(uuid);
+    DateTime findUserVote( String userEmail, UUID uuid );
 
-        QueryResult<HColumn<UUID, Long>> qr = q.execute();
-        HColumn<UUID, Long> col = qr.get();
-        if ( null != col ) {
-            return new DateTime(col.getValue());
-        }
-        else {
-            return null;
-        }
-    }
+    /**
+     * Iterate over every User's votes, read lazily a User at a time.  The vote type isn't stored so it's null.
+     *
+     * @return iterator of all votes
+     */
+    Iterator<Vote> iterateUserVotes();
 
     /**
-     * Find 'number' of Posts ordered by their votes.  Uses the ColumnFamily, posts_sorted_by_vote, as an
-     * index to speed up search.
+     * Find 'number' of Posts ordered by their votes.
+     * Posts are summaries for list views - their text isn't read, use {@link #findPost(UUID)} for that.
      *
      * @param number Number of Posts to return
      * @return List of Post records
      */
-    public List<Post> findPostsByVote(int number) {
-        SliceQuery<byte[], Composite, byte[]> q = HFactory.createSliceQuery(keyspace, BytesArraySerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
-        q.setColumnFamily(CF_POSTS_BY_VOTE);
-        q.setKey(POSTS_BY_VOTE_KEY);
-        q.setRange(null, null, false, 10);
-
-        ColumnSliceIterator<byte[], Composite, byte[]> iter = new ColumnSliceIterator<byte[], Composite, byte[]>(q, null, (Composite)null, false);
-        List<UUID> uuidList = new LinkedList<UUID>();
-        Map<UUID, Long> voteMap = new HashMap<UUID, Long>();
-        int count = number;
-        while ( iter.hasNext() && 0 < count--) {
-            HColumn<Composite, byte[]> col = iter.next();
-            ByteBuffer bb = (ByteBuffer)col.getName().get(1);
-            UUID uuid = UUIDSerializer.get().fromByteBuffer(bb);
-            uuidList.add( uuid );
-            voteMap.put( uuid, LongSerializer.get().fromByteBuffer((ByteBuffer)col.getName().get(0)));
-        }
-
-        List<Post> postList = findPostsByUUIDList(uuidList, false);
-        if ( null != postList && !postList.isEmpty() ) {
-            for ( Post p : postList ) {
-                p.setVotes(voteMap.get(p.getId()));
-            }
-        }
-
-        return postList;
-    }
-
-    /**
-     * Determines whether or not a Post's comments need sorting by checking for the Post ID's existence in
-     * the ColumnFamily, post_comment_votes_changed.
+    List<Post> findPostsByVote( int number );
+
+    /**
+     * Find the top 'number' trending Posts created over the last 'hours' (at most {@link TrendingScores#MAX_HOURS}),
+     * using the trending index - votes decayed by age, see {@link TrendingScores}.  Each hour bucket is read and
+     * the buckets merged, no scores are calculated.
+     * Posts are summaries for list views - their text isn't read, use {@link #findPost(UUID)} for that.
+     *
+     * @param number Number of Posts to return
+     * @param hours Only Posts created over the last 'hours'
+     * @return List of Post records, most trending first
+     */
+    List<Post> findTrendingPosts( int number, int hours );
+
+    /**
+     * Count votes per step, from the step containing 'start' to the step containing 'end'.  Read from the vote
+     * roll-ups, counted at minute, hour and day resolution as votes are saved - the coarsest resolution that adds
+     * up to whole steps, so hourly steps over 30 days read 720 counters.  See {@link RollupBuckets}.
+     *
+     * @param type {@link Vote#POST} or {@link Vote#COMMENT}, or null for both
+     * @param start Start time, millis since epoch
+     * @param end End time, millis since epoch
+     * @param step length of each step, a multiple of a minute.  Steps start at multiples of 'step' since the epoch
+     * @return one Rollup per step, oldest first, including empty steps
+     */
+    List<Rollup> findVoteRollups( String type, long start, long end, long step );
+
+    /**
+     * Replace the "posts sorted by vote" index with the given Posts.  Used by {@link PostRanking} to publish
+     * its top-K, and by {@link #sortPostsByVote(int)}.
+     *
+     * @param voteMap Post ID mapping to number of votes
+     */
+    void savePostsByVote( Map<UUID, Long> voteMap );
+
+    /**
+     * Determines whether or not a Post's comments need sorting.
      *
      * @param postId Post ID
      * @return true if comments for the given Post ID need sorting, false otherwise
      */
-    public boolean postCommentsNeedSorting(UUID postId) {
-        ColumnQuery<UUID, String, byte[]> q = HFactory.createColumnQuery(keyspace, UUIDSerializer.get(), StringSerializer.get(), BytesArraySerializer.get());
-        q.setColumnFamily(CF_POST_COMMENT_VOTE_CHANGE);
-        q.setKey(postId);
-        q.setName("v");
-
-        QueryResult<HColumn<String, byte[]>> qr = q.execute();
-        HColumn<String, byte[]> col = qr.get();
-        return null != col;
-    }
+    boolean postCommentsNeedSorting( UUID postId );
 
     /**
-     * Sort Posts by vote created since 'days' ago.  The intention is for this method to be called only
-     * when needed, or periodically.
+     * Find the Posts whose Comments were created or voted on in the time range, using the comment vote ledger.
+     * The ledger only goes back {@link CommentVoteBuckets#LEDGER_TTL_SECONDS}.
      *
-     * @param days Only sort Posts that have been created over the last 'days'
+     * @param since Start time, inclusive
+     * @param until End time, exclusive
+     * @return Post IDs
      */
-    public void sortPostsByVote(int days) {
-        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+    Set<UUID> findPostUUIDsWithCommentVotes( DateTime since, DateTime until );
 
-        // delete the old row first, then we'll add the new
-        m.addDeletion(POSTS_BY_VOTE_KEY, CF_POSTS_BY_VOTE);
+    /**
+     * Find a background job's checkpoint - the time it last ran up to.
+     *
+     * @param name job name
+     * @return checkpoint if found, null otherwise
+     */
+    DateTime findCheckpoint( String name );
 
-        // calc date range, end with yesterday and start 'days' prior
-        DateTime start = new DateTime().minusDays(days).hourOfDay().roundFloorCopy();
-        DateTime end = new DateTime();
-        List<UUID> uuidList = findPostUUIDsByTimeRange(start, end);
+    /**
+     * Save a background job's checkpoint.
+     *
+     * @param name job name
+     * @param checkpoint time the job ran up to
+     */
+    void saveCheckpoint( String name, DateTime checkpoint );
 
-        // find votes, then save them to CF which will sort them using Composite col name
-        if ( null != uuidList && !uuidList.isEmpty() ) {
-            Map<UUID, Long> voteMap = findVotes(uuidList);
-            // now write to CF
-            for (Map.Entry<UUID, Long> entry : voteMap.entrySet() ) {
-                Composite colName = new Composite(entry.getValue(), entry.getKey());
-                m.addInsertion(POSTS_BY_VOTE_KEY, CF_POSTS_BY_VOTE, HFactory.createColumn(colName, EMPTY_BYTES));
-            }
-        }
+    /**
+     * Determines which of the Posts need their comments sorted, with one query.
+     *
+     * @param postIds Post IDs
+     * @return the Post IDs whose comments need sorting
+     */
+    Set<UUID> findPostUUIDsNeedingCommentSort( Collection<UUID> postIds );
 
-        // send the batch
-        m.execute();
-    }
+    /**
+     * Sort Posts by vote created since 'days' ago.  The intention is for this method to be called only
+     * when needed, or periodically.
+     *
+     * @param days Only sort Posts that have been created over the last 'days'
+     */
+    void sortPostsByVote( int days );
 
     /**
      * Sort the comments for a given Post by vote.  The intention is for this method to be called only
@@ -672,34 +602,13 @@ public class BlogDao {
      *
      * @param postId Post ID
      */
-    public void sortCommentsByVotes(UUID postId) {
-        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
-
-        byte[] postIdAsBytes = UUIDSerializer.get().toBytes(postId);
-        // delete the old row first, then we'll add the new
-        m.addDeletion(postIdAsBytes, CF_POST_COMMENTS_SORTED_BY_VOTE);
-
-        List<UUID> uuidList = findCommentUUIDsByPostSortedByTime(postId);
-        if ( null == uuidList || uuidList.isEmpty() ) {
-            return;
-        }
-
-        Map<UUID, Long> voteMap = findVotes(uuidList);
+    void sortCommentsByVotes( UUID postId );
 
-        // now write to CF
-        for (Map.Entry<UUID, Long> entry : voteMap.entrySet() ) {
-            Composite colName = new Composite(entry.getValue(), entry.getKey());
-            m.addInsertion(postIdAsBytes, CF_POST_COMMENTS_SORTED_BY_VOTE, HFactory.createColumn(colName, EMPTY_BYTES));
-        }
-
-        // delete the marker that said we needed to sort comments for this post
-        m.addDeletion(postIdAsBytes, CF_POST_COMMENT_VOTE_CHANGE);
-
-        m.execute();
-    }
-
-    private DateTime calculatePostTimeGranularity(DateTime timestamp) {
-        return timestamp.withZone(DateTimeZone.forOffsetHours(0)).hourOfDay().roundFloorCopy();
-    }
+    /**
+     * Sort the comments of several Posts by vote, reading and writing all of them together.
+     *
+     * @param postIds Post IDs
+     */
+    void sortCommentsByVotes( Collection<UUID> postIds );
 
 }
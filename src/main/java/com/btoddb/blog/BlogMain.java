@@ -6,26 +6,45 @@ import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.apache.commons.lang.time.StopWatch;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.util.List;
 import java.util.UUID;
 
 /**
  * 'main' for command line client - run without any params to see usage.
  *
+ * Besides running one command, it can stay up and run many against the same warm DAO, connection pool and caches:
+ * 'shell' reads commands from stdin, one per line, and 'serve' takes them from {@link BlogClient}s over a local
+ * socket (see {@link BlogServer}).  Both also run what a long running process should - {@link PostRanking},
+ * {@link CommentSortScheduler} and {@link VoteBuffer} - so the top posts and comment order stay current.
+ * {@link VoteFilter} only runs with -Dblog.voteFilter=true: it can't see votes made by other processes, so it's
+ * only safe when this is the only process voting.
+ *
  */
 public class BlogMain {
     private static final DateTimeFormatter dateFormatter = DateTimeFormat.forPattern("MMddYYYY:HHmmss").withZone(DateTimeZone.forOffsetHours(0));
 
+    private static BlogDao dao;
+    private static UserCache userCache;
     private static BlogService service;
-    private static BlogRenderer renderer;
 
-    public static void main(String[] args) {
+    // only started by 'serve' and 'shell'
+    private static PostRanking postRanking;
+    private static CommentSortScheduler commentSortScheduler;
+    private static VoteBuffer voteBuffer;
+    private static VoteFilter voteFilter;
+
+    public static void main(String[] args) throws IOException {
         //
         // gotta at least have the command
         //
 
         if ( 1 > args.length ) {
-            showUsage();
+            showUsage(System.out);
             return;
         }
 
@@ -33,49 +52,213 @@ public class BlogMain {
         // a little dependency injection here
         //
 
-        BlogDao dao = new BlogDao();
+        dao = createDao(System.getProperty("blog.storage", "hector"));
         dao.init();
+        userCache = new UserCache(dao);
+        service = new BlogService(dao, userCache);
+
+        try {
+            if ( "serve".equalsIgnoreCase(args[0]) ) {
+                startBackgroundWork();
+                serve(args);
+            }
+            else if ( "shell".equalsIgnoreCase(args[0]) ) {
+                startBackgroundWork();
+                shell();
+            }
+            else {
+                run(args);
+            }
+        }
+        finally {
+            shutdownBackgroundWork();
+            dao.shutdown();
+        }
+    }
+
+    private static void startBackgroundWork() {
+        postRanking = new PostRanking(dao);
+        postRanking.start();
+        service.setPostRanking(postRanking);
+
+        commentSortScheduler = new CommentSortScheduler(dao);
+        commentSortScheduler.start();
+
+        // misses duplicates of votes made by any other process, so only when asked for
+        if ( Boolean.getBoolean("blog.voteFilter") ) {
+            voteFilter = new VoteFilter(dao);
+            voteFilter.start();
+            service.setVoteFilter(voteFilter);
+        }
 
-        service = new BlogService(dao);
-        renderer = new BlogRenderer(dao);
+        voteBuffer = new VoteBuffer(dao);
+        voteBuffer.setPostRanking(postRanking);
+        voteBuffer.start();
+        service.setVoteBuffer(voteBuffer);
+    }
 
+    /**
+     * Stop whatever was started, the buffered votes first so the ranking's last flush includes them.
+     *
+     */
+    private static void shutdownBackgroundWork() {
+        try {
+            if ( null != voteBuffer ) {
+                voteBuffer.shutdown();
+            }
+        }
+        finally {
+            if ( null != voteFilter ) {
+                voteFilter.shutdown();
+            }
+            if ( null != commentSortScheduler ) {
+                commentSortScheduler.shutdown();
+            }
+            if ( null != postRanking ) {
+                postRanking.shutdown();
+            }
+        }
+    }
+
+    private static void run(String[] args) {
         //
         // parse command and process
         //
 
         // sometimes i want to run multiple times to see the performance
         for ( int i=0;i < 1;i++ ) {
-            StopWatch sw = new StopWatch();
-            sw.start();
+            try {
+                execute(args, System.out);
+            }
+            catch ( UsageException e ) {
+                showUsageError(e, System.out);
+                System.exit(1);
+            }
+        }
+    }
+
+    private static void serve(String[] args) {
+        try {
+            checkArgs("serve", args, 0, 1);
+        }
+        catch ( UsageException e ) {
+            showUsageError(e, System.out);
+            System.exit(1);
+        }
+
+        BlogServer server = new BlogServer(2 == args.length ? Integer.parseInt(args[1]) : BlogServer.DEFAULT_PORT);
+        server.start();
+        System.out.println("blog server listening on localhost:" + server.getPort() + " - stop it with 'BlogClient stop-server'");
+        server.awaitShutdown();
+    }
+
+    private static void shell() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        boolean prompt = null != System.console();
+        while ( true ) {
+            if ( prompt ) {
+                System.out.print("blog> ");
+                System.out.flush();
+            }
+
+            String line = in.readLine();
+            if ( null == line ) {
+                return;
+            }
+
+            String[] args;
+            try {
+                args = BlogServer.parseCommand(line);
+            }
+            catch ( IllegalArgumentException e ) {
+                System.out.println("*** ERROR ***  " + e.getMessage());
+                continue;
+            }
+
+            if ( 0 == args.length ) {
+                continue;
+            }
+            else if ( "quit".equalsIgnoreCase(args[0]) || "exit".equalsIgnoreCase(args[0]) ) {
+                return;
+            }
 
             try {
-                processCommand(args);
+                execute(args, System.out);
+            }
+            catch ( UsageException e ) {
+                showUsageError(e, System.out);
             }
-            finally {
-                System.out.println("execution duration = " + sw.getTime() + "ms");
+            catch ( RuntimeException e ) {
+                System.out.println("*** ERROR ***  " + e);
             }
         }
     }
 
-    private static void processCommand(String[] args) {
+    /**
+     * Run one command and show how long it took.  The shared DAO, service and caches are thread-safe, and each
+     * call gets its own renderer, so {@link BlogServer} runs commands from several clients at once.
+     *
+     * @param args command and its params, same as on the command line
+     * @param out where the command's output goes
+     * @throws UsageException if the command is unknown or has the wrong params
+     */
+    static void execute(String[] args, PrintStream out) {
+        StopWatch sw = new StopWatch();
+        sw.start();
+
+        try {
+            BlogRenderer renderer = new BlogRenderer(dao, userCache, out);
+            renderer.setCommentSortScheduler(commentSortScheduler);
+            processCommand(args, renderer, out);
+        }
+        finally {
+            out.println("execution duration = " + sw.getTime() + "ms");
+        }
+    }
+
+    private static BlogDao createDao(String storage) {
+        if ( "memory".equalsIgnoreCase(storage) ) {
+            return new InMemoryBlogDao();
+        }
+        else if ( "hector".equalsIgnoreCase(storage) ) {
+            HectorBlogDao dao = new HectorBlogDao();
+            dao.setTextCompressionThreshold(Integer.getInteger("blog.compressTextOver", HectorBlogDao.DEFAULT_TEXT_COMPRESSION_THRESHOLD));
+            VoteShards voteShards = new VoteShards();
+            voteShards.setMaxShards(Integer.getInteger("blog.maxVoteShards", VoteShards.DEFAULT_MAX_SHARDS));
+            dao.setVoteShards(voteShards);
+            return dao;
+        }
+        else {
+            throw new IllegalArgumentException("unknown storage engine, " + storage + " - must be 'hector' or 'memory'");
+        }
+    }
+
+    private static void processCommand(String[] args, BlogRenderer renderer, PrintStream out) {
         String command = args[0];
         if ( "show-posts-by-range".equalsIgnoreCase(command)) {
             checkArgs("show-posts-by-range", args, 2);
             DateTime start = dateFormatter.withZone(DateTimeZone.forOffsetHours(0)).parseDateTime(args[1]);
             DateTime end = dateFormatter.withZone(DateTimeZone.forOffsetHours(0)).parseDateTime(args[2]);
             List<Post> postList = service.findPostsByTimeRange(start, end);
-            System.out.println( String.format("Posts from %s to %s : ", start, end) );
+            out.println( String.format("Posts from %s to %s : ", start, end) );
             if ( null != postList && !postList.isEmpty()) {
-                for ( Post p : postList ) {
-                    renderer.displayPost(p, false, null);
-                }
+                renderer.displayPosts(postList, false, null);
             }
         }
         else if ( "show-user-comments".equalsIgnoreCase(command)) {
-            checkArgs("show-user-comments", args, 1);
+            checkArgs("show-user-comments", args, 1, 3);
             User user = service.findUser(args[1]);
-            if ( null != user ) {
-                System.out.print( "All Comments for : " );
+            if ( null != user && 2 < args.length ) {
+                out.print( "Comments for : " );
+                renderer.displayUser(user, false, null);
+                Page<Comment> page = service.findCommentsByUser(user.getEmail(), cursorArg(args, 3), Integer.parseInt(args[2]));
+                for ( Comment c : page.getItems() ) {
+                    renderer.displayComment(c, "  ");
+                }
+                showNextCursor(page, out);
+            }
+            else if ( null != user ) {
+                out.print( "All Comments for : " );
                 renderer.displayUser(user, false, null);
                 List<Comment> commentList = service.findCommentsByUser(user.getEmail());
                 if ( null != commentList && !commentList.isEmpty()) {
@@ -85,10 +268,45 @@ public class BlogMain {
                 }
             }
         }
+        else if ( "show-user-posts".equalsIgnoreCase(command)) {
+            checkArgs("show-user-posts", args, 2, 3);
+            User user = service.findUser(args[1]);
+            if ( null != user ) {
+                out.print( "Posts for : " );
+                renderer.displayUser(user, false, null);
+                Page<Post> page = service.findPostsByUser(user.getEmail(), cursorArg(args, 3), Integer.parseInt(args[2]));
+                renderer.displayPosts(page.getItems(), false, "  ");
+                showNextCursor(page, out);
+            }
+        }
+        else if ( "show-post-comments".equalsIgnoreCase(command)) {
+            checkArgs("show-post-comments", args, 2, 3);
+            Page<Comment> page = service.findCommentsByPost(UUID.fromString(args[1]), cursorArg(args, 3), Integer.parseInt(args[2]));
+            for ( Comment c : page.getItems() ) {
+                renderer.displayComment(c, null);
+            }
+            showNextCursor(page, out);
+        }
+        else if ( "show-user-activity".equalsIgnoreCase(command)) {
+            checkArgs("show-user-activity", args, 2, 3);
+            out.println( "Activity for : " + args[1] );
+            Page<Activity> page = service.findUserActivity(args[1], cursorArg(args, 3), Integer.parseInt(args[2]));
+            for ( Activity a : page.getItems() ) {
+                renderer.displayActivity(a, "  ");
+            }
+            showNextCursor(page, out);
+        }
+        else if ( "show-site-activity".equalsIgnoreCase(command)) {
+            checkArgs("show-site-activity", args, 1, 2);
+            Page<Activity> page = service.findSiteActivity(cursorArg(args, 2), Integer.parseInt(args[1]));
+            for ( Activity a : page.getItems() ) {
+                renderer.displayActivity(a, null);
+            }
+            showNextCursor(page, out);
+        }
         else if ( "show-user".equalsIgnoreCase(command)) {
             checkArgs("show-user", args, 1);
-            User u = service.findUser(args[1]);
-            renderer.displayUser(u, true, null);
+            renderer.displayUser(args[1], true, null);
         }
         else if ( "show-post".equalsIgnoreCase(command)) {
             checkArgs("show-post", args, 1);
@@ -102,17 +320,55 @@ public class BlogMain {
         }
         else if ( "show-recent-posts".equalsIgnoreCase(command)) {
             checkArgs("show-recent-posts", args, 1);
-            service.findRecentPosts(Integer.parseInt(args[1]));
+            List<Post> postList = service.findRecentPosts(Integer.parseInt(args[1]));
+            if ( null != postList && !postList.isEmpty() ) {
+                renderer.displayPosts(postList, false, null);
+            }
+        }
+        else if ( "show-newest-posts".equalsIgnoreCase(command)) {
+            checkArgs("show-newest-posts", args, 1);
+            List<Post> postList = service.findNewestPosts(Integer.parseInt(args[1]));
+            if ( null != postList && !postList.isEmpty() ) {
+                renderer.displayPosts(postList, false, null);
+            }
         }
         else if ( "show-top-posts".equalsIgnoreCase(command)) {
             checkArgs("show-top-posts", args, 1);
             List<Post> postList = service.findTopPosts(Integer.parseInt(args[1]));
             if ( null != postList && !postList.isEmpty() ) {
-                for ( Post p : postList ) {
-                    renderer.displayPost(p, false, null);
-                }
+                renderer.displayPosts(postList, false, null);
             }
         }
+        else if ( "show-trending-posts".equalsIgnoreCase(command)) {
+            checkArgs("show-trending-posts", args, 1);
+            List<Post> postList = service.findTrendingPosts(Integer.parseInt(args[1]));
+            if ( null != postList && !postList.isEmpty() ) {
+                renderer.displayPosts(postList, false, null);
+            }
+        }
+        else if ( "search-posts".equalsIgnoreCase(command)) {
+            checkArgs("search-posts", args, 2);
+            List<Post> postList = service.searchPosts(args[2], Integer.parseInt(args[1]));
+            if ( null != postList && !postList.isEmpty() ) {
+                renderer.displayPosts(postList, false, null);
+            }
+        }
+        else if ( "show-vote-rollups".equalsIgnoreCase(command)) {
+            checkArgs("show-vote-rollups", args, 2, 3);
+            String type = 4 == args.length ? args[3].toUpperCase() : null;
+            List<Rollup> rollups = service.findVoteRollups(type, Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+            for ( Rollup r : rollups ) {
+                renderer.displayRollup(r, null);
+            }
+        }
+        else if ( "rank-posts".equalsIgnoreCase(command)) {
+            checkArgs("rank-posts", args, 0);
+            service.rankPosts();
+        }
+        else if ( "sort-comments".equalsIgnoreCase(command)) {
+            checkArgs("sort-comments", args, 0);
+            out.println( "Sorted comments for " + service.sortComments() + " post(s)" );
+        }
         else if ( "create-user".equalsIgnoreCase(command)) {
             checkArgs("create-user", args, 3);
             User u = service.createUser(args[1], args[2], args[3]);
@@ -140,40 +396,152 @@ public class BlogMain {
             service.voteOnComment(args[1], uuid);
             renderer.displayComment(service.findComment(uuid), null);
         }
+        else if ( "show-post-buckets".equalsIgnoreCase(command) ) {
+            checkArgs("show-post-buckets", args, 0);
+            for ( String line : service.findPostTimeBuckets().describe() ) {
+                out.println(line);
+            }
+        }
+        else if ( "rebucket-posts".equalsIgnoreCase(command) ) {
+            checkArgs("rebucket-posts", args, 2, 3);
+            DateTime start = dateFormatter.parseDateTime(args[1]);
+            DateTime end = dateFormatter.parseDateTime(args[2]);
+            PostTimeBuckets.Granularity granularity = null;
+            if ( 4 == args.length ) {
+                try {
+                    granularity = PostTimeBuckets.Granularity.valueOf(args[3].toUpperCase());
+                }
+                catch ( IllegalArgumentException e ) {
+                    throw new UsageException("'rebucket-posts' bucket size must be minute, hour or day : " + args[3]);
+                }
+            }
+
+            try {
+                out.println("Moved " + service.rebucketPosts(start, end, granularity) + " post(s)");
+            }
+            catch ( IllegalArgumentException e ) {
+                throw new UsageException("'rebucket-posts' " + e.getMessage());
+            }
+            for ( String line : service.findPostTimeBuckets().describe() ) {
+                out.println(line);
+            }
+        }
+        else if ( "delete-old-post-buckets".equalsIgnoreCase(command) ) {
+            checkArgs("delete-old-post-buckets", args, 0);
+            out.println("Deleted " + service.deleteOldPostBuckets() + " bucket(s)");
+        }
+        else if ( "index-posts".equalsIgnoreCase(command) ) {
+            checkArgs("index-posts", args, 2);
+            DateTime start = dateFormatter.parseDateTime(args[1]);
+            DateTime end = dateFormatter.parseDateTime(args[2]);
+            out.println("Indexed " + service.indexPosts(start, end) + " post(s)");
+        }
+        else if ( "import-posts".equalsIgnoreCase(command) ) {
+            checkArgs("import-posts", args, 1, 2);
+            File file = new File(args[1]);
+            BulkLoader.Format format = BulkLoader.formatOf(file);
+            if ( 3 == args.length ) {
+                try {
+                    format = BulkLoader.Format.valueOf(args[2].toUpperCase());
+                }
+                catch ( IllegalArgumentException e ) {
+                    throw new UsageException("'import-posts' format must be json or csv : " + args[2]);
+                }
+            }
+
+            try {
+                new BulkLoader(dao).load(file, format, out);
+            }
+            catch ( IOException e ) {
+                throw new RuntimeException("could not read " + file, e);
+            }
+        }
         else {
-            System.out.println( "Unknown command : " + command);
-            showUsage();
+            throw new UsageException("unknown command : " + command);
         }
     }
 
-    private static void showUsage() {
-        System.out.println();
+    private static void showUsage(PrintStream out) {
+        out.println();
 
-        System.out.println( "usage: BlogMain <command> [<params>]" );
-        System.out.println();
-        System.out.println( "  commands:" );
-        System.out.println( "    create-user <user-email> <password> <name>" );
-        System.out.println( "    create-post <user-email> <title> <text>");
-        System.out.println( "    create-comment <user-email> <post-id> <text>" );
-        System.out.println( "    show-user <user-email>" );
-        System.out.println( "    show-post <post-id>" );
-        System.out.println( "    show-comment <comment-id>" );
-        System.out.println( "    show-posts-by-range <start-time> <end-time> (start/end time in format MMDDYYYY:HHMMSS as GMT)" );
-        System.out.println( "    show-user-comments <user-email>" );
-        System.out.println( "    show-top-posts <number-of-posts>" );
-        System.out.println( "    show-recent-posts <minutes>" );
-        System.out.println( "    vote-on-post <user-email> <post-id>" );
-        System.out.println( "    vote-on-comment <user-email> <comment-id>" );
+        out.println( "usage: BlogMain <command> [<params>]" );
+        out.println();
+        out.println( "  commands:" );
+        out.println( "    create-user <user-email> <password> <name>" );
+        out.println( "    create-post <user-email> <title> <text>");
+        out.println( "    create-comment <user-email> <post-id> <text>" );
+        out.println( "    show-user <user-email>" );
+        out.println( "    show-post <post-id> (comments sorted by vote, posts with new comments or comment votes are sorted first)" );
+        out.println( "    show-comment <comment-id>" );
+        out.println( "    show-posts-by-range <start-time> <end-time> (start/end time in format MMDDYYYY:HHMMSS as GMT)" );
+        out.println( "    show-user-comments <user-email> [<page-size> [<cursor>]] (all comments if no page size)" );
+        out.println( "    show-user-posts <user-email> <page-size> [<cursor>]" );
+        out.println( "    show-post-comments <post-id> <page-size> [<cursor>] (sorted by vote)" );
+        out.println( "    show-user-activity <user-email> <page-size> [<cursor>] (posts, comments and votes, newest first)" );
+        out.println( "    show-site-activity <page-size> [<cursor>] (everyone's posts, comments and votes, newest first)" );
+        out.println( "    show-top-posts <number-of-posts> (as of the last rank-posts)" );
+        out.println( "    show-trending-posts <number-of-posts> (votes decayed by age, from the last " + BlogService.TRENDING_HOURS + " hours, as of the last rank-posts)" );
+        out.println( "    show-vote-rollups <step-minutes> <number-of-steps> [post|comment] (votes per step, up to now)" );
+        out.println( "    show-recent-posts <minutes>" );
+        out.println( "    show-newest-posts <number-of-posts>" );
+        out.println( "    search-posts <number-of-posts> <words> (newest posts with all the words in the title or text, quote the words)" );
+        out.println( "    vote-on-post <user-email> <post-id>" );
+        out.println( "    vote-on-comment <user-email> <comment-id>" );
+        out.println( "    rank-posts (rebuild the top and trending posts from the last " + BlogService.MAX_SORT_DAYS + " days)" );
+        out.println( "    sort-comments (sort comments by vote for posts with new comments or votes)" );
+        out.println( "    import-posts <file> [json|csv] (bulk import of old posts and comments, resumes from <file>.checkpoint)" );
+        out.println( "    index-posts <start-time> <end-time> (add posts saved before search existed to the search index)" );
+        out.println( "    show-post-buckets (bucket size of the post time index, by time period)" );
+        out.println( "    rebucket-posts <start-time> <end-time> [minute|hour|day] (whole GMT days, sized by number of posts if no size)" );
+        out.println( "    delete-old-post-buckets (delete the buckets rebucket-posts replaced, once every process has the new sizes)" );
+        out.println( "    shell (run commands from stdin, one per line, quoted like a shell, with one warm connection)" );
+        out.println( "    serve [<port>] (run commands sent by BlogClient to localhost:<port>, default is " + BlogServer.DEFAULT_PORT + ")" );
+        out.println();
+        out.println( "  storage engine is selected with -Dblog.storage=hector|memory (default is hector)" );
+        out.println( "  post/comment text of at least N bytes is compressed with -Dblog.compressTextOver=N (default is off)" );
+        out.println( "  hot post/comment vote counters are spread over up to N columns with -Dblog.maxVoteShards=N (at most " + VoteShards.MAX_SHARDS + ", default is 1, off)" );
+        out.println( "  shell/serve check first votes with a Bloom filter with -Dblog.voteFilter=true (only if no other process votes, default is off)" );
+        out.println( "  send commands to a server with BlogClient <command> [<params>] (-Dblog.server=host:port, default is localhost:" + BlogServer.DEFAULT_PORT + ")" );
 
-        System.out.println();
+        out.println();
+    }
+
+    static void showUsageError(UsageException e, PrintStream out) {
+        out.println();
+        out.println("*** ERROR ***  " + e.getMessage());
+        showUsage(out);
     }
 
     private static void checkArgs(String command, String[] args, int numRequiredParams) {
         if ( 1+numRequiredParams != args.length ) {
-            System.out.println();
-            System.out.println("*** ERROR ***  '" + command +"' command requires " + numRequiredParams + " param(s)");
-            showUsage();
-            System.exit(1);
+            throw new UsageException("'" + command +"' command requires " + numRequiredParams + " param(s)");
+        }
+    }
+
+    private static void checkArgs(String command, String[] args, int minParams, int maxParams) {
+        if ( 1+minParams > args.length || 1+maxParams < args.length ) {
+            throw new UsageException("'" + command +"' command requires " + minParams + " to " + maxParams + " param(s)");
+        }
+    }
+
+    private static String cursorArg(String[] args, int index) {
+        return index < args.length ? args[index] : null;
+    }
+
+    private static void showNextCursor(Page<?> page, PrintStream out) {
+        if ( page.hasMore() ) {
+            out.println( "next page cursor : " + page.getNextCursor() );
+        }
+    }
+
+    /**
+     * The command or its params are wrong - shown with the usage.
+     */
+    static class UsageException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        UsageException(String message) {
+            super(message);
         }
     }
 
@@ -4,11 +4,17 @@ import org.apache.commons.lang.StringUtils;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
- * Render Blog data to stdout.
+ * Render Blog data to stdout, or any other stream - {@link BlogServer} uses one renderer per command.
  *
  */
 public class BlogRenderer {
@@ -16,9 +22,22 @@ public class BlogRenderer {
     private static final DateTimeFormatter timeOnlyFormatter = DateTimeFormat.forPattern("HH:mm");
 
     private BlogDao dao;
+    private UserCache userCache;
+    private PrintStream out;
+    private CommentSortScheduler commentSortScheduler;
 
     public BlogRenderer(BlogDao dao) {
+        this(dao, new UserCache(dao));
+    }
+
+    public BlogRenderer(BlogDao dao, UserCache userCache) {
+        this(dao, userCache, System.out);
+    }
+
+    public BlogRenderer(BlogDao dao, UserCache userCache, PrintStream out) {
         this.dao = dao;
+        this.userCache = userCache;
+        this.out = out;
     }
 
     public void displayComment(Comment c, String indent ) {
@@ -26,65 +45,177 @@ public class BlogRenderer {
             indent = "";
         }
 
-        System.out.println(indent + " ==> " + c.getUserDisplayName() + " said @ "
+        out.println(indent + " ==> " + c.getUserDisplayName() + " said @ "
                 + timeOnlyFormatter.print(c.getCreateTimestamp())
                 + " on " + dateFormatter.print(c.getCreateTimestamp()) + " : (cid = " + c.getId() + ", pid = " + c.getPostId() +")");
-        System.out.print(indent + "     ");
+        out.print(indent + "     ");
         if ( null != c.getVotes() && 0 < c.getVotes() ) {
-            System.out.print("(" + c.getVotes() +
+            out.print("(" + c.getVotes() +
                     " " + (1 == c.getVotes() ? "vote" : "votes") + ") ");
         }
-        System.out.println(c.getText() );
+        out.println(c.getText() );
     }
 
-    public void displayPost(Post p, boolean includeComments, String indent ) {
-        if ( dao.postCommentsNeedSorting(p.getId())) {
-            dao.sortCommentsByVotes(p.getId());
+    /**
+     * Display one activity feed entry, using only what's in the entry.
+     *
+     */
+    public void displayActivity(Activity a, String indent) {
+        if ( null == indent ) {
+            indent = "";
+        }
+
+        String who = null != a.getUserDisplayName() ? a.getUserDisplayName() : a.getUserEmail();
+        String when = " @ " + timeOnlyFormatter.print(a.getTimestamp()) + " on " + dateFormatter.print(a.getTimestamp());
+        if ( Activity.POST.equals(a.getType()) ) {
+            out.println(indent + " ==> " + who + " posted" + when + " : " + a.getSummary() + " (pid = " + a.getPostId() + ")");
+        }
+        else if ( Activity.COMMENT.equals(a.getType()) ) {
+            out.println(indent + " ==> " + who + " commented" + when + " : (cid = " + a.getSubjectId() + ", pid = " + a.getPostId() + ")");
+            out.println(indent + "     " + a.getSummary());
+        }
+        else if ( Activity.POST_VOTE.equals(a.getType()) ) {
+            out.println(indent + " ==> " + who + " voted on a post" + when + " : (pid = " + a.getPostId() + ")");
         }
+        else {
+            out.println(indent + " ==> " + who + " voted on a comment" + when + " : (cid = " + a.getSubjectId() + ", pid = " + a.getPostId() + ")");
+        }
+    }
+
+    /**
+     * Display one step of a roll-up - when it starts (GMT) and its count, plus the average if anything was summed.
+     *
+     */
+    public void displayRollup(Rollup r, String indent) {
+        if ( null == indent ) {
+            indent = "";
+        }
+
+        String when = dateFormatter.withZoneUTC().print(r.getStart()) + " " + timeOnlyFormatter.withZoneUTC().print(r.getStart());
+        String average = 0 != r.getSum() ? String.format(" (average = %.3f)", r.getAverage()) : "";
+        out.println(indent + " ==> " + when + " : " + r.getCount() + average);
+    }
+
+    public void displayPost(Post p, boolean includeComments, String indent ) {
+        displayPosts(Collections.singletonList(p), includeComments, indent);
+    }
 
+    /**
+     * Display a list of Posts.  If including comments, the comments of all Posts are read together, so the number
+     * of queries doesn't grow with the number of Posts.  Posts whose comments need sorting are handed to the
+     * CommentSortScheduler if set, otherwise (the one command client) they're sorted here before the comments are
+     * read.
+     *
+     */
+    public void displayPosts(List<Post> postList, boolean includeComments, String indent ) {
         if ( null == indent ) {
             indent = "";
         }
 
-        System.out.println(indent + " ==> " + p.getUserDisplayName() + " posted @ "
-                + timeOnlyFormatter.print(p.getCreateTimestamp())
-                + " on " + dateFormatter.print(p.getCreateTimestamp()) + " : (pid = " + p.getId() +")");
-        System.out.print(indent + "     ");
-        if ( null != p.getVotes() && 0 < p.getVotes() ) {
-            System.out.print("(" + p.getVotes() +
-                    " " + (1 == p.getVotes() ? "vote" : "votes") + ") ");
-        }
-        System.out.println("Title: " + p.getTitle() );
-        System.out.println(indent + "     " + p.getText() );
-        if ( includeComments ) {
-            int numDashes = StringUtils.length(indent + "     Comments");
-            System.out.println("     " + StringUtils.repeat("=", numDashes));
-            System.out.println( indent + "     Comments");
-            System.out.println("     " + StringUtils.repeat("=", numDashes));
-            List<UUID> uuidList = dao.findCommentUUIDsByPostSortedByVotes(p.getId());
-            List<Comment> commentList = dao.findCommentsByUUIDList(uuidList);
-            if ( null != commentList && !commentList.isEmpty() ) {
-                for ( Comment c : commentList ) {
+        Map<UUID, List<Comment>> commentsByPost = includeComments ? findCommentsByPosts(postList) : null;
+        for ( Post p : postList ) {
+            out.println(indent + " ==> " + p.getUserDisplayName() + " posted @ "
+                    + timeOnlyFormatter.print(p.getCreateTimestamp())
+                    + " on " + dateFormatter.print(p.getCreateTimestamp()) + " : (pid = " + p.getId() +")");
+            out.print(indent + "     ");
+            if ( null != p.getVotes() && 0 < p.getVotes() ) {
+                out.print("(" + p.getVotes() +
+                        " " + (1 == p.getVotes() ? "vote" : "votes") + ") ");
+            }
+            out.println("Title: " + p.getTitle() );
+            // list views only have the summary
+            if ( null != p.getText() ) {
+                out.println(indent + "     " + p.getText() );
+            }
+            if ( includeComments ) {
+                int numDashes = StringUtils.length(indent + "     Comments");
+                out.println("     " + StringUtils.repeat("=", numDashes));
+                out.println( indent + "     Comments");
+                out.println("     " + StringUtils.repeat("=", numDashes));
+                for ( Comment c : commentsByPost.get(p.getId()) ) {
                     displayComment(c, indent+"     " + "  ");
                 }
             }
         }
     }
 
+    public void displayUser(String userEmail, boolean includePosts, String indent) {
+        User user = userCache.findUser(userEmail);
+        if ( null == user ) {
+            out.println((null != indent ? indent : "") + "User not found : " + userEmail);
+            return;
+        }
+
+        displayUser(user, includePosts, indent);
+    }
+
     public void displayUser(User user, boolean includePosts, String indent) {
         if ( null == indent ) {
             indent = "";
         }
 
-        System.out.println(indent + user.getName() + " (" + user.getEmail() + ")" );
+        out.println(indent + user.getName() + " (" + user.getEmail() + ")" );
 
         if ( includePosts ) {
             List<Post> postList = dao.findPostsByUser(user.getEmail());
             if ( null != postList && !postList.isEmpty() ) {
-                for ( Post p : postList ) {
-                    displayPost(p, false, indent + "  ");
+                displayPosts(postList, false, indent + "  ");
+            }
+        }
+    }
+
+    private Map<UUID, List<Comment>> findCommentsByPosts(List<Post> postList) {
+        List<UUID> postIds = new ArrayList<UUID>(postList.size());
+        for ( Post p : postList ) {
+            postIds.add(p.getId());
+        }
+
+        Set<UUID> needSort = dao.findPostUUIDsNeedingCommentSort(postIds);
+        if ( null != commentSortScheduler ) {
+            commentSortScheduler.requestSort(needSort);
+        }
+        else if ( !needSort.isEmpty() ) {
+            // nothing runs in the background, so sort them now or new comments and votes never show
+            dao.sortCommentsByVotes(needSort);
+        }
+
+        // one read for all the Comments, then split them back out by Post
+        Map<UUID, List<UUID>> uuidsByPost = dao.findCommentUUIDsByPostsSortedByVotes(postIds);
+        List<UUID> allUuids = new ArrayList<UUID>();
+        for ( List<UUID> uuidList : uuidsByPost.values() ) {
+            allUuids.addAll(uuidList);
+        }
+        List<Comment> commentList = allUuids.isEmpty() ? Collections.<Comment>emptyList() : dao.findCommentsByUUIDList(allUuids);
+        Map<UUID, Comment> commentMap = new HashMap<UUID, Comment>();
+        if ( null != commentList ) {
+            for ( Comment c : commentList ) {
+                commentMap.put(c.getId(), c);
+            }
+        }
+
+        Map<UUID, List<Comment>> commentsByPost = new HashMap<UUID, List<Comment>>();
+        for ( UUID postId : postIds ) {
+            List<Comment> comments = new ArrayList<Comment>();
+            List<UUID> uuidList = uuidsByPost.get(postId);
+            if ( null != uuidList ) {
+                for ( UUID uuid : uuidList ) {
+                    Comment c = commentMap.get(uuid);
+                    if ( null != c ) {
+                        comments.add(c);
+                    }
                 }
             }
+            commentsByPost.put(postId, comments);
         }
+        return commentsByPost;
+    }
+
+    /**
+     * Posts found needing a comment sort while rendering are handed to the scheduler.  If not set, they're sorted
+     * by the rendering thread.
+     *
+     */
+    public void setCommentSortScheduler(CommentSortScheduler commentSortScheduler) {
+        this.commentSortScheduler = commentSortScheduler;
     }
 }
@@ -0,0 +1,324 @@
+package com.btoddb.blog;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link BlogMain} commands sent by {@link BlogClient}s over a socket on localhost, so each command doesn't
+ * pay for a JVM start and a new Hector connection pool.  Each client connection gets its own thread, up to 'max
+ * clients' at once - the rest wait for one to finish.
+ *
+ * The protocol is line based, UTF-8:
+ *
+ * <ul>
+ *     <li>the client sends a command per line, quoted like a shell - see {@link #parseCommand(String)}</li>
+ *     <li>the server answers with the command's output, then a line with a single '.'.  Output lines starting
+ *     with '.' get another '.' in front, the same as SMTP</li>
+ * </ul>
+ *
+ * The command 'stop-server' stops the server.
+ *
+ * Call {@link #start()} before use and {@link #shutdown()} when done.  All setters must be called before start().
+ */
+public class BlogServer {
+    private static final Logger logger = LoggerFactory.getLogger(BlogServer.class);
+
+    public static final int DEFAULT_PORT = 9170;
+    public static final int DEFAULT_MAX_CLIENTS = 16;
+
+    static final String END_OF_RESPONSE = ".";
+    static final String STOP_COMMAND = "stop-server";
+
+    private static final String CHARSET = "UTF-8";
+
+    private final int port;
+    private int maxClients = DEFAULT_MAX_CLIENTS;
+
+    private ServerSocket serverSocket;
+    private ExecutorService clientExecutor;
+    private Thread acceptor;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    public BlogServer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Listen on localhost and start accepting clients.
+     *
+     * @throws IllegalStateException if the port can't be bound
+     */
+    public void start() {
+        try {
+            serverSocket = new ServerSocket(port, 50, InetAddress.getByName("localhost"));
+        }
+        catch ( IOException e ) {
+            throw new IllegalStateException("could not listen on localhost:" + port, e);
+        }
+
+        clientExecutor = Executors.newFixedThreadPool(maxClients,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("blog-client-%d").build());
+        acceptor = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("blog-server").build().newThread(new Runnable() {
+            @Override
+            public void run() {
+                acceptClients();
+            }
+        });
+        acceptor.start();
+    }
+
+    /**
+     * Stop accepting clients and close the socket.  Commands already running are left to finish, see
+     * {@link #awaitShutdown()}.
+     *
+     */
+    public synchronized void shutdown() {
+        if ( 0 == stopped.getCount() ) {
+            return;
+        }
+
+        try {
+            serverSocket.close();
+        }
+        catch ( IOException e ) {
+            logger.warn("exception while closing server socket", e);
+        }
+        clientExecutor.shutdown();
+        stopped.countDown();
+    }
+
+    /**
+     * Block until the server is shutdown, by {@link #shutdown()} or a client's 'stop-server', then give the
+     * commands still running a few seconds to finish.
+     *
+     */
+    public void awaitShutdown() {
+        try {
+            stopped.await();
+            clientExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return port listening on
+     */
+    public int getPort() {
+        return port;
+    }
+
+    private void acceptClients() {
+        while ( !serverSocket.isClosed() ) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            }
+            catch ( SocketException e ) {
+                // closed by shutdown
+                return;
+            }
+            catch ( IOException e ) {
+                logger.error("exception while accepting client", e);
+                continue;
+            }
+
+            clientExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serveClient(socket);
+                    }
+                    catch ( IOException e ) {
+                        logger.debug("client disconnected", e);
+                    }
+                    finally {
+                        closeQuietly(socket);
+                    }
+                }
+            });
+        }
+    }
+
+    private void serveClient(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), CHARSET));
+        Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), CHARSET));
+
+        String line;
+        while ( null != (line = in.readLine()) ) {
+            // the command's output is collected and sent once it's done, so it can be framed
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PrintStream commandOut = new PrintStream(bytes, true, CHARSET);
+            boolean stop = runCommand(line, commandOut);
+            commandOut.flush();
+
+            for ( String outputLine : bytes.toString(CHARSET).split("\r?\n") ) {
+                if ( outputLine.startsWith(END_OF_RESPONSE) ) {
+                    out.write(END_OF_RESPONSE);
+                }
+                out.write(outputLine);
+                out.write('\n');
+            }
+            out.write(END_OF_RESPONSE);
+            out.write('\n');
+            out.flush();
+
+            if ( stop ) {
+                shutdown();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if the command was 'stop-server'
+     */
+    private boolean runCommand(String line, PrintStream out) {
+        try {
+            String[] args = parseCommand(line);
+            if ( 0 == args.length ) {
+                return false;
+            }
+            else if ( STOP_COMMAND.equalsIgnoreCase(args[0]) ) {
+                out.println("blog server stopping");
+                return true;
+            }
+
+            BlogMain.execute(args, out);
+        }
+        catch ( BlogMain.UsageException e ) {
+            BlogMain.showUsageError(e, out);
+        }
+        catch ( RuntimeException e ) {
+            logger.error("exception while running command : " + line, e);
+            out.println("*** ERROR ***  " + e);
+        }
+        return false;
+    }
+
+    /**
+     * Split a command line into the command and its params, the way a shell would: on whitespace, except inside
+     * single or double quotes.  Inside double quotes a backslash escapes '"', '\', 'n' (a newline) and 'r' (a
+     * carriage return).
+     *
+     * @param line command line
+     * @return command and params, empty if the line is blank
+     * @throws IllegalArgumentException if a quote isn't closed
+     */
+    static String[] parseCommand(String line) {
+        List<String> args = new ArrayList<String>();
+        StringBuilder arg = null;
+        char quote = 0;
+        for ( int i=0;i < line.length();i++ ) {
+            char c = line.charAt(i);
+            if ( 0 != quote ) {
+                if ( c == quote ) {
+                    quote = 0;
+                }
+                else if ( '\\' == c && '"' == quote && i+1 < line.length() ) {
+                    char escaped = line.charAt(++i);
+                    arg.append('n' == escaped ? '\n' : ('r' == escaped ? '\r' : escaped));
+                }
+                else {
+                    arg.append(c);
+                }
+            }
+            else if ( Character.isWhitespace(c) ) {
+                if ( null != arg ) {
+                    args.add(arg.toString());
+                    arg = null;
+                }
+            }
+            else {
+                if ( null == arg ) {
+                    arg = new StringBuilder();
+                }
+                if ( '"' == c || '\'' == c ) {
+                    quote = c;
+                }
+                else {
+                    arg.append(c);
+                }
+            }
+        }
+
+        if ( 0 != quote ) {
+            throw new IllegalArgumentException("missing closing quote : " + line);
+        }
+        if ( null != arg ) {
+            args.add(arg.toString());
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Join a command and its params into one line that {@link #parseCommand(String)} splits back into the same.
+     *
+     * @param args command and params
+     * @return command line
+     */
+    static String formatCommand(String[] args) {
+        StringBuilder line = new StringBuilder();
+        for ( String arg : args ) {
+            if ( 0 < line.length() ) {
+                line.append(' ');
+            }
+
+            boolean plain = 0 < arg.length();
+            for ( int i=0;plain && i < arg.length();i++ ) {
+                char c = arg.charAt(i);
+                plain = !Character.isWhitespace(c) && '"' != c && '\'' != c && '\\' != c;
+            }
+            if ( plain ) {
+                line.append(arg);
+                continue;
+            }
+
+            line.append('"');
+            for ( int i=0;i < arg.length();i++ ) {
+                char c = arg.charAt(i);
+                if ( '\n' == c ) {
+                    line.append("\\n");
+                }
+                else if ( '\r' == c ) {
+                    line.append("\\r");
+                }
+                else {
+                    if ( '"' == c || '\\' == c ) {
+                        line.append('\\');
+                    }
+                    line.append(c);
+                }
+            }
+            line.append('"');
+        }
+        return line.toString();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch ( IOException e ) {
+            // nothing to do
+        }
+    }
+
+    public void setMaxClients(int maxClients) {
+        this.maxClients = maxClients;
+    }
+}
@@ -1,10 +1,14 @@
 package com.btoddb.blog;
 
+import com.google.common.collect.Iterators;
 import me.prettyprint.cassandra.utils.TimeUUIDUtils;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -13,15 +17,56 @@ import java.util.UUID;
  */
 public class BlogService {
     public static final int MAX_SORT_DAYS = 30;
+    public static final int TRENDING_HOURS = 48;
+    public static final int INDEX_BATCH_SIZE = 100;
 
     private final BlogDao dao;
+    private final UserCache userCache;
+    private PostRanking postRanking;
+    private VoteBuffer voteBuffer;
+    private VoteFilter voteFilter;
 
     public BlogService(BlogDao dao) {
+        this(dao, new UserCache(dao));
+    }
+
+    public BlogService(BlogDao dao, UserCache userCache) {
         this.dao = dao;
+        this.userCache = userCache;
+    }
+
+    /**
+     * Keep the given ranking current as Posts are created and voted on.  Without one, posts_sorted_by_vote
+     * is only updated by {@link #rankPosts()}.
+     *
+     * @param postRanking started ranking, or null
+     */
+    public void setPostRanking(PostRanking postRanking) {
+        this.postRanking = postRanking;
+    }
+
+    /**
+     * Buffer votes and save them in batches instead of one at a time.  Buffered Post votes aren't counted in the
+     * ranking set here, the buffer counts them in its own (see {@link VoteBuffer#setPostRanking(PostRanking)}) once
+     * they're flushed.
+     *
+     * @param voteBuffer started buffer, or null to save each vote as it's made
+     */
+    public void setVoteBuffer(VoteBuffer voteBuffer) {
+        this.voteBuffer = voteBuffer;
+    }
+
+    /**
+     * Check the Bloom filter before reading user_votes for a duplicate vote.
+     *
+     * @param voteFilter started filter, or null to always read user_votes
+     */
+    public void setVoteFilter(VoteFilter voteFilter) {
+        this.voteFilter = voteFilter;
     }
 
     /**
-     * Create a new Comment.  Reads the User record before saving to get the user's name.
+     * Create a new Comment.  Reads the User record (usually from cache) before saving to get the user's name.
      *
      * @param userEmail User's email
      * @param postId Post ID
@@ -29,7 +74,7 @@ public class BlogService {
      * @return Comment record just saved
      */
     public Comment createComment(String userEmail, UUID postId, String commentText) {
-        User user = dao.findUser(userEmail);
+        User user = userCache.findUser(userEmail);
         if ( null == user ) {
             throw new RuntimeException( "user with email, " + userEmail + ", does not exist!  Cannot create comment");
         }
@@ -47,11 +92,13 @@ public class BlogService {
      * @return User record just saved
      */
     public User createUser(String email, String password, String fullName) {
-        return dao.saveUser(new User(email, password, fullName));
+        User user = dao.saveUser(new User(email, password, fullName));
+        userCache.invalidate(email);
+        return user;
     }
 
     /**
-     * Create a new Post.  Reads the User record before saving to get the user's name.
+     * Create a new Post.  Reads the User record (usually from cache) before saving to get the user's name.
      *
      * @param userEmail User's email
      * @param title Post Title
@@ -59,8 +106,16 @@ public class BlogService {
      * @return Post record just created
      */
     public Post createPost(String userEmail, String title, String text) {
-        User user = dao.findUser(userEmail);
-        return dao.savePost(new Post(TimeUUIDUtils.getUniqueTimeUUIDinMillis(), user.getEmail(), user.getName(), title, new DateTime(), text));
+        User user = userCache.findUser(userEmail);
+        if ( null == user ) {
+            throw new RuntimeException( "user with email, " + userEmail + ", does not exist!  Cannot create post");
+        }
+
+        Post post = dao.savePost(new Post(TimeUUIDUtils.getUniqueTimeUUIDinMillis(), user.getEmail(), user.getName(), title, new DateTime(), text));
+        if ( null != postRanking ) {
+            postRanking.postCreated(post.getId());
+        }
+        return post;
     }
 
     /**
@@ -75,27 +130,201 @@ public class BlogService {
     }
 
     /**
-     * Find recent Posts over the last 'minutes'
+     * Find recent Posts over the last 'minutes', newest first.
      *
      * @param minutes number of minutes
+     * @return List of Post records
      */
-    public void findRecentPosts(int minutes) {
+    public List<Post> findRecentPosts(int minutes) {
         DateTime end = new DateTime().withZone(DateTimeZone.forOffsetHours(0));
         DateTime start = end.minusMinutes(minutes);
-        findPostsByTimeRange(start, end);
+        return dao.findPostsByTimeRange(start, end, Integer.MAX_VALUE, true);
     }
 
     /**
-     * Find the top 'number' of Posts, sorted by vote.
+     * Find the newest 'number' of Posts created over the last {@link #MAX_SORT_DAYS} days.  Only reads as
+     * much of the time index as needed to find them.
+     *
+     * @param number Number of Posts to retrieve
+     * @return List of Post records, newest first
+     */
+    public List<Post> findNewestPosts(int number) {
+        DateTime end = new DateTime().withZone(DateTimeZone.forOffsetHours(0));
+        DateTime start = end.minusDays(MAX_SORT_DAYS);
+        return dao.findPostsByTimeRange(start, end, number, true);
+    }
+
+    /**
+     * Find the top 'number' of Posts, sorted by vote, as of the last time the {@link PostRanking} was flushed.
      *
      * @param number Number of Posts to retrieve
      * @return list of Post records
      */
     public List<Post> findTopPosts(int number) {
-        dao.sortPostsByVote(MAX_SORT_DAYS);
         return dao.findPostsByVote(number);
     }
 
+    /**
+     * Find the top 'number' trending Posts created over the last {@link #TRENDING_HOURS} hours - votes decayed by
+     * age, so new Posts aren't crowded out by old ones with more votes.  The index is kept by {@link PostRanking}
+     * from its vote counts, so without one it's only updated by {@link #rankPosts()}.
+     *
+     * @param number Number of Posts to retrieve
+     * @return list of Post records, most trending first
+     */
+    public List<Post> findTrendingPosts(int number) {
+        return dao.findTrendingPosts(number, TRENDING_HOURS);
+    }
+
+    /**
+     * Count the votes over the last 'steps' steps, ending with the step in progress.  Read from the vote roll-ups,
+     * not the votes.
+     *
+     * @param type {@link Vote#POST} or {@link Vote#COMMENT}, or null for both
+     * @param stepMinutes length of each step
+     * @param steps number of steps
+     * @return one Rollup per step, oldest first
+     */
+    public List<Rollup> findVoteRollups(String type, int stepMinutes, int steps) {
+        long step = stepMinutes * RollupBuckets.MINUTE;
+        long end = System.currentTimeMillis();
+        return dao.findVoteRollups(type, end - (steps - 1) * step, end, step);
+    }
+
+    /**
+     * Find the newest 'number' of Posts whose title or text has every word of the query (see {@link PostSearch}).
+     *
+     * @param query words to search for
+     * @param number Number of Posts to retrieve
+     * @return list of Post records, newest first, or null if none match or the query has no searchable words
+     */
+    public List<Post> searchPosts(String query, int number) {
+        Set<String> terms = PostSearch.terms(query);
+        if ( terms.isEmpty() ) {
+            return null;
+        }
+        return dao.findPostsByTerms(terms, number);
+    }
+
+    /**
+     * Add the Posts created from 'start' to 'end' to the search index, {@link #INDEX_BATCH_SIZE} at a time - for
+     * Posts saved before search was added.
+     *
+     * @param start Start time in GMT
+     * @param end End time in GMT
+     * @return number of Posts indexed
+     */
+    public int indexPosts(DateTime start, DateTime end) {
+        Iterator<UUID> iter = dao.iteratePostUUIDsByTimeRange(start, end, false);
+        int indexed = 0;
+        while ( iter.hasNext() ) {
+            List<UUID> batch = new ArrayList<UUID>(INDEX_BATCH_SIZE);
+            while ( iter.hasNext() && batch.size() < INDEX_BATCH_SIZE ) {
+                batch.add(iter.next());
+            }
+            List<Post> posts = dao.findPostsByUUIDList(batch);
+            if ( null == posts ) {
+                continue;
+            }
+
+            // null for any deleted since the scan read its ID
+            List<Post> found = new ArrayList<Post>(posts.size());
+            for ( Post p : posts ) {
+                if ( null != p ) {
+                    found.add(p);
+                }
+            }
+            if ( !found.isEmpty() ) {
+                dao.indexPosts(found);
+                indexed += found.size();
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * Find the bucket sizes of the Post time index.
+     *
+     * @return bucket sizes by time period
+     */
+    public PostTimeBuckets findPostTimeBuckets() {
+        return dao.findPostTimeBuckets();
+    }
+
+    /**
+     * Change the bucket size of the Post time index over the whole days (GMT) covering 'start' to 'end', and move
+     * the Posts already there.  Without a 'granularity' each day gets the largest bucket size that keeps about
+     * {@link PostTimeBuckets#TARGET_POSTS_PER_BUCKET} Posts or less in a bucket, from the number of Posts it has.
+     *
+     * @param start Start time in GMT
+     * @param end End time in GMT
+     * @param granularity bucket size, or null to pick one per day
+     * @return number of Posts moved
+     */
+    public int rebucketPosts(DateTime start, DateTime end, PostTimeBuckets.Granularity granularity) {
+        DateTime first = start.withZone(DateTimeZone.UTC).withTimeAtStartOfDay();
+        DateTime last = end.withZone(DateTimeZone.UTC).withTimeAtStartOfDay();
+        if ( last.isBefore(end) || !first.isBefore(last) ) {
+            last = last.plusDays(1);
+        }
+
+        if ( null != granularity ) {
+            return dao.rebucketPostsByTime(first, last, granularity);
+        }
+
+        // one change per run of days with the same bucket size
+        int moved = 0;
+        DateTime runStart = first;
+        PostTimeBuckets.Granularity runGranularity = null;
+        for ( DateTime day = first;day.isBefore(last);day = day.plusDays(1) ) {
+            int posts = Iterators.size(dao.iteratePostUUIDsByTimeRange(day, day.plusDays(1).minusMillis(1), false));
+            PostTimeBuckets.Granularity g = PostTimeBuckets.fit(posts, PostTimeBuckets.Granularity.DAY.getMillis());
+            if ( null != runGranularity && g != runGranularity ) {
+                moved += dao.rebucketPostsByTime(runStart, day, runGranularity);
+                runStart = day;
+            }
+            runGranularity = g;
+        }
+        moved += dao.rebucketPostsByTime(runStart, last, runGranularity);
+        return moved;
+    }
+
+    /**
+     * Delete the old buckets of the Post time index replaced by {@link #rebucketPosts}, once every process has
+     * switched to the new ones.  Run it a while after rebucketing - buckets it can't delete yet are left for the
+     * next run.
+     *
+     * @return number of buckets deleted
+     */
+    public int deleteOldPostBuckets() {
+        return dao.deleteRetiredPostBuckets();
+    }
+
+    /**
+     * Rebuild the ranking of Posts created over the last {@link #MAX_SORT_DAYS} days and write the top-K to
+     * posts_sorted_by_vote, and the changed trending scores to posts_trending, now.  For processes that don't run a
+     * {@link PostRanking} (like the command line client).
+     *
+     */
+    public void rankPosts() {
+        PostRanking ranking = null != postRanking ? postRanking : new PostRanking(dao);
+        ranking.rebuild();
+        ranking.flush();
+    }
+
+    /**
+     * Sort the Comments of every Post with Comment activity since the last run now.  For processes that don't run
+     * a {@link CommentSortScheduler} (like the command line client).
+     *
+     * @return number of Posts sorted
+     */
+    public int sortComments() {
+        CommentSortScheduler sorter = new CommentSortScheduler(dao);
+        // include the votes made just before this call
+        sorter.setLagMillis(0);
+        return sorter.runOnce();
+    }
+
     /**
      * Vote on a Post.  A User can only vote once per Comment or Post.
      *
@@ -103,8 +332,9 @@ public class BlogService {
      * @param uuid Post ID
      */
     public void voteOnPost(String userEmail, UUID uuid) {
-        if ( null == dao.findUserVote(userEmail, uuid) ) {
-            dao.voteOnPost(userEmail, uuid);
+        // a buffered vote is ranked by the VoteBuffer, once it's counted
+        if ( vote(userEmail, uuid, Vote.POST, null) && null != postRanking && null == voteBuffer ) {
+            postRanking.postVoted(uuid);
         }
     }
 
@@ -115,19 +345,62 @@ public class BlogService {
      * @param uuid Comment ID
      */
     public void voteOnComment(String userEmail, UUID uuid) {
-        if ( null == dao.findUserVote(userEmail, uuid) ) {
-            dao.voteOnComment(userEmail, uuid);
+        vote(userEmail, uuid, Vote.COMMENT, null);
+    }
+
+    /**
+     * Vote on a Comment of the given Post.  A User can only vote once per Comment or Post.  Use when the Post
+     * is already known (for instance when rendering it) so the vote doesn't need to look it up.
+     *
+     * @param userEmail User's email
+     * @param uuid Comment ID
+     * @param postId Post ID the Comment belongs to
+     */
+    public void voteOnComment(String userEmail, UUID uuid, UUID postId) {
+        vote(userEmail, uuid, Vote.COMMENT, postId);
+    }
+
+    private boolean vote(String userEmail, UUID uuid, String type, UUID postId) {
+        if ( null != voteBuffer && voteBuffer.isBuffered(userEmail, uuid) ) {
+            return false;
+        }
+        if ( null != voteFilter ? voteFilter.hasVoted(userEmail, uuid) : null != dao.findUserVote(userEmail, uuid) ) {
+            return false;
+        }
+
+        if ( null != voteBuffer ) {
+            Vote vote = null != postId ? Vote.onComment(userEmail, uuid, postId, System.currentTimeMillis())
+                                       : new Vote(userEmail, uuid, type, System.currentTimeMillis());
+            if ( !voteBuffer.add(vote) ) {
+                return false;
+            }
+        }
+        else if ( Vote.COMMENT.equals(type) ) {
+            if ( null != postId ) {
+                dao.voteOnComment(userEmail, uuid, postId);
+            }
+            else {
+                dao.voteOnComment(userEmail, uuid);
+            }
         }
+        else {
+            dao.voteOnPost(userEmail, uuid);
+        }
+
+        if ( null != voteFilter ) {
+            voteFilter.put(userEmail, uuid);
+        }
+        return true;
     }
 
     /**
-     * Retrieve User record by User Email.
+     * Retrieve User record by User Email, using the User cache.
      *
      * @param userEmail User's email
      * @return User record
      */
     public User findUser(String userEmail) {
-        return dao.findUser(userEmail);
+        return userCache.findUser(userEmail);
     }
 
     /**
@@ -140,6 +413,65 @@ public class BlogService {
         return dao.findCommentsByUser(userEmail);
     }
 
+    /**
+     * Retrieve one page of Comments by User Email, newest first.
+     *
+     * @param userEmail User's email
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Comments to return
+     * @return page of Comment records
+     */
+    public Page<Comment> findCommentsByUser(String userEmail, String cursor, int limit) {
+        return dao.findCommentsByUser(userEmail, cursor, limit);
+    }
+
+    /**
+     * Retrieve one page of Posts by User Email, newest first.
+     *
+     * @param userEmail User's email
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Posts to return
+     * @return page of Post records
+     */
+    public Page<Post> findPostsByUser(String userEmail, String cursor, int limit) {
+        return dao.findPostsByUser(userEmail, cursor, limit);
+    }
+
+    /**
+     * Retrieve one page of a Post's Comments, sorted by vote.
+     *
+     * @param postId Post ID
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Comments to return
+     * @return page of Comment records
+     */
+    public Page<Comment> findCommentsByPost(UUID postId, String cursor, int limit) {
+        return dao.findCommentsByPost(postId, cursor, limit);
+    }
+
+    /**
+     * Retrieve one page of the User's activity - Posts, Comments and votes - newest first.
+     *
+     * @param userEmail User's email
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of entries to return
+     * @return page of activity
+     */
+    public Page<Activity> findUserActivity(String userEmail, String cursor, int limit) {
+        return dao.findUserActivity(userEmail, cursor, limit);
+    }
+
+    /**
+     * Retrieve one page of the whole site's activity, newest first.
+     *
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of entries to return
+     * @return page of activity
+     */
+    public Page<Activity> findSiteActivity(String cursor, int limit) {
+        return dao.findSiteActivity(cursor, limit);
+    }
+
     /**
      * Retreive Post by ID.
      *
@@ -0,0 +1,320 @@
+package com.btoddb.blog;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Imports historical Posts and Comments from a file (see {@link ImportRecords} for the formats) with
+ * {@link BlogDao#importBatch(java.util.Collection, java.util.Collection)} - each batch is one round trip instead of
+ * one per Post or Comment.  A batch is sent once it holds 'batch records' records or about 'batch bytes' of text,
+ * whichever comes first, and 'threads' batches are sent at once.  Reading waits while 'max pending batches' are
+ * waiting or being sent, so a slow cluster slows down the reading instead of filling the heap.
+ *
+ * Progress is saved to a checkpoint file, input file + '.checkpoint', every 'report interval' - the number of
+ * records from the start of the file that are all imported.  Running the import again skips them, and re-imports
+ * the records after them that were in flight, which just overwrites them.  Delete the checkpoint file to import the
+ * whole file again.  Malformed records are logged, counted and skipped.
+ *
+ * The import stops at the first batch that fails, once the batches being sent are done.
+ *
+ */
+public class BulkLoader {
+    private static final Logger logger = LoggerFactory.getLogger(BulkLoader.class);
+
+    public static final int DEFAULT_BATCH_RECORDS = 500;
+    public static final int DEFAULT_BATCH_BYTES = 1024 * 1024;
+    public static final int DEFAULT_THREADS = 8;
+    public static final int DEFAULT_MAX_PENDING_BATCHES = 32;
+    public static final long DEFAULT_REPORT_INTERVAL_MILLIS = 10000;
+
+    public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    public enum Format {
+        JSON, CSV
+    }
+
+    private final BlogDao dao;
+
+    private int batchRecords = DEFAULT_BATCH_RECORDS;
+    private int batchBytes = DEFAULT_BATCH_BYTES;
+    private int threads = DEFAULT_THREADS;
+    private int maxPendingBatches = DEFAULT_MAX_PENDING_BATCHES;
+    private long reportIntervalMillis = DEFAULT_REPORT_INTERVAL_MILLIS;
+
+    private final AtomicLong postsImported = new AtomicLong();
+    private final AtomicLong commentsImported = new AtomicLong();
+    private final AtomicLong recordsRejected = new AtomicLong();
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+
+    // guarded by 'completed' - end records of batches done out of order, by sequence number, waiting for the
+    // batches before them
+    private final Map<Long, Long> completed = new HashMap<Long, Long>();
+    private long nextToCheckpoint;
+    private long checkpoint;
+
+    public BulkLoader(BlogDao dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * Format from the file name - CSV if it ends with '.csv', JSON lines otherwise.
+     *
+     * @param file input file
+     * @return format of the file
+     */
+    public static Format formatOf(File file) {
+        return file.getName().toLowerCase().endsWith(".csv") ? Format.CSV : Format.JSON;
+    }
+
+    /**
+     * Import the file, starting after its checkpoint if there is one.  Prints progress to 'out' every 'report
+     * interval', and a summary at the end.
+     *
+     * @param file input file, UTF-8
+     * @param format format of the file
+     * @param out where progress goes
+     * @return number of records imported, not counting rejected ones
+     * @throws RuntimeException if a batch fails - the checkpoint is saved first, so the import can be run again
+     */
+    public long load(File file, Format format, PrintStream out) throws IOException {
+        File checkpointFile = new File(file.getPath() + CHECKPOINT_SUFFIX);
+        long skip = readCheckpoint(checkpointFile);
+        reset(skip);
+        if ( 0 < skip ) {
+            out.println("resuming after record " + skip + " (from " + checkpointFile + ")");
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("bulk-loader-%d").build());
+        Semaphore pending = new Semaphore(maxPendingBatches);
+        long startMillis = System.currentTimeMillis();
+        long lastReportMillis = startMillis;
+        long recordNumber = 0;
+        long nextSequence = 0;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+        try {
+            Batch batch = new Batch(nextSequence++, skip);
+            String record;
+            while ( null == failure.get() && null != (record = readRecord(reader, format)) ) {
+                recordNumber++;
+                if ( recordNumber <= skip ) {
+                    continue;
+                }
+
+                try {
+                    batch.add(format, record);
+                }
+                catch ( IllegalArgumentException e ) {
+                    // the header is only skipped, not counted, if it's the first record
+                    if ( 1 != recordNumber || Format.CSV != format || !ImportRecords.isCsvHeader(record) ) {
+                        logger.warn("skipping record " + recordNumber + " : " + e.getMessage());
+                        recordsRejected.incrementAndGet();
+                    }
+                }
+                batch.endRecord = recordNumber;
+
+                if ( batch.size() >= batchRecords || batch.bytes >= batchBytes ) {
+                    submit(executor, pending, batch);
+                    batch = new Batch(nextSequence++, recordNumber);
+                }
+
+                long now = System.currentTimeMillis();
+                if ( now - lastReportMillis >= reportIntervalMillis ) {
+                    saveCheckpoint(checkpointFile);
+                    report(out, now - startMillis);
+                    lastReportMillis = now;
+                }
+            }
+
+            if ( null == failure.get() ) {
+                submit(executor, pending, batch);
+            }
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, new RuntimeException("interrupted while importing " + file, e));
+        }
+        finally {
+            reader.close();
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+            saveCheckpoint(checkpointFile);
+        }
+
+        report(out, System.currentTimeMillis() - startMillis);
+        if ( null != failure.get() ) {
+            throw new RuntimeException("import failed - run it again to resume after record " + getCheckpoint(), failure.get());
+        }
+        return postsImported.get() + commentsImported.get();
+    }
+
+    private void reset(long skip) {
+        postsImported.set(0);
+        commentsImported.set(0);
+        recordsRejected.set(0);
+        failure.set(null);
+        synchronized ( completed ) {
+            completed.clear();
+            nextToCheckpoint = 0;
+            checkpoint = skip;
+        }
+    }
+
+    private void submit(ExecutorService executor, final Semaphore pending, final Batch batch) throws InterruptedException {
+        pending.acquire();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if ( null == failure.get() ) {
+                        if ( !batch.posts.isEmpty() || !batch.comments.isEmpty() ) {
+                            dao.importBatch(batch.posts, batch.comments);
+                        }
+                        postsImported.addAndGet(batch.posts.size());
+                        commentsImported.addAndGet(batch.comments.size());
+                        batchDone(batch);
+                    }
+                }
+                catch ( RuntimeException e ) {
+                    logger.error("exception while importing records " + (batch.startRecord+1) + " to " + batch.endRecord, e);
+                    failure.compareAndSet(null, e);
+                }
+                finally {
+                    pending.release();
+                }
+            }
+        });
+    }
+
+    private void batchDone(Batch batch) {
+        synchronized ( completed ) {
+            completed.put(batch.sequence, batch.endRecord);
+            // the checkpoint only moves past batches with no unfinished batch before them
+            while ( completed.containsKey(nextToCheckpoint) ) {
+                checkpoint = completed.remove(nextToCheckpoint);
+                nextToCheckpoint++;
+            }
+        }
+    }
+
+    /**
+     * @return number of records from the start of the file that are all imported (or rejected)
+     */
+    public long getCheckpoint() {
+        synchronized ( completed ) {
+            return checkpoint;
+        }
+    }
+
+    private void report(PrintStream out, long elapsedMillis) {
+        long imported = postsImported.get() + commentsImported.get();
+        out.println(String.format("imported %d posts, %d comments, rejected %d - %.0f records/sec, checkpoint at record %d",
+                postsImported.get(), commentsImported.get(), recordsRejected.get(),
+                imported * 1000.0 / Math.max(1, elapsedMillis), getCheckpoint()));
+    }
+
+    private static String readRecord(BufferedReader reader, Format format) throws IOException {
+        String line = reader.readLine();
+        if ( null == line || Format.CSV != format || ImportRecords.isCompleteCsv(line) ) {
+            return line;
+        }
+
+        // a quoted field continues on the next line
+        StringBuilder record = new StringBuilder(line);
+        while ( !ImportRecords.isCompleteCsv(record) && null != (line = reader.readLine()) ) {
+            record.append('\n').append(line);
+        }
+        return record.toString();
+    }
+
+    private static long readCheckpoint(File checkpointFile) throws IOException {
+        if ( !checkpointFile.exists() ) {
+            return 0;
+        }
+        return Long.parseLong(Files.toString(checkpointFile, Charsets.UTF_8).trim());
+    }
+
+    private void saveCheckpoint(File checkpointFile) throws IOException {
+        // write then rename, so a crash can't leave a half written checkpoint
+        File tmp = new File(checkpointFile.getPath() + ".tmp");
+        Files.write(Long.toString(getCheckpoint()), tmp, Charsets.UTF_8);
+        if ( !tmp.renameTo(checkpointFile) ) {
+            checkpointFile.delete();
+            Files.move(tmp, checkpointFile);
+        }
+    }
+
+    /**
+     * Posts and Comments of consecutive records, after 'startRecord' up to and including 'endRecord'.
+     */
+    private static class Batch {
+        final long sequence;
+        final long startRecord;
+        long endRecord;
+        final List<Post> posts = new ArrayList<Post>();
+        final List<Comment> comments = new ArrayList<Comment>();
+        long bytes;
+
+        Batch(long sequence, long startRecord) {
+            this.sequence = sequence;
+            this.startRecord = startRecord;
+            this.endRecord = startRecord;
+        }
+
+        void add(Format format, String record) {
+            Map<String, String> fields = Format.CSV == format ? ImportRecords.parseCsv(record) : ImportRecords.parseJson(record);
+            if ( ImportRecords.TYPE_POST.equals(ImportRecords.type(fields)) ) {
+                posts.add(ImportRecords.toPost(fields));
+            }
+            else {
+                comments.add(ImportRecords.toComment(fields));
+            }
+            bytes += record.length();
+        }
+
+        int size() {
+            return posts.size() + comments.size();
+        }
+    }
+
+    public void setBatchRecords(int batchRecords) {
+        this.batchRecords = batchRecords;
+    }
+
+    public void setBatchBytes(int batchBytes) {
+        this.batchBytes = batchBytes;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setMaxPendingBatches(int maxPendingBatches) {
+        this.maxPendingBatches = maxPendingBatches;
+    }
+
+    public void setReportIntervalMillis(long reportIntervalMillis) {
+        this.reportIntervalMillis = reportIntervalMillis;
+    }
+}
@@ -14,6 +14,8 @@ import java.util.UUID;
 @Entity
 @Table(name = "comments")
 public class Comment {
+    public static final String COL_USER_EMAIL = "user_email";
+    public static final String COL_USER_NAME = "user_name";
     public static final String COL_POST_ID = "post_id";
     public static final String COL_CREATE_TS = "create_ts";
     public static final String COL_TEXT = "text";
@@ -21,10 +23,10 @@ public class Comment {
     @Id
     private UUID id;
 
-    @Column(name = "user_email")
+    @Column(name = COL_USER_EMAIL)
     private String userEmail;
 
-    @Column(name = "user_name")
+    @Column(name = COL_USER_NAME)
     private String userDisplayName;
 
     @Column(name= COL_POST_ID)
@@ -0,0 +1,80 @@
+package com.btoddb.blog;
+
+import me.prettyprint.cassandra.serializers.LongSerializer;
+import me.prettyprint.cassandra.serializers.StringSerializer;
+import me.prettyprint.cassandra.serializers.UUIDSerializer;
+import me.prettyprint.hector.api.beans.ColumnSlice;
+import me.prettyprint.hector.api.beans.HColumn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link RowCodec} for the ColumnFamily, comments.  The text is converted by a {@link TextCodec}, the same as
+ * {@link PostCodec}.
+ *
+ */
+public class CommentCodec implements RowCodec<Comment> {
+    private static final CommentCodec instance = new CommentCodec(new TextCodec());
+
+    private final TextCodec textCodec;
+
+    /**
+     * @param textCodec how to convert the text column
+     */
+    public CommentCodec(TextCodec textCodec) {
+        this.textCodec = textCodec;
+    }
+
+    /**
+     * @return codec that never compresses text
+     */
+    public static CommentCodec get() {
+        return instance;
+    }
+
+    @Override
+    public Comment fromSlice(UUID id, ColumnSlice<String, byte[]> slice) {
+        if ( null == slice || slice.getColumns().isEmpty() ) {
+            return null;
+        }
+
+        Comment comment = new Comment();
+        comment.setId(id);
+        for ( HColumn<String, byte[]> col : slice.getColumns() ) {
+            String name = col.getName();
+            if ( Comment.COL_USER_EMAIL.equals(name) ) {
+                comment.setUserEmail(StringSerializer.get().fromBytes(col.getValue()));
+            }
+            else if ( Comment.COL_USER_NAME.equals(name) ) {
+                comment.setUserDisplayName(StringSerializer.get().fromBytes(col.getValue()));
+            }
+            else if ( Comment.COL_POST_ID.equals(name) ) {
+                comment.setPostId(UUIDSerializer.get().fromBytes(col.getValue()));
+            }
+            else if ( Comment.COL_CREATE_TS.equals(name) ) {
+                comment.setCreateTimestamp(LongSerializer.get().fromBytes(col.getValue()));
+            }
+            else if ( Comment.COL_TEXT.equals(name) ) {
+                comment.setText(textCodec.fromBytes(col.getValue()));
+            }
+        }
+        return comment;
+    }
+
+    @Override
+    public List<HColumn<String, byte[]>> toColumns(Comment comment) {
+        List<HColumn<String, byte[]>> cols = new ArrayList<HColumn<String, byte[]>>(5);
+        PostCodec.addString(cols, Comment.COL_USER_EMAIL, comment.getUserEmail());
+        PostCodec.addString(cols, Comment.COL_USER_NAME, comment.getUserDisplayName());
+        if ( null != comment.getPostId() ) {
+            cols.add(PostCodec.createColumn(Comment.COL_POST_ID, UUIDSerializer.get().toBytes(comment.getPostId())));
+        }
+        cols.add(PostCodec.createColumn(Comment.COL_CREATE_TS, LongSerializer.get().toBytes(comment.getCreateTimestamp())));
+        if ( null != comment.getText() ) {
+            cols.add(PostCodec.createColumn(Comment.COL_TEXT, textCodec.toBytes(comment.getText())));
+        }
+        return cols;
+    }
+}
@@ -0,0 +1,214 @@
+package com.btoddb.blog;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background sorting of Comments by vote, so readers never pay for it.  See ideas.txt, "How to sort comments by vote".
+ *
+ * Every 'interval' the scheduler reads its checkpoint from system_data, reads the comment_vote_ledger buckets
+ * from the checkpoint until now to find which Posts had new Comments or Comment votes, re-sorts only those Posts'
+ * Comments ('batch size' Posts per DAO call, 'parallelism' calls at a time), then saves the new checkpoint.  If any
+ * sort fails the checkpoint isn't moved, so the same Posts are tried again on the next run.
+ *
+ * The ledger is read up to 'lag' before now so votes still being written aren't skipped.
+ *
+ * Readers that notice Posts needing a sort can hand them over with {@link #requestSort(Collection)} instead of
+ * sorting themselves.
+ *
+ * Call {@link #start()} before use and {@link #shutdown()} when done.  All setters must be called before start().
+ * {@link #runOnce()} can also be called without starting, to sort on the calling thread.
+ */
+public class CommentSortScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(CommentSortScheduler.class);
+
+    public static final String CHECKPOINT_NAME = "comment-sort";
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 30000;
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final long DEFAULT_LAG_MILLIS = 5000;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final BlogDao dao;
+
+    private long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private long lagMillis = DEFAULT_LAG_MILLIS;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService workers;
+
+    public CommentSortScheduler(BlogDao dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * Start sorting every 'interval'.
+     *
+     */
+    public void start() {
+        workers = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("comment-sort-%d").build());
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("comment-sort-scheduler-%d").build());
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runOnce();
+                }
+                catch ( Throwable e ) {
+                    logger.error("exception while sorting comments - will retry next run", e);
+                }
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sorting.  A run in progress is allowed to finish.
+     *
+     */
+    public void shutdown() {
+        if ( null != scheduler ) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(intervalMillis, TimeUnit.MILLISECONDS);
+            }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Sort the Comments of every Post with Comment activity since the last checkpoint, then save the checkpoint.
+     *
+     * @return number of Posts sorted
+     */
+    public int runOnce() {
+        DateTime until = new DateTime().minus(lagMillis);
+        DateTime since = dao.findCheckpoint(CHECKPOINT_NAME);
+        if ( null == since ) {
+            // first run, take everything still in the ledger
+            since = until.minusSeconds(CommentVoteBuckets.LEDGER_TTL_SECONDS);
+        }
+        if ( !since.isBefore(until) ) {
+            return 0;
+        }
+
+        Set<UUID> postIds = dao.findPostUUIDsWithCommentVotes(since, until);
+        List<List<UUID>> batches = Lists.partition(new ArrayList<UUID>(postIds), batchSize);
+        if ( null == workers ) {
+            for ( List<UUID> batch : batches ) {
+                dao.sortCommentsByVotes(batch);
+            }
+        }
+        else {
+            sortInParallel(batches);
+        }
+
+        dao.saveCheckpoint(CHECKPOINT_NAME, until);
+        logger.debug("sorted comments for {} posts, up to {}", postIds.size(), until);
+        return postIds.size();
+    }
+
+    /**
+     * Sort the Posts' Comments soon, on the worker threads, without waiting.  Ignored unless started.
+     *
+     * @param postIds Post IDs
+     */
+    public void requestSort(Collection<UUID> postIds) {
+        if ( null == workers || postIds.isEmpty() ) {
+            return;
+        }
+
+        for ( final List<UUID> batch : Lists.partition(new ArrayList<UUID>(postIds), batchSize) ) {
+            try {
+                workers.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            dao.sortCommentsByVotes(batch);
+                        }
+                        catch ( Throwable e ) {
+                            logger.error("exception while sorting comments - will be sorted next run", e);
+                        }
+                    }
+                });
+            }
+            catch ( RejectedExecutionException e ) {
+                // shutting down, the next run will sort them
+                return;
+            }
+        }
+    }
+
+    private void sortInParallel(List<List<UUID>> batches) {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(batches.size());
+        for ( final List<UUID> batch : batches ) {
+            futures.add(workers.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    dao.sortCommentsByVotes(batch);
+                    return null;
+                }
+            }));
+        }
+
+        // wait for all of them, even after a failure, so a retry doesn't overlap this run
+        RuntimeException failure = null;
+        for ( Future<Void> f : futures ) {
+            try {
+                f.get();
+            }
+            catch ( ExecutionException e ) {
+                if ( null == failure ) {
+                    failure = new RuntimeException("failed to sort comments", e.getCause());
+                }
+            }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while sorting comments", e);
+            }
+        }
+
+        if ( null != failure ) {
+            throw failure;
+        }
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setLagMillis(long lagMillis) {
+        this.lagMillis = lagMillis;
+    }
+}
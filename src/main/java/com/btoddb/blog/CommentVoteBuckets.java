@@ -0,0 +1,72 @@
+package com.btoddb.blog;
+
+import com.google.common.collect.AbstractIterator;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.util.Iterator;
+
+/**
+ * Row key calculation for the ColumnFamily, comment_vote_ledger.  Keys are on 5 minute granularity (GMT) so
+ * every storage engine buckets the ledger the same way.
+ *
+ */
+final class CommentVoteBuckets {
+    static final int BUCKET_MINUTES = 5;
+
+    // buckets older than this are dropped - the comment sort must run more often than this
+    static final int LEDGER_TTL_SECONDS = 24 * 60 * 60;
+
+    private static final DateTimeFormatter minuteFormatter = DateTimeFormat.forPattern("YYYYMMdd:HHmm");
+
+    private CommentVoteBuckets() {
+    }
+
+    /**
+     * Round the timestamp down to the start of its bucket, in GMT.
+     *
+     * @param timestamp any timestamp
+     * @return start of the bucket containing 'timestamp'
+     */
+    static DateTime floor(DateTime timestamp) {
+        DateTime minute = timestamp.withZone(DateTimeZone.forOffsetHours(0)).minuteOfHour().roundFloorCopy();
+        return minute.minusMinutes(minute.getMinuteOfHour() % BUCKET_MINUTES);
+    }
+
+    /**
+     * Calculate the comment_vote_ledger row key for the bucket containing 'timestamp'.
+     *
+     * @param timestamp any timestamp
+     * @return row key
+     */
+    static String rowKey(DateTime timestamp) {
+        return minuteFormatter.print(floor(timestamp));
+    }
+
+    /**
+     * Lazily generate the row keys of all buckets needed to cover the time range, oldest first.
+     *
+     * @param start Start time
+     * @param end End time
+     * @return row keys, in bucket order
+     */
+    static Iterator<String> rowKeys(final DateTime start, DateTime end) {
+        final DateTime lastBucket = floor(end);
+        return new AbstractIterator<String>() {
+            private DateTime current = floor(start);
+
+            @Override
+            protected String computeNext() {
+                if ( current.isAfter(lastBucket) ) {
+                    return endOfData();
+                }
+
+                String key = minuteFormatter.print(current);
+                current = current.plusMinutes(BUCKET_MINUTES);
+                return key;
+            }
+        };
+    }
+}
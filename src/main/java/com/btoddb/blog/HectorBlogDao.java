@@ -0,0 +1,2270 @@
+package com.btoddb.blog;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.*;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import me.prettyprint.cassandra.serializers.*;
+import me.prettyprint.cassandra.service.ColumnSliceIterator;
+import me.prettyprint.cassandra.service.KeyIterator;
+import me.prettyprint.cassandra.utils.TimeUUIDUtils;
+import me.prettyprint.hector.api.Cluster;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.Serializer;
+import me.prettyprint.hector.api.beans.*;
+import me.prettyprint.hector.api.exceptions.HTimedOutException;
+import me.prettyprint.hector.api.exceptions.HectorException;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+import me.prettyprint.hector.api.query.*;
+import org.joda.time.DateTime;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cassandra implementation of {@link BlogDao} using Hector.  Posts and Comments are mapped to rows by
+ * {@link PostCodec} and {@link CommentCodec}, in the same format as Hector Object Mapper (HOM).
+ *
+ */
+public class HectorBlogDao implements BlogDao {
+    private static final String KEYSPACE_NAME = "blog";
+    private static final String CASS_HOST = "localhost";
+    private static final byte[] EMPTY_BYTES = new byte[0];
+    private static final byte[] POSTS_BY_VOTE_KEY = "posts-sorted".getBytes();
+
+    public static final int DEFAULT_QUERY_THREADS = 16;
+    public static final int DEFAULT_QUERY_QUEUE_SIZE = 1000;
+    public static final long DEFAULT_QUERY_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_TIME_RANGE_BUCKETS_PER_FETCH = 24;
+    public static final int DEFAULT_TIME_RANGE_COLUMNS_PER_FETCH = 1000;
+    public static final long DEFAULT_COMMENT_POST_CACHE_SIZE = 100000;
+    public static final int DEFAULT_TEXT_COMPRESSION_THRESHOLD = 0;
+    public static final long DEFAULT_POST_TIME_BUCKETS_REFRESH_MILLIS = 60000;
+    public static final int DEFAULT_SEARCH_COLUMNS_PER_FETCH = 100;
+
+    private Keyspace keyspace;
+
+    private int queryThreads = DEFAULT_QUERY_THREADS;
+    private int queryQueueSize = DEFAULT_QUERY_QUEUE_SIZE;
+    private long queryTimeoutMillis = DEFAULT_QUERY_TIMEOUT_MILLIS;
+    private int timeRangeBucketsPerFetch = DEFAULT_TIME_RANGE_BUCKETS_PER_FETCH;
+    private int timeRangeColumnsPerFetch = DEFAULT_TIME_RANGE_COLUMNS_PER_FETCH;
+    private ListeningExecutorService queryExecutor;
+
+    // Comment ID -> Post ID, filled by saveComment and lookups, so comment votes don't need to read the Comment
+    private long commentPostCacheSize = DEFAULT_COMMENT_POST_CACHE_SIZE;
+    private Cache<UUID, UUID> commentPostCache;
+
+    // spreads the vote counters of hot Posts and Comments over several counter columns
+    private VoteShards voteShards = new VoteShards();
+
+    // bucket sizes of posts_by_time, re-read every 'refresh millis' so other processes' changes are picked up
+    private long postTimeBucketsRefreshMillis = DEFAULT_POST_TIME_BUCKETS_REFRESH_MILLIS;
+    private volatile Supplier<PostTimeBuckets> postTimeBuckets;
+
+    // Post IDs read from a post_terms row at a time
+    private int searchColumnsPerFetch = DEFAULT_SEARCH_COLUMNS_PER_FETCH;
+
+    // text of Posts and Comments is compressed if at least this many bytes - off by default.  compressed or not,
+    // both are always readable
+    private int textCompressionThreshold = DEFAULT_TEXT_COMPRESSION_THRESHOLD;
+    private PostCodec postCodec;
+    private CommentCodec commentCodec;
+
+    private static final String CF_USERS = "users";
+    private static final String USER_COL_PASS = "password";
+    private static final String USER_COL_NAME = "name";
+
+    private static final String CF_COMMENTS = "comments";
+
+    private static final String CF_POSTS = "posts";
+    // what list views need - everything but the text
+    private static final String[] POST_SUMMARY_COLUMNS = {
+            Post.POST_COL_USER_EMAIL, Post.POST_COL_USER_NAME, Post.POST_COL_TITLE, Post.POST_COL_CREATE_TS
+    };
+
+    private static final String CF_USER_POSTS = "user_posts";
+
+    private static final String CF_USER_VOTES = "user_votes";
+
+    private static final String CF_POSTS_BY_TIME = "posts_by_time";
+    private static final String CF_POST_TERMS = "post_terms";
+
+    private static final String CF_POSTS_BY_VOTE = "posts_sorted_by_vote";
+
+    private static final String CF_POSTS_TRENDING = "posts_trending";
+
+    private static final String CF_USER_COMMENTS = "user_comments";
+
+    private static final String CF_POST_COMMENTS = "post_comments";
+
+    private static final String CF_VOTES = "votes";
+
+    private static final String CF_POST_COMMENT_VOTE_CHANGE = "post_comment_votes_changed";
+
+    private static final String CF_POST_COMMENTS_SORTED_BY_VOTE = "post_comments_sorted_by_vote";
+
+    private static final String CF_COMMENT_VOTE_LEDGER = "comment_vote_ledger";
+
+    private static final String CF_ACTIVITY_FEEDS = "activity_feeds";
+
+    private static final String CF_SYSTEM_DATA = "system_data";
+    private static final String SYSTEM_COL_CHECKPOINT = "checkpoint";
+
+
+    /**
+     * Must call once (and only once) prior to using the DAO.
+     *
+     */
+    @Override
+    public void init() {
+		initHector();
+        initQueryExecutor();
+        refreshPostTimeBuckets();
+        commentPostCache = CacheBuilder.newBuilder().maximumSize(commentPostCacheSize).build();
+
+        TextCodec textCodec = new TextCodec(textCompressionThreshold);
+        postCodec = new PostCodec(textCodec);
+        commentCodec = new CommentCodec(textCodec);
+	}
+
+    private void initHector() {
+        Cluster cluster = HFactory.getOrCreateCluster("training-cluster", CASS_HOST + ":9160");
+        keyspace = HFactory.createKeyspace(KEYSPACE_NAME, cluster);
+    }
+
+    private void initQueryExecutor() {
+        // bounded so a burst of list pages can't create unlimited threads or queue unlimited queries.  when
+        // the queue is full the calling thread runs the query itself, which slows down the caller
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(queryThreads, queryThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queryQueueSize),
+                new ThreadFactoryBuilder().setNameFormat("blog-query-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        queryExecutor = MoreExecutors.listeningDecorator(executor);
+    }
+
+    @Override
+    public void shutdown() {
+        if ( null != queryExecutor ) {
+            queryExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Save User record.
+     *
+     * @param user user record to save
+     * @return User record after saved
+     */
+    @Override
+    public User saveUser( User user ) {
+        // this simple save could easily be done with HOM (Hector Object Mapper)
+        // but we'll do it this way once for illustration
+        Mutator<String> m = HFactory.createMutator(keyspace, StringSerializer.get());
+        m.addInsertion(user.getEmail(), CF_USERS, HFactory.createColumn(USER_COL_PASS, user.getPassword(), StringSerializer.get(), StringSerializer.get()));
+        m.addInsertion(user.getEmail(), CF_USERS, HFactory.createColumn(USER_COL_NAME, user.getName(), StringSerializer.get(), StringSerializer.get()));
+        m.execute();
+        return user;
+    }
+
+    /**
+     * Save Post record.
+     * <ul>
+     *     <li>Save Post</li>
+     *     <li>Save User/Post connection</li>
+     *     <li>Initialize votes to zero for sorting</li>
+     *     <li>Save Post in trending index with zero votes</li>
+     *     <li>Add Post to the User's and the site's activity feeds</li>
+     * </ul>
+     *
+     * @param post Post record to save
+     * @return Post record after saved
+     */
+    @Override
+    public Post savePost( Post post ) {
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        addPostInsertions(m, post);
+        addTrendingInsertion(m, post.getId(), 0, System.currentTimeMillis());
+        addActivityInsertions(m, Activity.ofPost(post));
+
+        // send the batch
+        m.execute();
+
+        post.setVotes( 0L );
+        return post;
+    }
+
+    /**
+     * Add the Post's row, its User and time index columns, and its zeroed vote counter.
+     */
+    private void addPostInsertions(Mutator<byte[]> m, Post post) {
+        // insert row for Post - PostCodec handles mapping POJO to Cassandra row
+        addRowInsertions(m, CF_POSTS, post.getId(), postCodec.toColumns(post));
+
+        // insert one-to-many for user->post : these are sorted by TimeUUID (chrono + unique)
+        m.addInsertion(StringSerializer.get().toBytes(post.getUserEmail()), CF_USER_POSTS,
+                       HFactory.createColumn(post.getId(), EMPTY_BYTES, UUIDSerializer.get(), BytesArraySerializer.get()));
+
+        // insert TimeUUID post ID to track order the posts were entered
+        String timeKey = postTimeBuckets.get().rowKey(post.getCreateTimestamp());
+        m.addInsertion(StringSerializer.get().toBytes(timeKey), CF_POSTS_BY_TIME,
+                       HFactory.createColumn(post.getId(), EMPTY_BYTES, UUIDSerializer.get(), BytesArraySerializer.get()));
+
+        addTermInsertions(m, post);
+
+        // add a zero to counter so we don't miss one when sorting by votes - this leaves the counter at zero
+        m.addCounter(UUIDSerializer.get().toBytes(post.getId()), CF_VOTES, HFactory.createCounterColumn(VoteShards.COLUMN, 0));
+    }
+
+    /**
+     * Add the Post to the post_terms row of each term of its title and text.
+     */
+    private void addTermInsertions(Mutator<byte[]> m, Post post) {
+        for ( String term : PostSearch.terms(post) ) {
+            m.addInsertion(StringSerializer.get().toBytes(term), CF_POST_TERMS,
+                           HFactory.createColumn(post.getId(), EMPTY_BYTES, UUIDSerializer.get(), BytesArraySerializer.get()));
+        }
+    }
+
+    /**
+     * Save Comment.
+     *
+     * <ul>
+     *     <li>Save Comment</li>
+     *     <li>Save User/Comment connection</li>
+     *     <li>Save Post/Comment connection</li>
+     *     <li>Initialize votes to zero for sorting</li>
+     *     <li>Save flag indicating Post's comments need sorting</li>
+     *     <li>Add Comment to the User's and the site's activity feeds</li>
+     * </ul>
+     *
+     * @param comment Comment record to save
+     * @return Comment record after saved
+     */
+    @Override
+    public Comment saveComment( Comment comment ) {
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        addCommentInsertions(m, comment);
+        addSortInsertions(m, comment.getPostId());
+        addActivityInsertions(m, Activity.ofComment(comment));
+
+        // send the batch
+        m.execute();
+        commentPostCache.put(comment.getId(), comment.getPostId());
+
+        comment.setVotes( 0L );
+        return comment;
+    }
+
+    /**
+     * Add the Comment's row, its User and Post index columns, and its zeroed vote counter.
+     */
+    private void addCommentInsertions(Mutator<byte[]> m, Comment comment) {
+        // insert row for comment - CommentCodec handles mapping POJO to Cassandra row
+        addRowInsertions(m, CF_COMMENTS, comment.getId(), commentCodec.toColumns(comment));
+
+        // insert one-to-many for user->comments and post->comments : these are sorted by TimeUUID (chrono + unique)
+        m.addInsertion(StringSerializer.get().toBytes(comment.getUserEmail()), CF_USER_COMMENTS,
+                       HFactory.createColumn(comment.getId(), EMPTY_BYTES, UUIDSerializer.get(), BytesArraySerializer.get()));
+        m.addInsertion(UUIDSerializer.get().toBytes(comment.getPostId()), CF_POST_COMMENTS,
+                       HFactory.createColumn(comment.getId(), EMPTY_BYTES, UUIDSerializer.get(), BytesArraySerializer.get()));
+
+        // add a zero to counter so we don't miss one when sorting by votes - this leaves the counter at zero
+        m.addCounter(UUIDSerializer.get().toBytes(comment.getId()), CF_VOTES, HFactory.createCounterColumn(VoteShards.COLUMN, 0));
+    }
+
+    /**
+     * Flag the Post as needing its Comments sorted.
+     */
+    private void addSortInsertions(Mutator<byte[]> m, UUID postId) {
+        // this insert is to signal that this post needs its comments sorted
+        m.addInsertion(UUIDSerializer.get().toBytes(postId), CF_POST_COMMENT_VOTE_CHANGE, HFactory.createColumn("v", EMPTY_BYTES));
+        addLedgerInsertion(m, postId);
+    }
+
+    /**
+     * Save historical Posts and Comments in one batch - one Mutator, one round trip.
+     *
+     * @param posts Posts to save
+     * @param comments Comments to save, of any Posts
+     */
+    @Override
+    public void importBatch( Collection<Post> posts, Collection<Comment> comments ) {
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        for ( Post post : posts ) {
+            addPostInsertions(m, post);
+        }
+
+        Set<UUID> postIds = new HashSet<UUID>();
+        for ( Comment comment : comments ) {
+            addCommentInsertions(m, comment);
+            postIds.add(comment.getPostId());
+        }
+        for ( UUID postId : postIds ) {
+            addSortInsertions(m, postId);
+        }
+
+        m.execute();
+    }
+
+    /**
+     * Find User by user email.
+     *
+     * @param email user's email
+     * @return User record associated with email if found, null otherwise
+     */
+    @Override
+    public User findUser( String email ) {
+        // this simple query could easily be done with HOM (Hector Object Mapper)
+        // but we'll do it this way once for illustration
+        SliceQuery<String, String, String> q = HFactory.createSliceQuery(keyspace, StringSerializer.get(), StringSerializer.get(), StringSerializer.get());
+        q.setColumnFamily(CF_USERS);
+        q.setKey(email);
+        q.setRange(null, null, false, 100);
+        QueryResult<ColumnSlice<String, String>> qr = q.execute();
+
+        ColumnSlice<String, String> slice = qr.get();
+
+        if ( null == slice || slice.getColumns().isEmpty() ) {
+            return null;
+        }
+
+        User user = new User();
+        user.setEmail(email);
+        user.setPassword(slice.getColumnByName(USER_COL_PASS).getValue());
+        user.setName(slice.getColumnByName(USER_COL_NAME).getValue());
+
+        return user;
+    }
+
+    /**
+     * Find Post by Post ID.
+     *
+     * @param postId UUID of Post to find
+     * @return Post record if found, null otherwise
+     */
+    @Override
+    public Post findPost( UUID postId ) {
+        Post p = postCodec.fromSlice(postId, findRowByUUID(CF_POSTS, postId));
+        if ( null == p ) {
+            return null;
+        }
+
+        Map<UUID, Long> voteMap = findVotes(Collections.singletonList(postId));
+        p.setVotes(voteMap.get(postId));
+        return p;
+    }
+
+    /**
+     * Find Comment by ID.  Also does a lookup to get the Comment's vote count.
+     *
+     * @param uuid UUID of Comment to find
+     * @return Comment record if found, null otherwise
+     */
+    @Override
+    public Comment findComment(UUID uuid) {
+        Comment c = commentCodec.fromSlice(uuid, findRowByUUID(CF_COMMENTS, uuid));
+        if ( null == c ) {
+            return null;
+        }
+
+        Map<UUID, Long> voteMap = findVotes(Collections.singletonList(uuid));
+        if ( voteMap.isEmpty() ) {
+            return c;
+        }
+
+        c.setVotes(voteMap.get(uuid));
+        return c;
+    }
+
+    /**
+     * Find Posts for list views, reading only the summary columns.  Their text is null.
+     */
+    private List<Post> findPostSummariesByUUIDList(List<UUID> uuidList, boolean includeVotes) {
+        if ( includeVotes ) {
+            return awaitQuery(findPostsAsync(uuidList, POST_SUMMARY_COLUMNS));
+        }
+
+        return toPostList(uuidList, findRowsByUUIDList(CF_POSTS, uuidList, POST_SUMMARY_COLUMNS), null);
+    }
+
+    /**
+     * Find Posts given a list of Post IDs, waiting up to the query timeout.
+     *
+     * @param uuidList list of Post IDs
+     * @return list of Post records
+     */
+    @Override
+    public List<Post> findPostsByUUIDList( List<UUID> uuidList ) {
+        return awaitQuery(findPostsAsync(uuidList));
+    }
+
+    /**
+     * Find Posts given a list of Post IDs.  The Post rows and their votes are read concurrently on the query
+     * executor, so this costs about one round-trip.
+     *
+     * @param uuidList list of Post IDs
+     * @return future list of Post records, cancel it to cancel the queries still running
+     */
+    @Override
+    public ListenableFuture<List<Post>> findPostsByUUIDListAsync(List<UUID> uuidList) {
+        return findPostsAsync(uuidList);
+    }
+
+    private ListenableFuture<List<Post>> findPostsAsync(final List<UUID> uuidList, final String... columnNames) {
+        final ListenableFuture<Rows<UUID, String, byte[]>> rowsFuture = submitQuery(new Callable<Rows<UUID, String, byte[]>>() {
+            @Override
+            public Rows<UUID, String, byte[]> call() {
+                return findRowsByUUIDList(CF_POSTS, uuidList, columnNames);
+            }
+        });
+        final ListenableFuture<Map<UUID, Long>> votesFuture = findVotesAsync(uuidList);
+
+        return joinQueries(new Callable<List<Post>>() {
+            @Override
+            public List<Post> call() {
+                return toPostList(uuidList, getDone(rowsFuture), getDone(votesFuture));
+            }
+        }, rowsFuture, votesFuture);
+    }
+
+    private List<Post> toPostList(List<UUID> uuidList, Rows<UUID, String, byte[]> rows, Map<UUID, Long> voteMap) {
+        if ( null == rows || 0 == rows.getCount()) {
+            return null;
+        }
+
+        Map<UUID, Post> postMap = new HashMap<UUID, Post>();
+        for ( Row<UUID, String, byte[]> row : rows) {
+            postMap.put(row.getKey(), postCodec.fromSlice(row.getKey(), row.getColumnSlice()));
+        }
+
+        // gotta do it this way to preserve ordering from the original UUID List
+        List<Post> postList = new LinkedList<Post>();
+        boolean found = false;
+        for ( UUID uuid : uuidList ) {
+            Post post = postMap.get(uuid);
+            // a multiget returns an empty row for a Post that doesn't exist, which decodes to null
+            if ( null != post ) {
+                found = true;
+                Long votes = null != voteMap ? voteMap.get(uuid) : null;
+                if ( null != votes ) {
+                    post.setVotes(votes);
+                }
+            }
+            postList.add(post);
+        }
+
+        return found ? postList : null;
+    }
+
+    private ColumnSlice<String, byte[]> findRowByUUID(String columnFamily, UUID uuid) {
+        SliceQuery<UUID, String, byte[]> q = HFactory.createSliceQuery(keyspace, UUIDSerializer.get(), StringSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(columnFamily);
+        q.setKey(uuid);
+        q.setRange(null, null, false, 100);
+        return q.execute().get();
+    }
+
+    private void addRowInsertions(Mutator<byte[]> m, String columnFamily, UUID uuid, List<HColumn<String, byte[]>> cols) {
+        byte[] key = UUIDSerializer.get().toBytes(uuid);
+        for ( HColumn<String, byte[]> col : cols ) {
+            m.addInsertion(key, columnFamily, col);
+        }
+    }
+
+    // no column names reads the whole row
+    private Rows<UUID, String, byte[]> findRowsByUUIDList(String columnFamily, List<UUID> uuidList, String... columnNames) {
+        MultigetSliceQuery<UUID, String, byte[]> q = HFactory.createMultigetSliceQuery(keyspace, UUIDSerializer.get(), StringSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(columnFamily);
+        if ( 0 < columnNames.length ) {
+            q.setColumnNames(columnNames);
+        }
+        else {
+            q.setRange(null, null, false, 100);
+        }
+        q.setKeys(uuidList);
+        QueryResult<Rows<UUID, String, byte[]>> qr = q.execute();
+        return qr.get();
+    }
+
+    /**
+     * Find all Post UUIDs for the given User using the User/Post connection.
+     *
+     * @param userEmail user's email
+     * @return list of Post IDs
+     */
+    @Override
+    public List<UUID> findPostUUIDsByUser( String userEmail ) {
+        SliceQuery<String, UUID, byte[]> q = HFactory.createSliceQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(CF_USER_POSTS);
+        q.setKey(userEmail);
+        q.setRange(null, null, false, 10);
+
+        ColumnSliceIterator<String, UUID, byte[]> iter = new ColumnSliceIterator<String, UUID, byte[]>(q, null, (UUID)null, false);
+        List<UUID> uuidList = new LinkedList<UUID>();
+        while ( iter.hasNext() ) {
+            HColumn<UUID, byte[]> col = iter.next();
+            uuidList.add(col.getName());
+        }
+
+        return uuidList;
+    }
+
+    /**
+     * Find one page of Post UUIDs for the given User.  Reads only the page, plus one column for the next cursor.
+     *
+     * @param userEmail user's email
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Post IDs to return
+     * @return page of Post IDs
+     */
+    @Override
+    public Page<UUID> findPostUUIDsByUser( String userEmail, String cursor, int limit ) {
+        return findUUIDPage(CF_USER_POSTS, StringSerializer.get(), userEmail, cursor, limit);
+    }
+
+    /**
+     * Find all Posts for the given User.
+     *
+     * @param userEmail user's email
+     * @return list of Post records
+     */
+    @Override
+    public List<Post> findPostsByUser( String userEmail ) {
+        List<UUID> uuidList = findPostUUIDsByUser(userEmail);
+        if ( uuidList.isEmpty() ) {
+            return null;
+        }
+
+        return findPostSummariesByUUIDList( uuidList, true );
+    }
+
+    /**
+     * Find one page of Posts for the given User.
+     *
+     * @param userEmail user's email
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Posts to return
+     * @return page of Post records
+     */
+    @Override
+    public Page<Post> findPostsByUser( String userEmail, String cursor, int limit ) {
+        Page<UUID> uuidPage = findPostUUIDsByUser(userEmail, cursor, limit);
+        if ( uuidPage.getItems().isEmpty() ) {
+            return new Page<Post>(new ArrayList<Post>(), null);
+        }
+
+        return new Page<Post>(findPostSummariesByUUIDList(uuidPage.getItems(), true), uuidPage.getNextCursor());
+    }
+
+    /**
+     * Find Post UUIDs by time range (GMT).
+     *
+     * @param start Start time in GMT
+     * @param end End time in GMT
+     * @return list of Post IDs
+     */
+    @Override
+    public List<UUID> findPostUUIDsByTimeRange( DateTime start, DateTime end ) {
+        return findPostUUIDsByTimeRange(start, end, Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Find up to 'limit' Post UUIDs by time range (GMT).  Stops reading buckets as soon as the limit is reached.
+     *
+     * @param start Start time in GMT
+     * @param end End time in GMT
+     * @param limit max number of Post IDs to return
+     * @param newestFirst true to return the newest Posts first
+     * @return list of Post IDs
+     */
+    @Override
+    public List<UUID> findPostUUIDsByTimeRange( DateTime start, DateTime end, int limit, boolean newestFirst ) {
+        PostTimeRangeIterator iter = new PostTimeRangeIterator(postTimeBuckets.get(), start, end, newestFirst);
+        List<UUID> uuidList = new ArrayList<UUID>();
+        try {
+            while ( uuidList.size() < limit && iter.hasNext() ) {
+                uuidList.add(iter.next());
+            }
+        }
+        finally {
+            iter.close();
+        }
+
+        return uuidList;
+    }
+
+    /**
+     * Iterate over Post UUIDs by time range (GMT).  posts_by_time rows are read in windows of
+     * 'timeRangeBucketsPerFetch' rows, with the next window prefetched on the query executor while the current
+     * one is consumed.  Rows wider than 'timeRangeColumnsPerFetch' are paged.
+     *
+     * @param start Start time in GMT
+     * @param end End time in GMT
+     * @param newestFirst true to return the newest Posts first
+     * @return iterator of Post IDs
+     */
+    @Override
+    public Iterator<UUID> iteratePostUUIDsByTimeRange( DateTime start, DateTime end, boolean newestFirst ) {
+        return new PostTimeRangeIterator(postTimeBuckets.get(), start, end, newestFirst);
+    }
+
+    /**
+     * Find the bucket sizes of posts_by_time, saved in the system_data row {@link PostTimeBuckets#ROW_KEY}.  Always
+     * read, not the copy cached for saving and reading Posts.
+     *
+     * @return bucket sizes by time period, {@link PostTimeBuckets#HOURLY} if never changed
+     */
+    @Override
+    public PostTimeBuckets findPostTimeBuckets() {
+        SliceQuery<String, String, Long> q = HFactory.createSliceQuery(keyspace, StringSerializer.get(), StringSerializer.get(), LongSerializer.get());
+        q.setColumnFamily(CF_SYSTEM_DATA);
+        q.setKey(PostTimeBuckets.ROW_KEY);
+        q.setRange(null, null, false, Integer.MAX_VALUE);
+
+        Map<String, Long> columns = new LinkedHashMap<String, Long>();
+        for ( HColumn<String, Long> col : q.execute().get().getColumns() ) {
+            columns.put(col.getName(), col.getValue());
+        }
+        return PostTimeBuckets.fromColumns(columns);
+    }
+
+    /**
+     * Change the bucket size of posts_by_time from 'start' to 'end' and copy the Posts in that time into the new
+     * buckets, 'timeRangeColumnsPerFetch' Posts per batch.  The old buckets aren't deleted - other processes read
+     * and write them until they refresh their bucket sizes, up to 'post time buckets refresh millis' after the
+     * switch (every process is expected to use the same interval).  They're listed in system_data for
+     * {@link #deleteRetiredPostBuckets()}.
+     *
+     * The range can't be within 'post time buckets refresh millis' of now - other processes could still be saving
+     * new Posts in the old buckets.  Change the bucket size of a busy time before it starts.
+     *
+     * @param start Start time in GMT, inclusive
+     * @param end End time in GMT, exclusive
+     * @param granularity new bucket size
+     * @return number of Posts moved
+     */
+    @Override
+    public int rebucketPostsByTime( DateTime start, DateTime end, PostTimeBuckets.Granularity granularity ) {
+        long now = System.currentTimeMillis();
+        if ( end.getMillis() > now - postTimeBucketsRefreshMillis && start.getMillis() < now + postTimeBucketsRefreshMillis ) {
+            throw new IllegalArgumentException("can't change buckets within " + postTimeBucketsRefreshMillis +
+                                               "ms of now, other processes may still be using the old ones");
+        }
+
+        PostTimeBuckets current = findPostTimeBuckets();
+        PostTimeBuckets changed = current.with(start, end, granularity);
+        DateTime last = end.minusMillis(1);
+
+        // write the new buckets
+        int moved = 0;
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        PostTimeRangeIterator iter = new PostTimeRangeIterator(current, start, last, false);
+        while ( iter.hasNext() ) {
+            UUID postId = iter.next();
+            String key = changed.rowKey(new DateTime(TimeUUIDUtils.getTimeFromUUID(postId)));
+            m.addInsertion(StringSerializer.get().toBytes(key), CF_POSTS_BY_TIME,
+                           HFactory.createColumn(postId, EMPTY_BYTES, UUIDSerializer.get(), BytesArraySerializer.get()));
+            if ( 0 == ++moved % timeRangeColumnsPerFetch ) {
+                m.execute();
+                m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+            }
+        }
+        m.execute();
+
+        // then switch readers to them.  only changed columns are deleted, a row delete would hide the inserts
+        // with the same timestamp
+        Mutator<String> sm = HFactory.createMutator(keyspace, StringSerializer.get());
+        Map<String, Long> columns = changed.toColumns();
+        for ( String name : current.toColumns().keySet() ) {
+            if ( !columns.containsKey(name) ) {
+                sm.addDeletion(PostTimeBuckets.ROW_KEY, CF_SYSTEM_DATA, name, StringSerializer.get());
+            }
+        }
+        for ( Map.Entry<String, Long> entry : columns.entrySet() ) {
+            sm.addInsertion(PostTimeBuckets.ROW_KEY, CF_SYSTEM_DATA, HFactory.createColumn(entry.getKey(), entry.getValue(), StringSerializer.get(), LongSerializer.get()));
+        }
+        sm.execute();
+        refreshPostTimeBuckets();
+
+        // and retire the old ones, to be deleted once every process has the new bucket sizes
+        long deleteAfter = System.currentTimeMillis() + postTimeBucketsRefreshMillis;
+        Set<String> newKeys = new HashSet<String>();
+        Iterators.addAll(newKeys, changed.rowKeys(start, last, false));
+        sm = HFactory.createMutator(keyspace, StringSerializer.get());
+        Iterator<String> oldKeys = current.rowKeys(start, last, false);
+        while ( oldKeys.hasNext() ) {
+            String key = oldKeys.next();
+            if ( !newKeys.contains(key) ) {
+                sm.addInsertion(PostTimeBuckets.RETIRED_ROW_KEY, CF_SYSTEM_DATA, HFactory.createColumn(key, deleteAfter, StringSerializer.get(), LongSerializer.get()));
+            }
+        }
+        sm.execute();
+
+        return moved;
+    }
+
+    /**
+     * Delete the posts_by_time buckets retired by {@link #rebucketPostsByTime} once every process has refreshed its
+     * bucket sizes.  A Post saved in an old bucket by a process that hadn't refreshed yet (a new Post, or one with
+     * an old timestamp from {@link BulkLoader}) is copied to its new bucket first.  A bucket that's in use again,
+     * after a later change back, is kept.
+     *
+     * @return number of buckets deleted
+     */
+    @Override
+    public int deleteRetiredPostBuckets() {
+        SliceQuery<String, String, Long> q = HFactory.createSliceQuery(keyspace, StringSerializer.get(), StringSerializer.get(), LongSerializer.get());
+        q.setColumnFamily(CF_SYSTEM_DATA);
+        q.setKey(PostTimeBuckets.RETIRED_ROW_KEY);
+        q.setRange(null, null, false, Integer.MAX_VALUE);
+        List<HColumn<String, Long>> retired = q.execute().get().getColumns();
+        if ( retired.isEmpty() ) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        PostTimeBuckets current = findPostTimeBuckets();
+        int deleted = 0;
+        for ( HColumn<String, Long> col : retired ) {
+            if ( col.getValue() > now ) {
+                continue;
+            }
+
+            String key = col.getName();
+            if ( !current.hasRowKey(key) ) {
+                copyToCurrentBuckets(key, current);
+                Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+                m.addDeletion(StringSerializer.get().toBytes(key), CF_POSTS_BY_TIME);
+                m.execute();
+                deleted++;
+            }
+
+            Mutator<String> sm = HFactory.createMutator(keyspace, StringSerializer.get());
+            sm.addDeletion(PostTimeBuckets.RETIRED_ROW_KEY, CF_SYSTEM_DATA, key, StringSerializer.get());
+            sm.execute();
+        }
+        return deleted;
+    }
+
+    /**
+     * Save every Post in the bucket, a page at a time, in its bucket for 'buckets'.
+     */
+    private void copyToCurrentBuckets(String key, PostTimeBuckets buckets) {
+        UUID startColumn = null;
+        for (;;) {
+            SliceQuery<String, UUID, byte[]> q = HFactory.createSliceQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
+            q.setColumnFamily(CF_POSTS_BY_TIME);
+            q.setKey(key);
+            q.setRange(startColumn, null, false, timeRangeColumnsPerFetch);
+            List<HColumn<UUID, byte[]>> page = q.execute().get().getColumns();
+
+            Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+            for ( HColumn<UUID, byte[]> col : page ) {
+                UUID postId = col.getName();
+                String newKey = buckets.rowKey(new DateTime(TimeUUIDUtils.getTimeFromUUID(postId)));
+                m.addInsertion(StringSerializer.get().toBytes(newKey), CF_POSTS_BY_TIME,
+                               HFactory.createColumn(postId, EMPTY_BYTES, UUIDSerializer.get(), BytesArraySerializer.get()));
+            }
+            m.execute();
+
+            if ( page.size() < timeRangeColumnsPerFetch ) {
+                return;
+            }
+            // the next slice starts with the last column of this one
+            startColumn = page.get(page.size() - 1).getName();
+        }
+    }
+
+    private void refreshPostTimeBuckets() {
+        postTimeBuckets = Suppliers.memoizeWithExpiration(new Supplier<PostTimeBuckets>() {
+            @Override
+            public PostTimeBuckets get() {
+                return findPostTimeBuckets();
+            }
+        }, postTimeBucketsRefreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Find Posts by time range (GMT).
+     *
+     * @param start Start time in GMT
+     * @param end End time in GMT
+     * @return list of Post records
+     */
+    @Override
+    public List<Post> findPostsByTimeRange(DateTime start, DateTime end) {
+        List<UUID> uuidList = findPostUUIDsByTimeRange(start, end);
+        if ( null == uuidList || uuidList.isEmpty() ) {
+            return null;
+        }
+
+        return findPostSummariesByUUIDList( uuidList, true );
+    }
+
+    /**
+     * Find up to 'limit' Posts by time range (GMT).
+     *
+     * @param start Start time in GMT
+     * @param end End time in GMT
+     * @param limit max number of Posts to return
+     * @param newestFirst true to return the newest Posts first
+     * @return list of Post records
+     */
+    @Override
+    public List<Post> findPostsByTimeRange(DateTime start, DateTime end, int limit, boolean newestFirst) {
+        List<UUID> uuidList = findPostUUIDsByTimeRange(start, end, limit, newestFirst);
+        if ( uuidList.isEmpty() ) {
+            return null;
+        }
+
+        return findPostSummariesByUUIDList( uuidList, true );
+    }
+
+    /**
+     * Find the newest Posts with all the terms.  The first page of every term's post_terms row is read with one
+     * multiget, then each row is paged on its own as the search skips through it.
+     *
+     * @param terms index terms
+     * @param limit max number of Post IDs to return
+     * @return list of Post IDs, newest first
+     */
+    @Override
+    public List<UUID> findPostUUIDsByTerms( Collection<String> terms, int limit ) {
+        if ( null == terms || terms.isEmpty() ) {
+            return new ArrayList<UUID>();
+        }
+
+        Set<String> keys = new LinkedHashSet<String>(terms);
+        MultigetSliceQuery<String, UUID, byte[]> q = HFactory.createMultigetSliceQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(CF_POST_TERMS);
+        q.setKeys(keys);
+        q.setRange(null, null, false, searchColumnsPerFetch);
+        Rows<String, UUID, byte[]> rows = q.execute().get();
+
+        List<PostSearch.Postings> postings = new ArrayList<PostSearch.Postings>(keys.size());
+        for ( String term : keys ) {
+            Row<String, UUID, byte[]> row = null != rows ? rows.getByKey(term) : null;
+            if ( null == row || row.getColumnSlice().getColumns().isEmpty() ) {
+                // no Post has this term, so none has them all
+                return new ArrayList<UUID>();
+            }
+            postings.add(new TermPostings(term, columnNames(row.getColumnSlice().getColumns())));
+        }
+        return PostSearch.intersect(postings, limit, searchColumnsPerFetch);
+    }
+
+    /**
+     * Find the newest Posts with all the terms.
+     *
+     * @param terms index terms
+     * @param limit max number of Posts to return
+     * @return list of Post records, newest first
+     */
+    @Override
+    public List<Post> findPostsByTerms( Collection<String> terms, int limit ) {
+        List<UUID> uuidList = findPostUUIDsByTerms(terms, limit);
+        if ( uuidList.isEmpty() ) {
+            return null;
+        }
+
+        return findPostSummariesByUUIDList( uuidList, true );
+    }
+
+    /**
+     * Add Posts to post_terms with one Mutator.
+     *
+     * @param posts Posts, with their text
+     */
+    @Override
+    public void indexPosts( Collection<Post> posts ) {
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        for ( Post post : posts ) {
+            addTermInsertions(m, post);
+        }
+        m.execute();
+    }
+
+    private static List<UUID> columnNames(List<HColumn<UUID, byte[]>> columns) {
+        List<UUID> names = new ArrayList<UUID>(columns.size());
+        for ( HColumn<UUID, byte[]> col : columns ) {
+            names.add(col.getName());
+        }
+        return names;
+    }
+
+    /**
+     * A post_terms row, newest Post first, starting with the page already read by the multiget.
+     */
+    private class TermPostings extends PostSearch.Postings {
+        private final String term;
+        private List<UUID> firstPage;
+
+        TermPostings(String term, List<UUID> firstPage) {
+            this.term = term;
+            this.firstPage = firstPage;
+        }
+
+        @Override
+        List<UUID> page(UUID from, int count) {
+            if ( null == from && null != firstPage ) {
+                List<UUID> page = firstPage;
+                firstPage = null;
+                return page;
+            }
+
+            SliceQuery<String, UUID, byte[]> q = HFactory.createSliceQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
+            q.setColumnFamily(CF_POST_TERMS);
+            q.setKey(term);
+            q.setRange(from, null, false, count);
+            return columnNames(q.execute().get().getColumns());
+        }
+    }
+
+    /**
+     * Find all Comment UUIDs for a given user.
+     *
+     * @param userEmail user's email
+     * @return list of Comment IDs
+     */
+    @Override
+    public List<UUID> findCommentUUIDsByUser( String userEmail ) {
+        SliceQuery<String, UUID, byte[]> q = HFactory.createSliceQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(CF_USER_COMMENTS);
+        q.setKey(userEmail);
+        q.setRange(null, null, false, 10);
+
+        ColumnSliceIterator<String, UUID, byte[]> iter = new ColumnSliceIterator<String, UUID, byte[]>(q, null, (UUID)null, false);
+        List<UUID> uuidList = new LinkedList<UUID>();
+        while ( iter.hasNext() ) {
+            HColumn<UUID, byte[]> col = iter.next();
+            uuidList.add(col.getName());
+        }
+
+        return uuidList;
+    }
+
+    /**
+     * Find one page of Comment UUIDs for a given user.
+     *
+     * @param userEmail user's email
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Comment IDs to return
+     * @return page of Comment IDs
+     */
+    @Override
+    public Page<UUID> findCommentUUIDsByUser( String userEmail, String cursor, int limit ) {
+        return findUUIDPage(CF_USER_COMMENTS, StringSerializer.get(), userEmail, cursor, limit);
+    }
+
+    /**
+     * Find a post's comment UUIDs sorted by time.  Uses the ColumnFamily, post_comments, as an index.
+     *
+     * @param postId post ID
+     * @return list of Comment IDs
+     */
+    @Override
+    public List<UUID> findCommentUUIDsByPostSortedByTime(UUID postId) {
+        SliceQuery<UUID, UUID, byte[]> q = HFactory.createSliceQuery(keyspace, UUIDSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(CF_POST_COMMENTS);
+        q.setKey(postId);
+        q.setRange(null, null, false, 10);
+
+        ColumnSliceIterator<UUID, UUID, byte[]> iter = new ColumnSliceIterator<UUID, UUID, byte[]>(q, null, (UUID)null, false);
+        List<UUID> uuidList = new LinkedList<UUID>();
+        while ( iter.hasNext() ) {
+            HColumn<UUID, byte[]> col = iter.next();
+            uuidList.add(col.getName());
+        }
+
+        return uuidList;
+    }
+
+    /**
+     * Find one page of a post's comment UUIDs sorted by time.
+     *
+     * @param postId post ID
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Comment IDs to return
+     * @return page of Comment IDs
+     */
+    @Override
+    public Page<UUID> findCommentUUIDsByPostSortedByTime(UUID postId, String cursor, int limit) {
+        return findUUIDPage(CF_POST_COMMENTS, UUIDSerializer.get(), postId, cursor, limit);
+    }
+
+    /**
+     * Find a post's comment UUIDs sorted by vote.  Uses the ColumnFamily, post_comments_sorted_by_vote, as an index.
+     *
+     * @param postId Post ID
+     * @return list of Comment IDs
+     */
+    @Override
+    public List<UUID> findCommentUUIDsByPostSortedByVotes(UUID postId) {
+        SliceQuery<UUID, Composite, byte[]> q = HFactory.createSliceQuery(keyspace, UUIDSerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(CF_POST_COMMENTS_SORTED_BY_VOTE);
+        q.setKey(postId);
+        q.setRange(null, null, false, 10);
+
+        ColumnSliceIterator<UUID, Composite, byte[]> iter = new ColumnSliceIterator<UUID, Composite, byte[]>(q, null, (Composite)null, false);
+        List<UUID> uuidList = new LinkedList<UUID>();
+        while ( iter.hasNext() ) {
+            HColumn<Composite, byte[]> col = iter.next();
+            uuidList.add(UUIDSerializer.get().fromByteBuffer((ByteBuffer)col.getName().get(1)));
+        }
+
+        return uuidList;
+    }
+
+    /**
+     * Find one page of a post's comment UUIDs sorted by vote.  The cursor is the votes:UUID column the next page
+     * starts at.
+     *
+     * @param postId Post ID
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Comment IDs to return
+     * @return page of Comment IDs
+     */
+    @Override
+    public Page<UUID> findCommentUUIDsByPostSortedByVotes(UUID postId, String cursor, int limit) {
+        VoteKey start = Page.voteKeyFromCursor(cursor);
+
+        SliceQuery<UUID, Composite, byte[]> q = HFactory.createSliceQuery(keyspace, UUIDSerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(CF_POST_COMMENTS_SORTED_BY_VOTE);
+        q.setKey(postId);
+        // one more than the page, to find where the next page starts
+        q.setRange(null != start ? new Composite(start.votes, start.id) : null, null, false, limit + 1);
+        List<HColumn<Composite, byte[]>> cols = q.execute().get().getColumns();
+
+        List<UUID> uuidList = new ArrayList<UUID>(limit);
+        String nextCursor = null;
+        for ( HColumn<Composite, byte[]> col : cols ) {
+            UUID commentId = UUIDSerializer.get().fromByteBuffer((ByteBuffer)col.getName().get(1));
+            if ( uuidList.size() == limit ) {
+                nextCursor = Page.cursor(LongSerializer.get().fromByteBuffer((ByteBuffer)col.getName().get(0)), commentId);
+                break;
+            }
+            uuidList.add(commentId);
+        }
+        return new Page<UUID>(uuidList, nextCursor);
+    }
+
+    /**
+     * Find one page of a post's Comments sorted by vote.
+     *
+     * @param postId Post ID
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Comments to return
+     * @return page of Comment records
+     */
+    @Override
+    public Page<Comment> findCommentsByPost(UUID postId, String cursor, int limit) {
+        return toCommentPage(findCommentUUIDsByPostSortedByVotes(postId, cursor, limit));
+    }
+
+    private Page<Comment> toCommentPage(Page<UUID> uuidPage) {
+        if ( uuidPage.getItems().isEmpty() ) {
+            return new Page<Comment>(new ArrayList<Comment>(), null);
+        }
+
+        return new Page<Comment>(findCommentsByUUIDList(uuidPage.getItems()), uuidPage.getNextCursor());
+    }
+
+    private <K> Page<UUID> findUUIDPage(String columnFamily, Serializer<K> keySerializer, K key, String cursor, int limit) {
+        SliceQuery<K, UUID, byte[]> q = HFactory.createSliceQuery(keyspace, keySerializer, UUIDSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(columnFamily);
+        q.setKey(key);
+        // one more than the page, to find where the next page starts
+        q.setRange(Page.uuidFromCursor(cursor), null, false, limit + 1);
+        List<HColumn<UUID, byte[]>> cols = q.execute().get().getColumns();
+
+        List<UUID> uuidList = new ArrayList<UUID>(limit);
+        String nextCursor = null;
+        for ( HColumn<UUID, byte[]> col : cols ) {
+            if ( uuidList.size() == limit ) {
+                nextCursor = Page.cursor(col.getName());
+                break;
+            }
+            uuidList.add(col.getName());
+        }
+        return new Page<UUID>(uuidList, nextCursor);
+    }
+
+    /**
+     * Find Comments given a list of Comment IDs.  It will also do a lookup to get the votes count for each Comment.
+     *
+     * @param uuidList Find Comment records given the list of Comment IDs
+     * @return list of Comment records
+     */
+    @Override
+    public List<Comment> findCommentsByUUIDList( List<UUID> uuidList ) {
+        return awaitQuery(findCommentsByUUIDListAsync(uuidList));
+    }
+
+    /**
+     * Find Comments given a list of Comment IDs.  The Comment rows and their votes are read concurrently on
+     * the query executor, so this costs about one round-trip.
+     *
+     * @param uuidList list of Comment IDs
+     * @return future list of Comment records, cancel it to cancel the queries still running
+     */
+    @Override
+    public ListenableFuture<List<Comment>> findCommentsByUUIDListAsync(final List<UUID> uuidList) {
+        final ListenableFuture<Rows<UUID, String, byte[]>> rowsFuture = submitQuery(new Callable<Rows<UUID, String, byte[]>>() {
+            @Override
+            public Rows<UUID, String, byte[]> call() {
+                return findRowsByUUIDList(CF_COMMENTS, uuidList);
+            }
+        });
+        final ListenableFuture<Map<UUID, Long>> votesFuture = findVotesAsync(uuidList);
+
+        return joinQueries(new Callable<List<Comment>>() {
+            @Override
+            public List<Comment> call() {
+                return toCommentList(uuidList, getDone(rowsFuture), getDone(votesFuture));
+            }
+        }, rowsFuture, votesFuture);
+    }
+
+    private List<Comment> toCommentList(List<UUID> uuidList, Rows<UUID, String, byte[]> rows, Map<UUID, Long> voteMap) {
+        if ( null == rows || 0 == rows.getCount()) {
+            return null;
+        }
+
+        Map<UUID, Comment> commentMap = new HashMap<UUID, Comment>();
+        for ( Row<UUID, String, byte[]> row : rows) {
+            commentMap.put(row.getKey(), commentCodec.fromSlice(row.getKey(), row.getColumnSlice()));
+        }
+
+        // gotta do it this way to preserve ordering from the original UUID List
+        List<Comment> commentList = new LinkedList<Comment>();
+        for ( UUID uuid : uuidList ) {
+            commentList.add(commentMap.get(uuid));
+        }
+
+        if ( null != voteMap ) {
+            for (Comment comment : commentList ) {
+                Long votes = voteMap.get(comment.getId());
+                if ( null != votes ) {
+                    comment.setVotes(votes);
+                }
+            }
+        }
+
+        return commentList;
+    }
+
+    /**
+     * Find all Comments for the given user email.
+     *
+     * @param userEmail user's email
+     * @return list of Comment records
+     */
+    @Override
+    public List<Comment> findCommentsByUser( String userEmail ) {
+        List<UUID> uuidList = findCommentUUIDsByUser(userEmail);
+        if ( uuidList.isEmpty() ) {
+            return null;
+        }
+
+        return findCommentsByUUIDList(uuidList);
+    }
+
+    /**
+     * Find one page of Comments for the given user email.
+     *
+     * @param userEmail user's email
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of Comments to return
+     * @return page of Comment records
+     */
+    @Override
+    public Page<Comment> findCommentsByUser( String userEmail, String cursor, int limit ) {
+        return toCommentPage(findCommentUUIDsByUser(userEmail, cursor, limit));
+    }
+
+    private void vote(String userEmail, String type, UUID uuid) {
+        saveVotes(Collections.singletonList(new Vote(userEmail, uuid, type, System.currentTimeMillis())));
+    }
+
+    /**
+     * Save a batch of votes with a single Mutator - {@link #saveVoteRecords(Collection)} and
+     * {@link #countVotes(Collection)} together.
+     *
+     * @param votes votes to save, at most one per User and Post/Comment
+     */
+    @Override
+    public void saveVotes(Collection<Vote> votes) {
+        if ( null == votes || votes.isEmpty() ) {
+            return;
+        }
+
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        addVoteRecords(m, votes);
+        addVoteCounters(m, votes);
+        m.execute();
+    }
+
+    /**
+     * Save everything about a batch of votes except the counters, with a single Mutator.
+     *
+     * @param votes votes to save, at most one per User and Post/Comment
+     */
+    @Override
+    public void saveVoteRecords(Collection<Vote> votes) {
+        if ( null == votes || votes.isEmpty() ) {
+            return;
+        }
+
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        addVoteRecords(m, votes);
+        m.execute();
+    }
+
+    /**
+     * Count a batch of votes with a single Mutator.
+     *
+     * @param votes votes to count, at most one per User and Post/Comment
+     */
+    @Override
+    public void countVotes(Collection<Vote> votes) {
+        if ( null == votes || votes.isEmpty() ) {
+            return;
+        }
+
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        addVoteCounters(m, votes);
+        m.execute();
+    }
+
+    /**
+     * Add the votes' user_votes columns and activity, and flag each Post whose Comments were voted on once.  All
+     * keyed by the vote, so writing them again is harmless.
+     */
+    private void addVoteRecords(Mutator<byte[]> m, Collection<Vote> votes) {
+        Set<UUID> postIds = new LinkedHashSet<UUID>();
+        Set<UUID> unknownCommentIds = new LinkedHashSet<UUID>();
+        for ( Vote vote : votes ) {
+            m.addInsertion(StringSerializer.get().toBytes(vote.getUserEmail()), CF_USER_VOTES,
+                           HFactory.createColumn(vote.getUuid(), vote.getTimestamp(), UUIDSerializer.get(), LongSerializer.get()));
+            if ( vote.isComment() ) {
+                UUID postId = null != vote.getPostId() ? vote.getPostId() : commentPostCache.getIfPresent(vote.getUuid());
+                if ( null != postId ) {
+                    postIds.add(postId);
+                }
+                else {
+                    unknownCommentIds.add(vote.getUuid());
+                }
+            }
+        }
+        postIds.addAll(findPostIdsForComments(new ArrayList<UUID>(unknownCommentIds)));
+
+        // the lookup above cached the Post of every Comment it found
+        for ( Vote vote : votes ) {
+            UUID postId = vote.isComment() && null == vote.getPostId() ? commentPostCache.getIfPresent(vote.getUuid()) : vote.getPostId();
+            addActivityInsertions(m, Activity.ofVote(vote, postId));
+        }
+
+        // this inserts the fact that this post has comment votes that have been updated, so next time we
+        // need the comments sorted, we will do so, otherwise, don't waste time sorting
+        for ( UUID postId : postIds ) {
+            m.addInsertion( UUIDSerializer.get().toBytes(postId), CF_POST_COMMENT_VOTE_CHANGE, HFactory.createColumn("v", EMPTY_BYTES) );
+            addLedgerInsertion(m, postId);
+        }
+    }
+
+    /**
+     * Add the votes' counter increments - summed into one per Post/Comment, on one of its shards (see
+     * {@link VoteShards}) - and roll-up increments.  Nothing is read, the trending index is kept by
+     * {@link PostRanking}.
+     */
+    private void addVoteCounters(Mutator<byte[]> m, Collection<Vote> votes) {
+        Map<UUID, Long> increments = new LinkedHashMap<UUID, Long>();
+        RollupIncrements rollupIncrements = new RollupIncrements();
+        for ( Vote vote : votes ) {
+            rollupIncrements.add(vote.isComment() ? RollupBuckets.COMMENT_VOTES : RollupBuckets.POST_VOTES, vote.getTimestamp(), 0);
+            Long sum = increments.get(vote.getUuid());
+            increments.put(vote.getUuid(), null != sum ? sum + 1 : 1L);
+        }
+
+        for ( Map.Entry<UUID, Long> entry : increments.entrySet() ) {
+            m.addCounter(UUIDSerializer.get().toBytes(entry.getKey()), CF_VOTES,
+                         HFactory.createCounterColumn(voteShards.nextColumn(entry.getKey()), entry.getValue()));
+        }
+        HectorRollups.addCounters(m, rollupIncrements);
+    }
+
+    /**
+     * Add the activity to its User's feed and the site feed, in the buckets for the activity's time.
+     */
+    private void addActivityInsertions(Mutator<byte[]> m, Activity activity) {
+        DateTime timestamp = new DateTime(activity.getTimestamp());
+        byte[] value = ActivityCodec.get().toBytes(activity);
+
+        HColumn<UUID, byte[]> userCol = HFactory.createColumn(activity.getId(), value, UUIDSerializer.get(), BytesArraySerializer.get());
+        userCol.setTtl(ActivityBuckets.USER_TTL_SECONDS);
+        m.addInsertion(StringSerializer.get().toBytes(ActivityBuckets.userRowKey(activity.getUserEmail(), timestamp)), CF_ACTIVITY_FEEDS, userCol);
+
+        HColumn<UUID, byte[]> siteCol = HFactory.createColumn(activity.getId(), value, UUIDSerializer.get(), BytesArraySerializer.get());
+        siteCol.setTtl(ActivityBuckets.SITE_TTL_SECONDS);
+        m.addInsertion(StringSerializer.get().toBytes(ActivityBuckets.siteRowKey(timestamp)), CF_ACTIVITY_FEEDS, siteCol);
+    }
+
+    /**
+     * Move each Post to the trending score for its vote count - insert the column for the new count and delete the
+     * one for the count it replaces.
+     *
+     * @param votes Post ID mapping to number of votes
+     * @param replaced Post ID mapping to the number of votes last saved, if known
+     */
+    @Override
+    public void saveTrendingScores(Map<UUID, Long> votes, Map<UUID, Long> replaced) {
+        if ( null == votes || votes.isEmpty() ) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        for ( Map.Entry<UUID, Long> entry : votes.entrySet() ) {
+            Long before = null != replaced ? replaced.get(entry.getKey()) : null;
+            if ( addTrendingInsertion(m, entry.getKey(), entry.getValue(), now)
+                    && null != before && before.longValue() != entry.getValue() ) {
+                m.addDeletion(StringSerializer.get().toBytes(TrendingScores.rowKey(entry.getKey())), CF_POSTS_TRENDING,
+                              trendingColumnName(entry.getKey(), before), CompositeSerializer.get());
+            }
+        }
+        m.execute();
+    }
+
+    /**
+     * Add the Post to its posts_trending bucket with the score for 'votes', unless it's too old to be read.
+     *
+     * @return true if added
+     */
+    private boolean addTrendingInsertion(Mutator<byte[]> m, UUID postId, long votes, long now) {
+        int ttl = TrendingScores.ttlSeconds(postId, now);
+        if ( 0 >= ttl ) {
+            return false;
+        }
+
+        HColumn<Composite, byte[]> col = HFactory.createColumn(trendingColumnName(postId, votes), EMPTY_BYTES, CompositeSerializer.get(), BytesArraySerializer.get());
+        col.setTtl(ttl);
+        m.addInsertion(StringSerializer.get().toBytes(TrendingScores.rowKey(postId)), CF_POSTS_TRENDING, col);
+        return true;
+    }
+
+    private static Composite trendingColumnName(UUID postId, long votes) {
+        return new Composite(TrendingScores.score(postId, votes), postId);
+    }
+
+    /**
+     * Find the distinct Posts the Comments belong to, reading only the post_id column of each Comment.  Only
+     * needed when the Comment isn't in the cache.
+     */
+    private Set<UUID> findPostIdsForComments(List<UUID> commentIds) {
+        if ( commentIds.isEmpty() ) {
+            return Collections.emptySet();
+        }
+
+        MultigetSliceQuery<UUID, String, UUID> q = HFactory.createMultigetSliceQuery(keyspace, UUIDSerializer.get(), StringSerializer.get(), UUIDSerializer.get());
+        q.setColumnFamily(CF_COMMENTS);
+        q.setKeys(commentIds);
+        q.setColumnNames(Comment.COL_POST_ID);
+
+        Set<UUID> postIds = new LinkedHashSet<UUID>();
+        for ( Row<UUID, String, UUID> row : q.execute().get() ) {
+            HColumn<String, UUID> col = row.getColumnSlice().getColumnByName(Comment.COL_POST_ID);
+            if ( null != col ) {
+                postIds.add(col.getValue());
+                commentPostCache.put(row.getKey(), col.getValue());
+            }
+        }
+        return postIds;
+    }
+
+    /**
+     * Record the Post in the current comment_vote_ledger bucket.  The column's timestamp says when, so readers can
+     * skip entries they already processed, and the TTL removes old buckets.
+     */
+    private void addLedgerInsertion(Mutator<byte[]> m, UUID postId) {
+        HColumn<UUID, byte[]> col = HFactory.createColumn(postId, EMPTY_BYTES, UUIDSerializer.get(), BytesArraySerializer.get());
+        col.setTtl(CommentVoteBuckets.LEDGER_TTL_SECONDS);
+        m.addInsertion(StringSerializer.get().toBytes(CommentVoteBuckets.rowKey(new DateTime())), CF_COMMENT_VOTE_LEDGER, col);
+    }
+
+    /**
+     * Vote on a Post.
+     *
+     * @param userEmail User's email
+     * @param postId Post ID
+     */
+    @Override
+    public void voteOnPost( String userEmail, UUID postId ) {
+        vote(userEmail, "POST", postId);
+    }
+
+    /**
+     * Vote on a comment and signal that the Post needs its "comments sorted by vote" index updated.
+     *
+     * @param userEmail user's email
+     * @param commentId Comment ID
+     */
+    @Override
+    public void voteOnComment( String userEmail, UUID commentId ) {
+        vote(userEmail, "COMMENT", commentId);
+    }
+
+    /**
+     * Vote on a comment of the given Post and signal that the Post needs its "comments sorted by vote" index
+     * updated.  No reads.
+     *
+     * @param userEmail user's email
+     * @param commentId Comment ID
+     * @param postId Post ID the Comment belongs to
+     */
+    @Override
+    public void voteOnComment( String userEmail, UUID commentId, UUID postId ) {
+        saveVotes(Collections.singletonList(Vote.onComment(userEmail, commentId, postId, System.currentTimeMillis())));
+    }
+
+    /**
+     * Find one page of the User's activity feed, newest first.
+     *
+     * @param userEmail User's email
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of entries to return
+     * @return page of activity
+     */
+    @Override
+    public Page<Activity> findUserActivity(String userEmail, String cursor, int limit) {
+        UUID start = Page.uuidFromCursor(cursor);
+        return findActivityPage(ActivityBuckets.userRowKeys(userEmail, activityTime(start)), start, limit);
+    }
+
+    /**
+     * Find one page of the site-wide activity feed, newest first.
+     *
+     * @param cursor cursor from the previous page, or null for the first page
+     * @param limit max number of entries to return
+     * @return page of activity
+     */
+    @Override
+    public Page<Activity> findSiteActivity(String cursor, int limit) {
+        UUID start = Page.uuidFromCursor(cursor);
+        return findActivityPage(ActivityBuckets.siteRowKeys(activityTime(start)), start, limit);
+    }
+
+    private static DateTime activityTime(UUID start) {
+        return null != start ? new DateTime(TimeUUIDUtils.getTimeFromUUID(start)) : new DateTime();
+    }
+
+    /**
+     * Read the feed buckets, newest first, until the page is full.  The first bucket is read alone, since it
+     * usually fills the page, then 'time range buckets per fetch' at a time so a quiet feed doesn't cost a query
+     * per bucket.
+     */
+    private Page<Activity> findActivityPage(Iterator<String> rowKeys, UUID start, int limit) {
+        // one more than the page, to find where the next page starts
+        List<Activity> activityList = new ArrayList<Activity>(limit + 1);
+        int bucketsPerFetch = 1;
+        while ( activityList.size() <= limit && rowKeys.hasNext() ) {
+            List<String> keys = new ArrayList<String>(bucketsPerFetch);
+            while ( keys.size() < bucketsPerFetch && rowKeys.hasNext() ) {
+                keys.add(rowKeys.next());
+            }
+
+            MultigetSliceQuery<String, UUID, byte[]> q = HFactory.createMultigetSliceQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
+            q.setColumnFamily(CF_ACTIVITY_FEEDS);
+            q.setKeys(keys);
+            q.setRange(start, null, false, limit + 1 - activityList.size());
+            Rows<String, UUID, byte[]> rows = q.execute().get();
+
+            // multiget results aren't in key order, put them back in bucket order
+            for ( String key : keys ) {
+                Row<String, UUID, byte[]> row = rows.getByKey(key);
+                if ( null == row ) {
+                    continue;
+                }
+                for ( HColumn<UUID, byte[]> col : row.getColumnSlice().getColumns() ) {
+                    if ( activityList.size() > limit ) {
+                        break;
+                    }
+                    activityList.add(ActivityCodec.get().fromBytes(col.getName(), col.getValue()));
+                }
+            }
+
+            // only the first bucket starts part way through
+            start = null;
+            bucketsPerFetch = timeRangeBucketsPerFetch;
+        }
+
+        String nextCursor = null;
+        if ( activityList.size() > limit ) {
+            nextCursor = Page.cursor(activityList.remove(limit).getId());
+        }
+        return new Page<Activity>(activityList, nextCursor);
+    }
+
+    /**
+     * Find the vote counts for the list of UUIDs.  Since UUIDs are unique it doesn't matter if the UUID
+     * is for a Post or a Comment.  A count is the sum of its row's counter shards (see {@link VoteShards}).
+     *
+     * @param uuidList list of Comment or Post IDs
+     * @return Comment/Post ID mapping to number of votes, empty if none have votes
+     */
+    @Override
+    public Map<UUID, Long> findVotes( List<UUID> uuidList ) {
+        if ( null == uuidList || uuidList.isEmpty() ) {
+            return Collections.emptyMap();
+        }
+
+        MultigetSliceCounterQuery<UUID, String> q = HFactory.createMultigetSliceCounterQuery(keyspace, UUIDSerializer.get(), StringSerializer.get());
+        q.setColumnFamily(CF_VOTES);
+        q.setKeys(uuidList);
+        q.setRange(null, null, false, VoteShards.MAX_SHARDS);
+        QueryResult<CounterRows<UUID, String>> qr = q.execute();
+        CounterRows<UUID, String> rows = qr.get();
+        Map<UUID, Long> voteList = new HashMap<UUID, Long>();
+        if ( null == rows || 0 == rows.getCount()) {
+            return voteList;
+        }
+
+        for ( CounterRow<UUID, String> row : rows ) {
+            CounterSlice<String> slice = row.getColumnSlice();
+            if ( null != slice && !slice.getColumns().isEmpty()) {
+                long votes = 0;
+                for ( HCounterColumn<String> col : slice.getColumns() ) {
+                    if ( VoteShards.isShard(col.getName()) ) {
+                        votes += col.getValue();
+                    }
+                }
+                voteList.put( row.getKey(), votes);
+            }
+        }
+
+        return voteList;
+    }
+
+    private ListenableFuture<Map<UUID, Long>> findVotesAsync(final List<UUID> uuidList) {
+        return submitQuery(new Callable<Map<UUID, Long>>() {
+            @Override
+            public Map<UUID, Long> call() {
+                return findVotes(uuidList);
+            }
+        });
+    }
+
+    /**
+     * Find the timestamp, if any, when a User voted on a Post or Comment.
+     *
+     * @param userEmail User's email
+     * @param uuid Post/Comment ID
+     * @return Timestamp of when the user voted if found, null otherwise
+     */
+    @Override
+    public DateTime findUserVote(String userEmail, UUID uuid) {
+        ColumnQuery<String, UUID, Long> q = HFactory.createColumnQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), LongSerializer.get());
+        q.setColumnFamily(CF_USER_VOTES);
+        q.setKey(userEmail);
+        q.setName(uuid);
+
+        QueryResult<HColumn<UUID, Long>> qr = q.execute();
+        HColumn<UUID, Long> col = qr.get();
+        if ( null != col ) {
+            return new DateTime(col.getValue());
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Iterate over every User's votes by walking the keys of the ColumnFamily, user_votes, then paging through each
+     * User's row.  The vote type isn't stored so it's null.
+     *
+     * @return iterator of all votes
+     */
+    @Override
+    public Iterator<Vote> iterateUserVotes() {
+        final Iterator<String> keyIter = new KeyIterator.Builder<String>(keyspace, CF_USER_VOTES, StringSerializer.get()).build().iterator();
+        return new AbstractIterator<Vote>() {
+            private String userEmail;
+            private Iterator<HColumn<UUID, Long>> colIter = Iterators.emptyIterator();
+
+            @Override
+            protected Vote computeNext() {
+                while ( !colIter.hasNext() ) {
+                    if ( !keyIter.hasNext() ) {
+                        return endOfData();
+                    }
+
+                    userEmail = keyIter.next();
+                    SliceQuery<String, UUID, Long> q = HFactory.createSliceQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), LongSerializer.get());
+                    q.setColumnFamily(CF_USER_VOTES);
+                    q.setKey(userEmail);
+                    colIter = new ColumnSliceIterator<String, UUID, Long>(q, null, (UUID)null, false, timeRangeColumnsPerFetch);
+                }
+
+                HColumn<UUID, Long> col = colIter.next();
+                return new Vote(userEmail, col.getName(), null, col.getValue());
+            }
+        };
+    }
+
+    /**
+     * Find 'number' of Posts ordered by their votes.  Uses the ColumnFamily, posts_sorted_by_vote, as an
+     * index to speed up search.
+     *
+     * @param number Number of Posts to return
+     * @return List of Post records
+     */
+    @Override
+    public List<Post> findPostsByVote(int number) {
+        SliceQuery<byte[], Composite, byte[]> q = HFactory.createSliceQuery(keyspace, BytesArraySerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(CF_POSTS_BY_VOTE);
+        q.setKey(POSTS_BY_VOTE_KEY);
+        q.setRange(null, null, false, number);
+
+        // the row is kept trimmed to the top-K (see PostRanking) so a single slice is enough
+        List<UUID> uuidList = new LinkedList<UUID>();
+        Map<UUID, Long> voteMap = new HashMap<UUID, Long>();
+        for ( HColumn<Composite, byte[]> col : q.execute().get().getColumns() ) {
+            ByteBuffer bb = (ByteBuffer)col.getName().get(1);
+            UUID uuid = UUIDSerializer.get().fromByteBuffer(bb);
+            uuidList.add( uuid );
+            voteMap.put( uuid, LongSerializer.get().fromByteBuffer((ByteBuffer)col.getName().get(0)));
+        }
+
+        List<Post> postList = findPostSummariesByUUIDList(uuidList, false);
+        if ( null != postList && !postList.isEmpty() ) {
+            for ( Post p : postList ) {
+                if ( null != p ) {
+                    p.setVotes(voteMap.get(p.getId()));
+                }
+            }
+        }
+
+        return postList;
+    }
+
+    /**
+     * Find the top 'number' trending Posts created over the last 'hours'.  The top 'number' columns of each hour
+     * bucket in posts_trending are read with one multiget and merged.  Old columns left behind (by rankings in other
+     * processes, or a restarted one) are deleted as they're found.
+     *
+     * @param number Number of Posts to return
+     * @param hours Only Posts created over the last 'hours'
+     * @return List of Post records, most trending first
+     */
+    @Override
+    public List<Post> findTrendingPosts(int number, int hours) {
+        DateTime end = new DateTime();
+        DateTime start = end.minusHours(Math.min(hours, TrendingScores.MAX_HOURS));
+
+        MultigetSliceQuery<String, Composite, byte[]> q = HFactory.createMultigetSliceQuery(keyspace, StringSerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(CF_POSTS_TRENDING);
+        q.setKeys(Lists.newArrayList(TrendingScores.rowKeys(start, end)));
+        q.setRange(null, null, false, number);
+
+        List<Iterator<VoteKey>> buckets = new ArrayList<Iterator<VoteKey>>();
+        for ( Row<String, Composite, byte[]> row : q.execute().get() ) {
+            List<VoteKey> keyList = new ArrayList<VoteKey>();
+            for ( HColumn<Composite, byte[]> col : row.getColumnSlice().getColumns() ) {
+                keyList.add(new VoteKey(LongSerializer.get().fromByteBuffer((ByteBuffer)col.getName().get(0)),
+                                        UUIDSerializer.get().fromByteBuffer((ByteBuffer)col.getName().get(1))));
+            }
+            buckets.add(keyList.iterator());
+        }
+
+        List<VoteKey> stale = new ArrayList<VoteKey>();
+        Map<UUID, Long> top = TrendingScores.merge(buckets, number, stale);
+        if ( !stale.isEmpty() ) {
+            Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+            for ( VoteKey key : stale ) {
+                m.addDeletion(StringSerializer.get().toBytes(TrendingScores.rowKey(key.id)), CF_POSTS_TRENDING,
+                              new Composite(key.votes, key.id), CompositeSerializer.get());
+            }
+            m.execute();
+        }
+
+        if ( top.isEmpty() ) {
+            return new ArrayList<Post>();
+        }
+        return findPostSummariesByUUIDList(new ArrayList<UUID>(top.keySet()), true);
+    }
+
+    /**
+     * Count votes per step from the roll-ups, 'time range buckets per fetch' rows per multiget.  See
+     * {@link HectorRollups}.
+     *
+     * @param type {@link Vote#POST} or {@link Vote#COMMENT}, or null for both
+     * @param start Start time, millis since epoch
+     * @param end End time, millis since epoch
+     * @param step length of each step, a multiple of a minute
+     * @return one Rollup per step, oldest first, including empty steps
+     */
+    @Override
+    public List<Rollup> findVoteRollups(String type, long start, long end, long step) {
+        return HectorRollups.find(keyspace, RollupBuckets.voteSeries(type), start, end, step, timeRangeBucketsPerFetch);
+    }
+
+    /**
+     * Determines whether or not a Post's comments need sorting by checking for the Post ID's existence in
+     * the ColumnFamily, post_comment_votes_changed.
+     *
+     * @param postId Post ID
+     * @return true if comments for the given Post ID need sorting, false otherwise
+     */
+    @Override
+    public boolean postCommentsNeedSorting(UUID postId) {
+        ColumnQuery<UUID, String, byte[]> q = HFactory.createColumnQuery(keyspace, UUIDSerializer.get(), StringSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(CF_POST_COMMENT_VOTE_CHANGE);
+        q.setKey(postId);
+        q.setName("v");
+
+        QueryResult<HColumn<String, byte[]>> qr = q.execute();
+        HColumn<String, byte[]> col = qr.get();
+        return null != col;
+    }
+
+    /**
+     * Find the Posts whose Comments were created or voted on in the time range by reading the comment_vote_ledger
+     * buckets covering the range.  Columns written outside the range, according to their timestamp, are skipped.
+     *
+     * @param since Start time, inclusive
+     * @param until End time, exclusive
+     * @return Post IDs
+     */
+    @Override
+    public Set<UUID> findPostUUIDsWithCommentVotes(DateTime since, DateTime until) {
+        // column timestamps are in microseconds
+        long sinceMicros = since.getMillis() * 1000;
+        long untilMicros = until.getMillis() * 1000;
+
+        Set<UUID> postIds = new HashSet<UUID>();
+        Iterator<String> keyIter = CommentVoteBuckets.rowKeys(since, until);
+        while ( keyIter.hasNext() ) {
+            SliceQuery<String, UUID, byte[]> q = HFactory.createSliceQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
+            q.setColumnFamily(CF_COMMENT_VOTE_LEDGER);
+            q.setKey(keyIter.next());
+
+            ColumnSliceIterator<String, UUID, byte[]> iter = new ColumnSliceIterator<String, UUID, byte[]>(q, null, (UUID)null, false, timeRangeColumnsPerFetch);
+            while ( iter.hasNext() ) {
+                HColumn<UUID, byte[]> col = iter.next();
+                if ( sinceMicros <= col.getClock() && col.getClock() < untilMicros ) {
+                    postIds.add(col.getName());
+                }
+            }
+        }
+
+        return postIds;
+    }
+
+    /**
+     * Find a background job's checkpoint in the ColumnFamily, system_data.
+     *
+     * @param name job name
+     * @return checkpoint if found, null otherwise
+     */
+    @Override
+    public DateTime findCheckpoint(String name) {
+        ColumnQuery<String, String, Long> q = HFactory.createColumnQuery(keyspace, StringSerializer.get(), StringSerializer.get(), LongSerializer.get());
+        q.setColumnFamily(CF_SYSTEM_DATA);
+        q.setKey(name);
+        q.setName(SYSTEM_COL_CHECKPOINT);
+
+        HColumn<String, Long> col = q.execute().get();
+        return null != col ? new DateTime(col.getValue()) : null;
+    }
+
+    /**
+     * Save a background job's checkpoint in the ColumnFamily, system_data.
+     *
+     * @param name job name
+     * @param checkpoint time the job ran up to
+     */
+    @Override
+    public void saveCheckpoint(String name, DateTime checkpoint) {
+        Mutator<String> m = HFactory.createMutator(keyspace, StringSerializer.get());
+        m.insert(name, CF_SYSTEM_DATA, HFactory.createColumn(SYSTEM_COL_CHECKPOINT, checkpoint.getMillis(), StringSerializer.get(), LongSerializer.get()));
+    }
+
+    /**
+     * Sort Posts by vote created since 'days' ago.  The intention is for this method to be called only
+     * when needed, or periodically.
+     *
+     * @param days Only sort Posts that have been created over the last 'days'
+     */
+    @Override
+    public void sortPostsByVote(int days) {
+        // calc date range, end with yesterday and start 'days' prior
+        DateTime start = new DateTime().minusDays(days).hourOfDay().roundFloorCopy();
+        DateTime end = new DateTime();
+        Iterator<UUID> iter = iteratePostUUIDsByTimeRange(start, end, false);
+
+        // find votes a chunk at a time
+        Map<UUID, Long> allVotes = new HashMap<UUID, Long>();
+        List<UUID> uuidList = new ArrayList<UUID>(timeRangeColumnsPerFetch);
+        while ( iter.hasNext() ) {
+            uuidList.add(iter.next());
+            if ( uuidList.size() == timeRangeColumnsPerFetch || !iter.hasNext() ) {
+                Map<UUID, Long> voteMap = findVotes(uuidList);
+                if ( null != voteMap ) {
+                    allVotes.putAll(voteMap);
+                }
+                uuidList.clear();
+            }
+        }
+
+        savePostsByVote(allVotes);
+    }
+
+    /**
+     * Replace the "posts sorted by vote" row with the given Posts.  The CF sorts them using the Composite
+     * col name.
+     *
+     * @param voteMap Post ID mapping to number of votes
+     */
+    @Override
+    public void savePostsByVote(Map<UUID, Long> voteMap) {
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+
+        // delete the old row first, then we'll add the new.  the deletion is stamped just before the
+        // insertions so it can't shadow them when both land in the same microsecond
+        long clock = keyspace.createClock();
+        m.addDeletion(POSTS_BY_VOTE_KEY, CF_POSTS_BY_VOTE, clock - 1);
+        for ( Map.Entry<UUID, Long> entry : voteMap.entrySet() ) {
+            Composite colName = new Composite(entry.getValue(), entry.getKey());
+            m.addInsertion(POSTS_BY_VOTE_KEY, CF_POSTS_BY_VOTE,
+                           HFactory.createColumn(colName, EMPTY_BYTES, clock, CompositeSerializer.get(), BytesArraySerializer.get()));
+        }
+
+        // send the batch
+        m.execute();
+    }
+
+    /**
+     * Sort the comments for a given Post by vote.  The intention is for this method to be called only
+     * when needed, or periodically.
+     *
+     * @param postId Post ID
+     */
+    @Override
+    public void sortCommentsByVotes(UUID postId) {
+        sortCommentsByVotes(Collections.singletonList(postId));
+    }
+
+    /**
+     * Sort the comments of several Posts by vote.  The Posts' comment lists are read with one multiget and all
+     * their votes with another, then every Post's index is replaced in one batch.
+     *
+     * @param postIds Post IDs
+     */
+    @Override
+    public void sortCommentsByVotes(Collection<UUID> postIds) {
+        Map<UUID, List<UUID>> commentIdsByPost = findCommentUUIDsByPostsSortedByTime(new ArrayList<UUID>(postIds));
+
+        List<UUID> allCommentIds = new ArrayList<UUID>();
+        for ( List<UUID> commentIds : commentIdsByPost.values() ) {
+            allCommentIds.addAll(commentIds);
+        }
+        if ( allCommentIds.isEmpty() ) {
+            return;
+        }
+        Map<UUID, Long> voteMap = findVotes(allCommentIds);
+        if ( null == voteMap ) {
+            return;
+        }
+
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        long clock = keyspace.createClock();
+        for ( Map.Entry<UUID, List<UUID>> entry : commentIdsByPost.entrySet() ) {
+            if ( entry.getValue().isEmpty() ) {
+                continue;
+            }
+
+            byte[] postIdAsBytes = UUIDSerializer.get().toBytes(entry.getKey());
+            // delete the old row first, then we'll add the new - stamped just before so it can't shadow them
+            m.addDeletion(postIdAsBytes, CF_POST_COMMENTS_SORTED_BY_VOTE, clock - 1);
+
+            // now write to CF
+            for ( UUID commentId : entry.getValue() ) {
+                Long votes = voteMap.get(commentId);
+                if ( null != votes ) {
+                    Composite colName = new Composite(votes, commentId);
+                    m.addInsertion(postIdAsBytes, CF_POST_COMMENTS_SORTED_BY_VOTE,
+                                   HFactory.createColumn(colName, EMPTY_BYTES, clock, CompositeSerializer.get(), BytesArraySerializer.get()));
+                }
+            }
+
+            // delete the marker that said we needed to sort comments for this post
+            m.addDeletion(postIdAsBytes, CF_POST_COMMENT_VOTE_CHANGE, clock);
+        }
+
+        m.execute();
+    }
+
+    /**
+     * Determines which of the Posts need their comments sorted with one multiget of the ColumnFamily,
+     * post_comment_votes_changed.
+     *
+     * @param postIds Post IDs
+     * @return the Post IDs whose comments need sorting
+     */
+    @Override
+    public Set<UUID> findPostUUIDsNeedingCommentSort(Collection<UUID> postIds) {
+        if ( null == postIds || postIds.isEmpty() ) {
+            return Collections.emptySet();
+        }
+
+        MultigetSliceQuery<UUID, String, byte[]> q = HFactory.createMultigetSliceQuery(keyspace, UUIDSerializer.get(), StringSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(CF_POST_COMMENT_VOTE_CHANGE);
+        q.setKeys(postIds);
+        q.setColumnNames("v");
+
+        Set<UUID> needSorting = new HashSet<UUID>();
+        for ( Row<UUID, String, byte[]> row : q.execute().get() ) {
+            if ( !row.getColumnSlice().getColumns().isEmpty() ) {
+                needSorting.add(row.getKey());
+            }
+        }
+        return needSorting;
+    }
+
+    /**
+     * Find the comment UUIDs of several posts sorted by vote, with one multiget of post_comments_sorted_by_vote.
+     * Rows wider than a page are finished one at a time.
+     *
+     * @param postIds Post IDs
+     * @return Post ID mapping to its list of Comment IDs, in the order of 'postIds'
+     */
+    @Override
+    public Map<UUID, List<UUID>> findCommentUUIDsByPostsSortedByVotes(List<UUID> postIds) {
+        Map<UUID, List<UUID>> commentIdsByPost = new LinkedHashMap<UUID, List<UUID>>();
+        if ( null == postIds || postIds.isEmpty() ) {
+            return commentIdsByPost;
+        }
+
+        MultigetSliceQuery<UUID, Composite, byte[]> q = HFactory.createMultigetSliceQuery(keyspace, UUIDSerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(CF_POST_COMMENTS_SORTED_BY_VOTE);
+        q.setKeys(postIds);
+        q.setRange(null, null, false, timeRangeColumnsPerFetch);
+        Rows<UUID, Composite, byte[]> rows = q.execute().get();
+
+        for ( UUID postId : postIds ) {
+            Row<UUID, Composite, byte[]> row = rows.getByKey(postId);
+            List<HColumn<Composite, byte[]>> cols = null != row ? row.getColumnSlice().getColumns() : Collections.<HColumn<Composite, byte[]>>emptyList();
+            if ( cols.size() == timeRangeColumnsPerFetch ) {
+                commentIdsByPost.put(postId, findCommentUUIDsByPostSortedByVotes(postId));
+                continue;
+            }
+
+            List<UUID> uuidList = new ArrayList<UUID>(cols.size());
+            for ( HColumn<Composite, byte[]> col : cols ) {
+                uuidList.add(UUIDSerializer.get().fromByteBuffer((ByteBuffer)col.getName().get(1)));
+            }
+            commentIdsByPost.put(postId, uuidList);
+        }
+        return commentIdsByPost;
+    }
+
+    /**
+     * Same as {@link #findCommentUUIDsByPostsSortedByVotes(List)}, but from post_comments, sorted by time.
+     */
+    private Map<UUID, List<UUID>> findCommentUUIDsByPostsSortedByTime(List<UUID> postIds) {
+        Map<UUID, List<UUID>> commentIdsByPost = new LinkedHashMap<UUID, List<UUID>>();
+        if ( postIds.isEmpty() ) {
+            return commentIdsByPost;
+        }
+
+        MultigetSliceQuery<UUID, UUID, byte[]> q = HFactory.createMultigetSliceQuery(keyspace, UUIDSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
+        q.setColumnFamily(CF_POST_COMMENTS);
+        q.setKeys(postIds);
+        q.setRange(null, null, false, timeRangeColumnsPerFetch);
+        Rows<UUID, UUID, byte[]> rows = q.execute().get();
+
+        for ( UUID postId : postIds ) {
+            Row<UUID, UUID, byte[]> row = rows.getByKey(postId);
+            List<HColumn<UUID, byte[]>> cols = null != row ? row.getColumnSlice().getColumns() : Collections.<HColumn<UUID, byte[]>>emptyList();
+            if ( cols.size() == timeRangeColumnsPerFetch ) {
+                commentIdsByPost.put(postId, findCommentUUIDsByPostSortedByTime(postId));
+                continue;
+            }
+
+            List<UUID> uuidList = new ArrayList<UUID>(cols.size());
+            for ( HColumn<UUID, byte[]> col : cols ) {
+                uuidList.add(col.getName());
+            }
+            commentIdsByPost.put(postId, uuidList);
+        }
+        return commentIdsByPost;
+    }
+
+    private <T> ListenableFuture<T> submitQuery(Callable<T> query) {
+        return queryExecutor.submit(query);
+    }
+
+    /**
+     * Combine the results of queries running concurrently.  'combiner' runs on the thread of whichever query
+     * finishes last.  Cancelling the returned future cancels the queries that haven't finished.
+     */
+    private <T> ListenableFuture<T> joinQueries(Callable<T> combiner, final ListenableFuture<?>... queries) {
+        final ListenableFutureTask<T> joined = ListenableFutureTask.create(combiner);
+
+        final AtomicInteger remaining = new AtomicInteger(queries.length);
+        Runnable countDown = new Runnable() {
+            @Override
+            public void run() {
+                if ( 0 == remaining.decrementAndGet() ) {
+                    joined.run();
+                }
+            }
+        };
+        for ( ListenableFuture<?> query : queries ) {
+            query.addListener(countDown, MoreExecutors.sameThreadExecutor());
+        }
+
+        joined.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if ( joined.isCancelled() ) {
+                    for ( ListenableFuture<?> query : queries ) {
+                        query.cancel(true);
+                    }
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        return joined;
+    }
+
+    /**
+     * Wait for the query result, up to the query timeout.  The query is cancelled if the wait times out or
+     * is interrupted.
+     */
+    private <T> T awaitQuery(Future<T> future) {
+        try {
+            return future.get(queryTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            future.cancel(true);
+            throw new HTimedOutException("query did not complete within " + queryTimeoutMillis + "ms");
+        }
+        catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new HectorException(e);
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    // only used on futures that are already done, so it never blocks
+    private static <T> T getDone(Future<T> future) {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    public void setQueryThreads(int queryThreads) {
+        this.queryThreads = queryThreads;
+    }
+
+    public void setQueryQueueSize(int queryQueueSize) {
+        this.queryQueueSize = queryQueueSize;
+    }
+
+    public void setQueryTimeoutMillis(long queryTimeoutMillis) {
+        this.queryTimeoutMillis = queryTimeoutMillis;
+    }
+
+    public void setTimeRangeBucketsPerFetch(int timeRangeBucketsPerFetch) {
+        this.timeRangeBucketsPerFetch = timeRangeBucketsPerFetch;
+    }
+
+    /**
+     * Compress the text of Posts and Comments with at least this many UTF8 bytes.  Zero or less (the default) never
+     * compresses.  Once compressed text is written, only readers using {@link TextCodec} can read it.  The 'text'
+     * columns of posts and comments must be BytesType (see blog-schema.txt) or the writes fail validation.
+     *
+     */
+    public void setTextCompressionThreshold(int textCompressionThreshold) {
+        this.textCompressionThreshold = textCompressionThreshold;
+    }
+
+    public void setCommentPostCacheSize(long commentPostCacheSize) {
+        this.commentPostCacheSize = commentPostCacheSize;
+    }
+
+    public void setTimeRangeColumnsPerFetch(int timeRangeColumnsPerFetch) {
+        this.timeRangeColumnsPerFetch = timeRangeColumnsPerFetch;
+    }
+
+    /**
+     * How often the bucket sizes of posts_by_time are re-read, to pick up changes made by other processes.  Also how
+     * close to now {@link #rebucketPostsByTime} can change them.
+     *
+     */
+    public void setPostTimeBucketsRefreshMillis(long postTimeBucketsRefreshMillis) {
+        this.postTimeBucketsRefreshMillis = postTimeBucketsRefreshMillis;
+    }
+
+    public void setSearchColumnsPerFetch(int searchColumnsPerFetch) {
+        this.searchColumnsPerFetch = searchColumnsPerFetch;
+    }
+
+    /**
+     * Replace the default {@link VoteShards}, which keeps each vote counter in one column (sharding is off until
+     * {@link VoteShards#setMaxShards(int)} is raised).
+     *
+     */
+    public void setVoteShards(VoteShards voteShards) {
+        this.voteShards = voteShards;
+    }
+
+    /**
+     * Streams Post UUIDs from the bucket rows of posts_by_time.  At most two windows of rows are in
+     * memory at once (the one being consumed and the one being prefetched), no matter how wide the time
+     * range is.
+     */
+    private class PostTimeRangeIterator extends AbstractIterator<UUID> {
+        private final long startAsLong;
+        private final long endAsLong;
+        private final boolean newestFirst;
+        private final Iterator<String> rowKeys;
+
+        private ListenableFuture<List<Row<String, UUID, byte[]>>> nextWindow;
+        private Iterator<Row<String, UUID, byte[]>> windowRows;
+
+        private String currentKey;
+        private Iterator<HColumn<UUID, byte[]>> columns;
+        private UUID lastColumn;
+        private boolean moreColumns;
+
+        PostTimeRangeIterator(PostTimeBuckets buckets, DateTime start, DateTime end, boolean newestFirst) {
+            this.startAsLong = start.getMillis();
+            this.endAsLong = end.getMillis();
+            this.newestFirst = newestFirst;
+            this.rowKeys = buckets.rowKeys(start, end, newestFirst);
+        }
+
+        @Override
+        protected UUID computeNext() {
+            for (;;) {
+                if ( null != columns && columns.hasNext() ) {
+                    HColumn<UUID, byte[]> col = columns.next();
+                    lastColumn = col.getName();
+
+                    // buckets and the columns in them are in time order, so once past the range we're done
+                    long t = TimeUUIDUtils.getTimeFromUUID(lastColumn);
+                    if ( newestFirst ? t < startAsLong : t > endAsLong ) {
+                        close();
+                        return endOfData();
+                    }
+                    if ( newestFirst ? t <= endAsLong : t >= startAsLong ) {
+                        return lastColumn;
+                    }
+                }
+                else if ( moreColumns ) {
+                    // the row was wider than one page, so get the next page of the same row
+                    List<HColumn<UUID, byte[]>> page = findBucketPage(currentKey, lastColumn);
+                    moreColumns = page.size() == timeRangeColumnsPerFetch;
+                    columns = page.iterator();
+                    // slice starts with the last column we've already seen
+                    if ( !page.isEmpty() && page.get(0).getName().equals(lastColumn) ) {
+                        columns.next();
+                    }
+                }
+                else if ( null != windowRows && windowRows.hasNext() ) {
+                    Row<String, UUID, byte[]> row = windowRows.next();
+                    List<HColumn<UUID, byte[]>> page = row.getColumnSlice().getColumns();
+                    currentKey = row.getKey();
+                    moreColumns = page.size() == timeRangeColumnsPerFetch;
+                    columns = page.iterator();
+                }
+                else if ( !nextWindow() ) {
+                    return endOfData();
+                }
+            }
+        }
+
+        private boolean nextWindow() {
+            if ( null == nextWindow ) {
+                nextWindow = fetchWindow();
+                if ( null == nextWindow ) {
+                    return false;
+                }
+            }
+
+            windowRows = awaitQuery(nextWindow).iterator();
+
+            // start getting the window after this one while the caller works on this one
+            nextWindow = fetchWindow();
+            return true;
+        }
+
+        private ListenableFuture<List<Row<String, UUID, byte[]>>> fetchWindow() {
+            final List<String> keys = new ArrayList<String>(timeRangeBucketsPerFetch);
+            while ( keys.size() < timeRangeBucketsPerFetch && rowKeys.hasNext() ) {
+                keys.add(rowKeys.next());
+            }
+            if ( keys.isEmpty() ) {
+                return null;
+            }
+
+            return submitQuery(new Callable<List<Row<String, UUID, byte[]>>>() {
+                @Override
+                public List<Row<String, UUID, byte[]>> call() {
+                    MultigetSliceQuery<String, UUID, byte[]> q = HFactory.createMultigetSliceQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
+                    q.setColumnFamily(CF_POSTS_BY_TIME);
+                    q.setKeys(keys);
+                    q.setRange(null, null, newestFirst, timeRangeColumnsPerFetch);
+                    Rows<String, UUID, byte[]> rows = q.execute().get();
+
+                    // multiget results aren't in key order, put them back in bucket order
+                    List<Row<String, UUID, byte[]>> ordered = new ArrayList<Row<String, UUID, byte[]>>(keys.size());
+                    if ( null != rows ) {
+                        for ( String key : keys ) {
+                            Row<String, UUID, byte[]> row = rows.getByKey(key);
+                            if ( null != row ) {
+                                ordered.add(row);
+                            }
+                        }
+                    }
+                    return ordered;
+                }
+            });
+        }
+
+        private List<HColumn<UUID, byte[]>> findBucketPage(String key, UUID startColumn) {
+            SliceQuery<String, UUID, byte[]> q = HFactory.createSliceQuery(keyspace, StringSerializer.get(), UUIDSerializer.get(), BytesArraySerializer.get());
+            q.setColumnFamily(CF_POSTS_BY_TIME);
+            q.setKey(key);
+            q.setRange(startColumn, null, newestFirst, timeRangeColumnsPerFetch);
+            return q.execute().get().getColumns();
+        }
+
+        /**
+         * Cancel the prefetch, if any.  Called automatically when the end of the range is reached.
+         */
+        void close() {
+            if ( null != nextWindow ) {
+                nextWindow.cancel(true);
+                nextWindow = null;
+            }
+        }
+    }
+
+}
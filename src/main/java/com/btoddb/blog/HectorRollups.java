@@ -0,0 +1,104 @@
+package com.btoddb.blog;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import me.prettyprint.cassandra.serializers.CompositeSerializer;
+import me.prettyprint.cassandra.serializers.LongSerializer;
+import me.prettyprint.cassandra.serializers.StringSerializer;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.AbstractComposite.ComponentEquality;
+import me.prettyprint.hector.api.beans.Composite;
+import me.prettyprint.hector.api.beans.CounterRow;
+import me.prettyprint.hector.api.beans.HCounterColumn;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+import me.prettyprint.hector.api.query.MultigetSliceCounterQuery;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Reads and writes the counters in the ColumnFamily, rollups, for {@link HectorBlogDao} and
+ * {@link HectorSensorDao}.  Column names are period:aggregate, CompositeType(LongType, UTF8Type).
+ *
+ */
+final class HectorRollups {
+    static final String CF_ROLLUPS = "rollups";
+
+    private static final String COL_COUNT = "count";
+    private static final String COL_SUM = "sum";
+
+    private HectorRollups() {
+    }
+
+    /**
+     * Add the increments to the batch.  Counters aren't idempotent, so if the batch is retried after a failure
+     * they can be counted twice.
+     *
+     * @param m batch to add to
+     * @param increments summed increments of the batch
+     */
+    static void addCounters(Mutator<byte[]> m, RollupIncrements increments) {
+        for ( Map.Entry<String, Map<Long, long[]>> row : increments.getRows().entrySet() ) {
+            byte[] key = StringSerializer.get().toBytes(row.getKey());
+            for ( Map.Entry<Long, long[]> period : row.getValue().entrySet() ) {
+                long[] totals = period.getValue();
+                m.addCounter(key, CF_ROLLUPS, HFactory.createCounterColumn(new Composite(period.getKey(), COL_COUNT), totals[0], CompositeSerializer.get()));
+                if ( 0 != totals[1] ) {
+                    m.addCounter(key, CF_ROLLUPS, HFactory.createCounterColumn(new Composite(period.getKey(), COL_SUM), totals[1], CompositeSerializer.get()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Sum the series per step, reading the coarsest resolution that adds up to whole steps.  'rows per fetch' rows
+     * are read with each multiget.
+     *
+     * @param keyspace blog keyspace
+     * @param seriesList series to add together
+     * @param start Start time, millis since epoch
+     * @param end End time, millis since epoch
+     * @param step length of each step, a multiple of a minute
+     * @param rowsPerFetch rows to read per multiget
+     * @return one Rollup per step, oldest first
+     */
+    static List<Rollup> find(Keyspace keyspace, Collection<String> seriesList, long start, long end, long step, int rowsPerFetch) {
+        long resolution = RollupBuckets.resolutionFor(step);
+        List<Rollup> steps = RollupBuckets.steps(start, end, step);
+        if ( steps.isEmpty() ) {
+            return steps;
+        }
+
+        long first = steps.get(0).getStart();
+        Composite from = new Composite();
+        from.addComponent(first, LongSerializer.get(), "LongType", ComponentEquality.EQUAL);
+        Composite to = new Composite();
+        to.addComponent(end, LongSerializer.get(), "LongType", ComponentEquality.GREATER_THAN_EQUAL);
+
+        List<String> keys = new ArrayList<String>();
+        for ( String series : seriesList ) {
+            Iterators.addAll(keys, RollupBuckets.rowKeys(series, resolution, first, end));
+        }
+
+        for ( List<String> fetch : Lists.partition(keys, rowsPerFetch) ) {
+            MultigetSliceCounterQuery<String, Composite> q = HFactory.createMultigetSliceCounterQuery(keyspace, StringSerializer.get(), CompositeSerializer.get());
+            q.setColumnFamily(CF_ROLLUPS);
+            q.setKeys(fetch);
+            q.setRange(from, to, false, RollupBuckets.MAX_COLUMNS_PER_ROW);
+            for ( CounterRow<String, Composite> row : q.execute().get() ) {
+                for ( HCounterColumn<Composite> col : row.getColumnSlice().getColumns() ) {
+                    long period = LongSerializer.get().fromByteBuffer((ByteBuffer)col.getName().get(0));
+                    String aggregate = StringSerializer.get().fromByteBuffer((ByteBuffer)col.getName().get(1));
+                    if ( COL_COUNT.equals(aggregate) ) {
+                        RollupBuckets.accumulate(steps, period, col.getValue(), 0);
+                    }
+                    else if ( COL_SUM.equals(aggregate) ) {
+                        RollupBuckets.accumulate(steps, period, 0, col.getValue());
+                    }
+                }
+            }
+        }
+        return steps;
+    }
+}
@@ -0,0 +1,232 @@
+package com.btoddb.blog;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import me.prettyprint.cassandra.serializers.*;
+import me.prettyprint.cassandra.service.ColumnSliceIterator;
+import me.prettyprint.hector.api.Cluster;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.Serializer;
+import me.prettyprint.hector.api.beans.AbstractComposite.ComponentEquality;
+import me.prettyprint.hector.api.beans.Composite;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+import me.prettyprint.hector.api.query.MultigetSliceQuery;
+import me.prettyprint.hector.api.query.SliceQuery;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Cassandra implementation of {@link SensorDao} using Hector.  Each Sample is two columns, written in the same
+ * batch:
+ *
+ * <ul>
+ *     <li>sensor_samples - column name is the timestamp, value is the value</li>
+ *     <li>sensor_samples_by_value - column name is value:timestamp, no value.  Index for value range queries</li>
+ * </ul>
+ *
+ * The batch also increments the source's roll-up counters, once per period (see {@link HectorRollups}).
+ *
+ * Both use the same row keys, see {@link SensorTimeBuckets}.  Time ranges read several buckets with each multiget
+ * and page through buckets too wide for one slice.
+ */
+public class HectorSensorDao implements SensorDao {
+    private static final String KEYSPACE_NAME = "blog";
+    private static final String CASS_HOST = "localhost";
+    private static final byte[] EMPTY_BYTES = new byte[0];
+    private static final String DOUBLE_TYPE = "DoubleType";
+    private static final String LONG_TYPE = "LongType";
+
+    public static final int DEFAULT_BUCKETS_PER_FETCH = 24;
+    public static final int DEFAULT_COLUMNS_PER_FETCH = 1000;
+
+    private static final String CF_SENSOR_SAMPLES = "sensor_samples";
+
+    private static final String CF_SENSOR_SAMPLES_BY_VALUE = "sensor_samples_by_value";
+
+    private Keyspace keyspace;
+
+    private int bucketsPerFetch = DEFAULT_BUCKETS_PER_FETCH;
+    private int columnsPerFetch = DEFAULT_COLUMNS_PER_FETCH;
+
+    /**
+     * Must call once (and only once) prior to using the DAO.
+     *
+     */
+    @Override
+    public void init() {
+        Cluster cluster = HFactory.getOrCreateCluster("training-cluster", CASS_HOST + ":9160");
+        keyspace = HFactory.createKeyspace(KEYSPACE_NAME, cluster);
+    }
+
+    @Override
+    public void shutdown() {
+        // the cluster is shared with HectorBlogDao
+    }
+
+    /**
+     * Save Samples in one batch, two insertions each plus the roll-up counters.  The batch is sent as is, so keep
+     * it to a few thousand Samples (see {@link SampleBuffer#setMaxSamples(int)}).
+     *
+     * @param samples Samples to save
+     */
+    @Override
+    public void saveSamples(Collection<Sample> samples) {
+        Mutator<byte[]> m = HFactory.createMutator(keyspace, BytesArraySerializer.get());
+        RollupIncrements increments = new RollupIncrements();
+        for ( Sample sample : samples ) {
+            byte[] key = StringSerializer.get().toBytes(SensorTimeBuckets.rowKey(sample.getSource(), sample.getTimestamp()));
+            m.addInsertion(key, CF_SENSOR_SAMPLES,
+                           HFactory.createColumn(sample.getTimestamp(), sample.getValue(), LongSerializer.get(), DoubleSerializer.get()));
+            m.addInsertion(key, CF_SENSOR_SAMPLES_BY_VALUE,
+                           HFactory.createColumn(valueName(sample.getValue(), sample.getTimestamp()), EMPTY_BYTES, CompositeSerializer.get(), BytesArraySerializer.get()));
+            increments.add(RollupBuckets.sensorSeries(sample.getSource()), sample.getTimestamp(), RollupBuckets.scale(sample.getValue()));
+        }
+        HectorRollups.addCounters(m, increments);
+        m.execute();
+    }
+
+    /**
+     * Find a source's Samples taken between 'start' and 'end', inclusive.
+     *
+     * @param source name of the sensor
+     * @param start Start time, millis since epoch
+     * @param end End time, millis since epoch
+     * @return List of Samples, oldest first
+     */
+    @Override
+    public List<Sample> findSamples(String source, long start, long end) {
+        if ( start > end ) {
+            return new ArrayList<Sample>();
+        }
+
+        List<HColumn<Long, Double>> columns = sliceBuckets(CF_SENSOR_SAMPLES, LongSerializer.get(), DoubleSerializer.get(),
+                                                           SensorTimeBuckets.rowKeys(source, start, end), start, end);
+
+        List<Sample> sampleList = new ArrayList<Sample>(columns.size());
+        for ( HColumn<Long, Double> col : columns ) {
+            sampleList.add(new Sample(source, col.getName(), col.getValue()));
+        }
+        return sampleList;
+    }
+
+    /**
+     * Find a source's Samples taken between 'start' and 'end' with a value between 'min' and 'max', all inclusive.
+     * Each bucket's value range is one slice of sensor_samples_by_value.  The index is sorted by value, so the
+     * first and last buckets are filtered by time here and the result is sorted by time.
+     *
+     * @param source name of the sensor
+     * @param start Start time, millis since epoch
+     * @param end End time, millis since epoch
+     * @param min smallest value
+     * @param max largest value
+     * @return List of Samples, oldest first
+     */
+    @Override
+    public List<Sample> findSamplesInValueRange(String source, long start, long end, double min, double max) {
+        if ( start > end || Double.compare(min, max) > 0 ) {
+            return new ArrayList<Sample>();
+        }
+
+        Composite from = new Composite();
+        from.addComponent(min, DoubleSerializer.get(), DOUBLE_TYPE, ComponentEquality.EQUAL);
+        Composite to = new Composite();
+        to.addComponent(max, DoubleSerializer.get(), DOUBLE_TYPE, ComponentEquality.GREATER_THAN_EQUAL);
+
+        List<HColumn<Composite, byte[]>> columns = sliceBuckets(CF_SENSOR_SAMPLES_BY_VALUE, CompositeSerializer.get(), BytesArraySerializer.get(),
+                                                                SensorTimeBuckets.rowKeys(source, start, end), from, to);
+
+        List<Sample> sampleList = new ArrayList<Sample>(columns.size());
+        for ( HColumn<Composite, byte[]> col : columns ) {
+            long timestamp = LongSerializer.get().fromByteBuffer((ByteBuffer)col.getName().get(1));
+            if ( timestamp >= start && timestamp <= end ) {
+                sampleList.add(new Sample(source, timestamp, DoubleSerializer.get().fromByteBuffer((ByteBuffer)col.getName().get(0))));
+            }
+        }
+        Collections.sort(sampleList, Sample.TIME_ORDER);
+        return sampleList;
+    }
+
+    /**
+     * Count and sum the Samples of one or more sources per step, from the roll-ups.  See {@link HectorRollups}.
+     *
+     * @param sources names of the sensors to add together
+     * @param start Start time, millis since epoch
+     * @param end End time, millis since epoch
+     * @param step length of each step, a multiple of a minute
+     * @return one Rollup per step, oldest first, including empty steps
+     */
+    @Override
+    public List<Rollup> findRollups(Collection<String> sources, long start, long end, long step) {
+        List<String> seriesList = new ArrayList<String>(sources.size());
+        for ( String source : sources ) {
+            seriesList.add(RollupBuckets.sensorSeries(source));
+        }
+        return HectorRollups.find(keyspace, seriesList, start, end, step, bucketsPerFetch);
+    }
+
+    /**
+     * Read the same column range from each bucket, 'buckets per fetch' rows per multiget.  A bucket with more
+     * than 'columns per fetch' columns in range is paged through before moving on.
+     *
+     * @return columns of all buckets, in bucket order
+     */
+    private <N, V> List<HColumn<N, V>> sliceBuckets(String cf, Serializer<N> nameSerializer, Serializer<V> valueSerializer,
+                                                     Iterator<String> keyIter, N start, N end) {
+        List<HColumn<N, V>> columns = new ArrayList<HColumn<N, V>>();
+        while ( keyIter.hasNext() ) {
+            List<String> keys = Lists.newArrayList(Iterators.limit(keyIter, bucketsPerFetch));
+            MultigetSliceQuery<String, N, V> q = HFactory.createMultigetSliceQuery(keyspace, StringSerializer.get(), nameSerializer, valueSerializer);
+            q.setColumnFamily(cf);
+            q.setKeys(keys);
+            q.setRange(start, end, false, columnsPerFetch);
+            Rows<String, N, V> rows = q.execute().get();
+
+            // multiget doesn't return rows in key order
+            for ( String key : keys ) {
+                Row<String, N, V> row = rows.getByKey(key);
+                if ( null == row ) {
+                    continue;
+                }
+
+                List<HColumn<N, V>> slice = row.getColumnSlice().getColumns();
+                columns.addAll(slice);
+                if ( slice.size() < columnsPerFetch ) {
+                    continue;
+                }
+
+                SliceQuery<String, N, V> rest = HFactory.createSliceQuery(keyspace, StringSerializer.get(), nameSerializer, valueSerializer);
+                rest.setColumnFamily(cf);
+                rest.setKey(key);
+                Iterator<HColumn<N, V>> iter = new ColumnSliceIterator<String, N, V>(rest, slice.get(slice.size()-1).getName(), end, false, columnsPerFetch);
+                // skip the last column of the first slice
+                if ( iter.hasNext() ) {
+                    iter.next();
+                }
+                while ( iter.hasNext() ) {
+                    columns.add(iter.next());
+                }
+            }
+        }
+        return columns;
+    }
+
+    private static Composite valueName(double value, long timestamp) {
+        Composite name = new Composite();
+        name.addComponent(value, DoubleSerializer.get(), DOUBLE_TYPE);
+        name.addComponent(timestamp, LongSerializer.get(), LONG_TYPE);
+        return name;
+    }
+
+    public void setBucketsPerFetch(int bucketsPerFetch) {
+        this.bucketsPerFetch = bucketsPerFetch;
+    }
+
+    public void setColumnsPerFetch(int columnsPerFetch) {
+        this.columnsPerFetch = columnsPerFetch;
+    }
+}
@@ -0,0 +1,252 @@
+package com.btoddb.blog;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Parsing of {@link BulkLoader} records - one Post or Comment per record, either a JSON object per line or a CSV
+ * row (RFC 4180 quoting, so quoted fields may span lines).  The fields, and the CSV column order, are
+ * {@link #FIELDS}:
+ *
+ * <ul>
+ *     <li>type - 'post' or 'comment'</li>
+ *     <li>id - the Post's or Comment's ID in the archive</li>
+ *     <li>createTimestamp - millis since epoch, or ISO 8601 (GMT if no zone)</li>
+ *     <li>userEmail, userName - the author, userName defaults to userEmail</li>
+ *     <li>postId, postCreateTimestamp - Comments only, the Post's ID in the archive and its createTimestamp</li>
+ *     <li>title - Posts only</li>
+ *     <li>text</li>
+ * </ul>
+ *
+ * IDs that are UUIDs are kept.  Any other ID is turned into a TimeUUID of the createTimestamp and a hash of the
+ * ID, the same every time, so importing a record again overwrites it instead of duplicating it, and a Comment
+ * finds its Post's UUID from the Post's archive ID and createTimestamp without a lookup.
+ *
+ */
+final class ImportRecords {
+    static final String TYPE_POST = "post";
+    static final String TYPE_COMMENT = "comment";
+
+    static final String[] FIELDS = {
+            "type", "id", "createTimestamp", "userEmail", "userName", "postId", "postCreateTimestamp", "title", "text"
+    };
+
+    // 100ns intervals from the start of the gregorian calendar, where TimeUUIDs start, to the unix epoch
+    private static final long GREGORIAN_OFFSET = 0x01b21dd213814000L;
+
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+    private static final DateTimeFormatter isoParser = ISODateTimeFormat.dateTimeParser().withZoneUTC();
+
+    private ImportRecords() {
+    }
+
+    /**
+     * @param line JSON object
+     * @return the object's fields, as text
+     * @throws IllegalArgumentException if the line isn't a JSON object
+     */
+    static Map<String, String> parseJson(String line) {
+        JsonNode node;
+        try {
+            node = jsonMapper.readTree(line);
+        }
+        catch ( IOException e ) {
+            throw new IllegalArgumentException("not JSON : " + e.getMessage());
+        }
+        if ( null == node || !node.isObject() ) {
+            throw new IllegalArgumentException("not a JSON object");
+        }
+
+        Map<String, String> fields = new HashMap<String, String>();
+        Iterator<Map.Entry<String, JsonNode>> iter = node.getFields();
+        while ( iter.hasNext() ) {
+            Map.Entry<String, JsonNode> field = iter.next();
+            if ( !field.getValue().isNull() ) {
+                fields.put(field.getKey(), field.getValue().asText());
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @param record CSV row, complete according to {@link #isCompleteCsv(CharSequence)}
+     * @return the row's fields, named by {@link #FIELDS}.  Empty fields are left out
+     * @throws IllegalArgumentException if the row has more fields than {@link #FIELDS}
+     */
+    static Map<String, String> parseCsv(String record) {
+        List<String> values = splitCsv(record);
+        if ( values.size() > FIELDS.length ) {
+            throw new IllegalArgumentException("expected at most " + FIELDS.length + " fields, found " + values.size());
+        }
+
+        Map<String, String> fields = new HashMap<String, String>();
+        for ( int i=0;i < values.size();i++ ) {
+            if ( !values.get(i).isEmpty() ) {
+                fields.put(FIELDS[i], values.get(i));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @return true if the text doesn't end inside a quoted field - if false, the row continues on the next line
+     */
+    static boolean isCompleteCsv(CharSequence text) {
+        boolean quoted = false;
+        for ( int i=0;i < text.length();i++ ) {
+            if ( '"' == text.charAt(i) ) {
+                quoted = !quoted;
+            }
+        }
+        return !quoted;
+    }
+
+    /**
+     * @return true if the CSV row is the header, {@link #FIELDS}
+     */
+    static boolean isCsvHeader(String record) {
+        return record.startsWith(FIELDS[0] + ",") && record.contains(FIELDS[1]);
+    }
+
+    private static List<String> splitCsv(String record) {
+        List<String> values = new ArrayList<String>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for ( int i=0;i < record.length();i++ ) {
+            char c = record.charAt(i);
+            if ( quoted ) {
+                if ( '"' != c ) {
+                    value.append(c);
+                }
+                else if ( i+1 < record.length() && '"' == record.charAt(i+1) ) {
+                    // doubled quote inside quotes is a quote
+                    value.append(c);
+                    i++;
+                }
+                else {
+                    quoted = false;
+                }
+            }
+            else if ( '"' == c ) {
+                quoted = true;
+            }
+            else if ( ',' == c ) {
+                values.add(value.toString());
+                value.setLength(0);
+            }
+            else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * @return the record's type, {@link #TYPE_POST} or {@link #TYPE_COMMENT}
+     * @throws IllegalArgumentException if neither
+     */
+    static String type(Map<String, String> fields) {
+        String type = required(fields, "type");
+        if ( TYPE_POST.equalsIgnoreCase(type) ) {
+            return TYPE_POST;
+        }
+        else if ( TYPE_COMMENT.equalsIgnoreCase(type) ) {
+            return TYPE_COMMENT;
+        }
+        throw new IllegalArgumentException("type must be '" + TYPE_POST + "' or '" + TYPE_COMMENT + "' : " + type);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a required field is missing or malformed
+     */
+    static Post toPost(Map<String, String> fields) {
+        long createTimestamp = timestamp(required(fields, "createTimestamp"));
+        String email = required(fields, "userEmail");
+        return new Post(id(required(fields, "id"), createTimestamp), email, optional(fields, "userName", email),
+                        optional(fields, "title", ""), new DateTime(createTimestamp), optional(fields, "text", ""));
+    }
+
+    /**
+     * @throws IllegalArgumentException if a required field is missing or malformed
+     */
+    static Comment toComment(Map<String, String> fields) {
+        long createTimestamp = timestamp(required(fields, "createTimestamp"));
+        String email = required(fields, "userEmail");
+
+        String postId = required(fields, "postId");
+        UUID postUuid = asUUID(postId);
+        if ( null == postUuid ) {
+            postUuid = id(postId, timestamp(required(fields, "postCreateTimestamp")));
+        }
+
+        return new Comment(id(required(fields, "id"), createTimestamp), email, optional(fields, "userName", email),
+                           postUuid, createTimestamp, optional(fields, "text", ""));
+    }
+
+    /**
+     * @param sourceId ID in the archive
+     * @param timestamp millis since epoch
+     * @return 'sourceId' if it's a UUID, otherwise a TimeUUID of 'timestamp', the same for the same ID and time
+     */
+    static UUID id(String sourceId, long timestamp) {
+        UUID uuid = asUUID(sourceId);
+        if ( null != uuid ) {
+            return uuid;
+        }
+
+        // version 1 UUID - the time fields from 'timestamp', the clock sequence and node from a hash of the ID
+        long time = timestamp * 10000 + GREGORIAN_OFFSET;
+        long msb = (time << 32) | ((time >>> 16) & 0xFFFF0000L) | 0x1000L | ((time >>> 48) & 0x0FFFL);
+        long hash = Hashing.murmur3_128().hashString(sourceId, Charsets.UTF_8).asLong();
+        long lsb = (hash & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    private static UUID asUUID(String id) {
+        if ( 36 != id.length() || '-' != id.charAt(8) ) {
+            return null;
+        }
+        try {
+            return UUID.fromString(id);
+        }
+        catch ( IllegalArgumentException e ) {
+            return null;
+        }
+    }
+
+    private static long timestamp(String value) {
+        try {
+            return Long.parseLong(value);
+        }
+        catch ( NumberFormatException e ) {
+            return isoParser.parseMillis(value);
+        }
+    }
+
+    private static String required(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        if ( null == value || value.isEmpty() ) {
+            throw new IllegalArgumentException("missing " + name);
+        }
+        return value;
+    }
+
+    private static String optional(Map<String, String> fields, String name, String defaultValue) {
+        String value = fields.get(name);
+        return null != value ? value : defaultValue;
+    }
+}
@@ -0,0 +1,923 @@
+package com.btoddb.blog;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import me.prettyprint.cassandra.utils.TimeUUIDUtils;
+import org.joda.time.DateTime;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory implementation of {@link BlogDao}.  Each ColumnFamily in blog-schema.txt is modeled as a concurrent
+ * map of rows, where each row is a sorted map using the same comparator as the ColumnFamily.  The 'votes'
+ * counters are {@link AtomicLong}s.
+ *
+ * Used to profile and load test the service and render layers without a Cassandra cluster.  Nothing is
+ * persisted, all data is lost when the JVM exits.
+ */
+public class InMemoryBlogDao implements BlogDao {
+    private static final Comparator<UUID> TIME_ORDER = new TimeUUIDComparator();
+    private static final Comparator<UUID> REVERSED_TIME_ORDER = Collections.reverseOrder(TIME_ORDER);
+    private static final byte[] EMPTY_BYTES = new byte[0];
+    private static final int SEARCH_COLUMNS_PER_FETCH = 100;
+
+    private final ConcurrentMap<String, User> users = new ConcurrentHashMap<String, User>();
+    private final ConcurrentMap<UUID, Post> posts = new ConcurrentHashMap<UUID, Post>();
+    private final ConcurrentMap<UUID, Comment> comments = new ConcurrentHashMap<UUID, Comment>();
+
+    private final ConcurrentMap<String, ConcurrentSkipListMap<UUID, byte[]>> userPosts = new ConcurrentHashMap<String, ConcurrentSkipListMap<UUID, byte[]>>();
+    private final ConcurrentMap<String, ConcurrentSkipListMap<UUID, byte[]>> userComments = new ConcurrentHashMap<String, ConcurrentSkipListMap<UUID, byte[]>>();
+    private final ConcurrentMap<UUID, ConcurrentSkipListMap<UUID, byte[]>> postComments = new ConcurrentHashMap<UUID, ConcurrentSkipListMap<UUID, byte[]>>();
+    private final ConcurrentMap<String, ConcurrentSkipListMap<UUID, byte[]>> postsByTime = new ConcurrentHashMap<String, ConcurrentSkipListMap<UUID, byte[]>>();
+    private volatile PostTimeBuckets postTimeBuckets = PostTimeBuckets.HOURLY;
+    // held while writing posts_by_time, so a rebucket can't delete a bucket a Post was just put in
+    private final Object postsByTimeLock = new Object();
+    private final ConcurrentMap<String, ConcurrentSkipListMap<UUID, byte[]>> postTerms = new ConcurrentHashMap<String, ConcurrentSkipListMap<UUID, byte[]>>();
+    private final ConcurrentMap<String, ConcurrentSkipListMap<UUID, Long>> userVotes = new ConcurrentHashMap<String, ConcurrentSkipListMap<UUID, Long>>();
+
+    private final ConcurrentMap<UUID, AtomicLong> votes = new ConcurrentHashMap<UUID, AtomicLong>();
+
+    // sorting replaces the whole row, same as the delete + insert batch in cassandra
+    private volatile ConcurrentSkipListSet<VoteKey> postsSortedByVote = new ConcurrentSkipListSet<VoteKey>(VoteKey.POSTS_ORDER);
+    private final ConcurrentMap<UUID, ConcurrentSkipListSet<VoteKey>> postCommentsSortedByVote = new ConcurrentHashMap<UUID, ConcurrentSkipListSet<VoteKey>>();
+
+    // hour bucket -> score:Post ID.  buckets are dropped once too old to be read, in place of the TTL
+    private final ConcurrentSkipListMap<String, ConcurrentSkipListMap<VoteKey, byte[]>> postsTrending = new ConcurrentSkipListMap<String, ConcurrentSkipListMap<VoteKey, byte[]>>();
+
+    private final Set<UUID> postCommentVotesChanged = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+
+    // bucket -> Post ID -> time of last comment/vote, the column timestamp in cassandra
+    private final ConcurrentSkipListMap<String, ConcurrentMap<UUID, Long>> commentVoteLedger = new ConcurrentSkipListMap<String, ConcurrentMap<UUID, Long>>();
+    private final ConcurrentMap<String, DateTime> checkpoints = new ConcurrentHashMap<String, DateTime>();
+
+    private final InMemoryRollups rollups = new InMemoryRollups();
+
+    // values encoded the same as in cassandra.  nothing expires, but reads stop at the same buckets
+    private final ConcurrentMap<String, ConcurrentSkipListMap<UUID, byte[]>> activityFeeds = new ConcurrentHashMap<String, ConcurrentSkipListMap<UUID, byte[]>>();
+
+
+    @Override
+    public void init() {
+        // nothing to connect to
+    }
+
+    @Override
+    public void shutdown() {
+        // nothing to release
+    }
+
+    @Override
+    public User saveUser( User user ) {
+        users.put(user.getEmail(), copyOf(user));
+        return user;
+    }
+
+    @Override
+    public Post savePost( Post post ) {
+        putPost(post);
+        saveTrendingScore(post.getId(), 0, null);
+        addActivity(Activity.ofPost(post));
+
+        post.setVotes( 0L );
+        return post;
+    }
+
+    @Override
+    public Comment saveComment( Comment comment ) {
+        putComment(comment);
+        postCommentVotesChanged.add(comment.getPostId());
+        addToLedger(comment.getPostId());
+        addActivity(Activity.ofComment(comment));
+
+        comment.setVotes( 0L );
+        return comment;
+    }
+
+    @Override
+    public void importBatch( Collection<Post> postList, Collection<Comment> commentList ) {
+        for ( Post post : postList ) {
+            putPost(post);
+        }
+
+        Set<UUID> postIds = new HashSet<UUID>();
+        for ( Comment comment : commentList ) {
+            putComment(comment);
+            postIds.add(comment.getPostId());
+        }
+        for ( UUID postId : postIds ) {
+            postCommentVotesChanged.add(postId);
+            addToLedger(postId);
+        }
+    }
+
+    private void putPost(Post post) {
+        posts.put(post.getId(), copyOf(post));
+        row(userPosts, post.getUserEmail(), REVERSED_TIME_ORDER).put(post.getId(), EMPTY_BYTES);
+        synchronized ( postsByTimeLock ) {
+            row(postsByTime, postTimeBuckets.rowKey(post.getCreateTimestamp()), TIME_ORDER).put(post.getId(), EMPTY_BYTES);
+        }
+        addTerms(post);
+        counter(post.getId());
+    }
+
+    private void addTerms(Post post) {
+        for ( String term : PostSearch.terms(post) ) {
+            row(postTerms, term, REVERSED_TIME_ORDER).put(post.getId(), EMPTY_BYTES);
+        }
+    }
+
+    private void putComment(Comment comment) {
+        comments.put(comment.getId(), copyOf(comment));
+        row(userComments, comment.getUserEmail(), REVERSED_TIME_ORDER).put(comment.getId(), EMPTY_BYTES);
+        row(postComments, comment.getPostId(), REVERSED_TIME_ORDER).put(comment.getId(), EMPTY_BYTES);
+        counter(comment.getId());
+    }
+
+    @Override
+    public User findUser( String email ) {
+        User user = users.get(email);
+        return null != user ? copyOf(user) : null;
+    }
+
+    @Override
+    public Post findPost( UUID postId ) {
+        Post p = posts.get(postId);
+        if ( null == p ) {
+            return null;
+        }
+
+        p = copyOf(p);
+        p.setVotes(currentVotes(postId));
+        return p;
+    }
+
+    @Override
+    public Comment findComment( UUID uuid ) {
+        Comment c = comments.get(uuid);
+        if ( null == c ) {
+            return null;
+        }
+
+        c = copyOf(c);
+        c.setVotes(currentVotes(uuid));
+        return c;
+    }
+
+    // same as HectorBlogDao, list views get Posts without their text
+    private List<Post> findPostSummariesByUUIDList(List<UUID> uuidList, boolean includeVotes) {
+        List<Post> postList = findPostsByUUIDList(uuidList, includeVotes);
+        if ( null != postList ) {
+            for ( Post p : postList ) {
+                if ( null != p ) {
+                    p.setText(null);
+                }
+            }
+        }
+        return postList;
+    }
+
+    @Override
+    public List<Post> findPostsByUUIDList( List<UUID> uuidList ) {
+        return findPostsByUUIDList(uuidList, true);
+    }
+
+    private List<Post> findPostsByUUIDList(List<UUID> uuidList, boolean includeVotes) {
+        List<Post> postList = new LinkedList<Post>();
+        boolean found = false;
+        for ( UUID uuid : uuidList ) {
+            Post p = posts.get(uuid);
+            if ( null != p ) {
+                found = true;
+                p = copyOf(p);
+                if ( includeVotes ) {
+                    p.setVotes(currentVotes(uuid));
+                }
+            }
+            postList.add(p);
+        }
+
+        return found ? postList : null;
+    }
+
+    @Override
+    public List<UUID> findPostUUIDsByUser( String userEmail ) {
+        return columnNames(userPosts.get(userEmail));
+    }
+
+    @Override
+    public Page<UUID> findPostUUIDsByUser( String userEmail, String cursor, int limit ) {
+        return columnNamePage(userPosts.get(userEmail), cursor, limit);
+    }
+
+    @Override
+    public List<Post> findPostsByUser( String userEmail ) {
+        List<UUID> uuidList = findPostUUIDsByUser(userEmail);
+        if ( uuidList.isEmpty() ) {
+            return null;
+        }
+
+        return findPostSummariesByUUIDList(uuidList, true);
+    }
+
+    @Override
+    public Page<Post> findPostsByUser( String userEmail, String cursor, int limit ) {
+        Page<UUID> uuidPage = findPostUUIDsByUser(userEmail, cursor, limit);
+        if ( uuidPage.getItems().isEmpty() ) {
+            return new Page<Post>(new ArrayList<Post>(), null);
+        }
+
+        return new Page<Post>(findPostSummariesByUUIDList(uuidPage.getItems(), true), uuidPage.getNextCursor());
+    }
+
+    @Override
+    public List<UUID> findPostUUIDsByTimeRange( DateTime start, DateTime end ) {
+        return findPostUUIDsByTimeRange(start, end, Integer.MAX_VALUE, false);
+    }
+
+    @Override
+    public List<UUID> findPostUUIDsByTimeRange( DateTime start, DateTime end, int limit, boolean newestFirst ) {
+        List<UUID> uuidList = new ArrayList<UUID>();
+        Iterator<UUID> iter = iteratePostUUIDsByTimeRange(start, end, newestFirst);
+        while ( uuidList.size() < limit && iter.hasNext() ) {
+            uuidList.add(iter.next());
+        }
+        return uuidList;
+    }
+
+    @Override
+    public Iterator<UUID> iteratePostUUIDsByTimeRange( DateTime start, DateTime end, final boolean newestFirst ) {
+        final Iterator<String> rowKeys = postTimeBuckets.rowKeys(start, end, newestFirst);
+        final long startAsLong = start.getMillis();
+        final long endAsLong = end.getMillis();
+
+        return new AbstractIterator<UUID>() {
+            private Iterator<UUID> columns;
+
+            @Override
+            protected UUID computeNext() {
+                for (;;) {
+                    if ( null != columns && columns.hasNext() ) {
+                        UUID uuid = columns.next();
+                        long t = TimeUUIDUtils.getTimeFromUUID(uuid);
+                        if ( newestFirst ? t < startAsLong : t > endAsLong ) {
+                            return endOfData();
+                        }
+                        if ( newestFirst ? t <= endAsLong : t >= startAsLong ) {
+                            return uuid;
+                        }
+                    }
+                    else if ( rowKeys.hasNext() ) {
+                        ConcurrentSkipListMap<UUID, byte[]> row = postsByTime.get(rowKeys.next());
+                        if ( null != row ) {
+                            columns = newestFirst ? row.descendingKeySet().iterator() : row.keySet().iterator();
+                        }
+                    }
+                    else {
+                        return endOfData();
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public PostTimeBuckets findPostTimeBuckets() {
+        return postTimeBuckets;
+    }
+
+    @Override
+    public int rebucketPostsByTime( DateTime start, DateTime end, PostTimeBuckets.Granularity granularity ) {
+        synchronized ( postsByTimeLock ) {
+            PostTimeBuckets current = postTimeBuckets;
+            PostTimeBuckets changed = current.with(start, end, granularity);
+            DateTime last = end.minusMillis(1);
+
+            int moved = 0;
+            Iterator<UUID> iter = iteratePostUUIDsByTimeRange(start, last, false);
+            while ( iter.hasNext() ) {
+                UUID postId = iter.next();
+                row(postsByTime, changed.rowKey(new DateTime(TimeUUIDUtils.getTimeFromUUID(postId))), TIME_ORDER).put(postId, EMPTY_BYTES);
+                moved++;
+            }
+            postTimeBuckets = changed;
+
+            // one process, nothing else has the old bucket sizes, so the old buckets can go now
+            Set<String> newKeys = new HashSet<String>();
+            Iterators.addAll(newKeys, changed.rowKeys(start, last, false));
+            Iterator<String> oldKeys = current.rowKeys(start, last, false);
+            while ( oldKeys.hasNext() ) {
+                String key = oldKeys.next();
+                if ( !newKeys.contains(key) ) {
+                    postsByTime.remove(key);
+                }
+            }
+            return moved;
+        }
+    }
+
+    @Override
+    public int deleteRetiredPostBuckets() {
+        // rebucketPostsByTime already deleted them
+        return 0;
+    }
+
+    @Override
+    public List<Post> findPostsByTimeRange( DateTime start, DateTime end ) {
+        List<UUID> uuidList = findPostUUIDsByTimeRange(start, end);
+        if ( uuidList.isEmpty() ) {
+            return null;
+        }
+
+        return findPostSummariesByUUIDList(uuidList, true);
+    }
+
+    @Override
+    public List<Post> findPostsByTimeRange( DateTime start, DateTime end, int limit, boolean newestFirst ) {
+        List<UUID> uuidList = findPostUUIDsByTimeRange(start, end, limit, newestFirst);
+        if ( uuidList.isEmpty() ) {
+            return null;
+        }
+
+        return findPostSummariesByUUIDList(uuidList, true);
+    }
+
+    @Override
+    public List<UUID> findPostUUIDsByTerms( Collection<String> terms, int limit ) {
+        List<PostSearch.Postings> postings = new ArrayList<PostSearch.Postings>();
+        for ( String term : terms ) {
+            final ConcurrentSkipListMap<UUID, byte[]> row = postTerms.get(term);
+            if ( null == row ) {
+                return new ArrayList<UUID>();
+            }
+            postings.add(new PostSearch.Postings() {
+                @Override
+                List<UUID> page(UUID from, int count) {
+                    List<UUID> page = new ArrayList<UUID>(count);
+                    Iterator<UUID> iter = (null != from ? row.tailMap(from, true) : row).keySet().iterator();
+                    while ( page.size() < count && iter.hasNext() ) {
+                        page.add(iter.next());
+                    }
+                    return page;
+                }
+            });
+        }
+        return PostSearch.intersect(postings, limit, SEARCH_COLUMNS_PER_FETCH);
+    }
+
+    @Override
+    public List<Post> findPostsByTerms( Collection<String> terms, int limit ) {
+        List<UUID> uuidList = findPostUUIDsByTerms(terms, limit);
+        if ( uuidList.isEmpty() ) {
+            return null;
+        }
+
+        return findPostSummariesByUUIDList(uuidList, true);
+    }
+
+    @Override
+    public void indexPosts( Collection<Post> postList ) {
+        for ( Post post : postList ) {
+            addTerms(post);
+        }
+    }
+
+    @Override
+    public List<UUID> findCommentUUIDsByUser( String userEmail ) {
+        return columnNames(userComments.get(userEmail));
+    }
+
+    @Override
+    public Page<UUID> findCommentUUIDsByUser( String userEmail, String cursor, int limit ) {
+        return columnNamePage(userComments.get(userEmail), cursor, limit);
+    }
+
+    @Override
+    public List<UUID> findCommentUUIDsByPostSortedByTime( UUID postId ) {
+        return columnNames(postComments.get(postId));
+    }
+
+    @Override
+    public Page<UUID> findCommentUUIDsByPostSortedByTime( UUID postId, String cursor, int limit ) {
+        return columnNamePage(postComments.get(postId), cursor, limit);
+    }
+
+    @Override
+    public List<UUID> findCommentUUIDsByPostSortedByVotes( UUID postId ) {
+        List<UUID> uuidList = new LinkedList<UUID>();
+        ConcurrentSkipListSet<VoteKey> row = postCommentsSortedByVote.get(postId);
+        if ( null != row ) {
+            for ( VoteKey key : row ) {
+                uuidList.add(key.id);
+            }
+        }
+        return uuidList;
+    }
+
+    @Override
+    public Page<UUID> findCommentUUIDsByPostSortedByVotes( UUID postId, String cursor, int limit ) {
+        List<UUID> uuidList = new ArrayList<UUID>(limit);
+        ConcurrentSkipListSet<VoteKey> row = postCommentsSortedByVote.get(postId);
+        if ( null == row ) {
+            return new Page<UUID>(uuidList, null);
+        }
+
+        VoteKey start = Page.voteKeyFromCursor(cursor);
+        Iterator<VoteKey> iter = (null != start ? row.tailSet(start, true) : row).iterator();
+        while ( iter.hasNext() ) {
+            VoteKey key = iter.next();
+            if ( uuidList.size() == limit ) {
+                return new Page<UUID>(uuidList, Page.cursor(key.votes, key.id));
+            }
+            uuidList.add(key.id);
+        }
+        return new Page<UUID>(uuidList, null);
+    }
+
+    @Override
+    public Page<Comment> findCommentsByPost( UUID postId, String cursor, int limit ) {
+        return toCommentPage(findCommentUUIDsByPostSortedByVotes(postId, cursor, limit));
+    }
+
+    private Page<Comment> toCommentPage(Page<UUID> uuidPage) {
+        if ( uuidPage.getItems().isEmpty() ) {
+            return new Page<Comment>(new ArrayList<Comment>(), null);
+        }
+
+        return new Page<Comment>(findCommentsByUUIDList(uuidPage.getItems()), uuidPage.getNextCursor());
+    }
+
+    @Override
+    public List<Comment> findCommentsByUUIDList( List<UUID> uuidList ) {
+        List<Comment> commentList = new LinkedList<Comment>();
+        boolean found = false;
+        for ( UUID uuid : uuidList ) {
+            Comment c = comments.get(uuid);
+            if ( null != c ) {
+                found = true;
+                c = copyOf(c);
+                c.setVotes(currentVotes(uuid));
+            }
+            commentList.add(c);
+        }
+
+        return found ? commentList : null;
+    }
+
+    @Override
+    public ListenableFuture<List<Comment>> findCommentsByUUIDListAsync( List<UUID> uuidList ) {
+        return Futures.immediateFuture(findCommentsByUUIDList(uuidList));
+    }
+
+    @Override
+    public ListenableFuture<List<Post>> findPostsByUUIDListAsync( List<UUID> uuidList ) {
+        return Futures.immediateFuture(findPostsByUUIDList(uuidList, true));
+    }
+
+    @Override
+    public List<Comment> findCommentsByUser( String userEmail ) {
+        List<UUID> uuidList = findCommentUUIDsByUser(userEmail);
+        if ( uuidList.isEmpty() ) {
+            return null;
+        }
+
+        return findCommentsByUUIDList(uuidList);
+    }
+
+    @Override
+    public Page<Comment> findCommentsByUser( String userEmail, String cursor, int limit ) {
+        return toCommentPage(findCommentUUIDsByUser(userEmail, cursor, limit));
+    }
+
+    private void vote(String userEmail, String type, UUID uuid) {
+        saveVotes(Collections.singletonList(new Vote(userEmail, uuid, type, System.currentTimeMillis())));
+    }
+
+    @Override
+    public void saveVotes( Collection<Vote> votes ) {
+        saveVoteRecords(votes);
+        countVotes(votes);
+    }
+
+    @Override
+    public void saveVoteRecords( Collection<Vote> votes ) {
+        if ( null == votes || votes.isEmpty() ) {
+            return;
+        }
+
+        Set<UUID> postIds = new LinkedHashSet<UUID>();
+        for ( Vote vote : votes ) {
+            row(userVotes, vote.getUserEmail(), TIME_ORDER).put(vote.getUuid(), vote.getTimestamp());
+            if ( vote.isComment() ) {
+                Comment c = null == vote.getPostId() ? comments.get(vote.getUuid()) : null;
+                UUID postId = null != c ? c.getPostId() : vote.getPostId();
+                if ( null != postId ) {
+                    postIds.add(postId);
+                }
+                addActivity(Activity.ofVote(vote, postId));
+            }
+            else {
+                addActivity(Activity.ofVote(vote, null));
+            }
+        }
+
+        for ( UUID postId : postIds ) {
+            postCommentVotesChanged.add(postId);
+            addToLedger(postId);
+        }
+    }
+
+    @Override
+    public void countVotes( Collection<Vote> votes ) {
+        if ( null == votes || votes.isEmpty() ) {
+            return;
+        }
+
+        Map<UUID, Long> increments = new LinkedHashMap<UUID, Long>();
+        RollupIncrements rollupIncrements = new RollupIncrements();
+        for ( Vote vote : votes ) {
+            rollupIncrements.add(vote.isComment() ? RollupBuckets.COMMENT_VOTES : RollupBuckets.POST_VOTES, vote.getTimestamp(), 0);
+            Long sum = increments.get(vote.getUuid());
+            increments.put(vote.getUuid(), null != sum ? sum + 1 : 1L);
+        }
+
+        for ( Map.Entry<UUID, Long> entry : increments.entrySet() ) {
+            counter(entry.getKey()).addAndGet(entry.getValue());
+        }
+        rollups.add(rollupIncrements);
+    }
+
+    @Override
+    public void saveTrendingScores( Map<UUID, Long> votes, Map<UUID, Long> replaced ) {
+        if ( null == votes || votes.isEmpty() ) {
+            return;
+        }
+
+        for ( Map.Entry<UUID, Long> entry : votes.entrySet() ) {
+            saveTrendingScore(entry.getKey(), entry.getValue(), null != replaced ? replaced.get(entry.getKey()) : null);
+        }
+    }
+
+    // replace the column for the score of the replaced count with the new one, same as cassandra
+    private void saveTrendingScore(UUID postId, long votes, Long replaced) {
+        long now = System.currentTimeMillis();
+        ConcurrentSkipListMap<VoteKey, byte[]> row = row(postsTrending, TrendingScores.rowKey(postId), VoteKey.POSTS_ORDER);
+        if ( 0 < TrendingScores.ttlSeconds(postId, now) ) {
+            row.put(new VoteKey(TrendingScores.score(postId, votes), postId), EMPTY_BYTES);
+            if ( null != replaced && replaced != votes ) {
+                row.remove(new VoteKey(TrendingScores.score(postId, replaced), postId));
+            }
+        }
+
+        // stands in for the TTL
+        postsTrending.headMap(TrendingScores.rowKey(now - TrendingScores.MAX_HOURS * 60 * 60 * 1000L)).clear();
+    }
+
+    private void addActivity(Activity activity) {
+        DateTime timestamp = new DateTime(activity.getTimestamp());
+        byte[] value = ActivityCodec.get().toBytes(activity);
+        row(activityFeeds, ActivityBuckets.userRowKey(activity.getUserEmail(), timestamp), REVERSED_TIME_ORDER).put(activity.getId(), value);
+        row(activityFeeds, ActivityBuckets.siteRowKey(timestamp), REVERSED_TIME_ORDER).put(activity.getId(), value);
+    }
+
+    private void addToLedger(UUID postId) {
+        DateTime now = new DateTime();
+        String key = CommentVoteBuckets.rowKey(now);
+        ConcurrentMap<UUID, Long> bucket = commentVoteLedger.get(key);
+        if ( null == bucket ) {
+            ConcurrentMap<UUID, Long> newBucket = new ConcurrentHashMap<UUID, Long>();
+            bucket = commentVoteLedger.putIfAbsent(key, newBucket);
+            if ( null == bucket ) {
+                bucket = newBucket;
+            }
+        }
+        bucket.put(postId, now.getMillis());
+
+        // stands in for the TTL
+        commentVoteLedger.headMap(CommentVoteBuckets.rowKey(now.minusSeconds(CommentVoteBuckets.LEDGER_TTL_SECONDS))).clear();
+    }
+
+    @Override
+    public void voteOnPost( String userEmail, UUID postId ) {
+        vote(userEmail, "POST", postId);
+    }
+
+    @Override
+    public void voteOnComment( String userEmail, UUID commentId ) {
+        vote(userEmail, "COMMENT", commentId);
+    }
+
+    @Override
+    public void voteOnComment( String userEmail, UUID commentId, UUID postId ) {
+        saveVotes(Collections.singletonList(Vote.onComment(userEmail, commentId, postId, System.currentTimeMillis())));
+    }
+
+    @Override
+    public Page<Activity> findUserActivity( String userEmail, String cursor, int limit ) {
+        UUID start = Page.uuidFromCursor(cursor);
+        return findActivityPage(ActivityBuckets.userRowKeys(userEmail, activityTime(start)), start, limit);
+    }
+
+    @Override
+    public Page<Activity> findSiteActivity( String cursor, int limit ) {
+        UUID start = Page.uuidFromCursor(cursor);
+        return findActivityPage(ActivityBuckets.siteRowKeys(activityTime(start)), start, limit);
+    }
+
+    private static DateTime activityTime(UUID start) {
+        return null != start ? new DateTime(TimeUUIDUtils.getTimeFromUUID(start)) : new DateTime();
+    }
+
+    private Page<Activity> findActivityPage(Iterator<String> rowKeys, UUID start, int limit) {
+        List<Activity> activityList = new ArrayList<Activity>(limit + 1);
+        while ( activityList.size() <= limit && rowKeys.hasNext() ) {
+            ConcurrentSkipListMap<UUID, byte[]> row = activityFeeds.get(rowKeys.next());
+            if ( null != row ) {
+                Iterator<Map.Entry<UUID, byte[]>> iter = (null != start ? row.tailMap(start, true) : row).entrySet().iterator();
+                while ( activityList.size() <= limit && iter.hasNext() ) {
+                    Map.Entry<UUID, byte[]> col = iter.next();
+                    activityList.add(ActivityCodec.get().fromBytes(col.getKey(), col.getValue()));
+                }
+            }
+            start = null;
+        }
+
+        String nextCursor = null;
+        if ( activityList.size() > limit ) {
+            nextCursor = Page.cursor(activityList.remove(limit).getId());
+        }
+        return new Page<Activity>(activityList, nextCursor);
+    }
+
+    @Override
+    public Map<UUID, Long> findVotes( List<UUID> uuidList ) {
+        if ( null == uuidList || uuidList.isEmpty() ) {
+            return Collections.emptyMap();
+        }
+
+        Map<UUID, Long> voteList = new HashMap<UUID, Long>();
+        for ( UUID uuid : uuidList ) {
+            AtomicLong counter = votes.get(uuid);
+            if ( null != counter ) {
+                voteList.put(uuid, counter.get());
+            }
+        }
+        return voteList;
+    }
+
+    @Override
+    public DateTime findUserVote( String userEmail, UUID uuid ) {
+        ConcurrentSkipListMap<UUID, Long> row = userVotes.get(userEmail);
+        Long ts = null != row ? row.get(uuid) : null;
+        return null != ts ? new DateTime(ts) : null;
+    }
+
+    @Override
+    public Iterator<Vote> iterateUserVotes() {
+        final Iterator<Map.Entry<String, ConcurrentSkipListMap<UUID, Long>>> rowIter = userVotes.entrySet().iterator();
+        return new AbstractIterator<Vote>() {
+            private String userEmail;
+            private Iterator<Map.Entry<UUID, Long>> colIter = Collections.<Map.Entry<UUID, Long>>emptyList().iterator();
+
+            @Override
+            protected Vote computeNext() {
+                while ( !colIter.hasNext() ) {
+                    if ( !rowIter.hasNext() ) {
+                        return endOfData();
+                    }
+                    Map.Entry<String, ConcurrentSkipListMap<UUID, Long>> row = rowIter.next();
+                    userEmail = row.getKey();
+                    colIter = row.getValue().entrySet().iterator();
+                }
+
+                Map.Entry<UUID, Long> col = colIter.next();
+                return new Vote(userEmail, col.getKey(), null, col.getValue());
+            }
+        };
+    }
+
+    @Override
+    public List<Post> findPostsByVote( int number ) {
+        List<UUID> uuidList = new LinkedList<UUID>();
+        Map<UUID, Long> voteMap = new HashMap<UUID, Long>();
+        Iterator<VoteKey> iter = postsSortedByVote.iterator();
+        int count = number;
+        while ( iter.hasNext() && 0 < count-- ) {
+            VoteKey key = iter.next();
+            uuidList.add(key.id);
+            voteMap.put(key.id, key.votes);
+        }
+
+        List<Post> postList = findPostSummariesByUUIDList(uuidList, false);
+        if ( null != postList && !postList.isEmpty() ) {
+            for ( Post p : postList ) {
+                p.setVotes(voteMap.get(p.getId()));
+            }
+        }
+
+        return postList;
+    }
+
+    @Override
+    public List<Post> findTrendingPosts( int number, int hours ) {
+        DateTime end = new DateTime();
+        DateTime start = end.minusHours(Math.min(hours, TrendingScores.MAX_HOURS));
+
+        List<Iterator<VoteKey>> buckets = new ArrayList<Iterator<VoteKey>>();
+        Iterator<String> keyIter = TrendingScores.rowKeys(start, end);
+        while ( keyIter.hasNext() ) {
+            ConcurrentSkipListMap<VoteKey, byte[]> row = postsTrending.get(keyIter.next());
+            if ( null != row ) {
+                buckets.add(row.keySet().iterator());
+            }
+        }
+
+        List<VoteKey> stale = new ArrayList<VoteKey>();
+        Map<UUID, Long> top = TrendingScores.merge(buckets, number, stale);
+        for ( VoteKey key : stale ) {
+            ConcurrentSkipListMap<VoteKey, byte[]> row = postsTrending.get(TrendingScores.rowKey(key.id));
+            if ( null != row ) {
+                row.remove(key);
+            }
+        }
+
+        if ( top.isEmpty() ) {
+            return new ArrayList<Post>();
+        }
+        return findPostSummariesByUUIDList(new ArrayList<UUID>(top.keySet()), true);
+    }
+
+    @Override
+    public List<Rollup> findVoteRollups( String type, long start, long end, long step ) {
+        return rollups.find(RollupBuckets.voteSeries(type), start, end, step);
+    }
+
+    @Override
+    public boolean postCommentsNeedSorting( UUID postId ) {
+        return postCommentVotesChanged.contains(postId);
+    }
+
+    @Override
+    public Set<UUID> findPostUUIDsWithCommentVotes( DateTime since, DateTime until ) {
+        Set<UUID> postIds = new HashSet<UUID>();
+        Iterator<String> keyIter = CommentVoteBuckets.rowKeys(since, until);
+        while ( keyIter.hasNext() ) {
+            ConcurrentMap<UUID, Long> bucket = commentVoteLedger.get(keyIter.next());
+            if ( null == bucket ) {
+                continue;
+            }
+
+            for ( Map.Entry<UUID, Long> entry : bucket.entrySet() ) {
+                if ( since.getMillis() <= entry.getValue() && entry.getValue() < until.getMillis() ) {
+                    postIds.add(entry.getKey());
+                }
+            }
+        }
+        return postIds;
+    }
+
+    @Override
+    public DateTime findCheckpoint( String name ) {
+        return checkpoints.get(name);
+    }
+
+    @Override
+    public void saveCheckpoint( String name, DateTime checkpoint ) {
+        checkpoints.put(name, checkpoint);
+    }
+
+    @Override
+    public void sortPostsByVote( int days ) {
+        DateTime start = new DateTime().minusDays(days).hourOfDay().roundFloorCopy();
+        DateTime end = new DateTime();
+        List<UUID> uuidList = findPostUUIDsByTimeRange(start, end);
+
+        savePostsByVote(findVotes(uuidList));
+    }
+
+    @Override
+    public void savePostsByVote( Map<UUID, Long> voteMap ) {
+        ConcurrentSkipListSet<VoteKey> row = new ConcurrentSkipListSet<VoteKey>(VoteKey.POSTS_ORDER);
+        for ( Map.Entry<UUID, Long> entry : voteMap.entrySet() ) {
+            row.add(new VoteKey(entry.getValue(), entry.getKey()));
+        }
+        postsSortedByVote = row;
+    }
+
+    @Override
+    public void sortCommentsByVotes( Collection<UUID> postIds ) {
+        for ( UUID postId : postIds ) {
+            sortCommentsByVotes(postId);
+        }
+    }
+
+    @Override
+    public Set<UUID> findPostUUIDsNeedingCommentSort( Collection<UUID> postIds ) {
+        Set<UUID> needSorting = new HashSet<UUID>();
+        for ( UUID postId : postIds ) {
+            if ( postCommentVotesChanged.contains(postId) ) {
+                needSorting.add(postId);
+            }
+        }
+        return needSorting;
+    }
+
+    @Override
+    public Map<UUID, List<UUID>> findCommentUUIDsByPostsSortedByVotes( List<UUID> postIds ) {
+        Map<UUID, List<UUID>> commentIdsByPost = new LinkedHashMap<UUID, List<UUID>>();
+        for ( UUID postId : postIds ) {
+            commentIdsByPost.put(postId, findCommentUUIDsByPostSortedByVotes(postId));
+        }
+        return commentIdsByPost;
+    }
+
+    @Override
+    public void sortCommentsByVotes( UUID postId ) {
+        List<UUID> uuidList = findCommentUUIDsByPostSortedByTime(postId);
+        if ( uuidList.isEmpty() ) {
+            return;
+        }
+
+        ConcurrentSkipListSet<VoteKey> row = new ConcurrentSkipListSet<VoteKey>(VoteKey.COMMENTS_ORDER);
+        for ( Map.Entry<UUID, Long> entry : findVotes(uuidList).entrySet() ) {
+            row.add(new VoteKey(entry.getValue(), entry.getKey()));
+        }
+        postCommentsSortedByVote.put(postId, row);
+        postCommentVotesChanged.remove(postId);
+    }
+
+    private AtomicLong counter(UUID uuid) {
+        AtomicLong counter = votes.get(uuid);
+        if ( null == counter ) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = votes.putIfAbsent(uuid, newCounter);
+            if ( null == counter ) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    private Long currentVotes(UUID uuid) {
+        AtomicLong counter = votes.get(uuid);
+        return null != counter ? counter.get() : null;
+    }
+
+    private static <K, N, V> ConcurrentSkipListMap<N, V> row(ConcurrentMap<K, ConcurrentSkipListMap<N, V>> cf, K key, Comparator<N> comparator) {
+        ConcurrentSkipListMap<N, V> row = cf.get(key);
+        if ( null == row ) {
+            ConcurrentSkipListMap<N, V> newRow = new ConcurrentSkipListMap<N, V>(comparator);
+            row = cf.putIfAbsent(key, newRow);
+            if ( null == row ) {
+                row = newRow;
+            }
+        }
+        return row;
+    }
+
+    private static List<UUID> columnNames(ConcurrentSkipListMap<UUID, ?> row) {
+        return null != row ? new LinkedList<UUID>(row.keySet()) : new LinkedList<UUID>();
+    }
+
+    private static Page<UUID> columnNamePage(ConcurrentSkipListMap<UUID, ?> row, String cursor, int limit) {
+        List<UUID> uuidList = new ArrayList<UUID>(limit);
+        if ( null == row ) {
+            return new Page<UUID>(uuidList, null);
+        }
+
+        UUID start = Page.uuidFromCursor(cursor);
+        Iterator<UUID> iter = (null != start ? row.tailMap(start, true) : row).keySet().iterator();
+        while ( iter.hasNext() ) {
+            UUID uuid = iter.next();
+            if ( uuidList.size() == limit ) {
+                return new Page<UUID>(uuidList, Page.cursor(uuid));
+            }
+            uuidList.add(uuid);
+        }
+        return new Page<UUID>(uuidList, null);
+    }
+
+    private static User copyOf(User user) {
+        return new User(user.getEmail(), user.getPassword(), user.getName());
+    }
+
+    private static Post copyOf(Post post) {
+        Post p = new Post(post.getId(), post.getUserEmail(), post.getUserDisplayName(), post.getTitle(),
+                          post.getCreateTimestamp(), post.getText());
+        p.setVotes(post.getVotes());
+        return p;
+    }
+
+    private static Comment copyOf(Comment comment) {
+        Comment c = new Comment(comment.getId(), comment.getUserEmail(), comment.getUserDisplayName(),
+                                comment.getPostId(), comment.getCreateTimestamp(), comment.getText());
+        c.setVotes(comment.getVotes());
+        return c;
+    }
+}
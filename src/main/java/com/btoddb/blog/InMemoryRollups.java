@@ -0,0 +1,70 @@
+package com.btoddb.blog;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The ColumnFamily, rollups, for {@link InMemoryBlogDao} and {@link InMemorySensorDao} - same rows as in Cassandra,
+ * each period's count and sum counters are an {@link AtomicLongArray}.
+ *
+ */
+class InMemoryRollups {
+    // row key -> period start -> { count, scaled sum }
+    private final ConcurrentMap<String, ConcurrentSkipListMap<Long, AtomicLongArray>> rollups = new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, AtomicLongArray>>();
+
+    void add(RollupIncrements increments) {
+        for ( Map.Entry<String, Map<Long, long[]>> entry : increments.getRows().entrySet() ) {
+            ConcurrentSkipListMap<Long, AtomicLongArray> row = rollups.get(entry.getKey());
+            if ( null == row ) {
+                ConcurrentSkipListMap<Long, AtomicLongArray> newRow = new ConcurrentSkipListMap<Long, AtomicLongArray>();
+                row = rollups.putIfAbsent(entry.getKey(), newRow);
+                if ( null == row ) {
+                    row = newRow;
+                }
+            }
+
+            for ( Map.Entry<Long, long[]> period : entry.getValue().entrySet() ) {
+                AtomicLongArray counters = row.get(period.getKey());
+                if ( null == counters ) {
+                    AtomicLongArray newCounters = new AtomicLongArray(2);
+                    counters = row.putIfAbsent(period.getKey(), newCounters);
+                    if ( null == counters ) {
+                        counters = newCounters;
+                    }
+                }
+                counters.addAndGet(0, period.getValue()[0]);
+                counters.addAndGet(1, period.getValue()[1]);
+            }
+        }
+    }
+
+    List<Rollup> find(Collection<String> seriesList, long start, long end, long step) {
+        long resolution = RollupBuckets.resolutionFor(step);
+        List<Rollup> steps = RollupBuckets.steps(start, end, step);
+        if ( steps.isEmpty() ) {
+            return steps;
+        }
+
+        long first = steps.get(0).getStart();
+        for ( String series : seriesList ) {
+            Iterator<String> keyIter = RollupBuckets.rowKeys(series, resolution, first, end);
+            while ( keyIter.hasNext() ) {
+                ConcurrentSkipListMap<Long, AtomicLongArray> row = rollups.get(keyIter.next());
+                if ( null == row ) {
+                    continue;
+                }
+
+                for ( Map.Entry<Long, AtomicLongArray> period : row.subMap(first, true, end, true).entrySet() ) {
+                    RollupBuckets.accumulate(steps, period.getKey(), period.getValue().get(0), period.getValue().get(1));
+                }
+            }
+        }
+        return steps;
+    }
+}
@@ -0,0 +1,124 @@
+package com.btoddb.blog;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory implementation of {@link SensorDao}.  sensor_samples and sensor_samples_by_value are modeled as
+ * concurrent maps of rows, bucketed the same as in Cassandra, each row sorted like its ColumnFamily.  Roll-ups
+ * are an {@link InMemoryRollups}.
+ *
+ * Nothing is persisted, all data is lost when the JVM exits.
+ */
+public class InMemorySensorDao implements SensorDao {
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    // value:timestamp, same as the CompositeType(DoubleType, LongType) comparator
+    private static final Comparator<Sample> VALUE_ORDER = new Comparator<Sample>() {
+        @Override
+        public int compare(Sample s1, Sample s2) {
+            int result = Double.compare(s1.getValue(), s2.getValue());
+            if ( 0 != result ) {
+                return result;
+            }
+            return s1.getTimestamp() < s2.getTimestamp() ? -1 : (s1.getTimestamp() == s2.getTimestamp() ? 0 : 1);
+        }
+    };
+
+    private final ConcurrentMap<String, ConcurrentSkipListMap<Long, Double>> sensorSamples = new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, Double>>();
+    private final ConcurrentMap<String, ConcurrentSkipListMap<Sample, byte[]>> sensorSamplesByValue = new ConcurrentHashMap<String, ConcurrentSkipListMap<Sample, byte[]>>();
+    private final InMemoryRollups rollups = new InMemoryRollups();
+
+
+    @Override
+    public void init() {
+        // nothing to connect to
+    }
+
+    @Override
+    public void shutdown() {
+        // nothing to release
+    }
+
+    @Override
+    public void saveSamples(Collection<Sample> samples) {
+        RollupIncrements increments = new RollupIncrements();
+        for ( Sample sample : samples ) {
+            String key = SensorTimeBuckets.rowKey(sample.getSource(), sample.getTimestamp());
+            row(sensorSamples, key, null).put(sample.getTimestamp(), sample.getValue());
+            row(sensorSamplesByValue, key, VALUE_ORDER).put(new Sample(sample.getSource(), sample.getTimestamp(), sample.getValue()), EMPTY_BYTES);
+            increments.add(RollupBuckets.sensorSeries(sample.getSource()), sample.getTimestamp(), RollupBuckets.scale(sample.getValue()));
+        }
+        rollups.add(increments);
+    }
+
+    @Override
+    public List<Sample> findSamples(String source, long start, long end) {
+        List<Sample> sampleList = new ArrayList<Sample>();
+        if ( start > end ) {
+            return sampleList;
+        }
+
+        Iterator<String> keyIter = SensorTimeBuckets.rowKeys(source, start, end);
+        while ( keyIter.hasNext() ) {
+            ConcurrentSkipListMap<Long, Double> row = sensorSamples.get(keyIter.next());
+            if ( null == row ) {
+                continue;
+            }
+
+            for ( Map.Entry<Long, Double> entry : row.subMap(start, true, end, true).entrySet() ) {
+                sampleList.add(new Sample(source, entry.getKey(), entry.getValue()));
+            }
+        }
+        return sampleList;
+    }
+
+    @Override
+    public List<Sample> findSamplesInValueRange(String source, long start, long end, double min, double max) {
+        List<Sample> sampleList = new ArrayList<Sample>();
+        if ( start > end || Double.compare(min, max) > 0 ) {
+            return sampleList;
+        }
+
+        Sample from = new Sample(source, Long.MIN_VALUE, min);
+        Sample to = new Sample(source, Long.MAX_VALUE, max);
+        Iterator<String> keyIter = SensorTimeBuckets.rowKeys(source, start, end);
+        while ( keyIter.hasNext() ) {
+            ConcurrentSkipListMap<Sample, byte[]> row = sensorSamplesByValue.get(keyIter.next());
+            if ( null == row ) {
+                continue;
+            }
+
+            for ( Sample sample : row.subMap(from, true, to, true).keySet() ) {
+                if ( sample.getTimestamp() >= start && sample.getTimestamp() <= end ) {
+                    sampleList.add(new Sample(source, sample.getTimestamp(), sample.getValue()));
+                }
+            }
+        }
+        Collections.sort(sampleList, Sample.TIME_ORDER);
+        return sampleList;
+    }
+
+    @Override
+    public List<Rollup> findRollups(Collection<String> sources, long start, long end, long step) {
+        List<String> seriesList = new ArrayList<String>(sources.size());
+        for ( String source : sources ) {
+            seriesList.add(RollupBuckets.sensorSeries(source));
+        }
+        return rollups.find(seriesList, start, end, step);
+    }
+
+    private static <K, N, V> ConcurrentSkipListMap<N, V> row(ConcurrentMap<K, ConcurrentSkipListMap<N, V>> cf, K key, Comparator<N> comparator) {
+        ConcurrentSkipListMap<N, V> row = cf.get(key);
+        if ( null == row ) {
+            ConcurrentSkipListMap<N, V> newRow = new ConcurrentSkipListMap<N, V>(comparator);
+            row = cf.putIfAbsent(key, newRow);
+            if ( null == row ) {
+                row = newRow;
+            }
+        }
+        return row;
+    }
+}
@@ -0,0 +1,62 @@
+package com.btoddb.blog;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One page of results and the cursor to get the next.  Cursors are opaque - pass back what
+ * {@link #getNextCursor()} returned, or null for the first page.
+ *
+ */
+public class Page<T> {
+    private static final String VOTES_SEPARATOR = "/";
+
+    private final List<T> items;
+    private final String nextCursor;
+
+    public Page(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return cursor to get the next page, null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return null != nextCursor;
+    }
+
+    // a cursor is the first column of the next page, for indexes by UUID ...
+    static String cursor(UUID uuid) {
+        return uuid.toString();
+    }
+
+    static UUID uuidFromCursor(String cursor) {
+        return null != cursor ? UUID.fromString(cursor) : null;
+    }
+
+    // ... and for indexes by votes then UUID
+    static String cursor(long votes, UUID uuid) {
+        return votes + VOTES_SEPARATOR + uuid;
+    }
+
+    static VoteKey voteKeyFromCursor(String cursor) {
+        if ( null == cursor ) {
+            return null;
+        }
+
+        int index = cursor.indexOf(VOTES_SEPARATOR);
+        if ( 0 > index ) {
+            throw new IllegalArgumentException("invalid cursor : " + cursor);
+        }
+        return new VoteKey(Long.parseLong(cursor.substring(0, index)), UUID.fromString(cursor.substring(index + 1)));
+    }
+}
@@ -0,0 +1,93 @@
+package com.btoddb.blog;
+
+import me.prettyprint.cassandra.serializers.BytesArraySerializer;
+import me.prettyprint.cassandra.serializers.LongSerializer;
+import me.prettyprint.cassandra.serializers.StringSerializer;
+import me.prettyprint.hector.api.beans.ColumnSlice;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.factory.HFactory;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link RowCodec} for the ColumnFamily, posts.  Strings are UTF8 and the create timestamp is a long of millis,
+ * the same as HOM's JodaTimeHectorConverter.  The text is converted by a {@link TextCodec}, so it may be compressed
+ * - HOM can't read compressed text.
+ *
+ */
+public class PostCodec implements RowCodec<Post> {
+    private static final PostCodec instance = new PostCodec(new TextCodec());
+
+    private final TextCodec textCodec;
+
+    /**
+     * @param textCodec how to convert the text column
+     */
+    public PostCodec(TextCodec textCodec) {
+        this.textCodec = textCodec;
+    }
+
+    /**
+     * @return codec that never compresses text
+     */
+    public static PostCodec get() {
+        return instance;
+    }
+
+    @Override
+    public Post fromSlice(UUID id, ColumnSlice<String, byte[]> slice) {
+        if ( null == slice || slice.getColumns().isEmpty() ) {
+            return null;
+        }
+
+        Post post = new Post();
+        post.setId(id);
+        for ( HColumn<String, byte[]> col : slice.getColumns() ) {
+            String name = col.getName();
+            if ( Post.POST_COL_USER_EMAIL.equals(name) ) {
+                post.setUserEmail(StringSerializer.get().fromBytes(col.getValue()));
+            }
+            else if ( Post.POST_COL_USER_NAME.equals(name) ) {
+                post.setUserDisplayName(StringSerializer.get().fromBytes(col.getValue()));
+            }
+            else if ( Post.POST_COL_TITLE.equals(name) ) {
+                post.setTitle(StringSerializer.get().fromBytes(col.getValue()));
+            }
+            else if ( Post.POST_COL_CREATE_TS.equals(name) ) {
+                post.setCreateTimestamp(new DateTime(LongSerializer.get().fromBytes(col.getValue()).longValue()));
+            }
+            else if ( Post.POST_COL_TEXT.equals(name) ) {
+                post.setText(textCodec.fromBytes(col.getValue()));
+            }
+        }
+        return post;
+    }
+
+    @Override
+    public List<HColumn<String, byte[]>> toColumns(Post post) {
+        List<HColumn<String, byte[]>> cols = new ArrayList<HColumn<String, byte[]>>(5);
+        addString(cols, Post.POST_COL_USER_EMAIL, post.getUserEmail());
+        addString(cols, Post.POST_COL_USER_NAME, post.getUserDisplayName());
+        addString(cols, Post.POST_COL_TITLE, post.getTitle());
+        if ( null != post.getCreateTimestamp() ) {
+            cols.add(createColumn(Post.POST_COL_CREATE_TS, LongSerializer.get().toBytes(post.getCreateTimestamp().getMillis())));
+        }
+        if ( null != post.getText() ) {
+            cols.add(createColumn(Post.POST_COL_TEXT, textCodec.toBytes(post.getText())));
+        }
+        return cols;
+    }
+
+    static void addString(List<HColumn<String, byte[]>> cols, String name, String value) {
+        if ( null != value ) {
+            cols.add(createColumn(name, StringSerializer.get().toBytes(value)));
+        }
+    }
+
+    static HColumn<String, byte[]> createColumn(String name, byte[] value) {
+        return HFactory.createColumn(name, value, StringSerializer.get(), BytesArraySerializer.get());
+    }
+}
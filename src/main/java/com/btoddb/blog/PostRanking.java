@@ -0,0 +1,375 @@
+package com.btoddb.blog;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.prettyprint.cassandra.utils.TimeUUIDUtils;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Incremental "top posts" ranking.  Instead of re-reading the time index and every vote counter each time the
+ * top Posts are requested, the ranking is loaded once by {@link #rebuild()} and then kept current as Posts are
+ * created and voted on.  Posts older than the window are expired, and the top-K is written to the ColumnFamily,
+ * posts_sorted_by_vote, every 'flush interval' (only if it changed), so reading the top Posts is a single slice.
+ *
+ * The same counts keep the trending index, posts_trending: each flush moves the Posts whose count changed since
+ * their last save (and are young enough to trend, see {@link TrendingScores}) with
+ * {@link BlogDao#saveTrendingScores(Map, Map)}, so votes never read their counters.  Until a Post's score is saved
+ * the count it replaces is taken to be zero, the score written with the Post, so the first flush after starting
+ * saves every trending Post with votes.
+ *
+ * The vote counters remain the source of truth.  Votes made by other processes aren't seen until the next
+ * rebuild, which happens every 'rebuild interval'.
+ *
+ * Call {@link #start()} before use and {@link #shutdown()} when done.  All setters must be called before start().
+ */
+public class PostRanking {
+    private static final Logger logger = LoggerFactory.getLogger(PostRanking.class);
+
+    public static final int DEFAULT_TOP_K = 1000;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10000;
+    public static final long DEFAULT_REBUILD_INTERVAL_MILLIS = 3600000;
+
+    private final BlogDao dao;
+
+    private int windowDays = BlogService.MAX_SORT_DAYS;
+    private int topK = DEFAULT_TOP_K;
+    private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private long rebuildIntervalMillis = DEFAULT_REBUILD_INTERVAL_MILLIS;
+
+    // all guarded by 'this'.  votes for every Post in the window, the same Posts ordered like posts_sorted_by_vote,
+    // and again oldest first for expiring
+    private final Map<UUID, Long> votes = new HashMap<UUID, Long>();
+    private final TreeSet<VoteKey> ranking = new TreeSet<VoteKey>(VoteKey.POSTS_ORDER);
+    private final TreeSet<UUID> byTime = new TreeSet<UUID>(new TimeUUIDComparator());
+    private boolean dirty;
+
+    // also guarded by 'this'.  the count each Post's trending score was last saved with, and the Posts whose count
+    // has changed since
+    private final Map<UUID, Long> trended = new HashMap<UUID, Long>();
+    private final Set<UUID> trendingChanged = new HashSet<UUID>();
+
+    private ScheduledExecutorService scheduler;
+
+    public PostRanking(BlogDao dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * Load the ranking and start the periodic flush and rebuild.
+     *
+     */
+    public void start() {
+        rebuild();
+        flush();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("post-ranking-%d").build());
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                }
+                catch ( Throwable e ) {
+                    logger.error("exception while flushing post ranking", e);
+                }
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rebuild();
+                }
+                catch ( Throwable e ) {
+                    logger.error("exception while rebuilding post ranking", e);
+                }
+            }
+        }, rebuildIntervalMillis, rebuildIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background work and save the final trending scores and top-K.
+     *
+     */
+    public void shutdown() {
+        if ( null != scheduler ) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(flushIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Reload the ranking from the time index and vote counters - the same reads {@link BlogDao#sortPostsByVote(int)}
+     * does.  Votes counted while the reload is running may be missed until the next rebuild.
+     *
+     */
+    public void rebuild() {
+        DateTime end = new DateTime();
+        DateTime start = windowStart(end);
+
+        Map<UUID, Long> voteMap = new HashMap<UUID, Long>();
+        Iterator<UUID> iter = dao.iteratePostUUIDsByTimeRange(start, end, false);
+        List<UUID> uuidList = new ArrayList<UUID>(DEFAULT_TOP_K);
+        while ( iter.hasNext() ) {
+            uuidList.add(iter.next());
+            if ( uuidList.size() == DEFAULT_TOP_K || !iter.hasNext() ) {
+                voteMap.putAll(dao.findVotes(uuidList));
+                uuidList.clear();
+            }
+        }
+
+        synchronized ( this ) {
+            // keep Posts created after the time index was read
+            for ( UUID postId : byTime.tailSet(TimeUUIDUtils.getTimeUUID(end.getMillis())) ) {
+                if ( !voteMap.containsKey(postId) ) {
+                    voteMap.put(postId, votes.get(postId));
+                }
+            }
+
+            Map<UUID, Long> saved = new HashMap<UUID, Long>(trended);
+            votes.clear();
+            ranking.clear();
+            byTime.clear();
+            trended.clear();
+            trendingChanged.clear();
+            for ( Map.Entry<UUID, Long> entry : voteMap.entrySet() ) {
+                add(entry.getKey(), entry.getValue());
+                Long count = saved.get(entry.getKey());
+                trended.put(entry.getKey(), null != count ? count : 0L);
+                if ( !entry.getValue().equals(trended.get(entry.getKey())) ) {
+                    trendingCountChanged(entry.getKey());
+                }
+            }
+            dirty = true;
+        }
+    }
+
+    /**
+     * Add a new Post to the ranking with zero votes.
+     *
+     * @param postId Post ID
+     */
+    public void postCreated(UUID postId) {
+        synchronized ( this ) {
+            if ( !votes.containsKey(postId) && inWindow(postId, new DateTime()) ) {
+                add(postId, 0L);
+                // saved with the Post
+                trended.put(postId, 0L);
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Count a vote on a Post, after it has been counted by the vote counter.
+     *
+     * @param postId Post ID
+     */
+    public void postVoted(UUID postId) {
+        postVoted(postId, 1);
+    }
+
+    /**
+     * Count votes on a Post, after they have been counted by the vote counter (with a {@link VoteBuffer}, once
+     * they're flushed).  Posts not yet known to the ranking (created by another process since the last rebuild)
+     * have their counter read instead.
+     *
+     * @param postId Post ID
+     * @param increment number of votes
+     */
+    public void postVoted(UUID postId, long increment) {
+        if ( !inWindow(postId, new DateTime()) ) {
+            return;
+        }
+
+        synchronized ( this ) {
+            Long current = votes.get(postId);
+            if ( null != current ) {
+                ranking.remove(new VoteKey(current, postId));
+                add(postId, current + increment);
+                trendingCountChanged(postId);
+                dirty = true;
+                return;
+            }
+        }
+
+        // the counter already includes these votes
+        Long counted = dao.findVotes(Collections.singletonList(postId)).get(postId);
+        synchronized ( this ) {
+            if ( !votes.containsKey(postId) ) {
+                add(postId, null != counted ? counted : increment);
+                trended.put(postId, 0L);
+                trendingCountChanged(postId);
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Save the trending scores of Posts whose count changed since the last flush, then expire Posts that have
+     * fallen out of the window and, if anything changed since the last flush, replace posts_sorted_by_vote with the
+     * top-K.
+     *
+     */
+    public void flush() {
+        try {
+            saveTrendingScores();
+        }
+        finally {
+            saveTop();
+        }
+    }
+
+    private void saveTrendingScores() {
+        Map<UUID, Long> scores = new HashMap<UUID, Long>();
+        Map<UUID, Long> replaced = new HashMap<UUID, Long>();
+        synchronized ( this ) {
+            for ( UUID postId : trendingChanged ) {
+                Long count = votes.get(postId);
+                if ( null != count ) {
+                    scores.put(postId, count);
+                    replaced.put(postId, trended.get(postId));
+                }
+            }
+            trendingChanged.clear();
+        }
+        if ( scores.isEmpty() ) {
+            return;
+        }
+
+        try {
+            dao.saveTrendingScores(scores, replaced);
+        }
+        catch ( RuntimeException e ) {
+            synchronized ( this ) {
+                trendingChanged.addAll(scores.keySet());
+            }
+            throw e;
+        }
+
+        synchronized ( this ) {
+            for ( Map.Entry<UUID, Long> entry : scores.entrySet() ) {
+                if ( votes.containsKey(entry.getKey()) ) {
+                    trended.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    private void saveTop() {
+        Map<UUID, Long> top;
+        synchronized ( this ) {
+            expire(windowStart(new DateTime()));
+            if ( !dirty ) {
+                return;
+            }
+            top = findTop(topK);
+            dirty = false;
+        }
+
+        try {
+            dao.savePostsByVote(top);
+        }
+        catch ( RuntimeException e ) {
+            synchronized ( this ) {
+                dirty = true;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Find the current top 'number' of Posts, straight from memory.
+     *
+     * @param number Number of Posts to return
+     * @return Post ID mapping to number of votes, most votes first
+     */
+    public synchronized Map<UUID, Long> findTop(int number) {
+        Map<UUID, Long> top = new LinkedHashMap<UUID, Long>();
+        Iterator<VoteKey> iter = ranking.iterator();
+        while ( iter.hasNext() && top.size() < number ) {
+            VoteKey key = iter.next();
+            top.put(key.id, key.votes);
+        }
+        return top;
+    }
+
+    /**
+     * @return number of Posts in the window
+     */
+    public synchronized int size() {
+        return votes.size();
+    }
+
+    private void add(UUID postId, long count) {
+        votes.put(postId, count);
+        ranking.add(new VoteKey(count, postId));
+        byTime.add(postId);
+    }
+
+    private void expire(DateTime windowStart) {
+        long startMillis = windowStart.getMillis();
+        while ( !byTime.isEmpty() && TimeUUIDUtils.getTimeFromUUID(byTime.first()) < startMillis ) {
+            UUID postId = byTime.pollFirst();
+            ranking.remove(new VoteKey(votes.remove(postId), postId));
+            trended.remove(postId);
+            trendingChanged.remove(postId);
+            dirty = true;
+        }
+    }
+
+    // Posts too old to trend aren't saved
+    private void trendingCountChanged(UUID postId) {
+        if ( 0 < TrendingScores.ttlSeconds(postId, System.currentTimeMillis()) ) {
+            trendingChanged.add(postId);
+        }
+    }
+
+    private boolean inWindow(UUID postId, DateTime now) {
+        return TimeUUIDUtils.getTimeFromUUID(postId) >= windowStart(now).getMillis();
+    }
+
+    // same window as sortPostsByVote
+    private DateTime windowStart(DateTime now) {
+        return now.minusDays(windowDays).hourOfDay().roundFloorCopy();
+    }
+
+    public void setWindowDays(int windowDays) {
+        this.windowDays = windowDays;
+    }
+
+    public void setTopK(int topK) {
+        this.topK = topK;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public void setRebuildIntervalMillis(long rebuildIntervalMillis) {
+        this.rebuildIntervalMillis = rebuildIntervalMillis;
+    }
+}
@@ -0,0 +1,212 @@
+package com.btoddb.blog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Full text search of Posts with an inverted index, the ColumnFamily post_terms - a row per term, with a column per
+ * Post whose title or text has the term, newest first.  The rows are written when the Post is saved.
+ *
+ * Text is split into terms on anything that isn't a letter or digit and lower cased.  Terms shorter than
+ * {@link #MIN_TERM_LENGTH} or longer than {@link #MAX_TERM_LENGTH}, and common English words ({@link #STOP_WORDS}),
+ * aren't indexed - their rows would hold nearly every Post.  There's no stemming, 'vote' doesn't find 'votes'.
+ *
+ * A search finds the Posts with every term of the query, newest first.  The posting lists are walked together,
+ * newest first, each skipping straight to the oldest Post any of them is at (a slice starting at that Post, not a
+ * read of the Posts in between), and the walk stops once 'limit' Posts are found - so a search for common terms
+ * reads a page or two of each row, and a search for rare ones reads their short rows.
+ *
+ */
+final class PostSearch {
+    static final int MIN_TERM_LENGTH = 2;
+    static final int MAX_TERM_LENGTH = 40;
+
+    static final Set<String> STOP_WORDS = new HashSet<String>(Arrays.asList(
+            "a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "if", "in", "into", "is", "it", "no", "not",
+            "of", "on", "or", "such", "that", "the", "their", "then", "there", "these", "they", "this", "to", "was",
+            "will", "with"
+    ));
+
+    private static final Comparator<UUID> NEWEST_FIRST = Collections.reverseOrder(new TimeUUIDComparator());
+
+    private PostSearch() {
+    }
+
+    /**
+     * @return distinct index terms of the Post's title and text
+     */
+    static Set<String> terms(Post post) {
+        Set<String> terms = terms(post.getTitle());
+        terms.addAll(terms(post.getText()));
+        return terms;
+    }
+
+    /**
+     * @param text any text, or null
+     * @return distinct index terms of the text, in order of first appearance
+     */
+    static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<String>();
+        if ( null == text ) {
+            return terms;
+        }
+
+        int start = -1;
+        for ( int i=0;i <= text.length();i++ ) {
+            boolean termChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if ( termChar && 0 > start ) {
+                start = i;
+            }
+            else if ( !termChar && 0 <= start ) {
+                addTerm(terms, text.substring(start, i));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static void addTerm(Set<String> terms, String term) {
+        if ( MIN_TERM_LENGTH <= term.length() && MAX_TERM_LENGTH >= term.length() ) {
+            term = term.toLowerCase(Locale.ENGLISH);
+            if ( !STOP_WORDS.contains(term) ) {
+                terms.add(term);
+            }
+        }
+    }
+
+    /**
+     * A term's posting list, read a page at a time by the storage engine.
+     */
+    abstract static class Postings {
+        /**
+         * @param from first Post ID of the page, or null to start with the newest
+         * @param count max Post IDs to return
+         * @return Post IDs, newest first, from 'from' (inclusive) on
+         */
+        abstract List<UUID> page(UUID from, int count);
+    }
+
+    /**
+     * Find the newest Posts in all the posting lists.
+     *
+     * @param postings posting list of each term
+     * @param limit max number of Post IDs to return
+     * @param pageSize number of Post IDs to read from a posting list at a time
+     * @return Post IDs, newest first
+     */
+    static List<UUID> intersect(Collection<? extends Postings> postings, int limit, int pageSize) {
+        List<UUID> found = new ArrayList<UUID>();
+        if ( postings.isEmpty() ) {
+            return found;
+        }
+
+        List<Cursor> cursors = new ArrayList<Cursor>(postings.size());
+        for ( Postings p : postings ) {
+            cursors.add(new Cursor(p, pageSize));
+        }
+
+        while ( found.size() < limit ) {
+            // no list has a Post newer than its head left, so the oldest head is the newest Post that can match
+            UUID candidate = null;
+            for ( Cursor c : cursors ) {
+                UUID head = c.head();
+                if ( null == head ) {
+                    return found;
+                }
+                if ( null == candidate || 0 < NEWEST_FIRST.compare(head, candidate) ) {
+                    candidate = head;
+                }
+            }
+
+            boolean everyList = true;
+            for ( Cursor c : cursors ) {
+                c.seek(candidate);
+                UUID head = c.head();
+                if ( null == head ) {
+                    return found;
+                }
+                everyList &= candidate.equals(head);
+            }
+
+            if ( everyList ) {
+                found.add(candidate);
+                for ( Cursor c : cursors ) {
+                    c.advance();
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Position in a posting list, with the current page.
+     */
+    private static class Cursor {
+        private final Postings postings;
+        private final int pageSize;
+
+        private List<UUID> page;
+        private int index;
+        private boolean more;
+
+        Cursor(Postings postings, int pageSize) {
+            this.postings = postings;
+            this.pageSize = pageSize;
+            load(null, pageSize);
+        }
+
+        private void load(UUID from, int count) {
+            page = postings.page(from, count);
+            index = 0;
+            more = page.size() == count;
+        }
+
+        /**
+         * @return Post ID the cursor is at, null at the end of the list
+         */
+        UUID head() {
+            if ( index == page.size() && more ) {
+                // the page starts with the last Post of the one before, so read one more -
+                // a page of one would otherwise never get past it
+                UUID last = page.get(page.size() - 1);
+                load(last, pageSize + 1);
+                if ( !page.isEmpty() && page.get(0).equals(last) ) {
+                    index = 1;
+                }
+            }
+            return index < page.size() ? page.get(index) : null;
+        }
+
+        void advance() {
+            index++;
+        }
+
+        /**
+         * Skip the Posts newer than 'target'.
+         */
+        void seek(UUID target) {
+            if ( index < page.size() && 0 <= NEWEST_FIRST.compare(page.get(page.size() - 1), target) ) {
+                // stops at the end of the page at the latest
+                while ( 0 > NEWEST_FIRST.compare(page.get(index), target) ) {
+                    index++;
+                }
+            }
+            else if ( more ) {
+                // past this page - start the next one at 'target', skipping everything in between
+                load(target, pageSize);
+            }
+            else {
+                index = page.size();
+            }
+        }
+    }
+}
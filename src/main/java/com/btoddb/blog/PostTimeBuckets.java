@@ -0,0 +1,271 @@
+package com.btoddb.blog;
+
+import com.google.common.collect.AbstractIterator;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Row key calculation for the ColumnFamily, posts_by_time - which bucket a Post goes in, and which buckets cover a
+ * time range.  Buckets are a minute, an hour or a day (GMT), configured per time period, so a quiet period is a few
+ * day rows instead of hundreds of near empty hour rows and a busy one is minute rows instead of an overflowing hour
+ * row.  Periods without a configured granularity are hour buckets, the original key format.
+ *
+ * The periods are saved as columns of the system_data row, {@link #ROW_KEY} - the start of a period (as
+ * {@link #COLUMN_FORMAT}, GMT) and its bucket size in minutes.  Every period boundary must be on a bucket boundary
+ * of the periods on both sides of it, so no bucket spans two periods.  Instances are immutable, {@link #with} makes
+ * a new one.
+ *
+ * Buckets replaced by a change are listed in the system_data row, {@link #RETIRED_ROW_KEY} - the row key and the
+ * time (millis) after which every process has the new bucket sizes and it can be deleted.
+ *
+ */
+public final class PostTimeBuckets {
+    public static final String ROW_KEY = "posts_by_time_buckets";
+    public static final String RETIRED_ROW_KEY = "posts_by_time_retired";
+    public static final String COLUMN_FORMAT = "YYYYMMdd:HHmm";
+
+    // a bucket with more Posts than this takes more than one page to read, see HectorBlogDao.setTimeRangeColumnsPerFetch
+    public static final int TARGET_POSTS_PER_BUCKET = 1000;
+
+    public enum Granularity {
+        MINUTE("YYYYMMdd:HHmm", 60 * 1000L),
+        HOUR("YYYYMMdd:HH", 60 * 60 * 1000L),
+        DAY("YYYYMMdd", 24 * 60 * 60 * 1000L);
+
+        private final DateTimeFormatter formatter;
+        private final int keyLength;
+        private final long millis;
+
+        Granularity(String pattern, long millis) {
+            this.formatter = DateTimeFormat.forPattern(pattern).withZoneUTC();
+            this.keyLength = pattern.length();
+            this.millis = millis;
+        }
+
+        /**
+         * @return start of the bucket containing 'timestamp', in millis.  Every bucket is a fixed length in GMT
+         */
+        long floor(long timestamp) {
+            return timestamp - ((timestamp % millis) + millis) % millis;
+        }
+
+        /**
+         * @return row key of the bucket containing 'timestamp'.  The key lengths differ, so they never collide
+         */
+        String rowKey(long timestamp) {
+            return formatter.print(floor(timestamp));
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        static Granularity ofMinutes(long minutes) {
+            for ( Granularity g : values() ) {
+                if ( g.millis == minutes * 60 * 1000L ) {
+                    return g;
+                }
+            }
+            throw new IllegalArgumentException("no bucket size of " + minutes + " minutes");
+        }
+    }
+
+    /**
+     * Hour buckets for all time - the original bucketing, used until a period is configured.
+     */
+    public static final PostTimeBuckets HOURLY = new PostTimeBuckets(new TreeMap<Long, Granularity>());
+
+    private static final DateTimeFormatter columnFormatter = DateTimeFormat.forPattern(COLUMN_FORMAT).withZoneUTC();
+
+    // start of period -> its granularity.  the first period starts at the beginning of time
+    private final NavigableMap<Long, Granularity> periods;
+
+    private PostTimeBuckets(NavigableMap<Long, Granularity> periods) {
+        periods.put(Long.MIN_VALUE, Granularity.HOUR);
+        this.periods = periods;
+    }
+
+    /**
+     * @param columns columns of the system_data row, {@link #ROW_KEY}
+     * @return the periods the columns describe, {@link #HOURLY} if none
+     */
+    public static PostTimeBuckets fromColumns(Map<String, Long> columns) {
+        NavigableMap<Long, Granularity> periods = new TreeMap<Long, Granularity>();
+        for ( Map.Entry<String, Long> entry : columns.entrySet() ) {
+            periods.put(columnFormatter.parseMillis(entry.getKey()), Granularity.ofMinutes(entry.getValue()));
+        }
+        return new PostTimeBuckets(periods);
+    }
+
+    /**
+     * @return columns of the system_data row, {@link #ROW_KEY}, in time order
+     */
+    public Map<String, Long> toColumns() {
+        Map<String, Long> columns = new LinkedHashMap<String, Long>();
+        for ( Map.Entry<Long, Granularity> entry : periods.tailMap(Long.MIN_VALUE, false).entrySet() ) {
+            columns.put(columnFormatter.print(entry.getKey()), entry.getValue().millis / 60000);
+        }
+        return columns;
+    }
+
+    /**
+     * @return granularity of the buckets at 'timestamp'
+     */
+    public Granularity granularityAt(DateTime timestamp) {
+        return granularityAt(timestamp.getMillis());
+    }
+
+    private Granularity granularityAt(long timestamp) {
+        return periods.floorEntry(timestamp).getValue();
+    }
+
+    private long floor(long timestamp) {
+        return granularityAt(timestamp).floor(timestamp);
+    }
+
+    /**
+     * Calculate the posts_by_time row key for the bucket containing 'timestamp'.
+     *
+     * @param timestamp any timestamp
+     * @return row key
+     */
+    public String rowKey(DateTime timestamp) {
+        return granularityAt(timestamp.getMillis()).rowKey(timestamp.getMillis());
+    }
+
+    /**
+     * Determine if 'key' is the row key of one of these buckets - the bucket size of its time is the size its
+     * format is for.
+     *
+     * @param key posts_by_time row key
+     * @return true if a Post can be saved in the row
+     */
+    public boolean hasRowKey(String key) {
+        for ( Granularity g : Granularity.values() ) {
+            if ( g.keyLength == key.length() ) {
+                return g == granularityAt(g.formatter.parseMillis(key));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lazily generate the row keys of all buckets needed to cover the time range, so a wide range doesn't
+     * need all keys in memory.
+     *
+     * @param start Start time
+     * @param end End time
+     * @param newestFirst true to return the bucket containing 'end' first
+     * @return row keys, in bucket order
+     */
+    public Iterator<String> rowKeys(DateTime start, DateTime end, final boolean newestFirst) {
+        final long firstBucket = floor(newestFirst ? end.getMillis() : start.getMillis());
+        final long lastBucket = floor(newestFirst ? start.getMillis() : end.getMillis());
+        return new AbstractIterator<String>() {
+            private long current = firstBucket;
+
+            @Override
+            protected String computeNext() {
+                if ( newestFirst ? current < lastBucket : current > lastBucket ) {
+                    return endOfData();
+                }
+
+                Granularity g = granularityAt(current);
+                String key = g.rowKey(current);
+                // buckets never span periods, so the next one starts where this one ends
+                current = newestFirst ? floor(current - 1) : current + g.millis;
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Make a copy with buckets of 'granularity' from 'start' (inclusive) to 'end' (exclusive).
+     *
+     * @param start Start of the period, GMT
+     * @param end End of the period, GMT
+     * @param granularity bucket size of the period
+     * @return new bucketing, this one is unchanged
+     * @throws IllegalArgumentException if 'start' or 'end' isn't on a bucket boundary of the periods on either
+     * side of it, before or after the change
+     */
+    public PostTimeBuckets with(DateTime start, DateTime end, Granularity granularity) {
+        long startMillis = start.getMillis();
+        long endMillis = end.getMillis();
+        if ( startMillis >= endMillis ) {
+            throw new IllegalArgumentException("start must be before end : " + start + " - " + end);
+        }
+        checkBoundary(startMillis);
+        checkBoundary(endMillis);
+
+        NavigableMap<Long, Granularity> changed = new TreeMap<Long, Granularity>(periods);
+        Granularity after = granularityAt(endMillis);
+        changed.subMap(startMillis, true, endMillis, true).clear();
+        changed.put(startMillis, granularity);
+        changed.put(endMillis, after);
+
+        // adjacent periods with the same bucket size are one period
+        Granularity previous = null;
+        Iterator<Map.Entry<Long, Granularity>> iter = changed.entrySet().iterator();
+        while ( iter.hasNext() ) {
+            Map.Entry<Long, Granularity> entry = iter.next();
+            if ( entry.getValue() == previous ) {
+                iter.remove();
+            }
+            previous = entry.getValue();
+        }
+
+        PostTimeBuckets buckets = new PostTimeBuckets(changed);
+        buckets.checkBoundary(startMillis);
+        buckets.checkBoundary(endMillis);
+        return buckets;
+    }
+
+    private void checkBoundary(long timestamp) {
+        for ( Granularity g : new Granularity[] {granularityAt(timestamp - 1), granularityAt(timestamp)} ) {
+            if ( g.floor(timestamp) != timestamp ) {
+                throw new IllegalArgumentException(columnFormatter.print(timestamp) + " GMT is inside a " +
+                                                   g.name().toLowerCase() + " bucket - must be on a bucket boundary");
+            }
+        }
+    }
+
+    /**
+     * Pick the bucket size for a period - the largest whose buckets would hold about {@link #TARGET_POSTS_PER_BUCKET}
+     * Posts or less, if the Posts were spread evenly over the period.
+     *
+     * @param posts number of Posts in the period
+     * @param periodMillis length of the period
+     * @return bucket size
+     */
+    public static Granularity fit(long posts, long periodMillis) {
+        for ( Granularity g : new Granularity[] {Granularity.DAY, Granularity.HOUR} ) {
+            if ( posts * Math.min(g.millis, periodMillis) / periodMillis <= TARGET_POSTS_PER_BUCKET ) {
+                return g;
+            }
+        }
+        return Granularity.MINUTE;
+    }
+
+    /**
+     * @return one line per period - its start and end (GMT) and bucket size
+     */
+    public List<String> describe() {
+        List<String> lines = new ArrayList<String>();
+        for ( Map.Entry<Long, Granularity> entry : periods.entrySet() ) {
+            Long next = periods.higherKey(entry.getKey());
+            lines.add((Long.MIN_VALUE == entry.getKey() ? "(beginning)" : columnFormatter.print(entry.getKey())) + " - " +
+                      (null == next ? "(no end)" : columnFormatter.print(next)) + " : " + entry.getValue().name().toLowerCase() + " buckets");
+        }
+        return lines;
+    }
+}
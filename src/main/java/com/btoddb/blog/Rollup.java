@@ -0,0 +1,81 @@
+package com.btoddb.blog;
+
+/**
+ * Aggregate of one or more series over one step of time - the number of votes or Samples, and for Samples the
+ * sum of their values.  Read from pre-aggregated counters, see {@link RollupBuckets}.
+ *
+ */
+public class Rollup {
+    private long start;
+    private long millis;
+    private long count;
+    private double sum;
+
+    public Rollup() {
+    }
+
+    public Rollup(long start, long millis, long count, double sum) {
+        this.start = start;
+        this.millis = millis;
+        this.count = count;
+        this.sum = sum;
+    }
+
+    /**
+     * @return start of the step, millis since epoch
+     */
+    public long getStart() {
+        return start;
+    }
+
+    public void setStart(long start) {
+        this.start = start;
+    }
+
+    /**
+     * @return length of the step
+     */
+    public long getMillis() {
+        return millis;
+    }
+
+    public void setMillis(long millis) {
+        this.millis = millis;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    /**
+     * @return sum of the values, accurate to {@link RollupBuckets#SUM_SCALE} per value.  Zero for votes
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    public void setSum(double sum) {
+        this.sum = sum;
+    }
+
+    /**
+     * @return average value, NaN if there were none
+     */
+    public double getAverage() {
+        return 0 < count ? sum / count : Double.NaN;
+    }
+
+    @Override
+    public String toString() {
+        return "Rollup{" +
+                "start=" + start +
+                ", millis=" + millis +
+                ", count=" + count +
+                ", sum=" + sum +
+                '}';
+    }
+}
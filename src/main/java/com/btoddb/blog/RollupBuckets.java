@@ -0,0 +1,206 @@
+package com.btoddb.blog;
+
+import com.google.common.collect.AbstractIterator;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Row key and period calculation for the ColumnFamily, rollups.  Every series (votes on Posts, votes on Comments,
+ * each sensor) is counted at minute, hour and day resolution (GMT) as data arrives.  A row holds one series at one
+ * resolution - a day of minutes, a month of hours or a year of days - and each period is two counter columns,
+ * period:count and period:sum, so a time range is a few contiguous slices.
+ *
+ * Counters can only add longs, so sums of Sample values are kept in units of 1/{@link #SUM_SCALE}.
+ *
+ */
+final class RollupBuckets {
+    static final long MINUTE = 60 * 1000L;
+    static final long HOUR = 60 * MINUTE;
+    static final long DAY = 24 * HOUR;
+
+    // coarsest first
+    static final long[] RESOLUTIONS = { DAY, HOUR, MINUTE };
+
+    // a day of minutes is the widest row, two columns per period
+    static final int MAX_COLUMNS_PER_ROW = 2 * 24 * 60;
+
+    static final long SUM_SCALE = 1000;
+
+    static final String POST_VOTES = "votes:post";
+    static final String COMMENT_VOTES = "votes:comment";
+    private static final String SENSOR_PREFIX = "sensor:";
+
+    private static final DateTimeFormatter dayFormatter = DateTimeFormat.forPattern("YYYYMMdd").withZoneUTC();
+    private static final DateTimeFormatter monthFormatter = DateTimeFormat.forPattern("YYYYMM").withZoneUTC();
+    private static final DateTimeFormatter yearFormatter = DateTimeFormat.forPattern("YYYY").withZoneUTC();
+
+    private RollupBuckets() {
+    }
+
+    /**
+     * @param source name of the sensor
+     * @return series name of the sensor's Samples
+     */
+    static String sensorSeries(String source) {
+        return SENSOR_PREFIX + source;
+    }
+
+    /**
+     * @param type {@link Vote#POST} or {@link Vote#COMMENT}, or null for both
+     * @return series names of the votes
+     */
+    static List<String> voteSeries(String type) {
+        if ( null == type ) {
+            return Arrays.asList(POST_VOTES, COMMENT_VOTES);
+        }
+        return Collections.singletonList(Vote.COMMENT.equalsIgnoreCase(type) ? COMMENT_VOTES : POST_VOTES);
+    }
+
+    /**
+     * @param value Sample value
+     * @return value in units of 1/{@link #SUM_SCALE}, as added to the sum counters
+     */
+    static long scale(double value) {
+        return Math.round(value * SUM_SCALE);
+    }
+
+    /**
+     * Round the timestamp down to a multiple of 'millis' since the epoch.
+     *
+     * @param timestamp millis since epoch
+     * @param millis resolution or step
+     * @return start of the period containing 'timestamp'
+     */
+    static long floor(long timestamp, long millis) {
+        return timestamp - ((timestamp % millis) + millis) % millis;
+    }
+
+    /**
+     * Pick the coarsest resolution that adds up to whole steps, so a query reads as few counters as possible -
+     * days for weekly steps, hours for 6 hour steps, minutes for 90 minute steps.
+     *
+     * @param step length of each step
+     * @return resolution to read
+     * @throws IllegalArgumentException if 'step' isn't a multiple of a minute
+     */
+    static long resolutionFor(long step) {
+        for ( long resolution : RESOLUTIONS ) {
+            if ( 0 < step && 0 == step % resolution ) {
+                return resolution;
+            }
+        }
+        throw new IllegalArgumentException("step must be a multiple of a minute : " + step);
+    }
+
+    /**
+     * Calculate the row key for the series, at 'resolution', containing 'timestamp'.
+     *
+     * @param series series name
+     * @param resolution one of {@link #RESOLUTIONS}
+     * @param timestamp millis since epoch
+     * @return row key
+     */
+    static String rowKey(String series, long resolution, long timestamp) {
+        return series + ":" + resolutionName(resolution) + ":" + rowFormatter(resolution).print(timestamp);
+    }
+
+    /**
+     * Lazily generate the row keys of the series, at 'resolution', needed to cover the time range, oldest first.
+     *
+     * @param series series name
+     * @param resolution one of {@link #RESOLUTIONS}
+     * @param start Start time, millis since epoch
+     * @param end End time, millis since epoch
+     * @return row keys, oldest first
+     */
+    static Iterator<String> rowKeys(final String series, final long resolution, long start, long end) {
+        final DateTime firstRow = rowFloor(resolution, start);
+        final DateTime lastRow = rowFloor(resolution, end);
+        final String prefix = series + ":" + resolutionName(resolution) + ":";
+        final DateTimeFormatter formatter = rowFormatter(resolution);
+        return new AbstractIterator<String>() {
+            private DateTime current = firstRow;
+
+            @Override
+            protected String computeNext() {
+                if ( current.isAfter(lastRow) ) {
+                    return endOfData();
+                }
+
+                String key = prefix + formatter.print(current);
+                current = nextRow(resolution, current);
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Empty Rollups, one per step, from the step containing 'start' to the step containing 'end'.  Steps are
+     * multiples of 'step' since the epoch, so weekly steps start on Thursdays.
+     *
+     * @param start Start time, millis since epoch
+     * @param end End time, millis since epoch
+     * @param step length of each step
+     * @return Rollups with zero counts, oldest first
+     */
+    static List<Rollup> steps(long start, long end, long step) {
+        List<Rollup> steps = new ArrayList<Rollup>();
+        for ( long current = floor(start, step);current <= end;current += step ) {
+            steps.add(new Rollup(current, step, 0, 0));
+        }
+        return steps;
+    }
+
+    /**
+     * Add one period's counters to the step containing it.  Periods outside the steps are ignored.
+     *
+     * @param steps from {@link #steps(long, long, long)}
+     * @param period start of the period, millis since epoch
+     * @param count number counted in the period
+     * @param scaledSum sum of the period, in units of 1/{@link #SUM_SCALE}
+     */
+    static void accumulate(List<Rollup> steps, long period, long count, long scaledSum) {
+        if ( steps.isEmpty() ) {
+            return;
+        }
+
+        long step = steps.get(0).getMillis();
+        long index = (floor(period, step) - steps.get(0).getStart()) / step;
+        if ( 0 <= index && index < steps.size() ) {
+            Rollup rollup = steps.get((int)index);
+            rollup.setCount(rollup.getCount() + count);
+            rollup.setSum(rollup.getSum() + (double)scaledSum / SUM_SCALE);
+        }
+    }
+
+    private static String resolutionName(long resolution) {
+        return DAY == resolution ? "day" : (HOUR == resolution ? "hour" : "minute");
+    }
+
+    private static DateTimeFormatter rowFormatter(long resolution) {
+        return DAY == resolution ? yearFormatter : (HOUR == resolution ? monthFormatter : dayFormatter);
+    }
+
+    private static DateTime rowFloor(long resolution, long timestamp) {
+        DateTime gmt = new DateTime(timestamp, DateTimeZone.UTC);
+        if ( DAY == resolution ) {
+            return gmt.year().roundFloorCopy();
+        }
+        return HOUR == resolution ? gmt.monthOfYear().roundFloorCopy() : gmt.dayOfMonth().roundFloorCopy();
+    }
+
+    private static DateTime nextRow(long resolution, DateTime row) {
+        if ( DAY == resolution ) {
+            return row.plusYears(1);
+        }
+        return HOUR == resolution ? row.plusMonths(1) : row.plusDays(1);
+    }
+}
@@ -0,0 +1,48 @@
+package com.btoddb.blog;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counter increments for one batch of votes or Samples, summed per row and period before they're written, so a
+ * batch is one increment per series per period instead of one per vote or Sample.  See {@link RollupBuckets}.
+ *
+ */
+final class RollupIncrements {
+    // row key -> period start -> { count, scaled sum }
+    private final Map<String, Map<Long, long[]>> rows = new HashMap<String, Map<Long, long[]>>();
+
+    /**
+     * Count one vote or Sample in every resolution.
+     *
+     * @param series series name
+     * @param timestamp millis since epoch
+     * @param scaledSum value to add to the sum, in units of 1/{@link RollupBuckets#SUM_SCALE}.  Zero for votes
+     */
+    void add(String series, long timestamp, long scaledSum) {
+        for ( long resolution : RollupBuckets.RESOLUTIONS ) {
+            String key = RollupBuckets.rowKey(series, resolution, timestamp);
+            Map<Long, long[]> row = rows.get(key);
+            if ( null == row ) {
+                row = new HashMap<Long, long[]>();
+                rows.put(key, row);
+            }
+
+            long period = RollupBuckets.floor(timestamp, resolution);
+            long[] totals = row.get(period);
+            if ( null == totals ) {
+                totals = new long[2];
+                row.put(period, totals);
+            }
+            totals[0]++;
+            totals[1] += scaledSum;
+        }
+    }
+
+    /**
+     * @return row key -> period start -> { count, scaled sum }
+     */
+    Map<String, Map<Long, long[]>> getRows() {
+        return rows;
+    }
+}
@@ -0,0 +1,34 @@
+package com.btoddb.blog;
+
+import me.prettyprint.hector.api.beans.ColumnSlice;
+import me.prettyprint.hector.api.beans.HColumn;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Maps an object to and from the columns of its Cassandra row, without reflection.  Codecs write the same bytes
+ * Hector Object Mapper (HOM) would for the object's @Column annotations, so rows written by either can be read by
+ * the other.
+ *
+ */
+public interface RowCodec<T> {
+
+    /**
+     * Create the object from its row.
+     *
+     * @param id row key
+     * @param slice the row's columns
+     * @return the object, or null if the row has no columns
+     */
+    T fromSlice( UUID id, ColumnSlice<String, byte[]> slice );
+
+    /**
+     * Create the columns to insert for the object.  Null properties aren't written.
+     *
+     * @param obj object to save
+     * @return the row's columns
+     */
+    List<HColumn<String, byte[]>> toColumns( T obj );
+
+}
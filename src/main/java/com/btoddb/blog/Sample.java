@@ -0,0 +1,92 @@
+package com.btoddb.blog;
+
+import java.util.Comparator;
+
+/**
+ * One reading from a sensor - CPU, thermometer, disk usage, car speed, etc.  A source has at most one Sample per
+ * millisecond, saving another with the same source and timestamp replaces it.
+ *
+ */
+public class Sample {
+    /**
+     * Oldest first, ignoring the source.
+     */
+    public static final Comparator<Sample> TIME_ORDER = new Comparator<Sample>() {
+        @Override
+        public int compare(Sample s1, Sample s2) {
+            return s1.timestamp < s2.timestamp ? -1 : (s1.timestamp == s2.timestamp ? 0 : 1);
+        }
+    };
+
+    private String source;
+    private long timestamp;
+    private double value;
+
+    public Sample() {
+    }
+
+    public Sample(String source, long timestamp, double value) {
+        this.source = source;
+        this.timestamp = timestamp;
+        this.value = value;
+    }
+
+    /**
+     * @return name of the sensor
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    /**
+     * @return time of the reading, millis since epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public void setValue(double value) {
+        this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Sample sample = (Sample) o;
+
+        if (timestamp != sample.timestamp) return false;
+        if (source != null ? !source.equals(sample.source) : sample.source != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = source != null ? source.hashCode() : 0;
+        result = 31 * result + (int) (timestamp ^ (timestamp >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Sample{" +
+                "source='" + source + '\'' +
+                ", timestamp=" + timestamp +
+                ", value=" + value +
+                '}';
+    }
+}
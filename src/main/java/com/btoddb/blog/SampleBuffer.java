@@ -0,0 +1,206 @@
+package com.btoddb.blog;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers Samples and writes them in batches with {@link SensorDao#saveSamples(java.util.Collection)}, so
+ * thousands of sensors reporting every second is a few hundred batches instead of thousands of single writes.
+ * The buffer is flushed every 'flush interval', or by the sampling thread once it holds 'max samples'.
+ *
+ * Unlike {@link VoteBuffer}, batches are taken out of the buffer before they're saved and several can be saved at
+ * once - the order doesn't matter.  A batch that fails goes back in the buffer and is retried by the next flush.
+ * A batch that fails part way through may have incremented some roll-up counters already, and retrying it counts
+ * those Samples twice in the roll-ups.  Buffered Samples are lost if the process dies before they're flushed.
+ *
+ * Exposes, in the default metrics registry (and JMX), the buffer depth, flush latency, and samples flushed.
+ *
+ * Call {@link #start()} before use and {@link #shutdown()} when done.  All setters must be called before start().
+ */
+public class SampleBuffer {
+    private static final Logger logger = LoggerFactory.getLogger(SampleBuffer.class);
+
+    public static final int DEFAULT_MAX_SAMPLES = 1000;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+
+    private static final MetricName DEPTH_METRIC = new MetricName(SampleBuffer.class, "depth");
+    private static final MetricName FLUSH_LATENCY_METRIC = new MetricName(SampleBuffer.class, "flush-latency");
+    private static final MetricName SAMPLES_FLUSHED_METRIC = new MetricName(SampleBuffer.class, "samples-flushed");
+
+    private final SensorDao dao;
+
+    private int maxSamples = DEFAULT_MAX_SAMPLES;
+    private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+
+    // guarded by 'lock'
+    private final Object lock = new Object();
+    private List<Sample> pending = new ArrayList<Sample>();
+    private boolean shutdown;
+
+    private ScheduledExecutorService flusher;
+    private Timer flushLatency;
+    private Meter samplesFlushed;
+
+    public SampleBuffer(SensorDao dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * Register the metrics and start flushing every 'flush interval'.
+     *
+     */
+    public void start() {
+        Metrics.newGauge(DEPTH_METRIC, new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return getDepth();
+            }
+        });
+        flushLatency = Metrics.newTimer(FLUSH_LATENCY_METRIC, TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+        samplesFlushed = Metrics.newMeter(SAMPLES_FLUSHED_METRIC, "samples", TimeUnit.SECONDS);
+
+        flusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sample-buffer-%d").build());
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                }
+                catch ( Throwable e ) {
+                    logger.error("exception while flushing samples - will retry next flush", e);
+                }
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop accepting Samples and flush what's buffered.
+     *
+     * @throws RuntimeException if the final flush fails - the Samples still buffered are lost
+     */
+    public void shutdown() {
+        synchronized ( lock ) {
+            shutdown = true;
+        }
+
+        if ( null != flusher ) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(flushIntervalMillis * 10, TimeUnit.MILLISECONDS);
+            }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        try {
+            flush();
+        }
+        finally {
+            Metrics.defaultRegistry().removeMetric(DEPTH_METRIC);
+            Metrics.defaultRegistry().removeMetric(FLUSH_LATENCY_METRIC);
+            Metrics.defaultRegistry().removeMetric(SAMPLES_FLUSHED_METRIC);
+        }
+    }
+
+    /**
+     * Buffer a Sample.  If that fills the buffer the calling thread saves it, which slows down sampling threads
+     * that get ahead of Cassandra.
+     *
+     * @param sample Sample to save
+     * @throws RuntimeException if the buffer was full and couldn't be saved - the Samples stay buffered
+     */
+    public void add(Sample sample) {
+        List<Sample> batch = null;
+        synchronized ( lock ) {
+            if ( shutdown ) {
+                throw new IllegalStateException("sample buffer has been shutdown");
+            }
+
+            pending.add(sample);
+            if ( pending.size() >= maxSamples ) {
+                batch = takePending();
+            }
+        }
+
+        if ( null != batch ) {
+            save(batch);
+        }
+    }
+
+    /**
+     * Save all buffered Samples in one batch.  On failure they go back in the buffer.
+     *
+     */
+    public void flush() {
+        List<Sample> batch;
+        synchronized ( lock ) {
+            if ( pending.isEmpty() ) {
+                return;
+            }
+            batch = takePending();
+        }
+
+        save(batch);
+    }
+
+    /**
+     * @return number of Samples buffered, not counting batches being saved
+     */
+    public int getDepth() {
+        synchronized ( lock ) {
+            return pending.size();
+        }
+    }
+
+    // must hold 'lock'
+    private List<Sample> takePending() {
+        List<Sample> batch = pending;
+        pending = new ArrayList<Sample>(Math.min(maxSamples, batch.size() * 2));
+        return batch;
+    }
+
+    private void save(List<Sample> batch) {
+        TimerContext timer = null != flushLatency ? flushLatency.time() : null;
+        try {
+            dao.saveSamples(batch);
+        }
+        catch ( RuntimeException e ) {
+            synchronized ( lock ) {
+                pending.addAll(batch);
+            }
+            throw e;
+        }
+        finally {
+            if ( null != timer ) {
+                timer.stop();
+            }
+        }
+
+        if ( null != samplesFlushed ) {
+            samplesFlushed.mark(batch.size());
+        }
+    }
+
+    public void setMaxSamples(int maxSamples) {
+        this.maxSamples = maxSamples;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+}
@@ -0,0 +1,79 @@
+package com.btoddb.blog;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Storage engine for sensor data.  Samples are bucketed per source by hour, the same as Posts in posts_by_time,
+ * so a row holds one source's readings for one hour and a time range is a few contiguous slices.
+ *
+ * <ul>
+ *     <li>{@link HectorSensorDao} - Cassandra via Hector</li>
+ *     <li>{@link InMemorySensorDao} - concurrent in-memory maps, for profiling/load testing</li>
+ * </ul>
+ *
+ * Each source is also counted and summed at minute, hour and day resolution as Samples are saved, see
+ * {@link #findRollups(java.util.Collection, long, long, long)}.
+ *
+ * Samples are meant to be written once.  Saving a Sample again with a different value replaces it, but the old
+ * value can still be found by {@link #findSamplesInValueRange(String, long, long, double, double)}, and it's
+ * counted twice by the roll-ups.
+ */
+public interface SensorDao {
+
+    /**
+     * Must call once (and only once) prior to using the DAO.
+     *
+     */
+    void init();
+
+    /**
+     * Release threads and other resources.  The DAO can't be used afterwards.
+     *
+     */
+    void shutdown();
+
+    /**
+     * Save Samples, from any number of sources, in one batch.  Use {@link SampleBuffer} to batch Samples
+     * arriving one at a time.
+     *
+     * @param samples Samples to save
+     */
+    void saveSamples(Collection<Sample> samples);
+
+    /**
+     * Find a source's Samples taken between 'start' and 'end', inclusive.
+     *
+     * @param source name of the sensor
+     * @param start Start time, millis since epoch
+     * @param end End time, millis since epoch
+     * @return List of Samples, oldest first
+     */
+    List<Sample> findSamples(String source, long start, long end);
+
+    /**
+     * Find a source's Samples taken between 'start' and 'end' with a value between 'min' and 'max', all inclusive.
+     * Only the matching Samples are read, not the whole time range.
+     *
+     * @param source name of the sensor
+     * @param start Start time, millis since epoch
+     * @param end End time, millis since epoch
+     * @param min smallest value
+     * @param max largest value
+     * @return List of Samples, oldest first
+     */
+    List<Sample> findSamplesInValueRange(String source, long start, long end, double min, double max);
+
+    /**
+     * Count and sum the Samples of one or more sources per step, from the step containing 'start' to the step
+     * containing 'end'.  Read from the roll-ups, not the Samples - the coarsest resolution that adds up to whole
+     * steps, so daily steps over a month read 30 periods per source.
+     *
+     * @param sources names of the sensors to add together
+     * @param start Start time, millis since epoch
+     * @param end End time, millis since epoch
+     * @param step length of each step, a multiple of a minute.  Steps start at multiples of 'step' since the epoch
+     * @return one Rollup per step, oldest first, including empty steps
+     */
+    List<Rollup> findRollups(Collection<String> sources, long start, long end, long step);
+}
@@ -0,0 +1,70 @@
+package com.btoddb.blog;
+
+import com.google.common.collect.AbstractIterator;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.util.Iterator;
+
+/**
+ * Row key calculation for the ColumnFamilies, sensor_samples and sensor_samples_by_value.  Keys are the source
+ * plus the hour (GMT), formatted the same as posts_by_time, so each row is one source's readings for one hour.
+ * Works on millis instead of DateTime since it's called for every Sample saved.
+ *
+ */
+final class SensorTimeBuckets {
+    static final long BUCKET_MILLIS = 60 * 60 * 1000L;
+
+    private static final DateTimeFormatter hourFormatter = DateTimeFormat.forPattern("YYYYMMdd:HH").withZoneUTC();
+
+    private SensorTimeBuckets() {
+    }
+
+    /**
+     * Round the timestamp down to the start of its bucket.
+     *
+     * @param timestamp millis since epoch
+     * @return start of the bucket containing 'timestamp'
+     */
+    static long floor(long timestamp) {
+        return timestamp - ((timestamp % BUCKET_MILLIS) + BUCKET_MILLIS) % BUCKET_MILLIS;
+    }
+
+    /**
+     * Calculate the row key for the source's bucket containing 'timestamp'.
+     *
+     * @param source name of the sensor
+     * @param timestamp millis since epoch
+     * @return row key
+     */
+    static String rowKey(String source, long timestamp) {
+        return source + ":" + hourFormatter.print(floor(timestamp));
+    }
+
+    /**
+     * Lazily generate the row keys of the source's buckets needed to cover the time range, oldest first.
+     *
+     * @param source name of the sensor
+     * @param start Start time, millis since epoch
+     * @param end End time, millis since epoch
+     * @return row keys, oldest bucket first
+     */
+    static Iterator<String> rowKeys(final String source, long start, long end) {
+        final long lastBucket = floor(end);
+        final long firstBucket = floor(start);
+        return new AbstractIterator<String>() {
+            private long current = firstBucket;
+
+            @Override
+            protected String computeNext() {
+                if ( current > lastBucket ) {
+                    return endOfData();
+                }
+
+                String key = source + ":" + hourFormatter.print(current);
+                current += BUCKET_MILLIS;
+                return key;
+            }
+        };
+    }
+}
@@ -0,0 +1,126 @@
+package com.btoddb.blog;
+
+import me.prettyprint.cassandra.serializers.StringSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Converts the text of Posts and Comments to and from column values, compressing text of at least 'compression
+ * threshold' UTF8 bytes with Deflate.  Compression is off unless a threshold is given.
+ *
+ * Uncompressed text is plain UTF8, the same as rows written before compression existed.  Compressed text starts
+ * with a header byte from 0xF8 - 0xFF, which can never start a UTF8 string, so the two can't be confused.  The
+ * header is the format and version, followed by:
+ * <ul>
+ *     <li>0xF8 : Deflate v1 - 4 byte length of the UTF8 text, then the zlib stream</li>
+ * </ul>
+ * Text that doesn't get smaller is stored uncompressed.
+ */
+public class TextCodec {
+    private static final int HEADER_MIN = 0xF8;
+    private static final byte HEADER_DEFLATE_V1 = (byte)0xF8;
+
+    // creating them allocates native buffers that cost more than compressing a short Post, so each thread reuses
+    // its own.  fastest level, long posts are mostly repeated words and compress well anyway
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+    };
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private final int compressionThreshold;
+
+    /**
+     * Never compress.
+     */
+    public TextCodec() {
+        this(0);
+    }
+
+    /**
+     * @param compressionThreshold compress text with at least this many UTF8 bytes, zero or less to never compress
+     */
+    public TextCodec(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public byte[] toBytes(String text) {
+        byte[] utf8 = StringSerializer.get().toBytes(text);
+        if ( 0 >= compressionThreshold || utf8.length < compressionThreshold ) {
+            return utf8;
+        }
+
+        byte[] compressed = deflate(utf8);
+        return compressed.length < utf8.length ? compressed : utf8;
+    }
+
+    public String fromBytes(byte[] bytes) {
+        if ( 0 == bytes.length || HEADER_MIN > (bytes[0] & 0xFF) ) {
+            return StringSerializer.get().fromBytes(bytes);
+        }
+
+        if ( HEADER_DEFLATE_V1 == bytes[0] ) {
+            return StringSerializer.get().fromBytes(inflate(bytes));
+        }
+        throw new IllegalStateException("unknown text format, header = " + (bytes[0] & 0xFF));
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    private static byte[] deflate(byte[] utf8) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length / 2 + 16);
+        out.write(HEADER_DEFLATE_V1);
+        out.write(ByteBuffer.allocate(4).putInt(utf8.length).array(), 0, 4);
+
+        Deflater deflater = deflaters.get();
+        try {
+            deflater.setInput(utf8);
+            deflater.finish();
+            byte[] buf = new byte[Math.min(utf8.length, 8192)];
+            while ( !deflater.finished() ) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+        }
+        finally {
+            deflater.reset();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] bytes) {
+        byte[] utf8 = new byte[ByteBuffer.wrap(bytes, 1, 4).getInt()];
+
+        Inflater inflater = inflaters.get();
+        try {
+            inflater.setInput(bytes, 5, bytes.length - 5);
+            int length = 0;
+            while ( length < utf8.length && !inflater.finished() ) {
+                int n = inflater.inflate(utf8, length, utf8.length - length);
+                if ( 0 == n && ( inflater.needsInput() || inflater.needsDictionary() ) ) {
+                    throw new IllegalStateException("compressed text is truncated");
+                }
+                length += n;
+            }
+            return utf8;
+        }
+        catch ( DataFormatException e ) {
+            throw new IllegalStateException("compressed text is corrupt", e);
+        }
+        finally {
+            inflater.reset();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.btoddb.blog;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Orders TimeUUIDs the way Cassandra's TimeUUIDType does - by embedded timestamp first, then by the rest
+ * of the UUID to break ties.  {@link UUID#compareTo(UUID)} can't be used because it compares the raw bits.
+ *
+ */
+public class TimeUUIDComparator implements Comparator<UUID>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public int compare(UUID uuid1, UUID uuid2) {
+        long t1 = uuid1.timestamp();
+        long t2 = uuid2.timestamp();
+        if ( t1 != t2 ) {
+            return t1 < t2 ? -1 : 1;
+        }
+        return uuid1.compareTo(uuid2);
+    }
+}
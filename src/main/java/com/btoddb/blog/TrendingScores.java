@@ -0,0 +1,121 @@
+package com.btoddb.blog;
+
+import com.google.common.collect.Iterators;
+import me.prettyprint.cassandra.utils.TimeUUIDUtils;
+import org.joda.time.DateTime;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Score and row key calculation for the ColumnFamily, posts_trending.
+ *
+ * A Post's trending score is its votes decayed by age: (votes + 1) * 2^(-age / half life).  Only the order matters,
+ * so the score is kept as log2(votes + 1) + (creation time / half life), which ranks the same at any "now" - a Post
+ * created one half life later needs half the votes to tie.  Scores only change when a Post's vote count does, so
+ * {@link PostRanking} moves just the Posts whose counts changed, and nothing is ever recomputed.
+ *
+ * Rows are 1 hour buckets (GMT), posts_by_time's default keys, by the time in the Post's TimeUUID, so a score needs
+ * nothing but the Post ID and its vote count.  They stay hourly whatever buckets posts_by_time is configured with.
+ * Columns are Composite score:TimeUUID, highest score first, and expire once the Post is older than
+ * {@link #MAX_HOURS}.
+ *
+ */
+final class TrendingScores {
+    static final long HALF_LIFE_MILLIS = 6 * 60 * 60 * 1000L;
+
+    // only buckets this recent can be read, older columns expire
+    static final int MAX_HOURS = 7 * 24;
+
+    // fixed point, the score is stored as a LongType
+    private static final double SCALE = 1000000;
+
+    private TrendingScores() {
+    }
+
+    /**
+     * Calculate the trending score.  StrictMath, so every JVM gets the same score and can delete the column
+     * another one wrote.
+     *
+     * @param postId Post ID
+     * @param votes Post's vote count
+     * @return score, higher is more trending
+     */
+    static long score(UUID postId, long votes) {
+        double log2Votes = StrictMath.log(votes + 1) / StrictMath.log(2);
+        return StrictMath.round((log2Votes + (double)TimeUUIDUtils.getTimeFromUUID(postId) / HALF_LIFE_MILLIS) * SCALE);
+    }
+
+    /**
+     * Calculate the posts_trending row key for the bucket containing the Post.
+     *
+     * @param postId Post ID
+     * @return row key
+     */
+    static String rowKey(UUID postId) {
+        return rowKey(TimeUUIDUtils.getTimeFromUUID(postId));
+    }
+
+    /**
+     * Calculate the posts_trending row key for the bucket containing 'timestamp'.
+     *
+     * @param timestamp millis since epoch
+     * @return row key
+     */
+    static String rowKey(long timestamp) {
+        return PostTimeBuckets.Granularity.HOUR.rowKey(timestamp);
+    }
+
+    /**
+     * Generate the posts_trending row keys of the buckets covering the time range, newest first.
+     *
+     * @param start Start time
+     * @param end End time
+     * @return row keys
+     */
+    static Iterator<String> rowKeys(DateTime start, DateTime end) {
+        return PostTimeBuckets.HOURLY.rowKeys(start, end, true);
+    }
+
+    /**
+     * Calculate the TTL of the Post's column, so it expires {@link #MAX_HOURS} after the Post was created.
+     *
+     * @param postId Post ID
+     * @param now current time in millis
+     * @return TTL in seconds, zero or less if the Post is already too old to be in the index
+     */
+    static int ttlSeconds(UUID postId, long now) {
+        return (int)((TimeUUIDUtils.getTimeFromUUID(postId) + MAX_HOURS * 60 * 60 * 1000L - now) / 1000);
+    }
+
+    /**
+     * Merge the buckets, each already sorted by score, into the top 'number' Posts.  A Post appearing more than
+     * once (a column left behind by concurrent votes) is only counted at its highest score, the others are
+     * returned in 'stale'.
+     *
+     * @param buckets iterators over each bucket's columns, highest score first
+     * @param number max number of Posts
+     * @param stale collects the lower scored duplicates
+     * @return Post ID mapping to score, highest first
+     */
+    static Map<UUID, Long> merge(List<Iterator<VoteKey>> buckets, int number, List<VoteKey> stale) {
+        Map<UUID, Long> top = new LinkedHashMap<UUID, Long>();
+        Set<UUID> seen = new HashSet<UUID>();
+        Iterator<VoteKey> iter = Iterators.mergeSorted(buckets, VoteKey.POSTS_ORDER);
+        while ( iter.hasNext() && top.size() < number ) {
+            VoteKey key = iter.next();
+            if ( seen.add(key.id) ) {
+                top.put(key.id, key.votes);
+            }
+            else {
+                stale.add(key);
+            }
+        }
+        return top;
+    }
+}
@@ -0,0 +1,85 @@
+package com.btoddb.blog;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-through cache of User records, keyed by email.  Creating Posts and Comments only needs the user's
+ * name, so this saves a read of the ColumnFamily, users, on every write.
+ *
+ * Bounded by size (least recently used entries are evicted first) and entries expire 'ttl' after they
+ * were loaded.  Users that aren't found are not cached.
+ */
+public class UserCache {
+    public static final long DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_TTL_SECONDS = 300;
+
+    private final BlogDao dao;
+    private final Cache<String, User> cache;
+
+    public UserCache(BlogDao dao) {
+        this(dao, DEFAULT_MAX_SIZE, DEFAULT_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public UserCache(BlogDao dao, long maxSize, long ttl, TimeUnit ttlUnit) {
+        this.dao = dao;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl, ttlUnit)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Find User by email, reading from the DAO only if not cached.
+     *
+     * @param email user's email
+     * @return User record associated with email if found, null otherwise
+     */
+    public User findUser(String email) {
+        User user = cache.getIfPresent(email);
+        if ( null == user ) {
+            user = dao.findUser(email);
+            if ( null == user ) {
+                return null;
+            }
+            cache.put(email, user);
+        }
+
+        // hand out a copy so callers can't change what's cached
+        return new User(user.getEmail(), user.getPassword(), user.getName());
+    }
+
+    /**
+     * Remove User from the cache.  Must be called whenever the User is saved.
+     *
+     * @param email user's email
+     */
+    public void invalidate(String email) {
+        cache.invalidate(email);
+    }
+
+    /**
+     * Remove all Users from the cache.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return hit, miss, and eviction counts since the cache was created
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return approximate number of Users in the cache
+     */
+    public long size() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,104 @@
+package com.btoddb.blog;
+
+import java.util.UUID;
+
+/**
+ * A User's vote on a Post or Comment.  A User can only vote once per Post or Comment, so two Votes are
+ * equal if they have the same User and Post/Comment.
+ *
+ */
+public class Vote {
+    public static final String POST = "POST";
+    public static final String COMMENT = "COMMENT";
+
+    private String userEmail;
+    private UUID uuid;
+    private String type;
+    private UUID postId;
+    private long timestamp;
+
+    public Vote() {}
+
+    public Vote(String userEmail, UUID uuid, String type, long timestamp) {
+        this.userEmail = userEmail;
+        this.uuid = uuid;
+        this.type = type;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Vote on a Comment whose Post is known, so saving it doesn't need to look up the Post.
+     */
+    public static Vote onComment(String userEmail, UUID commentId, UUID postId, long timestamp) {
+        Vote vote = new Vote(userEmail, commentId, COMMENT, timestamp);
+        vote.setPostId(postId);
+        return vote;
+    }
+
+    public boolean isComment() {
+        return COMMENT.equalsIgnoreCase(type);
+    }
+
+    public String getUserEmail() {
+        return userEmail;
+    }
+
+    public void setUserEmail(String userEmail) {
+        this.userEmail = userEmail;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public void setUuid(UUID uuid) {
+        this.uuid = uuid;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * @return Post ID of the Comment voted on, if known, null otherwise
+     */
+    public UUID getPostId() {
+        return postId;
+    }
+
+    public void setPostId(UUID postId) {
+        this.postId = postId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Vote vote = (Vote) o;
+
+        if (userEmail != null ? !userEmail.equals(vote.userEmail) : vote.userEmail != null) return false;
+        if (uuid != null ? !uuid.equals(vote.uuid) : vote.uuid != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = userEmail != null ? userEmail.hashCode() : 0;
+        result = 31 * result + (uuid != null ? uuid.hashCode() : 0);
+        return result;
+    }
+}
@@ -0,0 +1,267 @@
+package com.btoddb.blog;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffers votes and saves them in batches, so a voting spike on a hot Post is a few large batches instead of
+ * thousands of tiny ones.  The buffer is flushed every 'flush interval', or by the voting thread once it holds
+ * 'max votes'.
+ *
+ * A batch is saved in two steps.  First {@link BlogDao#saveVoteRecords(java.util.Collection)}, which is safe to
+ * repeat - if it fails the votes stay buffered and the next flush retries them.  Then
+ * {@link BlogDao#countVotes(java.util.Collection)}, which isn't - a counter batch that fails may have been applied
+ * anyway, so it's never retried.  The votes are logged and metered as uncounted instead, and their User's votes are
+ * already saved.  A second vote by the same User on the same Post/Comment is rejected while the first is buffered.
+ * Buffered votes are lost if the process dies before they're flushed.
+ *
+ * If a {@link PostRanking} is set, the Post votes of each batch are counted in it once the batch is counted.
+ *
+ * Exposes, in the default metrics registry (and JMX), the buffer depth, flush latency, votes flushed, and votes
+ * uncounted.
+ *
+ * Call {@link #start()} before use and {@link #shutdown()} when done.  All setters must be called before start().
+ */
+public class VoteBuffer {
+    private static final Logger logger = LoggerFactory.getLogger(VoteBuffer.class);
+
+    public static final int DEFAULT_MAX_VOTES = 1000;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+
+    private static final MetricName DEPTH_METRIC = new MetricName(VoteBuffer.class, "depth");
+    private static final MetricName FLUSH_LATENCY_METRIC = new MetricName(VoteBuffer.class, "flush-latency");
+    private static final MetricName VOTES_FLUSHED_METRIC = new MetricName(VoteBuffer.class, "votes-flushed");
+    private static final MetricName VOTES_UNCOUNTED_METRIC = new MetricName(VoteBuffer.class, "votes-uncounted");
+
+    private final BlogDao dao;
+
+    private int maxVotes = DEFAULT_MAX_VOTES;
+    private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private PostRanking postRanking;
+
+    // guarded by 'pending'
+    private final Set<Vote> pending = new LinkedHashSet<Vote>();
+    private boolean shutdown;
+
+    // only one flush at a time, so batches are saved in order
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private ScheduledExecutorService flusher;
+    private Timer flushLatency;
+    private Meter votesFlushed;
+    private Meter votesUncounted;
+
+    public VoteBuffer(BlogDao dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * Register the metrics and start flushing every 'flush interval'.
+     *
+     */
+    public void start() {
+        Metrics.newGauge(DEPTH_METRIC, new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return getDepth();
+            }
+        });
+        flushLatency = Metrics.newTimer(FLUSH_LATENCY_METRIC, TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+        votesFlushed = Metrics.newMeter(VOTES_FLUSHED_METRIC, "votes", TimeUnit.SECONDS);
+        votesUncounted = Metrics.newMeter(VOTES_UNCOUNTED_METRIC, "votes", TimeUnit.SECONDS);
+
+        flusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("vote-buffer-%d").build());
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                }
+                catch ( Throwable e ) {
+                    logger.error("exception while flushing votes - will retry next flush", e);
+                }
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop accepting votes and flush what's buffered.
+     *
+     * @throws RuntimeException if the final flush fails - the votes still buffered are lost
+     */
+    public void shutdown() {
+        synchronized ( pending ) {
+            shutdown = true;
+        }
+
+        if ( null != flusher ) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(flushIntervalMillis * 10, TimeUnit.MILLISECONDS);
+            }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        try {
+            flush();
+        }
+        finally {
+            Metrics.defaultRegistry().removeMetric(DEPTH_METRIC);
+            Metrics.defaultRegistry().removeMetric(FLUSH_LATENCY_METRIC);
+            Metrics.defaultRegistry().removeMetric(VOTES_FLUSHED_METRIC);
+            Metrics.defaultRegistry().removeMetric(VOTES_UNCOUNTED_METRIC);
+        }
+    }
+
+    /**
+     * Buffer a vote.  If the buffer is full the calling thread flushes it first.
+     *
+     * @param vote vote to save
+     * @return true if buffered, false if the same User's vote on the same Post/Comment is already buffered
+     * @throws RuntimeException if the buffer was full and couldn't be flushed - the vote isn't buffered
+     */
+    public boolean add(Vote vote) {
+        if ( getDepth() >= maxVotes ) {
+            flush();
+        }
+
+        synchronized ( pending ) {
+            if ( shutdown ) {
+                throw new IllegalStateException("vote buffer has been shutdown");
+            }
+            return pending.add(vote);
+        }
+    }
+
+    /**
+     * Determine if a vote is buffered but not saved yet.
+     *
+     * @param userEmail User's email
+     * @param uuid Post/Comment ID
+     * @return true if buffered, false otherwise
+     */
+    public boolean isBuffered(String userEmail, UUID uuid) {
+        synchronized ( pending ) {
+            return pending.contains(new Vote(userEmail, uuid, null, 0));
+        }
+    }
+
+    /**
+     * Save all buffered votes in one batch.  If their records can't be saved they stay buffered, once they are the
+     * votes leave the buffer whether or not they could be counted.
+     *
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<Vote> batch;
+            synchronized ( pending ) {
+                if ( pending.isEmpty() ) {
+                    return;
+                }
+                batch = new ArrayList<Vote>(pending);
+            }
+
+            TimerContext timer = null != flushLatency ? flushLatency.time() : null;
+            boolean counted;
+            try {
+                dao.saveVoteRecords(batch);
+                counted = count(batch);
+            }
+            finally {
+                if ( null != timer ) {
+                    timer.stop();
+                }
+            }
+
+            synchronized ( pending ) {
+                for ( Vote vote : batch ) {
+                    pending.remove(vote);
+                }
+            }
+            if ( null != votesFlushed ) {
+                votesFlushed.mark(batch.size());
+            }
+            if ( counted && null != postRanking ) {
+                rank(batch);
+            }
+        }
+        finally {
+            flushLock.unlock();
+        }
+    }
+
+    // never retried, the increments may have been applied
+    private boolean count(List<Vote> batch) {
+        try {
+            dao.countVotes(batch);
+            return true;
+        }
+        catch ( RuntimeException e ) {
+            logger.error("exception while counting " + batch.size() + " votes - they are saved but may not be counted", e);
+            if ( null != votesUncounted ) {
+                votesUncounted.mark(batch.size());
+            }
+            return false;
+        }
+    }
+
+    private void rank(List<Vote> batch) {
+        Map<UUID, Long> increments = new LinkedHashMap<UUID, Long>();
+        for ( Vote vote : batch ) {
+            if ( !vote.isComment() ) {
+                Long sum = increments.get(vote.getUuid());
+                increments.put(vote.getUuid(), null != sum ? sum + 1 : 1L);
+            }
+        }
+        for ( Map.Entry<UUID, Long> entry : increments.entrySet() ) {
+            postRanking.postVoted(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return number of votes buffered
+     */
+    public int getDepth() {
+        synchronized ( pending ) {
+            return pending.size();
+        }
+    }
+
+    public void setMaxVotes(int maxVotes) {
+        this.maxVotes = maxVotes;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * @param postRanking started ranking to count the flushed Post votes in, or null
+     */
+    public void setPostRanking(PostRanking postRanking) {
+        this.postRanking = postRanking;
+    }
+}
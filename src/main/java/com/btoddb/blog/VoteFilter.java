@@ -0,0 +1,248 @@
+package com.btoddb.blog;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bloom filter of (User email, Post/Comment ID) pairs, to skip the read of user_votes when checking for a
+ * duplicate vote.  Nearly all votes are first votes, and for those the filter answers "definitely not voted"
+ * without going to the DAO.  Only probable duplicates are read.
+ *
+ * The filter is sharded by User email so concurrent voters rarely contend for the same lock.  It's loaded from
+ * user_votes by {@link #rebuild()} and then kept current by {@link #put(String, UUID)} as votes are made.  Votes
+ * made by other processes aren't in the filter until the next rebuild, so until then they aren't detected as
+ * duplicates - use only where this process makes all the votes, or rebuild periodically.
+ *
+ * Reports (getters and metrics-core gauges) the expected false-positive rate, the observed rate, and the memory
+ * used by the bits.
+ *
+ * Call {@link #start()} before use and {@link #shutdown()} when done.  All setters must be called before start().
+ */
+public class VoteFilter {
+    private static final Logger logger = LoggerFactory.getLogger(VoteFilter.class);
+
+    public static final int DEFAULT_EXPECTED_VOTES = 10000000;
+    public static final double DEFAULT_FPP = 0.01;
+    public static final int DEFAULT_SHARDS = 16;
+
+    private static final MetricName EXPECTED_FPP_METRIC = new MetricName(VoteFilter.class, "expected-fpp");
+    private static final MetricName OBSERVED_FPP_METRIC = new MetricName(VoteFilter.class, "observed-fpp");
+    private static final MetricName MEMORY_METRIC = new MetricName(VoteFilter.class, "memory-bytes");
+
+    // an enum so the funnel (and the filter) serializes without a serialVersionUID
+    private enum VoteFunnel implements Funnel<Vote> {
+        INSTANCE;
+
+        @Override
+        public void funnel(Vote vote, PrimitiveSink into) {
+            into.putString(vote.getUserEmail(), Charsets.UTF_8)
+                .putLong(vote.getUuid().getMostSignificantBits())
+                .putLong(vote.getUuid().getLeastSignificantBits());
+        }
+    }
+
+    private final BlogDao dao;
+
+    private int expectedVotes = DEFAULT_EXPECTED_VOTES;
+    private double fpp = DEFAULT_FPP;
+    private int numShards = DEFAULT_SHARDS;
+
+    // each shard guarded by itself, the filter isn't thread safe.  while rebuilding, new votes go to both
+    private volatile List<BloomFilter<Vote>> shards;
+    private volatile List<BloomFilter<Vote>> rebuilding;
+
+    private final AtomicLong readsSkipped = new AtomicLong();
+    private final AtomicLong readsDone = new AtomicLong();
+    private final AtomicLong duplicatesFound = new AtomicLong();
+
+    public VoteFilter(BlogDao dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * Load the filter from user_votes and register the metrics.
+     *
+     */
+    public void start() {
+        rebuild();
+
+        Metrics.newGauge(EXPECTED_FPP_METRIC, new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return getExpectedFpp();
+            }
+        });
+        Metrics.newGauge(OBSERVED_FPP_METRIC, new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return getObservedFpp();
+            }
+        });
+        Metrics.newGauge(MEMORY_METRIC, new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return getMemoryBytes();
+            }
+        });
+    }
+
+    public void shutdown() {
+        Metrics.defaultRegistry().removeMetric(EXPECTED_FPP_METRIC);
+        Metrics.defaultRegistry().removeMetric(OBSERVED_FPP_METRIC);
+        Metrics.defaultRegistry().removeMetric(MEMORY_METRIC);
+    }
+
+    /**
+     * Replace the filter with a new one loaded from every vote in user_votes.  Votes made while loading are
+     * added to both.
+     *
+     */
+    public synchronized void rebuild() {
+        List<BloomFilter<Vote>> newShards = createShards();
+        rebuilding = newShards;
+        try {
+            long count = 0;
+            Iterator<Vote> iter = dao.iterateUserVotes();
+            while ( iter.hasNext() ) {
+                put(newShards, iter.next());
+                count++;
+            }
+
+            shards = newShards;
+            logger.info("loaded {} votes into vote filter - expected false-positive rate = {}, memory = {} bytes",
+                        new Object[] {count, getExpectedFpp(), getMemoryBytes()});
+        }
+        finally {
+            rebuilding = null;
+        }
+    }
+
+    /**
+     * Determine if the User has voted on the Post/Comment.  Reads user_votes only if the filter says the vote
+     * might exist.
+     *
+     * @param userEmail User's email
+     * @param uuid Post/Comment ID
+     * @return true if the User has voted, false otherwise
+     */
+    public boolean hasVoted(String userEmail, UUID uuid) {
+        Vote vote = new Vote(userEmail, uuid, null, 0);
+        BloomFilter<Vote> shard = shard(shards, vote);
+        boolean mightContain;
+        synchronized ( shard ) {
+            mightContain = shard.mightContain(vote);
+        }
+        if ( !mightContain ) {
+            readsSkipped.incrementAndGet();
+            return false;
+        }
+
+        readsDone.incrementAndGet();
+        if ( null != dao.findUserVote(userEmail, uuid) ) {
+            duplicatesFound.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Add a vote to the filter.  Must be called for every vote made.
+     *
+     * @param userEmail User's email
+     * @param uuid Post/Comment ID
+     */
+    public void put(String userEmail, UUID uuid) {
+        Vote vote = new Vote(userEmail, uuid, null, 0);
+
+        // read 'rebuilding' first - if it's already null the rebuilt filter has been swapped in
+        List<BloomFilter<Vote>> newShards = rebuilding;
+        put(shards, vote);
+        if ( null != newShards ) {
+            put(newShards, vote);
+        }
+    }
+
+    /**
+     * @return false-positive rate expected for the number of votes added so far, averaged over the shards
+     */
+    public double getExpectedFpp() {
+        List<BloomFilter<Vote>> current = shards;
+        double total = 0;
+        for ( BloomFilter<Vote> shard : current ) {
+            synchronized ( shard ) {
+                total += shard.expectedFpp();
+            }
+        }
+        return total / current.size();
+    }
+
+    /**
+     * @return fraction of first votes that the filter couldn't rule out, so user_votes was read for nothing
+     */
+    public double getObservedFpp() {
+        long falsePositives = readsDone.get() - duplicatesFound.get();
+        long firstVotes = readsSkipped.get() + falsePositives;
+        return 0 < firstVotes ? (double)falsePositives / firstVotes : 0;
+    }
+
+    /**
+     * @return size of the filter's bits, in bytes - calculated the same way BloomFilter sizes itself
+     */
+    public long getMemoryBytes() {
+        long insertionsPerShard = Math.max(1, expectedVotes / numShards);
+        long bitsPerShard = (long)(-insertionsPerShard * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        return numShards * ((bitsPerShard + 63) / 64) * 8;
+    }
+
+    public long getReadsSkipped() {
+        return readsSkipped.get();
+    }
+
+    public long getReadsDone() {
+        return readsDone.get();
+    }
+
+    private List<BloomFilter<Vote>> createShards() {
+        List<BloomFilter<Vote>> newShards = new ArrayList<BloomFilter<Vote>>(numShards);
+        for ( int i=0;i < numShards;i++ ) {
+            newShards.add(BloomFilter.create(VoteFunnel.INSTANCE, Math.max(1, expectedVotes / numShards), fpp));
+        }
+        return newShards;
+    }
+
+    private void put(List<BloomFilter<Vote>> target, Vote vote) {
+        BloomFilter<Vote> shard = shard(target, vote);
+        synchronized ( shard ) {
+            shard.put(vote);
+        }
+    }
+
+    private BloomFilter<Vote> shard(List<BloomFilter<Vote>> target, Vote vote) {
+        return target.get((vote.getUserEmail().hashCode() & Integer.MAX_VALUE) % target.size());
+    }
+
+    public void setExpectedVotes(int expectedVotes) {
+        this.expectedVotes = expectedVotes;
+    }
+
+    public void setFpp(double fpp) {
+        this.fpp = fpp;
+    }
+
+    public void setShards(int shards) {
+        this.numShards = shards;
+    }
+}
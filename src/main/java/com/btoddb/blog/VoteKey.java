@@ -0,0 +1,46 @@
+package com.btoddb.blog;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * In-memory form of the Composite column name, votes:UUID, used by the "sorted by vote" ColumnFamilies.  posts_trending
+ * uses the same layout, with the trending score in place of the votes.
+ *
+ */
+class VoteKey {
+    /**
+     * Same order as posts_sorted_by_vote and posts_trending - CompositeType(LongType(reversed=true), TimeUUIDType)
+     */
+    static final Comparator<VoteKey> POSTS_ORDER = new VoteKeyComparator(new TimeUUIDComparator());
+
+    /**
+     * Same order as post_comments_sorted_by_vote - CompositeType(LongType(reversed=true), TimeUUIDType(reversed=true))
+     */
+    static final Comparator<VoteKey> COMMENTS_ORDER = new VoteKeyComparator(Collections.reverseOrder(new TimeUUIDComparator()));
+
+    final long votes;
+    final UUID id;
+
+    VoteKey(long votes, UUID id) {
+        this.votes = votes;
+        this.id = id;
+    }
+
+    private static class VoteKeyComparator implements Comparator<VoteKey> {
+        private final Comparator<UUID> uuidOrder;
+
+        VoteKeyComparator(Comparator<UUID> uuidOrder) {
+            this.uuidOrder = uuidOrder;
+        }
+
+        @Override
+        public int compare(VoteKey k1, VoteKey k2) {
+            if ( k1.votes != k2.votes ) {
+                return k1.votes > k2.votes ? -1 : 1;
+            }
+            return uuidOrder.compare(k1.id, k2.id);
+        }
+    }
+}
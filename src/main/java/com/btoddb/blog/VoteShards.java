@@ -0,0 +1,150 @@
+package com.btoddb.blog;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads the vote counter of a hot Post or Comment over several counter columns of its 'votes' row, so concurrent
+ * increments (which are read-before-write in Cassandra) don't all land on the same counter.  Shard 0 is the
+ * original column, 'v', the others are 'v:1' to 'v:K-1'.  An increment goes to one of the K shards at random and
+ * the vote count is the sum of every column in the row, so readers don't need to know K.
+ *
+ * K starts at one and grows with the rate of counter writes for the Post/Comment, measured over 'rate window':
+ * one shard per 'writes per second per shard', up to 'max shards'.  K never shrinks while the Post/Comment is
+ * tracked - it's forgotten after {@link #IDLE_MINUTES} without a write, or when more than {@link #MAX_TRACKED} are
+ * being tracked, and starts over at one.  The shards it wrote stay in the row and are still counted.  The rate is
+ * per process, so each process grows K on its own.
+ *
+ * Writes are counted, not votes - {@link VoteBuffer} combines the votes on a Post/Comment into one write per flush,
+ * so with it a Post rarely needs more than one shard.
+ *
+ * Sharding is off by default ('max shards' is one).  VoteShardBenchmark runs against a single embedded node, where
+ * more shards don't raise the counter write throughput - raise 'max shards' only after it's been shown to help on
+ * a replicated cluster.
+ *
+ * All setters must be called before the DAO is used.
+ */
+public class VoteShards {
+    private static final Logger logger = LoggerFactory.getLogger(VoteShards.class);
+
+    public static final String COLUMN = "v";
+
+    // the most columns HectorBlogDao reads from a 'votes' row, for every findVotes - so keep it small
+    public static final int MAX_SHARDS = 16;
+
+    public static final int DEFAULT_MAX_SHARDS = 1;
+    public static final double DEFAULT_WRITES_PER_SECOND_PER_SHARD = 50;
+    public static final long DEFAULT_RATE_WINDOW_MILLIS = 5000;
+    public static final long MAX_TRACKED = 10000;
+    public static final long IDLE_MINUTES = 10;
+
+    private int maxShards = DEFAULT_MAX_SHARDS;
+    private double writesPerSecondPerShard = DEFAULT_WRITES_PER_SECOND_PER_SHARD;
+    private long rateWindowMillis = DEFAULT_RATE_WINDOW_MILLIS;
+
+    private final Cache<UUID, WriteRate> rates =
+            CacheBuilder.newBuilder().maximumSize(MAX_TRACKED).expireAfterAccess(IDLE_MINUTES, TimeUnit.MINUTES).build();
+    private final Random random = new Random();
+
+    /**
+     * @return name of counter column 'shard' of a 'votes' row
+     */
+    public static String columnName(int shard) {
+        return 0 == shard ? COLUMN : COLUMN + ":" + shard;
+    }
+
+    /**
+     * @return true if the column of a 'votes' row is one of the shards
+     */
+    public static boolean isShard(String columnName) {
+        return COLUMN.equals(columnName) || columnName.startsWith(COLUMN + ":");
+    }
+
+    /**
+     * Count a counter write for the Post/Comment and pick the shard it goes to.
+     *
+     * @param id Post or Comment ID
+     * @return name of the counter column to increment
+     */
+    public String nextColumn(UUID id) {
+        int shards = recordWrite(id);
+        return 1 == shards ? COLUMN : columnName(random.nextInt(shards));
+    }
+
+    /**
+     * @return number of shards the Post/Comment's counter writes are spread over
+     */
+    public int getShards(UUID id) {
+        WriteRate rate = rates.getIfPresent(id);
+        return null != rate ? rate.shards : 1;
+    }
+
+    private int recordWrite(UUID id) {
+        WriteRate rate;
+        try {
+            rate = rates.get(id, new Callable<WriteRate>() {
+                @Override
+                public WriteRate call() {
+                    return new WriteRate(System.currentTimeMillis());
+                }
+            });
+        }
+        catch ( ExecutionException e ) {
+            // can't happen, creating a WriteRate doesn't throw
+            return 1;
+        }
+
+        synchronized ( rate ) {
+            rate.writes++;
+            long now = System.currentTimeMillis();
+            long elapsed = now - rate.windowStart;
+            if ( elapsed >= rateWindowMillis ) {
+                double perSecond = rate.writes * 1000.0 / elapsed;
+                int wanted = (int)Math.min(maxShards, Math.ceil(perSecond / writesPerSecondPerShard));
+                if ( wanted > rate.shards ) {
+                    logger.info(String.format("%.0f vote counter writes/sec for %s - spreading them over %d shards", perSecond, id, wanted));
+                    rate.shards = wanted;
+                }
+                rate.writes = 0;
+                rate.windowStart = now;
+            }
+            return rate.shards;
+        }
+    }
+
+    private static class WriteRate {
+        long windowStart;
+        long writes;
+        volatile int shards = 1;
+
+        WriteRate(long windowStart) {
+            this.windowStart = windowStart;
+        }
+    }
+
+    /**
+     * @param maxShards most shards for a Post/Comment, at most {@link #MAX_SHARDS}.  One, the default, turns sharding off
+     */
+    public void setMaxShards(int maxShards) {
+        if ( 1 > maxShards || MAX_SHARDS < maxShards ) {
+            throw new IllegalArgumentException("max shards must be from 1 to " + MAX_SHARDS + " : " + maxShards);
+        }
+        this.maxShards = maxShards;
+    }
+
+    public void setWritesPerSecondPerShard(double writesPerSecondPerShard) {
+        this.writesPerSecondPerShard = writesPerSecondPerShard;
+    }
+
+    public void setRateWindowMillis(long rateWindowMillis) {
+        this.rateWindowMillis = rateWindowMillis;
+    }
+}
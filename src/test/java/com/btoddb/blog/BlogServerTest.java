@@ -0,0 +1,64 @@
+package com.btoddb.blog;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BlogServerTest {
+
+    @Test
+    public void testParsePlainWords() {
+        assertArrayEquals(new String[] {"show-user-posts", "bob@example.com"},
+                          BlogServer.parseCommand("  show-user-posts \t bob@example.com  "));
+        assertArrayEquals(new String[0], BlogServer.parseCommand(""));
+        assertArrayEquals(new String[0], BlogServer.parseCommand("   "));
+    }
+
+    @Test
+    public void testParseQuotes() {
+        assertArrayEquals(new String[] {"create-post", "my title", "it's \"here\"\nnext line"},
+                          BlogServer.parseCommand("create-post 'my title' \"it's \\\"here\\\"\\nnext line\""));
+        // a backslash is plain inside single quotes
+        assertArrayEquals(new String[] {"a\\nb"}, BlogServer.parseCommand("'a\\nb'"));
+        // quotes join onto the word around them, like a shell
+        assertArrayEquals(new String[] {"title=my title"}, BlogServer.parseCommand("title='my title'"));
+        assertArrayEquals(new String[] {"x", ""}, BlogServer.parseCommand("x \"\""));
+    }
+
+    @Test
+    public void testParseUnclosedQuote() {
+        try {
+            BlogServer.parseCommand("create-post \"my title");
+            fail("expected IllegalArgumentException");
+        }
+        catch ( IllegalArgumentException e ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFormatLeavesPlainWordsAlone() {
+        assertEquals("show-user-posts bob@example.com",
+                     BlogServer.formatCommand(new String[] {"show-user-posts", "bob@example.com"}));
+        assertEquals("create-post \"my title\" \"\"", BlogServer.formatCommand(new String[] {"create-post", "my title", ""}));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        String[][] commands = {
+                {},
+                {"stop-server"},
+                {"create-post", "bob@example.com", "my title", "first line\nsecond line\r\nthird"},
+                {"search-posts", "it's", "\"quoted\"", "back\\slash", "tab\there", ""},
+                {"create-comment", " leading and trailing ", "'", "\"", "\\", "\\n"},
+        };
+        for ( String[] args : commands ) {
+            String line = BlogServer.formatCommand(args);
+            assertEquals("one line : " + line, -1, line.indexOf('\n'));
+            assertEquals("one line : " + line, -1, line.indexOf('\r'));
+            assertArrayEquals(line, args, BlogServer.parseCommand(line));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.btoddb.blog;
+
+import me.prettyprint.cassandra.utils.TimeUUIDUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PostSearchTest {
+    private static final long BASE_MILLIS = 1370044800000L;
+
+    @Test
+    public void testTerms() {
+        assertEquals(Arrays.asList("vote", "votes", "ray", "2013"),
+                     new ArrayList<String>(PostSearch.terms("The Vote, votes & a x-ray ... VOTE 2013")));
+        assertTrue(PostSearch.terms((String)null).isEmpty());
+    }
+
+    @Test
+    public void testNoPostings() {
+        assertTrue(PostSearch.intersect(Collections.<PostSearch.Postings>emptyList(), 10, 2).isEmpty());
+    }
+
+    @Test
+    public void testOneListAcrossPages() {
+        // each page after the first starts with the last Post of the page before
+        for ( int pageSize : new int[] {1, 2, 3, 100} ) {
+            ListPostings list = new ListPostings(5, 4, 3, 2, 1);
+            assertEquals("page size " + pageSize, ids(5, 4, 3, 2, 1), PostSearch.intersect(Arrays.asList(list), 10, pageSize));
+        }
+    }
+
+    @Test
+    public void testIntersection() {
+        for ( int pageSize : new int[] {1, 2, 100} ) {
+            ListPostings common = new ListPostings(10, 9, 8, 7, 6, 5, 4, 3, 2, 1);
+            ListPostings rare = new ListPostings(9, 6, 3);
+            assertEquals("page size " + pageSize, ids(9, 6, 3), PostSearch.intersect(Arrays.asList(common, rare), 10, pageSize));
+        }
+    }
+
+    @Test
+    public void testLimit() {
+        for ( int pageSize : new int[] {1, 2} ) {
+            ListPostings common = new ListPostings(10, 9, 8, 7, 6, 5, 4, 3, 2, 1);
+            ListPostings rare = new ListPostings(9, 6, 3);
+            assertEquals("page size " + pageSize, ids(9, 6), PostSearch.intersect(Arrays.asList(common, rare), 2, pageSize));
+        }
+    }
+
+    @Test
+    public void testSeekPastPages() {
+        for ( int pageSize : new int[] {1, 2} ) {
+            ListPostings common = new ListPostings(range(100, 1));
+            ListPostings rare = new ListPostings(90, 40, 3);
+            assertEquals("page size " + pageSize, ids(90, 40, 3), PostSearch.intersect(Arrays.asList(common, rare), 10, pageSize));
+            // skipped to each match instead of paging through the Posts in between
+            assertTrue("page size " + pageSize + " read " + common.pagesRead + " pages", 10 > common.pagesRead);
+        }
+    }
+
+    @Test
+    public void testSeekToAPostNotInTheList() {
+        for ( int pageSize : new int[] {1, 2} ) {
+            ListPostings evens = new ListPostings(20, 18, 16, 14, 12, 10, 8, 6, 4, 2);
+            ListPostings odds = new ListPostings(19, 15, 11, 7, 3);
+            assertTrue("page size " + pageSize, PostSearch.intersect(Arrays.asList(evens, odds), 10, pageSize).isEmpty());
+        }
+    }
+
+    @Test
+    public void testListRunsOut() {
+        for ( int pageSize : new int[] {1, 2} ) {
+            ListPostings shortList = new ListPostings(10, 9, 8);
+            ListPostings longList = new ListPostings(9, 2, 1);
+            assertEquals("page size " + pageSize, ids(9), PostSearch.intersect(Arrays.asList(shortList, longList), 10, pageSize));
+            assertEquals("page size " + pageSize, ids(9), PostSearch.intersect(Arrays.asList(new ListPostings(9, 2, 1), new ListPostings(10, 9, 8)), 10, pageSize));
+            assertTrue(PostSearch.intersect(Arrays.asList(new ListPostings(9, 2, 1), new ListPostings()), 10, pageSize).isEmpty());
+        }
+    }
+
+    @Test
+    public void testLastPageExactlyFull() {
+        // the list ends on a page boundary, so one more (empty) page is read
+        for ( int pageSize : new int[] {1, 2} ) {
+            ListPostings a = new ListPostings(4, 3, 2, 1);
+            ListPostings b = new ListPostings(4, 3, 2, 1);
+            assertEquals("page size " + pageSize, ids(4, 3, 2, 1), PostSearch.intersect(Arrays.asList(a, b), 10, pageSize));
+        }
+    }
+
+    private static UUID id(int n) {
+        return TimeUUIDUtils.getTimeUUID(BASE_MILLIS + n * 1000L);
+    }
+
+    private static List<UUID> ids(int... ns) {
+        List<UUID> ids = new ArrayList<UUID>(ns.length);
+        for ( int n : ns ) {
+            ids.add(id(n));
+        }
+        return ids;
+    }
+
+    private static int[] range(int newest, int oldest) {
+        int[] ns = new int[newest - oldest + 1];
+        for ( int i=0;i < ns.length;i++ ) {
+            ns[i] = newest - i;
+        }
+        return ns;
+    }
+
+    /**
+     * Posting list of Posts at 'n' seconds, newest first, paged the way a slice of a post_terms row is.
+     */
+    private static class ListPostings extends PostSearch.Postings {
+        private final List<UUID> ids;
+        int pagesRead;
+
+        ListPostings(int... ns) {
+            this.ids = ids(ns);
+        }
+
+        @Override
+        List<UUID> page(UUID from, int count) {
+            pagesRead++;
+            int start = 0;
+            // a slice starts at 'from' whether or not it's in the row
+            while ( null != from && start < ids.size() && 0 < ids.get(start).timestamp() - from.timestamp() ) {
+                start++;
+            }
+            return new ArrayList<UUID>(ids.subList(start, Math.min(start + count, ids.size())));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.btoddb.blog;
+
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PostTimeBucketsTest {
+    private static final DateTime JUNE_1 = new DateTime(2013, 6, 1, 0, 0, DateTimeZone.UTC);
+    private static final DateTime JUNE_2 = JUNE_1.plusDays(1);
+    private static final DateTime JUNE_3 = JUNE_1.plusDays(2);
+
+    @Test
+    public void testHourlyRowKeys() {
+        assertEquals("20130601:05", PostTimeBuckets.HOURLY.rowKey(JUNE_1.plusHours(5).plusMinutes(59)));
+        assertEquals(Arrays.asList("20130601:00", "20130601:01", "20130601:02"),
+                     keys(PostTimeBuckets.HOURLY, JUNE_1, JUNE_1.plusHours(2), false));
+        assertEquals(Arrays.asList("20130601:02", "20130601:01", "20130601:00"),
+                     keys(PostTimeBuckets.HOURLY, JUNE_1, JUNE_1.plusHours(2), true));
+    }
+
+    @Test
+    public void testAdjacentPeriodsWithTheSameSizeMerge() {
+        PostTimeBuckets buckets = PostTimeBuckets.HOURLY.with(JUNE_1, JUNE_2, PostTimeBuckets.Granularity.DAY)
+                                                        .with(JUNE_2, JUNE_3, PostTimeBuckets.Granularity.DAY);
+
+        Map<String, Long> expected = new LinkedHashMap<String, Long>();
+        expected.put("20130601:0000", 1440L);
+        expected.put("20130603:0000", 60L);
+        assertEquals(expected, buckets.toColumns());
+    }
+
+    @Test
+    public void testChangingBackToTheSurroundingSizeRemovesThePeriod() {
+        PostTimeBuckets buckets = PostTimeBuckets.HOURLY.with(JUNE_1, JUNE_2, PostTimeBuckets.Granularity.DAY)
+                                                        .with(JUNE_1, JUNE_2, PostTimeBuckets.Granularity.HOUR);
+        assertTrue(buckets.toColumns().isEmpty());
+    }
+
+    @Test
+    public void testColumnsRoundTrip() {
+        PostTimeBuckets buckets = PostTimeBuckets.HOURLY.with(JUNE_1, JUNE_2, PostTimeBuckets.Granularity.DAY)
+                                                        .with(JUNE_2.plusHours(10), JUNE_2.plusHours(12), PostTimeBuckets.Granularity.MINUTE);
+        PostTimeBuckets copy = PostTimeBuckets.fromColumns(buckets.toColumns());
+        assertEquals(buckets.toColumns(), copy.toColumns());
+        assertEquals(buckets.describe(), copy.describe());
+    }
+
+    @Test
+    public void testRangeEndingWhereTheNextPeriodStarts() {
+        PostTimeBuckets buckets = PostTimeBuckets.HOURLY.with(JUNE_1, JUNE_2, PostTimeBuckets.Granularity.DAY);
+
+        assertEquals(Arrays.asList("20130601"), keys(buckets, JUNE_1, JUNE_2.minusMillis(1), false));
+        assertEquals(Arrays.asList("20130601", "20130602:00"), keys(buckets, JUNE_1, JUNE_2, false));
+        assertEquals(Arrays.asList("20130602:00", "20130601"), keys(buckets, JUNE_1, JUNE_2, true));
+        assertEquals(Arrays.asList("20130531:23", "20130601"), keys(buckets, JUNE_1.minusHours(1), JUNE_1, false));
+    }
+
+    @Test
+    public void testRowKeysAcrossPeriodChanges() {
+        PostTimeBuckets buckets = PostTimeBuckets.HOURLY.with(JUNE_1, JUNE_2, PostTimeBuckets.Granularity.DAY);
+        DateTime start = JUNE_1.minusHours(2);
+        DateTime end = JUNE_2.plusHours(1).plusMinutes(30);
+
+        assertEquals(Arrays.asList("20130602:01", "20130602:00", "20130601", "20130531:23", "20130531:22"),
+                     keys(buckets, start, end, true));
+        assertEquals(Arrays.asList("20130531:22", "20130531:23", "20130601", "20130602:00", "20130602:01"),
+                     keys(buckets, start, end, false));
+    }
+
+    @Test
+    public void testMinutePeriodInsideHours() {
+        PostTimeBuckets buckets = PostTimeBuckets.HOURLY.with(JUNE_1.plusHours(10), JUNE_1.plusHours(11), PostTimeBuckets.Granularity.MINUTE);
+
+        List<String> keys = keys(buckets, JUNE_1.plusHours(9), JUNE_1.plusHours(11), true);
+        assertEquals(62, keys.size());
+        assertEquals("20130601:11", keys.get(0));
+        assertEquals("20130601:1059", keys.get(1));
+        assertEquals("20130601:1000", keys.get(60));
+        assertEquals("20130601:09", keys.get(61));
+    }
+
+    @Test
+    public void testPeriodMustStartAndEndOnBucketBoundaries() {
+        assertRejected(PostTimeBuckets.HOURLY, JUNE_1.plusMinutes(30), JUNE_2, PostTimeBuckets.Granularity.MINUTE);
+        // on an hour boundary, but not a day one
+        assertRejected(PostTimeBuckets.HOURLY, JUNE_1.plusHours(1), JUNE_2, PostTimeBuckets.Granularity.DAY);
+        assertRejected(PostTimeBuckets.HOURLY, JUNE_1, JUNE_2.plusHours(1), PostTimeBuckets.Granularity.DAY);
+        // inside an existing day bucket
+        PostTimeBuckets days = PostTimeBuckets.HOURLY.with(JUNE_1, JUNE_3, PostTimeBuckets.Granularity.DAY);
+        assertRejected(days, JUNE_1.plusHours(3), JUNE_2, PostTimeBuckets.Granularity.HOUR);
+        assertRejected(PostTimeBuckets.HOURLY, JUNE_2, JUNE_1, PostTimeBuckets.Granularity.DAY);
+        assertRejected(PostTimeBuckets.HOURLY, JUNE_1, JUNE_1, PostTimeBuckets.Granularity.DAY);
+    }
+
+    @Test
+    public void testHasRowKey() {
+        PostTimeBuckets buckets = PostTimeBuckets.HOURLY.with(JUNE_1, JUNE_2, PostTimeBuckets.Granularity.DAY);
+
+        assertTrue(buckets.hasRowKey("20130601"));
+        assertFalse(buckets.hasRowKey("20130601:05"));
+        assertTrue(buckets.hasRowKey("20130602:05"));
+        assertFalse(buckets.hasRowKey("20130602"));
+        assertFalse(buckets.hasRowKey("20130602:0500"));
+        assertFalse(buckets.hasRowKey("junk"));
+    }
+
+    @Test
+    public void testFit() {
+        long day = PostTimeBuckets.Granularity.DAY.getMillis();
+        assertEquals(PostTimeBuckets.Granularity.DAY, PostTimeBuckets.fit(PostTimeBuckets.TARGET_POSTS_PER_BUCKET, day));
+        assertEquals(PostTimeBuckets.Granularity.HOUR, PostTimeBuckets.fit(PostTimeBuckets.TARGET_POSTS_PER_BUCKET + 1, day));
+        assertEquals(PostTimeBuckets.Granularity.HOUR, PostTimeBuckets.fit(24 * PostTimeBuckets.TARGET_POSTS_PER_BUCKET, day));
+        assertEquals(PostTimeBuckets.Granularity.MINUTE, PostTimeBuckets.fit(24 * PostTimeBuckets.TARGET_POSTS_PER_BUCKET + 24, day));
+    }
+
+    private static List<String> keys(PostTimeBuckets buckets, DateTime start, DateTime end, boolean newestFirst) {
+        return Lists.newArrayList(buckets.rowKeys(start, end, newestFirst));
+    }
+
+    private static void assertRejected(PostTimeBuckets buckets, DateTime start, DateTime end, PostTimeBuckets.Granularity granularity) {
+        try {
+            buckets.with(start, end, granularity);
+            fail("expected " + start + " - " + end + " as " + granularity + " to be rejected");
+        }
+        catch ( IllegalArgumentException e ) {
+            // expected
+        }
+    }
+}